@@ -44,6 +44,7 @@ import android.telephony.PhoneNumberUtils;
 import android.text.TextUtils;
 import android.util.ArrayMap;
 import android.util.ArraySet;
+import android.util.LruCache;
 import android.util.SparseArray;
 import android.view.ActionMode;
 import android.view.LayoutInflater;
@@ -126,6 +127,9 @@ public class CallLogAdapter extends GroupingListAdapter
 
   @VisibleForTesting static final String FILTER_EMERGENCY_CALLS_FLAG = "filter_emergency_calls";
 
+  /** Enough for several screens of rows, so that scrolling back binds rows without loading them. */
+  private static final int RENDER_MODEL_CACHE_SIZE = 100;
+
   protected final Activity activity;
   protected final VoicemailPlaybackPresenter voicemailPlaybackPresenter;
   /** Cache for repeated requests to Telecom/Telephony. */
@@ -510,6 +514,20 @@ public class CallLogAdapter extends GroupingListAdapter
    */
   private final Map<Long, Integer> dayGroups = new ArrayMap<>();
 
+  /**
+   * Cache of the render models of rows, keyed by {@link CallLogQuery#ID} of the first call in the
+   * row, so that rebinding a row whose data hasn't changed doesn't load and format it again.
+   */
+  private final LruCache<Long, CallLogRowRenderModel> renderModels =
+      new LruCache<>(RENDER_MODEL_CACHE_SIZE);
+
+  /**
+   * Version of the data rows are rendered from. Incremented whenever the whole data set changes,
+   * e.g. because the cursor changed, contact info was looked up or a number was blocked, so that
+   * render models created from older data aren't used.
+   */
+  private long renderModelVersion;
+
   private boolean loading = true;
 
   private boolean isSpamEnabled;
@@ -566,6 +584,14 @@ public class CallLogAdapter extends GroupingListAdapter
 
     callLogAlertManager =
         new CallLogAlertManager(this, LayoutInflater.from(this.activity), alertContainer);
+
+    registerAdapterDataObserver(
+        new RecyclerView.AdapterDataObserver() {
+          @Override
+          public void onChanged() {
+            renderModelVersion++;
+          }
+        });
   }
 
   private void expandViewHolderActions(CallLogListItemViewHolder viewHolder) {
@@ -706,6 +732,7 @@ public class CallLogAdapter extends GroupingListAdapter
   /* package */ void pauseCache() {
     contactInfoCache.stop();
     callLogCache.reset();
+    renderModels.evictAll();
   }
 
   @Override
@@ -877,44 +904,53 @@ public class CallLogAdapter extends GroupingListAdapter
     // attempt to set the field properly in that case
     viewHolder.isCallComposerCapable = isCallComposerCapable(viewHolder.number);
     viewHolder.setDetailedPhoneDetails(callDetailsEntries);
-    final AsyncTask<Void, Void, Boolean> loadDataTask =
-        new AsyncTask<Void, Void, Boolean>() {
+
+    CallLogRowRenderModel cachedRenderModel = renderModels.get(rowId);
+    if (cachedRenderModel != null && cachedRenderModel.version == renderModelVersion) {
+      // A load still pending from an earlier bind would only replace the cached content.
+      if (viewHolder.asyncTask != null) {
+        viewHolder.asyncTask.cancel(true);
+      }
+      // The previous day group depends on which rows are hidden, so it is never taken from the
+      // cache.
+      bindRenderModel(viewHolder, cachedRenderModel, rowId, details.previousGroup);
+      return;
+    }
+
+    final long version = renderModelVersion;
+    final AsyncTask<Void, Void, CallLogRowRenderModel> loadDataTask =
+        new AsyncTask<Void, Void, CallLogRowRenderModel>() {
           @Override
-          protected Boolean doInBackground(Void... params) {
-            viewHolder.blockId =
+          protected CallLogRowRenderModel doInBackground(Void... params) {
+            Integer blockId =
                 filteredNumberAsyncQueryHandler.getBlockedIdSynchronous(
                     viewHolder.number, viewHolder.countryIso);
-            details.isBlocked = viewHolder.blockId != null;
+            details.isBlocked = blockId != null;
             if (isCancelled()) {
-              return false;
+              return null;
             }
             if (isSpamEnabled) {
-              viewHolder.isSpamFeatureEnabled = true;
               // Only display the call as a spam call if there are incoming calls in the list.
               // Call log cards with only outgoing calls should never be displayed as spam.
-              viewHolder.isSpam =
+              details.isSpam =
                   details.hasIncomingCalls()
                       && SpamComponent.get(activity)
                           .spam()
                           .checkSpamStatusSynchronous(viewHolder.number, viewHolder.countryIso);
-              details.isSpam = viewHolder.isSpam;
             }
-            return !isCancelled() && loadData(viewHolder, rowId, details);
+            return isCancelled()
+                ? null
+                : loadData(viewHolder, rowId, details, version, blockId, isSpamEnabled);
           }
 
           @Override
-          protected void onPostExecute(Boolean success) {
+          protected void onPostExecute(CallLogRowRenderModel renderModel) {
             viewHolder.isLoaded = true;
-            if (success) {
-              viewHolder.callbackAction = getCallbackAction(viewHolder.rowId);
-              int currentDayGroup = getDayGroup(viewHolder.rowId);
-              if (currentDayGroup != details.previousGroup) {
-                viewHolder.dayGroupHeaderVisibility = View.VISIBLE;
-                viewHolder.dayGroupHeaderText = getGroupDescription(currentDayGroup);
-              } else {
-                viewHolder.dayGroupHeaderVisibility = View.GONE;
+            if (renderModel != null) {
+              if (renderModel.version == renderModelVersion) {
+                renderModels.put(rowId, renderModel);
               }
-              render(viewHolder, details, rowId);
+              bindRenderModel(viewHolder, renderModel, rowId, details.previousGroup);
             }
           }
         };
@@ -923,6 +959,44 @@ public class CallLogAdapter extends GroupingListAdapter
     asyncTaskExecutor.submit(LOAD_DATA_TASK_IDENTIFIER, loadDataTask);
   }
 
+  /**
+   * Binds the view holder to a loaded render model, without any expensive operation.
+   *
+   * @param previousGroup the day group of the previous visible row, as of this bind.
+   */
+  @MainThread
+  private void bindRenderModel(
+      CallLogListItemViewHolder viewHolder,
+      CallLogRowRenderModel renderModel,
+      long rowId,
+      int previousGroup) {
+    viewHolder.isLoaded = true;
+    if (rowId != viewHolder.rowId) {
+      LogUtil.i(
+          "CallLogAdapter.bindRenderModel",
+          "rowId of viewHolder changed after load task is issued, aborting bind");
+      return;
+    }
+    PhoneCallDetails details = renderModel.details;
+    viewHolder.blockId = renderModel.blockId;
+    viewHolder.isSpamFeatureEnabled = renderModel.isSpamFeatureEnabled;
+    viewHolder.isSpam = details.isSpam;
+    viewHolder.displayNumber = details.displayNumber;
+    viewHolder.accountHandle = details.accountHandle;
+    viewHolder.info = renderModel.info;
+    viewHolder.numberType = renderModel.numberType;
+
+    viewHolder.callbackAction = getCallbackAction(viewHolder.rowId);
+    int currentDayGroup = getDayGroup(viewHolder.rowId);
+    if (currentDayGroup != previousGroup) {
+      viewHolder.dayGroupHeaderVisibility = View.VISIBLE;
+      viewHolder.dayGroupHeaderText = getGroupDescription(currentDayGroup);
+    } else {
+      viewHolder.dayGroupHeaderVisibility = View.GONE;
+    }
+    render(viewHolder, renderModel, rowId);
+  }
+
   @MainThread
   private boolean isCallComposerCapable(@Nullable String number) {
     if (number == null) {
@@ -1029,15 +1103,24 @@ public class CallLogAdapter extends GroupingListAdapter
   /**
    * Load data for call log. Any expensive operation should be put here to avoid blocking main
    * thread. Do NOT put any cursor operation here since it's not thread safe.
+   *
+   * @return the render model of the row, or null if the view holder was bound to another row
    */
   @WorkerThread
-  private boolean loadData(CallLogListItemViewHolder views, long rowId, PhoneCallDetails details) {
+  @Nullable
+  private CallLogRowRenderModel loadData(
+      CallLogListItemViewHolder views,
+      long rowId,
+      PhoneCallDetails details,
+      long version,
+      @Nullable Integer blockId,
+      boolean isSpamFeatureEnabled) {
     Assert.isWorkerThread();
     if (rowId != views.rowId) {
       LogUtil.i(
           "CallLogAdapter.loadData",
           "rowId of viewHolder changed after load task is issued, aborting load");
-      return false;
+      return null;
     }
 
     final PhoneAccountHandle accountHandle =
@@ -1070,9 +1153,6 @@ public class CallLogAdapter extends GroupingListAdapter
             ? null
             : PhoneNumberUtils.createTtsSpannable(info.formattedNumber);
     details.updateDisplayNumber(activity, formattedNumber, isVoicemailNumber);
-
-    views.displayNumber = details.displayNumber;
-    views.accountHandle = accountHandle;
     details.accountHandle = accountHandle;
 
     if (!TextUtils.isEmpty(info.name) || !TextUtils.isEmpty(info.nameAlternative)) {
@@ -1100,11 +1180,13 @@ public class CallLogAdapter extends GroupingListAdapter
       details.geocode = info.geoDescription;
     }
 
-    views.info = info;
-    views.numberType = getNumberType(activity.getResources(), details);
-
-    callLogListItemHelper.updatePhoneCallDetails(details);
-    return true;
+    return callLogListItemHelper.createRenderModel(
+        version,
+        details,
+        blockId,
+        isSpamFeatureEnabled,
+        info,
+        getNumberType(activity.getResources(), details));
   }
 
   private static String getNumberType(Resources res, PhoneCallDetails details) {
@@ -1125,7 +1207,8 @@ public class CallLogAdapter extends GroupingListAdapter
    * operation into it.
    */
   @MainThread
-  private void render(CallLogListItemViewHolder views, PhoneCallDetails details, long rowId) {
+  private void render(
+      CallLogListItemViewHolder views, CallLogRowRenderModel renderModel, long rowId) {
     Assert.isMainThread();
     if (rowId != views.rowId) {
       LogUtil.i(
@@ -1137,7 +1220,9 @@ public class CallLogAdapter extends GroupingListAdapter
     // Default case: an item in the call log.
     views.primaryActionView.setVisibility(View.VISIBLE);
     views.workIconView.setVisibility(
-        details.contactUserType == ContactsUtils.USER_TYPE_WORK ? View.VISIBLE : View.GONE);
+        renderModel.details.contactUserType == ContactsUtils.USER_TYPE_WORK
+            ? View.VISIBLE
+            : View.GONE);
 
     if (selectAllMode && views.voicemailUri != null) {
       selectedItems.put(getVoicemailId(views.voicemailUri), views.voicemailUri);
@@ -1153,7 +1238,7 @@ public class CallLogAdapter extends GroupingListAdapter
       views.checkBoxView.setVisibility(View.GONE);
       views.quickContactView.setVisibility(View.VISIBLE);
     }
-    callLogListItemHelper.setPhoneCallDetails(views, details);
+    callLogListItemHelper.setPhoneCallDetails(views, renderModel);
     if (currentlyExpandedRowId == views.rowId) {
       // In case ViewHolders were added/removed, update the expanded position if the rowIds
       // match so that we can restore the correct expanded state on rebind.
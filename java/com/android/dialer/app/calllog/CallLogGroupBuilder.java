@@ -23,6 +23,7 @@ import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
 import android.telephony.PhoneNumberUtils;
 import android.text.TextUtils;
+import android.util.LongSparseArray;
 import com.android.contacts.common.util.DateUtils;
 import com.android.dialer.calllogutils.CallbackActionHelper;
 import com.android.dialer.calllogutils.CallbackActionHelper.CallbackAction;
@@ -30,7 +31,8 @@ import com.android.dialer.compat.telephony.TelephonyManagerCompat;
 import com.android.dialer.inject.ApplicationContext;
 import com.android.dialer.phonenumbercache.CallLogQuery;
 import com.android.dialer.phonenumberutil.PhoneNumberHelper;
-
+import java.time.Instant;
+import java.time.LocalDate;
 import java.time.ZoneId;
 import java.util.Objects;
 
@@ -41,6 +43,11 @@ import java.util.Objects;
  * the calls which occurred "Today", "Yesterday", "Last week", or "Other".
  *
  * <p>This class is meant to be used in conjunction with {@link GroupingListAdapter}.
+ *
+ * <p>The values used to group a row, including its number in the forms compared and its callback
+ * action, are computed once and kept between groupings for as long as the row is in the cursor.
+ * When rows are added at the top of the call log, regrouping only does that work for the new rows;
+ * the others are grouped by cheap comparisons of the kept values.
  */
 public class CallLogGroupBuilder {
 
@@ -63,6 +70,9 @@ public class CallLogGroupBuilder {
   /** The object on which the groups are created. */
   private final GroupCreator groupCreator;
 
+  /** The rows of the last cursor grouped, by row ID. */
+  private LongSparseArray<RowInfo> rowInfos = new LongSparseArray<>();
+
   public CallLogGroupBuilder(@ApplicationContext Context appContext, GroupCreator groupCreator) {
     this.appContext = appContext;
     this.groupCreator = groupCreator;
@@ -88,80 +98,46 @@ public class CallLogGroupBuilder {
     groupCreator.clearDayGroups();
 
     // Get current system time, used for calculating which day group calls belong to.
-    long currentTime = System.currentTimeMillis();
+    DayBoundaries dayBoundaries = new DayBoundaries(System.currentTimeMillis());
+    LongSparseArray<RowInfo> previousRowInfos = rowInfos;
+    rowInfos = new LongSparseArray<>(count);
     cursor.moveToFirst();
 
-    // Determine the day group for the first call in the cursor.
-    final long firstDate = cursor.getLong(CallLogQuery.DATE);
-    final long firstRowId = cursor.getLong(CallLogQuery.ID);
-    int groupDayGroup = getDayGroup(firstDate, currentTime);
-    groupCreator.setDayGroup(firstRowId, groupDayGroup);
-
-    // Determine the callback action for the first call in the cursor.
-    String groupNumber = cursor.getString(CallLogQuery.NUMBER);
-    String groupAccountComponentName = cursor.getString(CallLogQuery.ACCOUNT_COMPONENT_NAME);
-    int groupFeatures = cursor.getInt(CallLogQuery.FEATURES);
-    int groupCallbackAction =
-        CallbackActionHelper.getCallbackAction(
-            appContext, groupNumber, groupFeatures, groupAccountComponentName);
-    groupCreator.setCallbackAction(firstRowId, groupCallbackAction);
-
-    // Instantiate other group values to those of the first call in the cursor.
-    String groupAccountId = cursor.getString(CallLogQuery.ACCOUNT_ID);
-    String groupPostDialDigits = cursor.getString(CallLogQuery.POST_DIAL_DIGITS);
-    String groupViaNumbers = cursor.getString(CallLogQuery.VIA_NUMBER);
-    int groupCallType = cursor.getInt(CallLogQuery.CALL_TYPE);
+    // Determine the day group and the callback action for the first call in the cursor.
+    RowInfo groupRow = getRowInfo(cursor, previousRowInfos);
+    int groupDayGroup = dayBoundaries.getDayGroup(cursor.getLong(CallLogQuery.DATE));
+    groupCreator.setDayGroup(groupRow.id, groupDayGroup);
+    groupCreator.setCallbackAction(groupRow.id, groupRow.callbackAction);
     int groupSize = 1;
 
-    String number;
-    String numberPostDialDigits;
-    String numberViaNumbers;
-    int callType;
-    int callFeatures;
-    String accountComponentName;
-    String accountId;
-    int callbackAction;
-
     while (cursor.moveToNext()) {
       // Obtain the values for the current call to group.
-      number = cursor.getString(CallLogQuery.NUMBER);
-      numberPostDialDigits = cursor.getString(CallLogQuery.POST_DIAL_DIGITS);
-      numberViaNumbers = cursor.getString(CallLogQuery.VIA_NUMBER);
-      callType = cursor.getInt(CallLogQuery.CALL_TYPE);
-      callFeatures = cursor.getInt(CallLogQuery.FEATURES);
-      accountComponentName = cursor.getString(CallLogQuery.ACCOUNT_COMPONENT_NAME);
-      accountId = cursor.getString(CallLogQuery.ACCOUNT_ID);
-      callbackAction =
-          CallbackActionHelper.getCallbackAction(
-              appContext, number, callFeatures, accountComponentName);
-
-      final boolean isSameNumber = equalNumbers(groupNumber, number);
-      final boolean isSamePostDialDigits = groupPostDialDigits.equals(numberPostDialDigits);
-      final boolean isSameViaNumbers = groupViaNumbers.equals(numberViaNumbers);
-      final boolean isSameAccount =
-          isSameAccount(groupAccountComponentName, accountComponentName, groupAccountId, accountId);
-      final boolean isSameCallbackAction = (groupCallbackAction == callbackAction);
+      RowInfo row = getRowInfo(cursor, previousRowInfos);
 
       // Group calls with the following criteria:
       // (1) Calls with the same number, account, and callback action should be in the same group;
       // (2) Never group voice mails; and
       // (3) Only group blocked calls with other blocked calls.
       // (4) Only group calls that were assisted dialed with other calls that were assisted dialed.
-      if (isSameNumber
-          && isSameAccount
-          && isSamePostDialDigits
-          && isSameViaNumbers
-          && isSameCallbackAction
-          && areBothNotVoicemail(callType, groupCallType)
-          && (areBothNotBlocked(callType, groupCallType) || areBothBlocked(callType, groupCallType))
-          && meetsAssistedDialingGroupingCriteria(groupFeatures, callFeatures)) {
+      if (row.callbackAction == groupRow.callbackAction
+          && TextUtils.equals(groupRow.postDialDigits, row.postDialDigits)
+          && TextUtils.equals(groupRow.viaNumber, row.viaNumber)
+          && isSameAccount(
+              groupRow.accountComponentName,
+              row.accountComponentName,
+              groupRow.accountId,
+              row.accountId)
+          && areBothNotVoicemail(row.callType, groupRow.callType)
+          && (areBothNotBlocked(row.callType, groupRow.callType)
+              || areBothBlocked(row.callType, groupRow.callType))
+          && meetsAssistedDialingGroupingCriteria(groupRow.features, row.features)
+          && row.hasSameNumberAs(groupRow)) {
         // Increment the size of the group to include the current call, but do not create
         // the group until finding a call that does not match.
         groupSize++;
       } else {
         // The call group has changed. Determine the day group for the new call group.
-        final long date = cursor.getLong(CallLogQuery.DATE);
-        groupDayGroup = getDayGroup(date, currentTime);
+        groupDayGroup = dayBoundaries.getDayGroup(cursor.getLong(CallLogQuery.DATE));
 
         // Create a group for the previous group of calls, which does not include the
         // current call.
@@ -169,121 +145,258 @@ public class CallLogGroupBuilder {
 
         // Start a new group; it will include at least the current call.
         groupSize = 1;
-
-        // Update the group values to those of the current call.
-        groupNumber = number;
-        groupPostDialDigits = numberPostDialDigits;
-        groupViaNumbers = numberViaNumbers;
-        groupCallType = callType;
-        groupAccountComponentName = accountComponentName;
-        groupAccountId = accountId;
-        groupCallbackAction = callbackAction;
-        groupFeatures = callFeatures;
+        groupRow = row;
       }
 
       // Save the callback action and the day group associated with the current call.
-      final long currentCallId = cursor.getLong(CallLogQuery.ID);
-      groupCreator.setCallbackAction(currentCallId, groupCallbackAction);
-      groupCreator.setDayGroup(currentCallId, groupDayGroup);
+      groupCreator.setCallbackAction(row.id, groupRow.callbackAction);
+      groupCreator.setDayGroup(row.id, groupDayGroup);
     }
 
     // Create a group for the last set of calls.
     groupCreator.addGroup(count - groupSize, groupSize);
   }
 
+  /**
+   * Returns the {@link RowInfo} of the row at the cursor's position, reusing the one computed by
+   * the previous call to {@link #addGroups(Cursor)} if the row hasn't changed since.
+   */
+  private RowInfo getRowInfo(Cursor cursor, LongSparseArray<RowInfo> previousRowInfos) {
+    long id = cursor.getLong(CallLogQuery.ID);
+    String number = cursor.getString(CallLogQuery.NUMBER);
+    String postDialDigits = cursor.getString(CallLogQuery.POST_DIAL_DIGITS);
+    String viaNumber = cursor.getString(CallLogQuery.VIA_NUMBER);
+    int callType = cursor.getInt(CallLogQuery.CALL_TYPE);
+    int features = cursor.getInt(CallLogQuery.FEATURES);
+    String accountComponentName = cursor.getString(CallLogQuery.ACCOUNT_COMPONENT_NAME);
+    String accountId = cursor.getString(CallLogQuery.ACCOUNT_ID);
+
+    RowInfo rowInfo = previousRowInfos.get(id);
+    if (rowInfo == null
+        || !TextUtils.equals(rowInfo.numberKey.number, number)
+        || !TextUtils.equals(rowInfo.postDialDigits, postDialDigits)
+        || !TextUtils.equals(rowInfo.viaNumber, viaNumber)
+        || rowInfo.callType != callType
+        || rowInfo.features != features
+        || !TextUtils.equals(rowInfo.accountComponentName, accountComponentName)
+        || !TextUtils.equals(rowInfo.accountId, accountId)) {
+      rowInfo =
+          new RowInfo(
+              id,
+              new NumberKey(number),
+              postDialDigits,
+              viaNumber,
+              callType,
+              features,
+              accountComponentName,
+              accountId,
+              CallbackActionHelper.getCallbackAction(
+                  appContext, number, features, accountComponentName));
+    }
+    rowInfos.put(id, rowInfo);
+    return rowInfo;
+  }
+
   /**
    * Returns true when the two input numbers can be considered identical enough for caller ID
    * purposes and put in a call log group.
    */
   @VisibleForTesting
   boolean equalNumbers(@Nullable String number1, @Nullable String number2) {
-    if (PhoneNumberHelper.isUriNumber(number1) || PhoneNumberHelper.isUriNumber(number2)) {
-      return compareSipAddresses(number1, number2);
-    }
-
-    // PhoneNumberUtils.compare(String, String) ignores special characters such as '#'. For example,
-    // it thinks "123" and "#123" are identical enough for caller ID purposes.
-    // When either input number contains special characters, we put the two in the same group iff
-    // their raw numbers are exactly the same.
-    if (PhoneNumberHelper.numberHasSpecialChars(number1)
-        || PhoneNumberHelper.numberHasSpecialChars(number2)) {
-      return PhoneNumberHelper.sameRawNumbers(number1, number2);
-    }
-
-    return PhoneNumberUtils.compare(number1, number2);
+    return new NumberKey(number1).equalNumbers(new NumberKey(number2));
   }
 
-  private boolean isSameAccount(String name1, String name2, String id1, String id2) {
+  private static boolean isSameAccount(String name1, String name2, String id1, String id2) {
     return TextUtils.equals(name1, name2) && TextUtils.equals(id1, id2);
   }
 
   @VisibleForTesting
   boolean compareSipAddresses(@Nullable String number1, @Nullable String number2) {
-    if (number1 == null || number2 == null) {
-      return Objects.equals(number1, number2);
-    }
+    return Objects.equals(NumberKey.getSipKey(number1), NumberKey.getSipKey(number2));
+  }
 
-    int index1 = number1.indexOf('@');
-    final String userinfo1;
-    final String rest1;
-    if (index1 != -1) {
-      userinfo1 = number1.substring(0, index1);
-      rest1 = number1.substring(index1);
-    } else {
-      userinfo1 = number1;
-      rest1 = "";
-    }
+  private static boolean areBothNotVoicemail(int callType, int groupCallType) {
+    return callType != Calls.VOICEMAIL_TYPE && groupCallType != Calls.VOICEMAIL_TYPE;
+  }
 
-    int index2 = number2.indexOf('@');
-    final String userinfo2;
-    final String rest2;
-    if (index2 != -1) {
-      userinfo2 = number2.substring(0, index2);
-      rest2 = number2.substring(index2);
-    } else {
-      userinfo2 = number2;
-      rest2 = "";
-    }
+  private static boolean areBothNotBlocked(int callType, int groupCallType) {
+    return callType != Calls.BLOCKED_TYPE && groupCallType != Calls.BLOCKED_TYPE;
+  }
+
+  private static boolean areBothBlocked(int callType, int groupCallType) {
+    return callType == Calls.BLOCKED_TYPE && groupCallType == Calls.BLOCKED_TYPE;
+  }
+
+  private static boolean meetsAssistedDialingGroupingCriteria(int groupFeatures, int callFeatures) {
+    int groupAssisted = (groupFeatures & TelephonyManagerCompat.FEATURES_ASSISTED_DIALING);
+    int callAssisted = (callFeatures & TelephonyManagerCompat.FEATURES_ASSISTED_DIALING);
 
-    return userinfo1.equals(userinfo2) && rest1.equalsIgnoreCase(rest2);
+    return groupAssisted == callAssisted;
   }
 
   /**
-   * Given a call date and the current date, determine which date group the call belongs in.
-   *
-   * @param date The call date.
-   * @param now The current date.
-   * @return The date group the call belongs in.
+   * Start times of the days around the current time, computed once per grouping so that the day
+   * group of a call doesn't need any time zone conversions.
    */
-  private int getDayGroup(long date, long now) {
-    int days = DateUtils.getDayDifference(TIME_ZONE, date, now);
-
-    if (days == 0) {
-      return DAY_GROUP_TODAY;
-    } else if (days == 1) {
-      return DAY_GROUP_YESTERDAY;
-    } else {
+  private static final class DayBoundaries {
+    private final long startOfYesterday;
+    private final long startOfToday;
+    private final long startOfTomorrow;
+    private final long startOfDayAfterTomorrow;
+
+    DayBoundaries(long now) {
+      LocalDate today = Instant.ofEpochMilli(now).atZone(TIME_ZONE).toLocalDate();
+      startOfYesterday = getStartOfDay(today.minusDays(1));
+      startOfToday = getStartOfDay(today);
+      startOfTomorrow = getStartOfDay(today.plusDays(1));
+      startOfDayAfterTomorrow = getStartOfDay(today.plusDays(2));
+    }
+
+    /**
+     * Returns the day group of a call, as {@link DateUtils#getDayDifference} would for the call
+     * date and the current time.
+     */
+    int getDayGroup(long date) {
+      if (date >= startOfToday && date < startOfTomorrow) {
+        return DAY_GROUP_TODAY;
+      }
+      // The day difference is absolute, so calls dated tomorrow are also one day away.
+      if ((date >= startOfYesterday && date < startOfToday)
+          || (date >= startOfTomorrow && date < startOfDayAfterTomorrow)) {
+        return DAY_GROUP_YESTERDAY;
+      }
       return DAY_GROUP_OTHER;
     }
-  }
 
-  private boolean areBothNotVoicemail(int callType, int groupCallType) {
-    return callType != Calls.VOICEMAIL_TYPE && groupCallType != Calls.VOICEMAIL_TYPE;
+    private static long getStartOfDay(LocalDate date) {
+      return date.atStartOfDay(TIME_ZONE).toInstant().toEpochMilli();
+    }
   }
 
-  private boolean areBothNotBlocked(int callType, int groupCallType) {
-    return callType != Calls.BLOCKED_TYPE && groupCallType != Calls.BLOCKED_TYPE;
-  }
+  /**
+   * The values of a call log row used for grouping, along with those derived from them, which are
+   * kept between groupings as long as the row doesn't change.
+   */
+  private static final class RowInfo {
+    final long id;
+    final NumberKey numberKey;
+    @Nullable final String postDialDigits;
+    @Nullable final String viaNumber;
+    final int callType;
+    final int features;
+    @Nullable final String accountComponentName;
+    @Nullable final String accountId;
+    @CallbackAction final int callbackAction;
+
+    /** The number this row's number was last compared with, and the result. */
+    @Nullable private NumberKey lastComparedNumberKey;
+
+    private boolean lastComparedRowHasSameNumber;
+
+    RowInfo(
+        long id,
+        NumberKey numberKey,
+        @Nullable String postDialDigits,
+        @Nullable String viaNumber,
+        int callType,
+        int features,
+        @Nullable String accountComponentName,
+        @Nullable String accountId,
+        @CallbackAction int callbackAction) {
+      this.id = id;
+      this.numberKey = numberKey;
+      this.postDialDigits = postDialDigits;
+      this.viaNumber = viaNumber;
+      this.callType = callType;
+      this.features = features;
+      this.accountComponentName = accountComponentName;
+      this.accountId = accountId;
+      this.callbackAction = callbackAction;
+    }
 
-  private boolean areBothBlocked(int callType, int groupCallType) {
-    return callType == Calls.BLOCKED_TYPE && groupCallType == Calls.BLOCKED_TYPE;
+    /**
+     * Whether this row's number is the same as the other row's for grouping purposes. Rows are
+     * compared with the first row of their group, which is usually the same between groupings, so
+     * the last result is kept.
+     */
+    boolean hasSameNumberAs(RowInfo other) {
+      if (lastComparedNumberKey != other.numberKey) {
+        lastComparedNumberKey = other.numberKey;
+        lastComparedRowHasSameNumber = numberKey.equalNumbers(other.numberKey);
+      }
+      return lastComparedRowHasSameNumber;
+    }
   }
 
-  private boolean meetsAssistedDialingGroupingCriteria(int groupFeatures, int callFeatures) {
-    int groupAssisted = (groupFeatures & TelephonyManagerCompat.FEATURES_ASSISTED_DIALING);
-    int callAssisted = (callFeatures & TelephonyManagerCompat.FEATURES_ASSISTED_DIALING);
+  /** The forms of a number compared by {@link #equalNumbers(NumberKey)}, computed once. */
+  private static final class NumberKey {
+    @Nullable final String number;
+    private final boolean isUriNumber;
+    private final boolean hasSpecialChars;
 
-    return groupAssisted == callAssisted;
+    /** See {@link #getSipKey(String)}. */
+    @Nullable private final String sipKey;
+
+    /** The number without separators and with letters converted to digits, computed on demand. */
+    @Nullable private String rawNumber;
+
+    NumberKey(@Nullable String number) {
+      this.number = number;
+      isUriNumber = PhoneNumberHelper.isUriNumber(number);
+      hasSpecialChars = PhoneNumberHelper.numberHasSpecialChars(number);
+      sipKey = getSipKey(number);
+    }
+
+    boolean equalNumbers(NumberKey other) {
+      if (isUriNumber || other.isUriNumber) {
+        return Objects.equals(sipKey, other.sipKey);
+      }
+
+      // PhoneNumberUtils.compare(String, String) ignores special characters such as '#'. For
+      // example, it thinks "123" and "#123" are identical enough for caller ID purposes.
+      // When either input number contains special characters, we put the two in the same group iff
+      // their raw numbers are exactly the same.
+      if (hasSpecialChars || other.hasSpecialChars) {
+        return Objects.equals(getRawNumber(), other.getRawNumber());
+      }
+
+      // Identical numbers always compare equal, and are by far the most common case in a group.
+      if (TextUtils.equals(number, other.number)) {
+        return true;
+      }
+      return PhoneNumberUtils.compare(number, other.number);
+    }
+
+    @Nullable
+    private String getRawNumber() {
+      if (rawNumber == null && number != null) {
+        rawNumber =
+            PhoneNumberUtils.stripSeparators(PhoneNumberUtils.convertKeypadLettersToDigits(number));
+      }
+      return rawNumber;
+    }
+
+    /**
+     * Returns a key which is equal for two SIP addresses iff their user info is equal and the rest
+     * of the addresses are equal ignoring case, or null for a null address.
+     */
+    @Nullable
+    static String getSipKey(@Nullable String number) {
+      if (number == null) {
+        return null;
+      }
+      int index = number.indexOf('@');
+      if (index == -1) {
+        return number;
+      }
+      StringBuilder key = new StringBuilder(number.length());
+      key.append(number, 0, index);
+      for (int i = index; i < number.length(); i++) {
+        // The same folding as String#equalsIgnoreCase.
+        key.append(Character.toLowerCase(Character.toUpperCase(number.charAt(i))));
+      }
+      return key.toString();
+    }
   }
 
   public interface GroupCreator {
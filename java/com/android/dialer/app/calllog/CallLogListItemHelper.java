@@ -18,6 +18,7 @@ package com.android.dialer.app.calllog;
 
 import android.content.res.Resources;
 import android.provider.CallLog.Calls;
+import android.support.annotation.Nullable;
 import android.support.annotation.WorkerThread;
 import android.text.SpannableStringBuilder;
 import android.text.TextUtils;
@@ -26,6 +27,7 @@ import com.android.dialer.app.calllog.calllogcache.CallLogCache;
 import com.android.dialer.calllogutils.PhoneCallDetails;
 import com.android.dialer.common.Assert;
 import com.android.dialer.common.LogUtil;
+import com.android.dialer.phonenumbercache.ContactInfo;
 
 /** Helper class to fill in the views of a call log entry. */
 /* package */ class CallLogListItemHelper {
@@ -54,40 +56,65 @@ import com.android.dialer.common.LogUtil;
   }
 
   /**
-   * Update phone call details. This is called before any drawing to avoid expensive operation on UI
-   * thread.
+   * Update phone call details and compute the content of the views of the call log entry. This is
+   * called before any drawing to avoid expensive operation on UI thread.
    *
-   * @param details
+   * @param version the version of the call log data {@code details} were read from
+   * @param details the details of a phone call, which must not be modified afterwards
+   * @param blockId the ID of the blocked number entry for the number, or null if it isn't blocked
+   * @param isSpamFeatureEnabled whether spam status was checked when loading {@code details}
+   * @param info the contact info looked up for the number
+   * @param numberType the label of the number type
    */
   @WorkerThread
-  public void updatePhoneCallDetails(PhoneCallDetails details) {
+  public CallLogRowRenderModel createRenderModel(
+      long version,
+      PhoneCallDetails details,
+      @Nullable Integer blockId,
+      boolean isSpamFeatureEnabled,
+      ContactInfo info,
+      String numberType) {
     Assert.isWorkerThread();
     details.callLocationAndDate = phoneCallDetailsHelper.getCallLocationAndDate(details);
     details.callDescription = getCallDescription(details);
+    return new CallLogRowRenderModel(
+        version,
+        details,
+        blockId,
+        isSpamFeatureEnabled,
+        info,
+        numberType,
+        phoneCallDetailsHelper.renderPhoneCallDetails(details),
+        getContactBadgeDescription(details),
+        getNameOrNumber(details),
+        phoneCallDetailsHelper.getCallTypeOrLocation(details));
   }
 
   /**
    * Sets the name, label, and number for a contact.
    *
    * @param views the views to populate
-   * @param details the details of a phone call needed to fill in the data
+   * @param renderModel the content of the views, computed by {@link #createRenderModel}
    */
-  public void setPhoneCallDetails(CallLogListItemViewHolder views, PhoneCallDetails details) {
-    phoneCallDetailsHelper.setPhoneCallDetails(views.phoneCallDetailsViews, details);
+  public void setPhoneCallDetails(
+      CallLogListItemViewHolder views, CallLogRowRenderModel renderModel) {
+    PhoneCallDetails details = renderModel.details;
+    phoneCallDetailsHelper.setPhoneCallDetails(
+        views.phoneCallDetailsViews, details, renderModel.renderedDetails);
 
     // Set the accessibility text for the contact badge
-    views.quickContactView.setContentDescription(getContactBadgeDescription(details));
+    views.quickContactView.setContentDescription(renderModel.contactBadgeDescription);
 
     // Set the primary action accessibility description
     views.primaryActionView.setContentDescription(details.callDescription);
 
     // Cache name or number of caller.  Used when setting the content descriptions of buttons
     // when the actions ViewStub is inflated.
-    views.nameOrNumber = getNameOrNumber(details);
+    views.nameOrNumber = renderModel.nameOrNumber;
 
     // The call type or Location associated with the call. Use when setting text for a
     // voicemail log's call button
-    views.callTypeOrLocation = phoneCallDetailsHelper.getCallTypeOrLocation(details);
+    views.callTypeOrLocation = renderModel.callTypeOrLocation;
 
     // Cache country iso. Used for number filtering.
     views.countryIso = details.countryIso;
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.app.calllog;
+
+import android.support.annotation.Nullable;
+import com.android.dialer.app.calllog.PhoneCallDetailsHelper.RenderedDetails;
+import com.android.dialer.calllogutils.PhoneCallDetails;
+import com.android.dialer.phonenumbercache.ContactInfo;
+
+/**
+ * Everything needed to bind a {@link CallLogListItemViewHolder}, loaded and formatted off the UI
+ * thread by {@link CallLogListItemHelper#createRenderModel}.
+ *
+ * <p>Models are cached by {@link CallLogAdapter} by row ID, and are only valid for the version of
+ * the call log data they were created from.
+ */
+/* package */ final class CallLogRowRenderModel {
+
+  /** The version of the call log data in {@link CallLogAdapter} the model was created from. */
+  final long version;
+
+  /** The loaded details of the row. Must not be modified. */
+  final PhoneCallDetails details;
+
+  @Nullable final Integer blockId;
+  final boolean isSpamFeatureEnabled;
+  final ContactInfo info;
+  final String numberType;
+
+  final RenderedDetails renderedDetails;
+  final CharSequence contactBadgeDescription;
+  final CharSequence nameOrNumber;
+  @Nullable final CharSequence callTypeOrLocation;
+
+  CallLogRowRenderModel(
+      long version,
+      PhoneCallDetails details,
+      @Nullable Integer blockId,
+      boolean isSpamFeatureEnabled,
+      ContactInfo info,
+      String numberType,
+      RenderedDetails renderedDetails,
+      CharSequence contactBadgeDescription,
+      CharSequence nameOrNumber,
+      @Nullable CharSequence callTypeOrLocation) {
+    this.version = version;
+    this.details = details;
+    this.blockId = blockId;
+    this.isSpamFeatureEnabled = isSpamFeatureEnabled;
+    this.info = info;
+    this.numberType = numberType;
+    this.renderedDetails = renderedDetails;
+    this.contactBadgeDescription = contactBadgeDescription;
+    this.nameOrNumber = nameOrNumber;
+    this.callTypeOrLocation = callTypeOrLocation;
+  }
+}
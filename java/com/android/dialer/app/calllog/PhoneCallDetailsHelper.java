@@ -24,6 +24,8 @@ import android.graphics.Typeface;
 import android.net.Uri;
 import android.provider.CallLog.Calls;
 import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
 import android.support.v4.content.ContextCompat;
 import android.support.v4.os.BuildCompat;
 import android.telecom.PhoneAccount;
@@ -43,6 +45,7 @@ import android.widget.Toast;
 import com.android.dialer.app.R;
 import com.android.dialer.app.calllog.calllogcache.CallLogCache;
 import com.android.dialer.calllogutils.PhoneCallDetails;
+import com.android.dialer.common.Assert;
 import com.android.dialer.common.LogUtil;
 import com.android.dialer.compat.android.provider.VoicemailCompat;
 import com.android.dialer.compat.telephony.TelephonyManagerCompat;
@@ -150,17 +153,26 @@ public class PhoneCallDetailsHelper
     return true;
   }
 
-  /** Fills the call details views with content. */
-  public void setPhoneCallDetails(PhoneCallDetailsViews views, PhoneCallDetails details) {
+  /**
+   * Computes the content of the call details views. This is called before any drawing so that
+   * filling in the views doesn't do any expensive operation on the UI thread.
+   *
+   * <p>{@link PhoneCallDetails#callLocationAndDate} must have been set.
+   */
+  @WorkerThread
+  public RenderedDetails renderPhoneCallDetails(PhoneCallDetails details) {
+    Assert.isWorkerThread();
+    return new RenderedDetails(this, details);
+  }
+
+  /** Fills the call details views with content computed by {@link #renderPhoneCallDetails}. */
+  public void setPhoneCallDetails(
+      PhoneCallDetailsViews views, PhoneCallDetails details, RenderedDetails rendered) {
     // Display up to a given number of icons.
     views.callTypeIcons.clear();
     int count = details.callTypes.length;
-    boolean isVoicemail = false;
     for (int index = 0; index < count && index < MAX_CALL_TYPE_ICONS; ++index) {
       views.callTypeIcons.add(details.callTypes[index]);
-      if (index == 0) {
-        isVoicemail = details.callTypes[index] == Calls.VOICEMAIL_TYPE;
-      }
     }
 
     // Show the video icon if the call had video enabled.
@@ -168,8 +180,7 @@ public class PhoneCallDetailsHelper
         (details.features & Calls.FEATURES_VIDEO) == Calls.FEATURES_VIDEO);
     views.callTypeIcons.setShowHd(
         (details.features & Calls.FEATURES_HD_CALL) == Calls.FEATURES_HD_CALL);
-    views.callTypeIcons.setShowWifi(
-        MotorolaUtils.shouldShowWifiIconInCallLog(context, details.features));
+    views.callTypeIcons.setShowWifi(rendered.showWifi);
     views.callTypeIcons.setShowAssistedDialed(
         (details.features & TelephonyManagerCompat.FEATURES_ASSISTED_DIALING)
             == TelephonyManagerCompat.FEATURES_ASSISTED_DIALING);
@@ -179,82 +190,29 @@ public class PhoneCallDetailsHelper
     views.callTypeIcons.requestLayout();
     views.callTypeIcons.setVisibility(View.VISIBLE);
 
-    // Show the total call count only if there are more than the maximum number of icons.
-    final Integer callCount;
-    if (count > MAX_CALL_TYPE_ICONS) {
-      callCount = count;
-    } else {
-      callCount = null;
-    }
-
     // Set the call count, location, date and if voicemail, set the duration.
-    setDetailText(views, callCount, details);
+    views.callLocationAndDate.setText(rendered.detailText);
 
     // Set the account label if it exists.
-    String accountLabel = callLogCache.getAccountLabel(details.accountHandle);
-    if (!TextUtils.isEmpty(details.viaNumber)) {
-      if (!TextUtils.isEmpty(accountLabel)) {
-        accountLabel =
-            resources.getString(
-                R.string.call_log_via_number_phone_account, accountLabel, details.viaNumber);
-      } else {
-        accountLabel = resources.getString(R.string.call_log_via_number, details.viaNumber);
-      }
-    }
-    if (!TextUtils.isEmpty(accountLabel)) {
+    if (!TextUtils.isEmpty(rendered.accountLabel)) {
       views.callAccountLabel.setVisibility(View.VISIBLE);
-      views.callAccountLabel.setText(accountLabel);
-      int color = callLogCache.getAccountColor(details.accountHandle);
-      if (color == PhoneAccount.NO_HIGHLIGHT_COLOR) {
-        int defaultColor = R.color.dialer_secondary_text_color;
-        views.callAccountLabel.setTextColor(context.getResources().getColor(defaultColor));
-      } else {
-        views.callAccountLabel.setTextColor(color);
-      }
+      views.callAccountLabel.setText(rendered.accountLabel);
+      views.callAccountLabel.setTextColor(rendered.accountLabelColor);
     } else {
       views.callAccountLabel.setVisibility(View.GONE);
     }
 
-    setNameView(views, details);
+    views.nameView.setText(rendered.name);
+    views.nameView.setTextDirection(rendered.nameTextDirection);
 
-    if (isVoicemail) {
+    if (rendered.isVoicemail) {
       int relevantLinkTypes = Linkify.EMAIL_ADDRESSES | Linkify.PHONE_NUMBERS | Linkify.WEB_URLS;
       views.voicemailTranscriptionView.setAutoLinkMask(relevantLinkTypes);
-
-      String transcript = "";
-      String branding = "";
-      if (!TextUtils.isEmpty(details.transcription)) {
-        transcript = details.transcription;
-
-        if (details.transcriptionState == VoicemailCompat.TRANSCRIPTION_AVAILABLE
-            || details.transcriptionState == VoicemailCompat.TRANSCRIPTION_AVAILABLE_AND_RATED) {
-          branding = resources.getString(R.string.voicemail_transcription_branding_text);
-        }
-      } else {
-        switch (details.transcriptionState) {
-          case VoicemailCompat.TRANSCRIPTION_IN_PROGRESS:
-            branding = resources.getString(R.string.voicemail_transcription_in_progress);
-            break;
-          case VoicemailCompat.TRANSCRIPTION_FAILED_NO_SPEECH_DETECTED:
-            branding = resources.getString(R.string.voicemail_transcription_failed_no_speech);
-            break;
-          case VoicemailCompat.TRANSCRIPTION_FAILED_LANGUAGE_NOT_SUPPORTED:
-            branding =
-                resources.getString(R.string.voicemail_transcription_failed_language_not_supported);
-            break;
-          case VoicemailCompat.TRANSCRIPTION_FAILED:
-            branding = resources.getString(R.string.voicemail_transcription_failed);
-            break;
-          default:
-            break; // Fall through
-        }
-      }
-
-      views.voicemailTranscriptionView.setText(transcript);
-      views.voicemailTranscriptionBrandingView.setText(branding);
+      views.voicemailTranscriptionView.setText(rendered.transcription);
+      views.voicemailTranscriptionBrandingView.setText(rendered.transcriptionBranding);
 
       View ratingView = views.voicemailTranscriptionRatingView;
-      if (shouldShowTranscriptionRating(details.transcriptionState, details.accountHandle)) {
+      if (rendered.showTranscriptionRating) {
         ratingView.setVisibility(View.VISIBLE);
         ratingView
             .findViewById(R.id.voicemail_transcription_rating_good)
@@ -274,37 +232,77 @@ public class PhoneCallDetailsHelper
     }
 
     // Bold if not read
-    Typeface typeface = details.isRead
-            ? Typeface.create(context.getString(R.string.system_body_font), Typeface.NORMAL)
-            : Typeface.DEFAULT_BOLD;
-    views.nameView.setTypeface(typeface);
-    views.voicemailTranscriptionView.setTypeface(typeface);
-    views.voicemailTranscriptionBrandingView.setTypeface(typeface);
-    views.callLocationAndDate.setTypeface(typeface);
-    views.callLocationAndDate.setTextColor(
-        details.isRead
-            ? ThemeComponent.get(context).theme().getTextColorSecondary()
-            : ThemeComponent.get(context).theme().getTextColorPrimary());
+    views.nameView.setTypeface(rendered.typeface);
+    views.voicemailTranscriptionView.setTypeface(rendered.typeface);
+    views.voicemailTranscriptionBrandingView.setTypeface(rendered.typeface);
+    views.callLocationAndDate.setTypeface(rendered.typeface);
+    views.callLocationAndDate.setTextColor(rendered.callLocationAndDateColor);
   }
 
-  private void setNameView(PhoneCallDetailsViews views, PhoneCallDetails details) {
-    if (!TextUtils.isEmpty(details.getPreferredName())) {
-      views.nameView.setText(details.getPreferredName());
-      // "nameView" is updated from phone number to contact name after number matching.
-      // Since TextDirection remains at View.TEXT_DIRECTION_LTR, initialize it.
-      views.nameView.setTextDirection(View.TEXT_DIRECTION_INHERIT);
-      return;
+  @Nullable
+  private CharSequence getAccountLabel(PhoneCallDetails details) {
+    String accountLabel = callLogCache.getAccountLabel(details.accountHandle);
+    if (!TextUtils.isEmpty(details.viaNumber)) {
+      if (!TextUtils.isEmpty(accountLabel)) {
+        accountLabel =
+            resources.getString(
+                R.string.call_log_via_number_phone_account, accountLabel, details.viaNumber);
+      } else {
+        accountLabel = resources.getString(R.string.call_log_via_number, details.viaNumber);
+      }
     }
+    return accountLabel;
+  }
+
+  private int getAccountLabelColor(PhoneCallDetails details) {
+    int color = callLogCache.getAccountColor(details.accountHandle);
+    if (color == PhoneAccount.NO_HIGHLIGHT_COLOR) {
+      return context.getResources().getColor(R.color.dialer_secondary_text_color);
+    }
+    return color;
+  }
 
+  private CharSequence getName(PhoneCallDetails details) {
+    if (!TextUtils.isEmpty(details.getPreferredName())) {
+      return details.getPreferredName();
+    }
     if (PhoneNumberUtils.isEmergencyNumber(details.displayNumber)) {
-      views.nameView.setText(R.string.emergency_number);
-      views.nameView.setTextDirection(View.TEXT_DIRECTION_INHERIT);
-      return;
+      return resources.getString(R.string.emergency_number);
     }
+    return details.displayNumber;
+  }
 
-    views.nameView.setText(details.displayNumber);
+  private static int getNameTextDirection(PhoneCallDetails details) {
+    // "nameView" is updated from phone number to contact name after number matching.
+    // Since TextDirection remains at View.TEXT_DIRECTION_LTR, initialize it.
+    if (!TextUtils.isEmpty(details.getPreferredName())
+        || PhoneNumberUtils.isEmergencyNumber(details.displayNumber)) {
+      return View.TEXT_DIRECTION_INHERIT;
+    }
     // We have a real phone number as "nameView" so make it always LTR
-    views.nameView.setTextDirection(View.TEXT_DIRECTION_LTR);
+    return View.TEXT_DIRECTION_LTR;
+  }
+
+  private String getTranscriptionBranding(PhoneCallDetails details) {
+    if (!TextUtils.isEmpty(details.transcription)) {
+      if (details.transcriptionState == VoicemailCompat.TRANSCRIPTION_AVAILABLE
+          || details.transcriptionState == VoicemailCompat.TRANSCRIPTION_AVAILABLE_AND_RATED) {
+        return resources.getString(R.string.voicemail_transcription_branding_text);
+      }
+      return "";
+    }
+    switch (details.transcriptionState) {
+      case VoicemailCompat.TRANSCRIPTION_IN_PROGRESS:
+        return resources.getString(R.string.voicemail_transcription_in_progress);
+      case VoicemailCompat.TRANSCRIPTION_FAILED_NO_SPEECH_DETECTED:
+        return resources.getString(R.string.voicemail_transcription_failed_no_speech);
+      case VoicemailCompat.TRANSCRIPTION_FAILED_LANGUAGE_NOT_SUPPORTED:
+        return resources.getString(R.string.voicemail_transcription_failed_language_not_supported);
+      case VoicemailCompat.TRANSCRIPTION_FAILED:
+        return resources.getString(R.string.voicemail_transcription_failed);
+      default:
+        return "";
+    }
   }
 
   private boolean shouldShowTranscriptionRating(
@@ -582,27 +580,26 @@ public class PhoneCallDetailsHelper
     }
   }
 
-  /** Sets the call count, date, and if it is a voicemail, sets the duration. */
-  private void setDetailText(
-      PhoneCallDetailsViews views, Integer callCount, PhoneCallDetails details) {
+  /** Returns the call count, date, and if it is a voicemail, the duration. */
+  private CharSequence getDetailText(PhoneCallDetails details) {
+    // Show the total call count only if there are more than the maximum number of icons.
+    int count = details.callTypes.length;
     // Combine the count (if present) and the date.
     CharSequence dateText = details.callLocationAndDate;
     final CharSequence text;
-    if (callCount != null) {
-      text = resources.getString(R.string.call_log_item_count_and_date, callCount, dateText);
+    if (count > MAX_CALL_TYPE_ICONS) {
+      text = resources.getString(R.string.call_log_item_count_and_date, count, dateText);
     } else {
       text = dateText;
     }
 
     if (details.callTypes[0] == Calls.VOICEMAIL_TYPE && details.duration > 0) {
-      views.callLocationAndDate.setText(
-          resources.getString(
-              R.string.voicemailCallLogDateTimeFormatWithDuration,
-              text,
-              getVoicemailDuration(details)));
-    } else {
-      views.callLocationAndDate.setText(text);
+      return resources.getString(
+          R.string.voicemailCallLogDateTimeFormatWithDuration,
+          text,
+          getVoicemailDuration(details));
     }
+    return text;
   }
 
   private String getVoicemailDuration(PhoneCallDetails details) {
@@ -613,4 +610,51 @@ public class PhoneCallDetailsHelper
     }
     return resources.getString(R.string.voicemailDurationFormat, minutes, seconds);
   }
+
+  /**
+   * Immutable content of the call details views of one row, so that binding the row only assigns
+   * precomputed values.
+   */
+  public static final class RenderedDetails {
+    private final boolean showWifi;
+    private final CharSequence detailText;
+    @Nullable private final CharSequence accountLabel;
+    private final int accountLabelColor;
+    private final CharSequence name;
+    private final int nameTextDirection;
+    private final boolean isVoicemail;
+    private final String transcription;
+    private final String transcriptionBranding;
+    private final boolean showTranscriptionRating;
+    private final Typeface typeface;
+    private final int callLocationAndDateColor;
+
+    private RenderedDetails(PhoneCallDetailsHelper helper, PhoneCallDetails details) {
+      Context context = helper.context;
+      showWifi = MotorolaUtils.shouldShowWifiIconInCallLog(context, details.features);
+      detailText = helper.getDetailText(details);
+      accountLabel = helper.getAccountLabel(details);
+      accountLabelColor =
+          TextUtils.isEmpty(accountLabel) ? 0 : helper.getAccountLabelColor(details);
+      name = helper.getName(details);
+      nameTextDirection = getNameTextDirection(details);
+
+      isVoicemail = details.callTypes.length > 0 && details.callTypes[0] == Calls.VOICEMAIL_TYPE;
+      transcription = TextUtils.isEmpty(details.transcription) ? "" : details.transcription;
+      transcriptionBranding = isVoicemail ? helper.getTranscriptionBranding(details) : "";
+      showTranscriptionRating =
+          isVoicemail
+              && helper.shouldShowTranscriptionRating(
+                  details.transcriptionState, details.accountHandle);
+
+      typeface =
+          details.isRead
+              ? Typeface.create(context.getString(R.string.system_body_font), Typeface.NORMAL)
+              : Typeface.DEFAULT_BOLD;
+      callLocationAndDateColor =
+          details.isRead
+              ? ThemeComponent.get(context).theme().getTextColorSecondary()
+              : ThemeComponent.get(context).theme().getTextColorPrimary();
+    }
+  }
 }
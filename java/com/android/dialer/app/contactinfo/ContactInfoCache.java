@@ -20,8 +20,11 @@ import android.os.Handler;
 import android.os.Message;
 import android.os.SystemClock;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
 import android.text.TextUtils;
+import android.util.ArrayMap;
+import android.util.ArraySet;
 import com.android.dialer.common.LogUtil;
 import com.android.dialer.logging.ContactSource.Type;
 import com.android.dialer.oem.CequintCallerIdManager;
@@ -29,18 +32,27 @@ import com.android.dialer.phonenumbercache.ContactInfo;
 import com.android.dialer.phonenumbercache.ContactInfoHelper;
 import com.android.dialer.util.ExpirableCache;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * This is a cache of contact details for the phone numbers in the call log. The key is the phone
  * number with the country in which the call was placed or received. The content of the cache is
  * expired (but not purged) whenever the application comes to the foreground.
  *
- * <p>This cache queues request for information and queries for information on a background thread,
- * so {@code start()} and {@code stop()} must be called to initiate or halt that thread's exeuction
- * as needed.
+ * <p>This cache queues request for information and queries for information on a small pool of
+ * background threads, so {@code start()} and {@code stop()} must be called to initiate or halt
+ * their execution as needed. Requests for rows without any contact info are served first, most
+ * recent first, so rows on screen don't wait behind rows which have been scrolled past. Requests
+ * for a number which is already being looked up are dropped. When requests pile up, each thread
+ * looks up several numbers in the default directory with a single query.
  *
  * <p>TODO: Explore whether there is a pattern to remove external dependencies for starting and
  * stopping the query thread.
@@ -50,6 +62,10 @@ public class ContactInfoCache {
   private static final int REDRAW = 1;
   private static final int START_THREAD = 2;
   private static final int START_PROCESSING_REQUESTS_DELAY_MS = 1000;
+  private static final int QUERY_THREAD_COUNT = 3;
+
+  /** Maximum number of requests looked up in the default directory with a single query. */
+  private static final int MAX_BATCH_SIZE = 32;
 
   private final ExpirableCache<NumberWithCountryIso, ContactInfo> cache;
   private final ContactInfoHelper contactInfoHelper;
@@ -57,7 +73,12 @@ public class ContactInfoCache {
   private final BlockingQueue<ContactInfoRequest> updateRequests;
   private final Handler handler;
   private CequintCallerIdManager cequintCallerIdManager;
-  private QueryThread contactInfoQueryThread;
+  private final List<QueryThread> contactInfoQueryThreads = new ArrayList<>();
+  private final Set<NumberWithCountryIso> localLookupsInProgress =
+      Collections.synchronizedSet(new ArraySet<>());
+  private final Set<NumberWithCountryIso> remoteLookupsInProgress =
+      Collections.synchronizedSet(new ArraySet<>());
+  private final AtomicBoolean redrawPending = new AtomicBoolean();
   private volatile boolean requestProcessingDisabled = false;
 
   private static class InnerHandler extends Handler {
@@ -143,7 +164,39 @@ public class ContactInfoCache {
   }
 
   /**
-   * Queries the appropriate content provider for the contact associated with the number.
+   * Looks up the contacts for the requests, starting with a single query of the default directory
+   * for all local requests if there are several.
+   *
+   * <p>It returns true if it updated the content of the cache and we should therefore tell the view
+   * to update its content.
+   */
+  private boolean queryContactInfo(List<ContactInfoRequest> requests) {
+    Map<String, String> countryIsoByNumber = new ArrayMap<>();
+    Map<String, ContactInfo> batchLookupInfo = Collections.emptyMap();
+    if (requests.size() > 1) {
+      for (ContactInfoRequest request : requests) {
+        if (request.isLocalRequest() && !countryIsoByNumber.containsKey(request.number)) {
+          countryIsoByNumber.put(request.number, request.countryIso);
+        }
+      }
+      batchLookupInfo = contactInfoHelper.lookupNumbersInDefaultDirectory(countryIsoByNumber);
+    }
+
+    boolean updated = false;
+    for (ContactInfoRequest request : requests) {
+      ContactInfo info =
+          request.isLocalRequest()
+                  && TextUtils.equals(countryIsoByNumber.get(request.number), request.countryIso)
+              ? batchLookupInfo.get(request.number)
+              : null;
+      updated |= queryContactInfo(request, info);
+    }
+    return updated;
+  }
+
+  /**
+   * Queries the appropriate content provider for the contact associated with the number, unless it
+   * is already being looked up or {@code batchLookupInfo} was found for it.
    *
    * <p>Upon completion it also updates the cache in the call log, if it is different from {@code
    * callLogInfo}.
@@ -153,7 +206,27 @@ public class ContactInfoCache {
    * <p>It returns true if it updated the content of the cache and we should therefore tell the view
    * to update its content.
    */
-  private boolean queryContactInfo(ContactInfoRequest request) {
+  private boolean queryContactInfo(
+      ContactInfoRequest request, @Nullable ContactInfo batchLookupInfo) {
+    NumberWithCountryIso numberCountryIso =
+        new NumberWithCountryIso(request.number, request.countryIso);
+    Set<NumberWithCountryIso> lookupsInProgress =
+        request.isLocalRequest() ? localLookupsInProgress : remoteLookupsInProgress;
+    if (!lookupsInProgress.add(numberCountryIso)) {
+      LogUtil.d("ContactInfoCache.queryContactInfo", "lookup already in progress");
+      return false;
+    }
+    try {
+      return queryContactInfoInternal(request, numberCountryIso, batchLookupInfo);
+    } finally {
+      lookupsInProgress.remove(numberCountryIso);
+    }
+  }
+
+  private boolean queryContactInfoInternal(
+      ContactInfoRequest request,
+      NumberWithCountryIso numberCountryIso,
+      @Nullable ContactInfo batchLookupInfo) {
     LogUtil.d(
         "ContactInfoCache.queryContactInfo",
         "request number: %s, type: %d",
@@ -161,7 +234,10 @@ public class ContactInfoCache {
         request.type);
     ContactInfo info;
     if (request.isLocalRequest()) {
-      info = contactInfoHelper.lookupNumber(request.number, request.countryIso);
+      info =
+          batchLookupInfo != null
+              ? batchLookupInfo
+              : contactInfoHelper.lookupNumber(request.number, request.countryIso);
       if (info != null && !info.contactExists) {
         // TODO(wangqi): Maybe skip look up if it's already available in cached number lookup
         // service.
@@ -193,8 +269,6 @@ public class ContactInfoCache {
 
     // Check the existing entry in the cache: only if it has changed we should update the
     // view.
-    NumberWithCountryIso numberCountryIso =
-        new NumberWithCountryIso(request.number, request.countryIso);
     ContactInfo existingInfo = cache.getPossiblyExpired(numberCountryIso);
 
     final boolean isRemoteSource = info.sourceType != Type.UNKNOWN_SOURCE_TYPE;
@@ -227,9 +301,9 @@ public class ContactInfoCache {
    * background thread, but this must be called to indicate the thread should be running.
    */
   public void start() {
-    // Schedule a thread-creation message if the thread hasn't been created yet, as an
+    // Schedule a thread-creation message if the threads haven't been created yet, as an
     // optimization to queue fewer messages.
-    if (contactInfoQueryThread == null) {
+    if (contactInfoQueryThreads.isEmpty()) {
       // TODO: Check whether this delay before starting to process is necessary.
       handler.sendEmptyMessageDelayed(START_THREAD, START_PROCESSING_REQUESTS_DELAY_MS);
     }
@@ -244,7 +318,7 @@ public class ContactInfoCache {
   }
 
   /**
-   * Starts a background thread to process contact-lookup requests, unless one has already been
+   * Starts the background threads to process contact-lookup requests, unless they have already been
    * started.
    */
   private synchronized void startRequestProcessing() {
@@ -253,14 +327,17 @@ public class ContactInfoCache {
       return;
     }
 
-    // If a thread is already started, don't start another.
-    if (contactInfoQueryThread != null) {
+    // If the threads are already started, don't start more.
+    if (!contactInfoQueryThreads.isEmpty()) {
       return;
     }
 
-    contactInfoQueryThread = new QueryThread();
-    contactInfoQueryThread.setPriority(Thread.MIN_PRIORITY);
-    contactInfoQueryThread.start();
+    for (int i = 0; i < QUERY_THREAD_COUNT; i++) {
+      QueryThread queryThread = new QueryThread();
+      queryThread.setPriority(Thread.MIN_PRIORITY);
+      queryThread.start();
+      contactInfoQueryThreads.add(queryThread);
+    }
   }
 
   public void invalidate() {
@@ -269,18 +346,18 @@ public class ContactInfoCache {
   }
 
   /**
-   * Stops the background thread that processes updates and cancels any pending requests to start
-   * it.
+   * Stops the background threads that process updates and cancels any pending requests to start
+   * them.
    */
   private synchronized void stopRequestProcessing() {
     // Remove any pending requests to start the processing thread.
     handler.removeMessages(START_THREAD);
-    if (contactInfoQueryThread != null) {
-      // Stop the thread; we are finished with it.
-      contactInfoQueryThread.stopProcessing();
-      contactInfoQueryThread.interrupt();
-      contactInfoQueryThread = null;
+    // Stop the threads; we are finished with them.
+    for (QueryThread queryThread : contactInfoQueryThreads) {
+      queryThread.stopProcessing();
+      queryThread.interrupt();
     }
+    contactInfoQueryThreads.clear();
   }
 
   /**
@@ -288,9 +365,13 @@ public class ContactInfoCache {
    *
    * <p>It also provides the current contact info stored in the call log for this number.
    *
-   * <p>If the {@code immediate} parameter is true, it will start immediately the thread that looks
-   * up the contact information (if it has not been already started). Otherwise, it will be started
-   * with a delay. See {@link #START_PROCESSING_REQUESTS_DELAY_MS}.
+   * <p>If the {@code immediate} parameter is true, the request is served before those which are
+   * not, and it will start immediately the threads that look up the contact information (if they
+   * have not been already started). Otherwise, they will be started with a delay. See {@link
+   * #START_PROCESSING_REQUESTS_DELAY_MS}.
+   *
+   * <p>A request equal to one already queued replaces it, so that it is served as a recent one,
+   * keeping its priority if it was immediate.
    */
   private void enqueueRequest(
       String number,
@@ -298,10 +379,18 @@ public class ContactInfoCache {
       ContactInfo callLogInfo,
       boolean immediate,
       @ContactInfoRequest.TYPE int type) {
-    ContactInfoRequest request = new ContactInfoRequest(number, countryIso, callLogInfo, type);
-    if (!updateRequests.contains(request)) {
-      updateRequests.offer(request);
+    ContactInfoRequest request =
+        new ContactInfoRequest(number, countryIso, callLogInfo, type, immediate);
+    for (ContactInfoRequest queuedRequest : updateRequests) {
+      if (queuedRequest.equals(request)) {
+        updateRequests.remove(queuedRequest);
+        if (queuedRequest.immediate && !immediate) {
+          request = new ContactInfoRequest(number, countryIso, callLogInfo, type, true);
+        }
+        break;
+      }
     }
+    updateRequests.offer(request);
 
     if (immediate) {
       startRequestProcessing();
@@ -349,7 +438,6 @@ public class ContactInfoCache {
 
     @Override
     public void run() {
-      boolean shouldRedraw = false;
       while (true) {
         // Check if thread is finished, and if so return immediately.
         if (done) {
@@ -358,11 +446,20 @@ public class ContactInfoCache {
 
         try {
           ContactInfoRequest request = updateRequests.take();
-          shouldRedraw |= queryContactInfo(request);
-          if (shouldRedraw
-              && (updateRequests.isEmpty()
-                  || (request.isLocalRequest() && !updateRequests.peek().isLocalRequest()))) {
-            shouldRedraw = false;
+          List<ContactInfoRequest> requests = new ArrayList<>();
+          requests.add(request);
+          if (request.isLocalRequest()) {
+            takeMoreLocalRequests(requests);
+          }
+          if (queryContactInfo(requests)) {
+            redrawPending.set(true);
+          }
+          // Redraws are shared by all threads, so that a thread which found changes while others
+          // were still busy doesn't hold on to its redraw.
+          ContactInfoRequest nextRequest = updateRequests.peek();
+          if ((nextRequest == null
+                  || (request.isLocalRequest() && !nextRequest.isLocalRequest()))
+              && redrawPending.getAndSet(false)) {
             handler.sendEmptyMessage(REDRAW);
           }
         } catch (InterruptedException e) {
@@ -370,5 +467,26 @@ public class ContactInfoCache {
         }
       }
     }
+
+    /**
+     * Adds the next local requests to {@code requests}, leaving enough for the other threads to
+     * take their share of the queue.
+     */
+    private void takeMoreLocalRequests(List<ContactInfoRequest> requests) {
+      // The queue, including the request already taken, divided between the threads, rounded up.
+      int share = (updateRequests.size() + QUERY_THREAD_COUNT) / QUERY_THREAD_COUNT;
+      int batchSize = Math.min(MAX_BATCH_SIZE, share);
+      while (requests.size() < batchSize) {
+        ContactInfoRequest nextRequest = updateRequests.peek();
+        if (nextRequest == null || !nextRequest.isLocalRequest()) {
+          return;
+        }
+        nextRequest = updateRequests.poll();
+        if (nextRequest == null) {
+          return;
+        }
+        requests.add(nextRequest);
+      }
+    }
   }
 }
@@ -41,6 +41,12 @@ public final class ContactInfoRequest implements Comparable<ContactInfoRequest>
   /** Is the request a remote lookup. Remote requests are treated as lower priority. */
   @TYPE public final int type;
 
+  /**
+   * Whether the request is for a row being displayed without any contact info yet, rather than to
+   * refresh expired info. Such requests are treated as higher priority.
+   */
+  public final boolean immediate;
+
   /** Specifies the type of the request is. */
   @IntDef(
     value = {
@@ -60,11 +66,21 @@ public final class ContactInfoRequest implements Comparable<ContactInfoRequest>
 
   public ContactInfoRequest(
       String number, String countryIso, ContactInfo callLogInfo, @TYPE int type) {
+    this(number, countryIso, callLogInfo, type, false);
+  }
+
+  public ContactInfoRequest(
+      String number,
+      String countryIso,
+      ContactInfo callLogInfo,
+      @TYPE int type,
+      boolean immediate) {
     this.sequenceNumber = NEXT_SEQUENCE_NUMBER.getAndIncrement();
     this.number = number;
     this.countryIso = countryIso;
     this.callLogInfo = callLogInfo;
     this.type = type;
+    this.immediate = immediate;
   }
 
   @Override
@@ -116,7 +132,11 @@ public final class ContactInfoRequest implements Comparable<ContactInfoRequest>
     if (!isLocalRequest() && other.isLocalRequest()) {
       return 1;
     }
-    // First come first served.
-    return sequenceNumber < other.sequenceNumber ? -1 : 1;
+    // Then rows without any contact info.
+    if (immediate != other.immediate) {
+      return immediate ? -1 : 1;
+    }
+    // Last come first served, as the rows bound most recently are the ones on screen.
+    return sequenceNumber > other.sequenceNumber ? -1 : 1;
   }
 }
@@ -18,11 +18,14 @@ package com.android.dialer.calllog;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.util.ArrayMap;
 import com.android.dialer.calllog.constants.SharedPrefKeys;
 import com.android.dialer.calllog.database.MutationApplier;
 import com.android.dialer.calllog.datasources.CallLogDataSource;
 import com.android.dialer.calllog.datasources.CallLogMutations;
+import com.android.dialer.calllog.datasources.CallLogMutationsCombiner;
 import com.android.dialer.calllog.datasources.DataSources;
+import com.android.dialer.common.Assert;
 import com.android.dialer.common.LogUtil;
 import com.android.dialer.common.concurrent.Annotations.BackgroundExecutor;
 import com.android.dialer.common.concurrent.Annotations.LightweightExecutor;
@@ -41,6 +44,7 @@ import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -175,30 +179,47 @@ public class RefreshAnnotatedCallLogWorker {
 
     // Start by filling the data sources--the system call log data source must go first!
     CallLogDataSource systemCallLogDataSource = dataSources.getSystemCallLogDataSource();
-    ListenableFuture<Void> fillFuture = systemCallLogDataSource.fill(mutations);
+    ListenableFuture<Void> systemFillFuture = systemCallLogDataSource.fill(mutations);
     String systemEventName = eventNameForFill(systemCallLogDataSource, isBuilt);
-    futureTimer.applyTiming(fillFuture, systemEventName);
+    futureTimer.applyTiming(systemFillFuture, systemEventName);
 
-    // After the system call log data source is filled, call fill sequentially on each remaining
-    // data source. This must be done sequentially because mutations are not threadsafe and are
-    // passed from source to source.
+    // After the system call log data source is filled, fill each remaining data source as soon as
+    // the data sources it depends on are filled. Mutations are not threadsafe, so data sources
+    // which run concurrently fill their own copies, which the combiner merges back.
+    CallLogMutationsCombiner combiner = new CallLogMutationsCombiner(mutations);
+    Map<Class<? extends CallLogDataSource>, ListenableFuture<Void>> fillFutures = new ArrayMap<>();
     for (CallLogDataSource dataSource : dataSources.getDataSourcesExcludingSystemCallLog()) {
-      fillFuture =
-          Futures.transformAsync(
-              fillFuture,
-              unused -> {
-                ListenableFuture<Void> dataSourceFuture = dataSource.fill(mutations);
-                String eventName = eventNameForFill(dataSource, isBuilt);
-                futureTimer.applyTiming(dataSourceFuture, eventName);
-                return dataSourceFuture;
-              },
-              lightweightExecutorService);
+      List<ListenableFuture<Void>> prerequisites = new ArrayList<>();
+      prerequisites.add(systemFillFuture);
+      for (Class<? extends CallLogDataSource> dependency : dataSource.getFillDependencies()) {
+        ListenableFuture<Void> dependencyFuture = fillFutures.get(dependency);
+        Assert.checkState(
+            dependencyFuture != null,
+            "%s must be listed after its dependency %s",
+            dataSource.getLoggingName(),
+            dependency.getSimpleName());
+        prerequisites.add(dependencyFuture);
+      }
+      ListenableFuture<Void> dataSourceFuture =
+          Futures.whenAllSucceed(prerequisites)
+              .callAsync(
+                  () -> {
+                    ListenableFuture<Void> fillFuture = combiner.fill(dataSource);
+                    String eventName = eventNameForFill(dataSource, isBuilt);
+                    futureTimer.applyTiming(fillFuture, eventName);
+                    return fillFuture;
+                  },
+                  lightweightExecutorService);
+      fillFutures.put(dataSource.getClass(), dataSourceFuture);
     }
 
+    List<ListenableFuture<Void>> allFillFutures = new ArrayList<>(fillFutures.values());
+    allFillFutures.add(systemFillFuture);
+    ListenableFuture<Void> fillFuture =
+        Futures.whenAllSucceed(allFillFutures).call(() -> null, MoreExecutors.directExecutor());
     futureTimer.applyTiming(fillFuture, eventNameForOverallFill(isBuilt));
 
-    // After all data sources are filled, apply mutations (at this point "fillFuture" is the result
-    // of filling the last data source).
+    // After all data sources are filled, apply mutations.
     ListenableFuture<Void> applyMutationsFuture =
         Futures.transformAsync(
             fillFuture,
@@ -30,10 +30,12 @@ import android.net.Uri;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import com.android.dialer.calllog.database.AnnotatedCallLogConstraints.Operation;
+import com.android.dialer.calllog.database.contract.AnnotatedCallLogChanges;
 import com.android.dialer.calllog.database.contract.AnnotatedCallLogContract;
 import com.android.dialer.calllog.database.contract.AnnotatedCallLogContract.AnnotatedCallLog;
 import com.android.dialer.common.Assert;
 import com.android.dialer.common.LogUtil;
+import com.google.common.collect.ImmutableSet;
 import java.util.ArrayList;
 import java.util.Arrays;
 
@@ -61,12 +63,11 @@ public class AnnotatedCallLogContentProvider extends ContentProvider {
 
   private AnnotatedCallLogDatabaseHelper databaseHelper;
 
-  private final ThreadLocal<Boolean> applyingBatch = new ThreadLocal<>();
-
-  /** Ensures that only a single notification is generated from {@link #applyBatch(ArrayList)}. */
-  private boolean isApplyingBatch() {
-    return applyingBatch.get() != null && applyingBatch.get();
-  }
+  /**
+   * Collects the changes made by {@link #applyBatch(ArrayList)} on this thread, so that only a
+   * single notification is generated from it. Null when no batch is being applied.
+   */
+  private final ThreadLocal<AnnotatedCallLogChanges.Builder> batchChanges = new ThreadLocal<>();
 
   @Override
   public boolean onCreate() {
@@ -106,7 +107,15 @@ public class AnnotatedCallLogContentProvider extends ContentProvider {
         return cursor;
       case ANNOTATED_CALL_LOG_TABLE_CODE:
         cursor =
-            queryBuilder.query(db, projection, selection, selectionArgs, null, null, sortOrder);
+            queryBuilder.query(
+                db,
+                projection,
+                selection,
+                selectionArgs,
+                null,
+                null,
+                sortOrder,
+                uri.getQueryParameter(AnnotatedCallLog.LIMIT_PARAM_KEY));
         if (cursor != null) {
           cursor.setNotificationUri(
               getContext().getContentResolver(), AnnotatedCallLog.CONTENT_URI);
@@ -180,11 +189,8 @@ public class AnnotatedCallLogContentProvider extends ContentProvider {
           values.get(AnnotatedCallLog._ID));
       return null;
     }
-    Uri insertedUri = ContentUris.withAppendedId(AnnotatedCallLog.CONTENT_URI, id);
-    if (!isApplyingBatch()) {
-      notifyChange(insertedUri);
-    }
-    return insertedUri;
+    onRowsChanged(AnnotatedCallLogChanges.builder().addInsertedId(id).build());
+    return ContentUris.withAppendedId(AnnotatedCallLog.CONTENT_URI, id);
   }
 
   @Override
@@ -208,14 +214,21 @@ public class AnnotatedCallLogContentProvider extends ContentProvider {
       default:
         throw new IllegalArgumentException("Unknown uri: " + uri);
     }
-    int rows = database.delete(AnnotatedCallLog.TABLE, selection, selectionArgs);
+    ImmutableSet<Long> ids;
+    int rows;
+    database.beginTransaction();
+    try {
+      ids = queryIds(database, selection, selectionArgs);
+      rows = database.delete(AnnotatedCallLog.TABLE, selection, selectionArgs);
+      database.setTransactionSuccessful();
+    } finally {
+      database.endTransaction();
+    }
     if (rows == 0) {
       LogUtil.w("AnnotatedCallLogContentProvider.delete", "no rows deleted");
       return rows;
     }
-    if (!isApplyingBatch()) {
-      notifyChange(uri);
-    }
+    onRowsChanged(AnnotatedCallLogChanges.builder().addDeletedIds(ids).build());
     return rows;
   }
 
@@ -234,15 +247,7 @@ public class AnnotatedCallLogContentProvider extends ContentProvider {
     int match = uriMatcher.match(uri);
     switch (match) {
       case ANNOTATED_CALL_LOG_TABLE_CODE:
-        int rows = database.update(AnnotatedCallLog.TABLE, values, selection, selectionArgs);
-        if (rows == 0) {
-          LogUtil.w("AnnotatedCallLogContentProvider.update", "no rows updated");
-          return rows;
-        }
-        if (!isApplyingBatch()) {
-          notifyChange(uri);
-        }
-        return rows;
+        break;
       case ANNOTATED_CALL_LOG_TABLE_ID_CODE:
         Assert.checkArgument(
             !values.containsKey(AnnotatedCallLog._ID), "Do not specify _ID when updating by ID");
@@ -250,20 +255,28 @@ public class AnnotatedCallLogContentProvider extends ContentProvider {
         Assert.checkArgument(
             selectionArgs == null, "Do not specify selection args when updating by ID");
         selection = getSelectionWithId(ContentUris.parseId(uri));
-        rows = database.update(AnnotatedCallLog.TABLE, values, selection, selectionArgs);
-        if (rows == 0) {
-          LogUtil.w("AnnotatedCallLogContentProvider.update", "no rows updated");
-          return rows;
-        }
-        if (!isApplyingBatch()) {
-          notifyChange(uri);
-        }
-        return rows;
+        break;
       case ANNOTATED_CALL_LOG_TABLE_DISTINCT_NUMBER_CODE:
         throw new UnsupportedOperationException();
       default:
         throw new IllegalArgumentException("Unknown uri: " + uri);
     }
+    ImmutableSet<Long> ids;
+    int rows;
+    database.beginTransaction();
+    try {
+      ids = queryIds(database, selection, selectionArgs);
+      rows = database.update(AnnotatedCallLog.TABLE, values, selection, selectionArgs);
+      database.setTransactionSuccessful();
+    } finally {
+      database.endTransaction();
+    }
+    if (rows == 0) {
+      LogUtil.w("AnnotatedCallLogContentProvider.update", "no rows updated");
+      return rows;
+    }
+    onRowsChanged(AnnotatedCallLogChanges.builder().addUpdatedIds(ids).build());
+    return rows;
   }
 
   /**
@@ -282,8 +295,9 @@ public class AnnotatedCallLogContentProvider extends ContentProvider {
     }
 
     SQLiteDatabase database = databaseHelper.getWritableDatabase();
+    AnnotatedCallLogChanges changes;
     try {
-      applyingBatch.set(true);
+      batchChanges.set(AnnotatedCallLogChanges.builder());
       database.beginTransaction();
       for (int i = 0; i < operations.size(); i++) {
         ContentProviderOperation operation = operations.get(i);
@@ -323,11 +337,14 @@ public class AnnotatedCallLogContentProvider extends ContentProvider {
         results[i] = result;
       }
       database.setTransactionSuccessful();
+      changes = batchChanges.get().build();
     } finally {
-      applyingBatch.set(false);
+      batchChanges.remove();
       database.endTransaction();
     }
-    notifyChange(AnnotatedCallLog.CONTENT_URI);
+    if (!changes.isEmpty()) {
+      notifyChange(changes.toUri());
+    }
     return results;
   }
 
@@ -335,6 +352,42 @@ public class AnnotatedCallLogContentProvider extends ContentProvider {
     return AnnotatedCallLog._ID + "=" + id;
   }
 
+  /** Returns the IDs of the rows matching a selection, so that observers can be told about them. */
+  private static ImmutableSet<Long> queryIds(
+      SQLiteDatabase database, @Nullable String selection, @Nullable String[] selectionArgs) {
+    ImmutableSet.Builder<Long> ids = ImmutableSet.builder();
+    try (Cursor cursor =
+        database.query(
+            AnnotatedCallLog.TABLE,
+            new String[] {AnnotatedCallLog._ID},
+            selection,
+            selectionArgs,
+            null,
+            null,
+            null)) {
+      while (cursor.moveToNext()) {
+        ids.add(cursor.getLong(0));
+      }
+    }
+    return ids.build();
+  }
+
+  /**
+   * Notifies observers of the given changes, or adds them to the changes of the batch being applied
+   * on this thread.
+   */
+  private void onRowsChanged(AnnotatedCallLogChanges changes) {
+    AnnotatedCallLogChanges.Builder pendingChanges = batchChanges.get();
+    if (pendingChanges != null) {
+      pendingChanges
+          .addInsertedIds(changes.getInsertedIds())
+          .addUpdatedIds(changes.getUpdatedIds())
+          .addDeletedIds(changes.getDeletedIds());
+    } else {
+      notifyChange(changes.toUri());
+    }
+  }
+
   private void notifyChange(Uri uri) {
     getContext().getContentResolver().notifyChange(uri, /* observer = */ null);
   }
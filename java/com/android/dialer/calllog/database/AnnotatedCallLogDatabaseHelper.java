@@ -35,7 +35,7 @@ import javax.inject.Singleton;
 @Singleton
 public class AnnotatedCallLogDatabaseHelper extends SQLiteOpenHelper {
 
-  @VisibleForTesting static final int VERSION = 4;
+  @VisibleForTesting static final int VERSION = 5;
 
   private static final String FILENAME = "annotated_call_log.db";
 
@@ -143,6 +143,14 @@ public class AnnotatedCallLogDatabaseHelper extends SQLiteOpenHelper {
           + AnnotatedCallLog.NUMBER
           + ");";
 
+  /** Lets the call log be loaded one page at a time without sorting the whole table. */
+  private static final String CREATE_INDEX_ON_TIMESTAMP_SQL =
+      "create index timestamp_index on "
+          + AnnotatedCallLog.TABLE
+          + " ("
+          + AnnotatedCallLog.TIMESTAMP
+          + ");";
+
   @Override
   public void onCreate(SQLiteDatabase db) {
     LogUtil.enterBlock("AnnotatedCallLogDatabaseHelper.onCreate");
@@ -151,6 +159,7 @@ public class AnnotatedCallLogDatabaseHelper extends SQLiteOpenHelper {
     db.execSQL(String.format(Locale.US, CREATE_TRIGGER_SQL, maxRows, maxRows));
     db.execSQL(CREATE_INDEX_ON_CALL_TYPE_SQL);
     db.execSQL(CREATE_INDEX_ON_NUMBER_SQL);
+    db.execSQL(CREATE_INDEX_ON_TIMESTAMP_SQL);
     // TODO(zachh): Consider logging impression.
     LogUtil.i(
         "AnnotatedCallLogDatabaseHelper.onCreate",
@@ -169,6 +178,10 @@ public class AnnotatedCallLogDatabaseHelper extends SQLiteOpenHelper {
     if (oldVersion < 4) {
       upgradeToV4(db);
     }
+
+    if (oldVersion < 5) {
+      db.execSQL(CREATE_INDEX_ON_TIMESTAMP_SQL);
+    }
   }
 
   private static void upgradeToV2(SQLiteDatabase db) {
@@ -16,9 +16,9 @@
 package com.android.dialer.calllog.database;
 
 import android.database.Cursor;
-import android.database.StaleDataException;
 import android.provider.CallLog.Calls;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.annotation.WorkerThread;
 import android.telecom.PhoneAccountHandle;
 import android.text.TextUtils;
@@ -28,129 +28,322 @@ import com.android.dialer.NumberAttributes;
 import com.android.dialer.calllog.database.contract.AnnotatedCallLogContract.AnnotatedCallLog;
 import com.android.dialer.calllog.model.CoalescedRow;
 import com.android.dialer.common.Assert;
-import com.android.dialer.common.concurrent.Annotations.BackgroundExecutor;
+import com.android.dialer.common.LogUtil;
 import com.android.dialer.compat.telephony.TelephonyManagerCompat;
-import com.android.dialer.metrics.FutureTimer;
 import com.android.dialer.metrics.Metrics;
 import com.android.dialer.phonenumberproto.DialerPhoneNumberUtil;
 import com.android.dialer.telecom.TelecomUtil;
 import com.google.common.collect.ImmutableList;
-import com.google.common.util.concurrent.ListenableFuture;
-import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.protobuf.InvalidProtocolBufferException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
+import javax.annotation.concurrent.GuardedBy;
 import javax.inject.Inject;
+import javax.inject.Singleton;
 
-/** Combines adjacent rows in {@link AnnotatedCallLog}. */
+/**
+ * Combines adjacent rows in {@link AnnotatedCallLog}.
+ *
+ * <p>The rows and groups of the previous call to {@link #coalesce(Cursor)} are kept, so that only
+ * the groups around the rows which changed since then have to be rebuilt. A new call at the top of
+ * a long history rebuilds the newest group or two, and every other {@link CoalescedRow} is reused.
+ */
+@Singleton
 public class Coalescer {
 
-  private final FutureTimer futureTimer;
-  private final ListeningExecutorService backgroundExecutorService;
+  private final Metrics metrics;
+
+  @GuardedBy("this")
+  @Nullable
+  private Snapshot lastSnapshot;
 
   @Inject
-  Coalescer(
-      @BackgroundExecutor ListeningExecutorService backgroundExecutorService,
-      FutureTimer futureTimer) {
-    this.backgroundExecutorService = backgroundExecutorService;
-    this.futureTimer = futureTimer;
+  Coalescer(Metrics metrics) {
+    this.metrics = metrics;
   }
 
   /**
    * Given rows from {@link AnnotatedCallLog}, combine adjacent ones which should be collapsed for
    * display purposes.
    *
+   * <p>The cursor is read completely before this method returns and is not used afterwards, so the
+   * caller should own it for the duration of the call and may close it afterwards.
+   *
    * @param allAnnotatedCallLogRowsSortedByTimestampDesc {@link AnnotatedCallLog} rows sorted in
    *     descending order of timestamp.
-   * @return a future of a list of {@link CoalescedRow coalesced rows}, which will be used to
-   *     display call log entries.
+   * @return a list of {@link CoalescedRow coalesced rows}, which will be used to display call log
+   *     entries. The ID of each coalesced row is the ID of its most recent {@link AnnotatedCallLog}
+   *     row, so it is stable across calls as long as the group keeps its most recent call.
    */
-  public ListenableFuture<ImmutableList<CoalescedRow>> coalesce(
+  @WorkerThread
+  @NonNull
+  public synchronized ImmutableList<CoalescedRow> coalesce(
       @NonNull Cursor allAnnotatedCallLogRowsSortedByTimestampDesc) {
-    ListenableFuture<ImmutableList<CoalescedRow>> coalescingFuture =
-        backgroundExecutorService.submit(
-            () -> coalesceInternal(Assert.isNotNull(allAnnotatedCallLogRowsSortedByTimestampDesc)));
-    futureTimer.applyTiming(coalescingFuture, Metrics.NEW_CALL_LOG_COALESCE);
-    return coalescingFuture;
+    Assert.isWorkerThread();
+
+    Integer timerId = metrics.startUnnamedTimer();
+    List<SourceRow> rows = SourceRow.readAll(allAnnotatedCallLogRowsSortedByTimestampDesc);
+    lastSnapshot = coalesceChanges(rows, lastSnapshot, /* knownUnchangedRows = */ 0);
+    if (timerId != null) {
+      metrics.stopUnnamedTimer(timerId, Metrics.NEW_CALL_LOG_COALESCE);
+    }
+    return lastSnapshot.coalescedRows;
   }
 
   /**
-   * Reads the entire {@link AnnotatedCallLog} into memory from the provided cursor and then builds
-   * and returns a list of {@link CoalescedRow coalesced rows}, which is the result of combining
-   * adjacent rows which should be collapsed for display purposes.
+   * Appends the given rows, which must all be older than the rows passed to the previous call to
+   * this method or {@link #coalesce(Cursor)}, to those rows and combines them.
    *
-   * @param allAnnotatedCallLogRowsSortedByTimestampDesc {@link AnnotatedCallLog} rows sorted in
+   * <p>This allows the call log to be loaded one page at a time. The last group of the previous
+   * page is combined again with the new rows, so a group spanning the page boundary is the same as
+   * if both pages had been passed to {@link #coalesce(Cursor)} at once.
+   *
+   * @param olderAnnotatedCallLogRowsSortedByTimestampDesc {@link AnnotatedCallLog} rows sorted in
    *     descending order of timestamp.
-   * @return a list of {@link CoalescedRow coalesced rows}, which will be used to display call log
-   *     entries.
+   * @return the coalesced rows of the previous rows followed by the given rows.
    */
   @WorkerThread
   @NonNull
-  private ImmutableList<CoalescedRow> coalesceInternal(
-      Cursor allAnnotatedCallLogRowsSortedByTimestampDesc) throws ExpectedCoalescerException {
+  public synchronized ImmutableList<CoalescedRow> coalesceOlderRows(
+      @NonNull Cursor olderAnnotatedCallLogRowsSortedByTimestampDesc) {
     Assert.isWorkerThread();
 
-    ImmutableList.Builder<CoalescedRow> coalescedRowListBuilder = new ImmutableList.Builder<>();
+    Integer timerId = metrics.startUnnamedTimer();
+    List<SourceRow> olderRows = SourceRow.readAll(olderAnnotatedCallLogRowsSortedByTimestampDesc);
+    List<SourceRow> rows;
+    if (lastSnapshot == null) {
+      rows = olderRows;
+    } else {
+      rows = new ArrayList<>(lastSnapshot.rows.size() + olderRows.size());
+      rows.addAll(lastSnapshot.rows);
+      rows.addAll(olderRows);
+    }
+    lastSnapshot =
+        coalesceChanges(
+            rows,
+            lastSnapshot,
+            /* knownUnchangedRows = */ rows.size() - olderRows.size());
+    if (timerId != null) {
+      metrics.stopUnnamedTimer(timerId, Metrics.NEW_CALL_LOG_COALESCE_OLDER_ROWS);
+    }
+    return lastSnapshot.coalescedRows;
+  }
+
+  /**
+   * Drops the rows kept from the previous call to {@link #coalesce(Cursor)}, so that the next call
+   * coalesces all rows from scratch. To be called when the call log is no longer displayed.
+   */
+  public synchronized void reset() {
+    lastSnapshot = null;
+  }
 
-    try {
-      if (!allAnnotatedCallLogRowsSortedByTimestampDesc.moveToFirst()) {
-        return ImmutableList.of();
+  /**
+   * Coalesces {@code rows}, reusing the groups of {@code previous} which cannot be affected by the
+   * rows that changed. The first {@code knownUnchangedRows} rows are known to be the same as in
+   * {@code previous} and are not compared.
+   *
+   * <p>The changed rows are the window between the longest common prefix and the longest common
+   * suffix of the old and new rows. Groups ending before the window are kept as they are. Grouping
+   * restarts at the start of the group the window would extend, and stops as soon as a new group
+   * past the window starts at the same row as an old one, because from there on the old groups are
+   * reproduced exactly.
+   */
+  private static Snapshot coalesceChanges(
+      List<SourceRow> rows, @Nullable Snapshot previous, int knownUnchangedRows) {
+    List<SourceRow> oldRows = previous == null ? new ArrayList<>() : previous.rows;
+    int oldGroupCount = previous == null ? 0 : previous.groupStarts.length;
+
+    int prefix = Math.min(knownUnchangedRows, oldRows.size());
+    while (prefix < oldRows.size()
+        && prefix < rows.size()
+        && oldRows.get(prefix).hasSameValues(rows.get(prefix))) {
+      prefix++;
+    }
+    int suffix = 0;
+    while (suffix < oldRows.size() - prefix
+        && suffix < rows.size() - prefix
+        && oldRows
+            .get(oldRows.size() - 1 - suffix)
+            .hasSameValues(rows.get(rows.size() - 1 - suffix))) {
+      suffix++;
+    }
+    int firstUnchangedRow = rows.size() - suffix;
+    int shift = rows.size() - oldRows.size();
+
+    ImmutableList.Builder<CoalescedRow> coalescedRows = ImmutableList.builder();
+    int[] groupStarts = new int[rows.size()];
+    int groupCount = 0;
+
+    // A group is only kept if the row that ended it is unchanged, i.e. it ends before the window.
+    int oldGroup = 0;
+    while (oldGroup < oldGroupCount && previous.getGroupEnd(oldGroup) < prefix) {
+      coalescedRows.add(previous.coalescedRows.get(oldGroup));
+      groupStarts[groupCount++] = previous.groupStarts[oldGroup];
+      oldGroup++;
+    }
+    int reusedGroups = oldGroup;
+
+    RowCombiner rowCombiner = null;
+    int position = oldGroup < oldGroupCount ? previous.groupStarts[oldGroup] : 0;
+    while (position < rows.size()) {
+      if (previous != null && position >= firstUnchangedRow) {
+        int matchingOldGroup = Arrays.binarySearch(previous.groupStarts, position - shift);
+        if (matchingOldGroup >= 0) {
+          for (int i = matchingOldGroup; i < oldGroupCount; i++) {
+            coalescedRows.add(previous.coalescedRows.get(i));
+            groupStarts[groupCount++] = previous.groupStarts[i] + shift;
+          }
+          reusedGroups += oldGroupCount - matchingOldGroup;
+          break;
+        }
       }
 
-      RowCombiner rowCombiner = new RowCombiner(allAnnotatedCallLogRowsSortedByTimestampDesc);
+      if (rowCombiner == null) {
+        rowCombiner = new RowCombiner();
+      }
       rowCombiner.startNewGroup();
+      groupStarts[groupCount++] = position;
+      // The first row of a group is always merged.
+      while (position < rows.size() && rowCombiner.mergeRow(rows.get(position))) {
+        position++;
+      }
+      coalescedRows.add(rowCombiner.combine());
+    }
 
-      long coalescedRowId = 0;
-      do {
-        boolean isRowMerged = rowCombiner.mergeRow(allAnnotatedCallLogRowsSortedByTimestampDesc);
+    LogUtil.i(
+        "Coalescer.coalesceChanges",
+        "%d rows, %d changed, %d of %d groups reused",
+        rows.size(),
+        Math.max(0, firstUnchangedRow - prefix),
+        reusedGroups,
+        groupCount);
+    return new Snapshot(rows, coalescedRows.build(), Arrays.copyOf(groupStarts, groupCount));
+  }
 
-        if (isRowMerged) {
-          allAnnotatedCallLogRowsSortedByTimestampDesc.moveToNext();
-        }
+  /** The rows passed to {@link #coalesce(Cursor)} and the groups they were combined into. */
+  private static final class Snapshot {
+    private final List<SourceRow> rows;
+    private final ImmutableList<CoalescedRow> coalescedRows;
 
-        if (!isRowMerged || allAnnotatedCallLogRowsSortedByTimestampDesc.isAfterLast()) {
-          coalescedRowListBuilder.add(
-              rowCombiner.combine().toBuilder().setId(coalescedRowId++).build());
-          rowCombiner.startNewGroup();
-        }
-      } while (!allAnnotatedCallLogRowsSortedByTimestampDesc.isAfterLast());
+    /** Position in {@link #rows} of the first row of each group, in increasing order. */
+    private final int[] groupStarts;
+
+    Snapshot(List<SourceRow> rows, ImmutableList<CoalescedRow> coalescedRows, int[] groupStarts) {
+      this.rows = rows;
+      this.coalescedRows = coalescedRows;
+      this.groupStarts = groupStarts;
+    }
 
-      return coalescedRowListBuilder.build();
+    /** Returns the position in {@link #rows} after the last row of the given group. */
+    int getGroupEnd(int group) {
+      return group + 1 < groupStarts.length ? groupStarts[group + 1] : rows.size();
+    }
+  }
 
-    } catch (Exception exception) {
-      // Coalescing can fail if cursor "allAnnotatedCallLogRowsSortedByTimestampDesc" is closed by
-      // its loader while the work is still in progress.
-      //
-      // This can happen when the loader restarts and finishes loading data before the coalescing
-      // work is completed.
-      //
-      // This kind of failure doesn't have to crash the app as coalescing will be restarted on the
-      // latest data obtained by the loader. Therefore, we inspect the exception here and throw an
-      // ExpectedCoalescerException if it is the case described above.
-      //
-      // The type of expected exception depends on whether AbstractWindowedCursor#checkPosition() is
-      // called when the cursor is closed.
-      //   (1) If it is called before the cursor is closed, we will get IllegalStateException thrown
-      //       by SQLiteClosable when it attempts to acquire a reference to the database.
-      //   (2) Otherwise, we will get StaleDataException thrown by AbstractWindowedCursor's
-      //       checkPosition() method.
-      //
-      // Note that it would be more accurate to inspect the stack trace to locate the origin of the
-      // exception. However, according to the documentation on Throwable#getStackTrace, "some
-      // virtual machines may, under some circumstances, omit one or more stack frames from the
-      // stack trace". "In the extreme case, a virtual machine that has no stack trace information
-      // concerning this throwable is permitted to return a zero-length array from this method."
-      // Therefore, the best we can do is to inspect the message in the exception.
-      // TODO(linyuh): try to avoid the expected failure.
-      String message = exception.getMessage();
-      if (message != null
-          && ((exception instanceof StaleDataException
-                  && message.startsWith("Attempting to access a closed CursorWindow"))
-              || (exception instanceof IllegalStateException
-                  && message.startsWith("attempt to re-open an already-closed object")))) {
-        throw new ExpectedCoalescerException(exception);
+  /** The values of the {@link AnnotatedCallLog} columns that are used for coalescing. */
+  private static final class SourceRow {
+    private final long id;
+    private final long timestamp;
+    @Nullable private final byte[] number;
+    @Nullable private final String formattedNumber;
+    private final int numberPresentation;
+    private final boolean isRead;
+    private final boolean isNew;
+    @Nullable private final String geocodedLocation;
+    @Nullable private final String phoneAccountComponentName;
+    @Nullable private final String phoneAccountId;
+    private final int features;
+    @Nullable private final byte[] numberAttributes;
+    private final boolean isVoicemailCall;
+    @Nullable private final String voicemailCallTag;
+    private final int callType;
+
+    private SourceRow(Cursor cursor, ColumnIndexes columns) {
+      id = cursor.getLong(columns.id);
+      timestamp = cursor.getLong(columns.timestamp);
+      number = cursor.getBlob(columns.number);
+      formattedNumber = cursor.getString(columns.formattedNumber);
+      numberPresentation = cursor.getInt(columns.numberPresentation);
+      isRead = cursor.getInt(columns.isRead) == 1;
+      isNew = cursor.getInt(columns.isNew) == 1;
+      geocodedLocation = cursor.getString(columns.geocodedLocation);
+      phoneAccountComponentName = cursor.getString(columns.phoneAccountComponentName);
+      phoneAccountId = cursor.getString(columns.phoneAccountId);
+      features = cursor.getInt(columns.features);
+      numberAttributes = cursor.getBlob(columns.numberAttributes);
+      isVoicemailCall = cursor.getInt(columns.isVoicemailCall) == 1;
+      voicemailCallTag = cursor.getString(columns.voicemailCallTag);
+      callType = cursor.getInt(columns.callType);
+    }
+
+    static List<SourceRow> readAll(Cursor cursor) {
+      List<SourceRow> rows = new ArrayList<>(cursor.getCount());
+      if (!cursor.moveToFirst()) {
+        return rows;
       }
+      ColumnIndexes columns = new ColumnIndexes(cursor);
+      do {
+        rows.add(new SourceRow(cursor, columns));
+      } while (cursor.moveToNext());
+      return rows;
+    }
+
+    boolean hasSameValues(SourceRow other) {
+      return id == other.id
+          && timestamp == other.timestamp
+          && numberPresentation == other.numberPresentation
+          && isRead == other.isRead
+          && isNew == other.isNew
+          && features == other.features
+          && isVoicemailCall == other.isVoicemailCall
+          && callType == other.callType
+          && Arrays.equals(number, other.number)
+          && Arrays.equals(numberAttributes, other.numberAttributes)
+          && TextUtils.equals(formattedNumber, other.formattedNumber)
+          && TextUtils.equals(geocodedLocation, other.geocodedLocation)
+          && TextUtils.equals(phoneAccountComponentName, other.phoneAccountComponentName)
+          && TextUtils.equals(phoneAccountId, other.phoneAccountId)
+          && TextUtils.equals(voicemailCallTag, other.voicemailCallTag);
+    }
+  }
 
-      throw exception;
+  /** Indexes for columns in {@link AnnotatedCallLog}. */
+  private static final class ColumnIndexes {
+    private final int id;
+    private final int timestamp;
+    private final int number;
+    private final int formattedNumber;
+    private final int numberPresentation;
+    private final int isRead;
+    private final int isNew;
+    private final int geocodedLocation;
+    private final int phoneAccountComponentName;
+    private final int phoneAccountId;
+    private final int features;
+    private final int numberAttributes;
+    private final int isVoicemailCall;
+    private final int voicemailCallTag;
+    private final int callType;
+
+    ColumnIndexes(Cursor cursor) {
+      id = cursor.getColumnIndexOrThrow(AnnotatedCallLog._ID);
+      timestamp = cursor.getColumnIndexOrThrow(AnnotatedCallLog.TIMESTAMP);
+      number = cursor.getColumnIndexOrThrow(AnnotatedCallLog.NUMBER);
+      formattedNumber = cursor.getColumnIndexOrThrow(AnnotatedCallLog.FORMATTED_NUMBER);
+      numberPresentation = cursor.getColumnIndexOrThrow(AnnotatedCallLog.NUMBER_PRESENTATION);
+      isRead = cursor.getColumnIndexOrThrow(AnnotatedCallLog.IS_READ);
+      isNew = cursor.getColumnIndexOrThrow(AnnotatedCallLog.NEW);
+      geocodedLocation = cursor.getColumnIndexOrThrow(AnnotatedCallLog.GEOCODED_LOCATION);
+      phoneAccountComponentName =
+          cursor.getColumnIndexOrThrow(AnnotatedCallLog.PHONE_ACCOUNT_COMPONENT_NAME);
+      phoneAccountId = cursor.getColumnIndexOrThrow(AnnotatedCallLog.PHONE_ACCOUNT_ID);
+      features = cursor.getColumnIndexOrThrow(AnnotatedCallLog.FEATURES);
+      numberAttributes = cursor.getColumnIndexOrThrow(AnnotatedCallLog.NUMBER_ATTRIBUTES);
+      isVoicemailCall = cursor.getColumnIndexOrThrow(AnnotatedCallLog.IS_VOICEMAIL_CALL);
+      voicemailCallTag = cursor.getColumnIndexOrThrow(AnnotatedCallLog.VOICEMAIL_CALL_TAG);
+      callType = cursor.getColumnIndexOrThrow(AnnotatedCallLog.CALL_TYPE);
     }
   }
 
@@ -159,52 +352,9 @@ public class Coalescer {
     private final CoalescedRow.Builder coalescedRowBuilder = CoalescedRow.newBuilder();
     private final CoalescedIds.Builder coalescedIdsBuilder = CoalescedIds.newBuilder();
 
-    // Indexes for columns in AnnotatedCallLog
-    private final int idColumn;
-    private final int timestampColumn;
-    private final int numberColumn;
-    private final int formattedNumberColumn;
-    private final int numberPresentationColumn;
-    private final int isReadColumn;
-    private final int isNewColumn;
-    private final int geocodedLocationColumn;
-    private final int phoneAccountComponentNameColumn;
-    private final int phoneAccountIdColumn;
-    private final int featuresColumn;
-    private final int numberAttributesColumn;
-    private final int isVoicemailCallColumn;
-    private final int voicemailCallTagColumn;
-    private final int callTypeColumn;
-
     // DialerPhoneNumberUtil will be created lazily as its instantiation is expensive.
     private DialerPhoneNumberUtil dialerPhoneNumberUtil = null;
 
-    RowCombiner(Cursor annotatedCallLogRow) {
-      idColumn = annotatedCallLogRow.getColumnIndexOrThrow(AnnotatedCallLog._ID);
-      timestampColumn = annotatedCallLogRow.getColumnIndexOrThrow(AnnotatedCallLog.TIMESTAMP);
-      numberColumn = annotatedCallLogRow.getColumnIndexOrThrow(AnnotatedCallLog.NUMBER);
-      formattedNumberColumn =
-          annotatedCallLogRow.getColumnIndexOrThrow(AnnotatedCallLog.FORMATTED_NUMBER);
-      numberPresentationColumn =
-          annotatedCallLogRow.getColumnIndexOrThrow(AnnotatedCallLog.NUMBER_PRESENTATION);
-      isReadColumn = annotatedCallLogRow.getColumnIndexOrThrow(AnnotatedCallLog.IS_READ);
-      isNewColumn = annotatedCallLogRow.getColumnIndexOrThrow(AnnotatedCallLog.NEW);
-      geocodedLocationColumn =
-          annotatedCallLogRow.getColumnIndexOrThrow(AnnotatedCallLog.GEOCODED_LOCATION);
-      phoneAccountComponentNameColumn =
-          annotatedCallLogRow.getColumnIndexOrThrow(AnnotatedCallLog.PHONE_ACCOUNT_COMPONENT_NAME);
-      phoneAccountIdColumn =
-          annotatedCallLogRow.getColumnIndexOrThrow(AnnotatedCallLog.PHONE_ACCOUNT_ID);
-      featuresColumn = annotatedCallLogRow.getColumnIndexOrThrow(AnnotatedCallLog.FEATURES);
-      numberAttributesColumn =
-          annotatedCallLogRow.getColumnIndexOrThrow(AnnotatedCallLog.NUMBER_ATTRIBUTES);
-      isVoicemailCallColumn =
-          annotatedCallLogRow.getColumnIndexOrThrow(AnnotatedCallLog.IS_VOICEMAIL_CALL);
-      voicemailCallTagColumn =
-          annotatedCallLogRow.getColumnIndexOrThrow(AnnotatedCallLog.VOICEMAIL_CALL_TAG);
-      callTypeColumn = annotatedCallLogRow.getColumnIndexOrThrow(AnnotatedCallLog.CALL_TYPE);
-    }
-
     /**
      * Prepares {@link RowCombiner} for building a new group of rows by clearing information on all
      * previously merged rows.
@@ -219,8 +369,8 @@ public class Coalescer {
      *
      * @return true if the given row is merged.
      */
-    boolean mergeRow(Cursor annotatedCallLogRow) {
-      Assert.checkArgument(annotatedCallLogRow.getInt(callTypeColumn) != Calls.VOICEMAIL_TYPE);
+    boolean mergeRow(SourceRow annotatedCallLogRow) {
+      Assert.checkArgument(annotatedCallLogRow.callType != Calls.VOICEMAIL_TYPE);
 
       if (!canMergeRow(annotatedCallLogRow)) {
         return false;
@@ -232,7 +382,7 @@ public class Coalescer {
       // If any call in a group includes a feature (like Wifi/HD), consider the group to have
       // the feature.
       coalescedRowBuilder.setFeatures(
-          coalescedRowBuilder.getFeatures() | annotatedCallLogRow.getInt(featuresColumn));
+          coalescedRowBuilder.getFeatures() | annotatedCallLogRow.features);
 
       // Set fields that use the most recent value.
       // Rows passed to Coalescer are already sorted in descending order of timestamp. If the
@@ -240,61 +390,56 @@ public class Coalescer {
       // group and there is no need to continue as we only set fields that use the most recent value
       // from this point forward.
       if (!coalescedIdsBuilder.getCoalescedIdList().isEmpty()) {
-        coalescedIdsBuilder.addCoalescedId(annotatedCallLogRow.getInt(idColumn));
+        coalescedIdsBuilder.addCoalescedId(annotatedCallLogRow.id);
         return true;
       }
 
       coalescedRowBuilder
-          .setTimestamp(annotatedCallLogRow.getLong(timestampColumn))
-          .setNumberPresentation(annotatedCallLogRow.getInt(numberPresentationColumn))
-          .setIsRead(annotatedCallLogRow.getInt(isReadColumn) == 1)
-          .setIsNew(annotatedCallLogRow.getInt(isNewColumn) == 1)
-          .setIsVoicemailCall(annotatedCallLogRow.getInt(isVoicemailCallColumn) == 1)
-          .setCallType(annotatedCallLogRow.getInt(callTypeColumn));
+          .setId(annotatedCallLogRow.id)
+          .setTimestamp(annotatedCallLogRow.timestamp)
+          .setNumberPresentation(annotatedCallLogRow.numberPresentation)
+          .setIsRead(annotatedCallLogRow.isRead)
+          .setIsNew(annotatedCallLogRow.isNew)
+          .setIsVoicemailCall(annotatedCallLogRow.isVoicemailCall)
+          .setCallType(annotatedCallLogRow.callType);
 
       // Two different DialerPhoneNumbers could be combined if they are different but considered
       // to be a match by libphonenumber; in this case we arbitrarily select the most recent one.
       try {
-        coalescedRowBuilder.setNumber(
-            DialerPhoneNumber.parseFrom(annotatedCallLogRow.getBlob(numberColumn)));
+        coalescedRowBuilder.setNumber(DialerPhoneNumber.parseFrom(annotatedCallLogRow.number));
       } catch (InvalidProtocolBufferException e) {
         throw Assert.createAssertionFailException("Unable to parse DialerPhoneNumber bytes", e);
       }
 
-      String formattedNumber = annotatedCallLogRow.getString(formattedNumberColumn);
-      if (!TextUtils.isEmpty(formattedNumber)) {
-        coalescedRowBuilder.setFormattedNumber(formattedNumber);
+      if (!TextUtils.isEmpty(annotatedCallLogRow.formattedNumber)) {
+        coalescedRowBuilder.setFormattedNumber(annotatedCallLogRow.formattedNumber);
       }
 
-      String geocodedLocation = annotatedCallLogRow.getString(geocodedLocationColumn);
-      if (!TextUtils.isEmpty(geocodedLocation)) {
-        coalescedRowBuilder.setGeocodedLocation(geocodedLocation);
+      if (!TextUtils.isEmpty(annotatedCallLogRow.geocodedLocation)) {
+        coalescedRowBuilder.setGeocodedLocation(annotatedCallLogRow.geocodedLocation);
       }
 
-      String phoneAccountComponentName =
-          annotatedCallLogRow.getString(phoneAccountComponentNameColumn);
-      if (!TextUtils.isEmpty(phoneAccountComponentName)) {
-        coalescedRowBuilder.setPhoneAccountComponentName(phoneAccountComponentName);
+      if (!TextUtils.isEmpty(annotatedCallLogRow.phoneAccountComponentName)) {
+        coalescedRowBuilder.setPhoneAccountComponentName(
+            annotatedCallLogRow.phoneAccountComponentName);
       }
 
-      String phoneAccountId = annotatedCallLogRow.getString(phoneAccountIdColumn);
-      if (!TextUtils.isEmpty(phoneAccountId)) {
-        coalescedRowBuilder.setPhoneAccountId(phoneAccountId);
+      if (!TextUtils.isEmpty(annotatedCallLogRow.phoneAccountId)) {
+        coalescedRowBuilder.setPhoneAccountId(annotatedCallLogRow.phoneAccountId);
       }
 
       try {
         coalescedRowBuilder.setNumberAttributes(
-            NumberAttributes.parseFrom(annotatedCallLogRow.getBlob(numberAttributesColumn)));
+            NumberAttributes.parseFrom(annotatedCallLogRow.numberAttributes));
       } catch (InvalidProtocolBufferException e) {
         throw Assert.createAssertionFailException("Unable to parse NumberAttributes bytes", e);
       }
 
-      String voicemailCallTag = annotatedCallLogRow.getString(voicemailCallTagColumn);
-      if (!TextUtils.isEmpty(voicemailCallTag)) {
-        coalescedRowBuilder.setVoicemailCallTag(voicemailCallTag);
+      if (!TextUtils.isEmpty(annotatedCallLogRow.voicemailCallTag)) {
+        coalescedRowBuilder.setVoicemailCallTag(annotatedCallLogRow.voicemailCallTag);
       }
 
-      coalescedIdsBuilder.addCoalescedId(annotatedCallLogRow.getInt(idColumn));
+      coalescedIdsBuilder.addCoalescedId(annotatedCallLogRow.id);
       return true;
     }
 
@@ -306,7 +451,7 @@ public class Coalescer {
     /**
      * Returns true if the given {@link AnnotatedCallLog} row can be merged into the current group.
      */
-    private boolean canMergeRow(Cursor annotatedCallLogRow) {
+    private boolean canMergeRow(SourceRow annotatedCallLogRow) {
       return coalescedIdsBuilder.getCoalescedIdList().isEmpty()
           || (samePhoneAccount(annotatedCallLogRow)
               && sameNumberPresentation(annotatedCallLogRow)
@@ -314,27 +459,25 @@ public class Coalescer {
               && meetsDialerPhoneNumberCriteria(annotatedCallLogRow));
     }
 
-    private boolean samePhoneAccount(Cursor annotatedCallLogRow) {
+    private boolean samePhoneAccount(SourceRow annotatedCallLogRow) {
       PhoneAccountHandle groupPhoneAccountHandle =
           TelecomUtil.composePhoneAccountHandle(
               coalescedRowBuilder.getPhoneAccountComponentName(),
               coalescedRowBuilder.getPhoneAccountId());
       PhoneAccountHandle rowPhoneAccountHandle =
           TelecomUtil.composePhoneAccountHandle(
-              annotatedCallLogRow.getString(phoneAccountComponentNameColumn),
-              annotatedCallLogRow.getString(phoneAccountIdColumn));
+              annotatedCallLogRow.phoneAccountComponentName, annotatedCallLogRow.phoneAccountId);
 
       return Objects.equals(groupPhoneAccountHandle, rowPhoneAccountHandle);
     }
 
-    private boolean sameNumberPresentation(Cursor annotatedCallLogRow) {
-      return coalescedRowBuilder.getNumberPresentation()
-          == annotatedCallLogRow.getInt(numberPresentationColumn);
+    private boolean sameNumberPresentation(SourceRow annotatedCallLogRow) {
+      return coalescedRowBuilder.getNumberPresentation() == annotatedCallLogRow.numberPresentation;
     }
 
-    private boolean meetsCallFeatureCriteria(Cursor annotatedCallLogRow) {
+    private boolean meetsCallFeatureCriteria(SourceRow annotatedCallLogRow) {
       int groupFeatures = coalescedRowBuilder.getFeatures();
-      int rowFeatures = annotatedCallLogRow.getInt(featuresColumn);
+      int rowFeatures = annotatedCallLogRow.features;
 
       // A row with FEATURES_ASSISTED_DIALING should not be combined with one without it.
       if ((groupFeatures & TelephonyManagerCompat.FEATURES_ASSISTED_DIALING)
@@ -355,16 +498,15 @@ public class Coalescer {
       return true;
     }
 
-    private boolean meetsDialerPhoneNumberCriteria(Cursor annotatedCallLogRow) {
+    private boolean meetsDialerPhoneNumberCriteria(SourceRow annotatedCallLogRow) {
       DialerPhoneNumber groupPhoneNumber = coalescedRowBuilder.getNumber();
 
       DialerPhoneNumber rowPhoneNumber;
       try {
-        byte[] rowPhoneNumberBytes = annotatedCallLogRow.getBlob(numberColumn);
-        if (rowPhoneNumberBytes == null) {
+        if (annotatedCallLogRow.number == null) {
           return false; // Empty numbers should not be combined.
         }
-        rowPhoneNumber = DialerPhoneNumber.parseFrom(rowPhoneNumberBytes);
+        rowPhoneNumber = DialerPhoneNumber.parseFrom(annotatedCallLogRow.number);
       } catch (InvalidProtocolBufferException e) {
         throw Assert.createAssertionFailException("Unable to parse DialerPhoneNumber bytes", e);
       }
@@ -376,11 +518,4 @@ public class Coalescer {
       return dialerPhoneNumberUtil.isMatch(groupPhoneNumber, rowPhoneNumber);
     }
   }
-
-  /** A checked exception thrown when expected failure happens when coalescing is in progress. */
-  public static final class ExpectedCoalescerException extends Exception {
-    ExpectedCoalescerException(Throwable throwable) {
-      super("Expected coalescing exception", throwable);
-    }
-  }
 }
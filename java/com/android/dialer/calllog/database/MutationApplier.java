@@ -20,33 +20,62 @@ import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.OperationApplicationException;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.os.RemoteException;
+import android.os.SystemClock;
+import android.support.annotation.VisibleForTesting;
 import android.support.annotation.WorkerThread;
 import android.text.TextUtils;
+import android.util.ArrayMap;
+import com.android.dialer.calllog.database.AnnotatedCallLogConstraints.Operation;
+import com.android.dialer.calllog.database.contract.AnnotatedCallLogChanges;
 import com.android.dialer.calllog.database.contract.AnnotatedCallLogContract;
 import com.android.dialer.calllog.database.contract.AnnotatedCallLogContract.AnnotatedCallLog;
 import com.android.dialer.calllog.datasources.CallLogMutations;
 import com.android.dialer.common.Assert;
 import com.android.dialer.common.LogUtil;
 import com.android.dialer.common.concurrent.Annotations.BackgroundExecutor;
+import com.android.dialer.metrics.FutureTimer;
+import com.android.dialer.metrics.Metrics;
 import com.google.common.collect.Iterables;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.function.Function;
 import javax.inject.Inject;
 
 /** Applies {@link CallLogMutations} to the annotated call log. */
 public class MutationApplier {
 
+  /**
+   * Mutations affecting at least this many rows, typically from the initial build of the annotated
+   * call log, are written directly to the database instead of through the content provider.
+   */
+  @VisibleForTesting static final int BULK_WRITE_THRESHOLD = 100;
+
+  /** Number of rows written in each transaction when writing directly to the database. */
+  @VisibleForTesting static final int ROWS_PER_TRANSACTION = 200;
+
   private final ListeningExecutorService backgroundExecutorService;
+  private final AnnotatedCallLogDatabaseHelper databaseHelper;
+  private final FutureTimer futureTimer;
 
   @Inject
-  public MutationApplier(@BackgroundExecutor ListeningExecutorService backgroundExecutorService) {
+  public MutationApplier(
+      @BackgroundExecutor ListeningExecutorService backgroundExecutorService,
+      AnnotatedCallLogDatabaseHelper databaseHelper,
+      FutureTimer futureTimer) {
     this.backgroundExecutorService = backgroundExecutorService;
+    this.databaseHelper = databaseHelper;
+    this.futureTimer = futureTimer;
   }
 
   /** Applies the provided {@link CallLogMutations} to the annotated call log. */
@@ -54,6 +83,16 @@ public class MutationApplier {
     if (mutations.isEmpty()) {
       return Futures.immediateFuture(null);
     }
+    if (getRowCount(mutations) >= BULK_WRITE_THRESHOLD) {
+      ListenableFuture<Void> bulkWriteFuture =
+          backgroundExecutorService.submit(
+              () -> {
+                applyToDatabaseInChunks(mutations, appContext);
+                return null;
+              });
+      futureTimer.applyTiming(bulkWriteFuture, Metrics.ANNOTATED_CALL_LOG_BULK_WRITE_EVENT_NAME);
+      return bulkWriteFuture;
+    }
     return backgroundExecutorService.submit(
         () -> {
           applyToDatabaseInternal(mutations, appContext);
@@ -61,6 +100,12 @@ public class MutationApplier {
         });
   }
 
+  private static int getRowCount(CallLogMutations mutations) {
+    return mutations.getInserts().size()
+        + mutations.getUpdates().size()
+        + mutations.getDeletes().size();
+  }
+
   @WorkerThread
   private void applyToDatabaseInternal(CallLogMutations mutations, Context appContext)
       throws RemoteException, OperationApplicationException {
@@ -124,4 +169,177 @@ public class MutationApplier {
 
     appContext.getContentResolver().applyBatch(AnnotatedCallLogContract.AUTHORITY, operations);
   }
+
+  /**
+   * Writes the mutations directly to the database through compiled statements, which are reused
+   * for all rows with the same columns.
+   *
+   * <p>Rows are written in transactions of {@link #ROWS_PER_TRANSACTION} rows rather than in a
+   * single one, so that queries of the annotated call log, e.g. by the UI, are not blocked until
+   * the whole write is done. If a later transaction fails, the rows already written are picked up
+   * as existing rows by the next refresh. As with {@link
+   * AnnotatedCallLogContentProvider#applyBatch(ArrayList)}, a single change notification is sent at
+   * the end, listing all mutations; it is also sent if a later transaction fails, as long as an
+   * earlier one was committed.
+   */
+  @WorkerThread
+  private void applyToDatabaseInChunks(CallLogMutations mutations, Context appContext) {
+    Assert.isWorkerThread();
+
+    long startTime = SystemClock.elapsedRealtime();
+    SQLiteDatabase database = databaseHelper.getWritableDatabase();
+    Map<String, SQLiteStatement> statements = new ArrayMap<>();
+    boolean successful = false;
+    int rowsWritten = 0;
+    database.beginTransaction();
+    try {
+
+      for (Entry<Long, ContentValues> entry : mutations.getInserts().entrySet()) {
+        ContentValues contentValues = entry.getValue();
+        AnnotatedCallLogConstraints.check(contentValues, Operation.INSERT);
+        List<String> columns = getSortedColumns(contentValues);
+        SQLiteStatement statement =
+            getStatement(database, statements, "insert", columns, MutationApplier::buildInsertSql);
+        bindValues(statement, 2, columns, contentValues);
+        statement.bindLong(1, entry.getKey());
+        if (statement.executeInsert() < 0) {
+          throw new IllegalStateException("error inserting row " + entry.getKey());
+        }
+        commitIfFull(database, ++rowsWritten);
+      }
+
+      for (Entry<Long, ContentValues> entry : mutations.getUpdates().entrySet()) {
+        ContentValues contentValues = entry.getValue();
+        AnnotatedCallLogConstraints.check(contentValues, Operation.UPDATE);
+        List<String> columns = getSortedColumns(contentValues);
+        SQLiteStatement statement =
+            getStatement(database, statements, "update", columns, MutationApplier::buildUpdateSql);
+        bindValues(statement, 1, columns, contentValues);
+        statement.bindLong(columns.size() + 1, entry.getKey());
+        // The row may have been deleted by the trigger limiting the size of the table when rows
+        // were inserted above.
+        statement.executeUpdateDelete();
+        commitIfFull(database, ++rowsWritten);
+      }
+
+      SQLiteStatement deleteStatement =
+          getStatement(
+              database,
+              statements,
+              "delete",
+              Collections.emptyList(),
+              MutationApplier::buildDeleteSql);
+      for (long id : mutations.getDeletes()) {
+        deleteStatement.bindLong(1, id);
+        deleteStatement.executeUpdateDelete();
+        commitIfFull(database, ++rowsWritten);
+      }
+
+      database.setTransactionSuccessful();
+      successful = true;
+    } finally {
+      database.endTransaction();
+      for (SQLiteStatement statement : statements.values()) {
+        statement.close();
+      }
+      if (successful || rowsWritten >= ROWS_PER_TRANSACTION) {
+        AnnotatedCallLogChanges changes =
+            AnnotatedCallLogChanges.builder()
+                .addInsertedIds(mutations.getInserts().keySet())
+                .addUpdatedIds(mutations.getUpdates().keySet())
+                .addDeletedIds(mutations.getDeletes())
+                .build();
+        appContext.getContentResolver().notifyChange(changes.toUri(), null);
+      }
+    }
+
+    long elapsedMillis = Math.max(1, SystemClock.elapsedRealtime() - startTime);
+    int rowCount = getRowCount(mutations);
+    LogUtil.i(
+        "MutationApplier.applyToDatabaseInChunks",
+        "wrote %d rows in %dms (%d rows/s)",
+        rowCount,
+        elapsedMillis,
+        rowCount * 1000L / elapsedMillis);
+  }
+
+  /**
+   * Commits the current transaction and starts a new one if it holds {@link #ROWS_PER_TRANSACTION}
+   * rows, giving other connections waiting for the database a chance to run in between.
+   *
+   * @param rowsWritten the number of rows written so far, including the current transaction
+   */
+  private static void commitIfFull(SQLiteDatabase database, int rowsWritten) {
+    if (rowsWritten % ROWS_PER_TRANSACTION != 0) {
+      return;
+    }
+    database.setTransactionSuccessful();
+    database.endTransaction();
+    database.beginTransaction();
+  }
+
+  private static List<String> getSortedColumns(ContentValues contentValues) {
+    List<String> columns = new ArrayList<>(contentValues.keySet());
+    columns.remove(AnnotatedCallLog._ID);
+    Collections.sort(columns);
+    return columns;
+  }
+
+  private static SQLiteStatement getStatement(
+      SQLiteDatabase database,
+      Map<String, SQLiteStatement> statements,
+      String operation,
+      List<String> columns,
+      Function<List<String>, String> sqlBuilder) {
+    String key = operation + ":" + TextUtils.join(",", columns);
+    SQLiteStatement statement = statements.get(key);
+    if (statement == null) {
+      statement = database.compileStatement(sqlBuilder.apply(columns));
+      statements.put(key, statement);
+    }
+    return statement;
+  }
+
+  private static String buildInsertSql(List<String> columns) {
+    StringBuilder sql =
+        new StringBuilder("insert into ")
+            .append(AnnotatedCallLog.TABLE)
+            .append(" (")
+            .append(AnnotatedCallLog._ID);
+    for (String column : columns) {
+      sql.append(", ").append(column);
+    }
+    sql.append(") values (?");
+    for (int i = 0; i < columns.size(); i++) {
+      sql.append(", ?");
+    }
+    return sql.append(")").toString();
+  }
+
+  private static String buildUpdateSql(List<String> columns) {
+    String[] assignments = new String[columns.size()];
+    for (int i = 0; i < columns.size(); i++) {
+      assignments[i] = columns.get(i) + "=?";
+    }
+    return "update "
+        + AnnotatedCallLog.TABLE
+        + " set "
+        + TextUtils.join(", ", assignments)
+        + " where "
+        + AnnotatedCallLog._ID
+        + "=?";
+  }
+
+  private static String buildDeleteSql(List<String> unused) {
+    return "delete from " + AnnotatedCallLog.TABLE + " where " + AnnotatedCallLog._ID + "=?";
+  }
+
+  /** Clears the bindings of the statement, so the row ID must be bound afterwards. */
+  private static void bindValues(
+      SQLiteStatement statement, int firstIndex, List<String> columns, ContentValues values) {
+    statement.clearBindings();
+    for (int i = 0; i < columns.size(); i++) {
+      DatabaseUtils.bindObjectToProgram(statement, firstIndex + i, values.get(columns.get(i)));
+    }
+  }
 }
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.dialer.calllog.database.contract;
+
+import android.content.ContentUris;
+import android.net.Uri;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+import com.android.dialer.calllog.database.contract.AnnotatedCallLogContract.AnnotatedCallLog;
+import com.google.common.collect.ImmutableSet;
+import java.util.Collection;
+
+/**
+ * The IDs of the {@link AnnotatedCallLog} rows inserted, updated and deleted by a write, as sent to
+ * content observers in the URI of the change notification.
+ *
+ * <p>A write to a single row is notified with the URI of that row, and other writes with {@link
+ * AnnotatedCallLog#CONTENT_URI}; both carry the IDs as query parameters. Writes affecting too many
+ * rows to list are notified with {@link AnnotatedCallLog#CONTENT_URI} alone, for which {@link
+ * #fromUri(Uri)} returns null and observers must assume any row may have changed.
+ *
+ * <p>Rows deleted by the trigger limiting the size of the table when rows are inserted are not
+ * listed, so observers should assume that any insert may have deleted the oldest rows.
+ */
+public final class AnnotatedCallLogChanges {
+
+  private static final String INSERTED_PARAM_KEY = "inserted";
+  private static final String UPDATED_PARAM_KEY = "updated";
+  private static final String DELETED_PARAM_KEY = "deleted";
+
+  /** Above this many IDs, the notification URI would get too long to be worth parsing. */
+  private static final int MAX_IDS_IN_URI = 200;
+
+  private final ImmutableSet<Long> insertedIds;
+  private final ImmutableSet<Long> updatedIds;
+  private final ImmutableSet<Long> deletedIds;
+
+  private AnnotatedCallLogChanges(
+      ImmutableSet<Long> insertedIds, ImmutableSet<Long> updatedIds, ImmutableSet<Long> deletedIds) {
+    this.insertedIds = insertedIds;
+    this.updatedIds = updatedIds;
+    this.deletedIds = deletedIds;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Returns the changes described by a change notification URI, or null if the URI doesn't
+   * describe which rows changed.
+   */
+  @Nullable
+  public static AnnotatedCallLogChanges fromUri(@Nullable Uri uri) {
+    if (uri == null || uri.isOpaque()) {
+      return null;
+    }
+    String inserted = uri.getQueryParameter(INSERTED_PARAM_KEY);
+    String updated = uri.getQueryParameter(UPDATED_PARAM_KEY);
+    String deleted = uri.getQueryParameter(DELETED_PARAM_KEY);
+    if (inserted == null && updated == null && deleted == null) {
+      return null;
+    }
+    try {
+      return new AnnotatedCallLogChanges(parseIds(inserted), parseIds(updated), parseIds(deleted));
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  public ImmutableSet<Long> getInsertedIds() {
+    return insertedIds;
+  }
+
+  public ImmutableSet<Long> getUpdatedIds() {
+    return updatedIds;
+  }
+
+  public ImmutableSet<Long> getDeletedIds() {
+    return deletedIds;
+  }
+
+  public boolean isEmpty() {
+    return insertedIds.isEmpty() && updatedIds.isEmpty() && deletedIds.isEmpty();
+  }
+
+  /** Returns the URI to notify observers of these changes with. */
+  public Uri toUri() {
+    int idCount = insertedIds.size() + updatedIds.size() + deletedIds.size();
+    if (idCount > MAX_IDS_IN_URI) {
+      return AnnotatedCallLog.CONTENT_URI;
+    }
+    Uri.Builder builder;
+    if (idCount == 1) {
+      long id =
+          !insertedIds.isEmpty()
+              ? insertedIds.iterator().next()
+              : !updatedIds.isEmpty()
+                  ? updatedIds.iterator().next()
+                  : deletedIds.iterator().next();
+      builder = ContentUris.withAppendedId(AnnotatedCallLog.CONTENT_URI, id).buildUpon();
+    } else {
+      builder = AnnotatedCallLog.CONTENT_URI.buildUpon();
+    }
+    return builder
+        .appendQueryParameter(INSERTED_PARAM_KEY, TextUtils.join(",", insertedIds))
+        .appendQueryParameter(UPDATED_PARAM_KEY, TextUtils.join(",", updatedIds))
+        .appendQueryParameter(DELETED_PARAM_KEY, TextUtils.join(",", deletedIds))
+        .build();
+  }
+
+  private static ImmutableSet<Long> parseIds(@Nullable String ids) {
+    if (TextUtils.isEmpty(ids)) {
+      return ImmutableSet.of();
+    }
+    ImmutableSet.Builder<Long> builder = ImmutableSet.builder();
+    for (String id : ids.split(",")) {
+      builder.add(Long.parseLong(id));
+    }
+    return builder.build();
+  }
+
+  /** Collects the rows changed by a write. */
+  public static final class Builder {
+    private final ImmutableSet.Builder<Long> insertedIds = ImmutableSet.builder();
+    private final ImmutableSet.Builder<Long> updatedIds = ImmutableSet.builder();
+    private final ImmutableSet.Builder<Long> deletedIds = ImmutableSet.builder();
+
+    private Builder() {}
+
+    public Builder addInsertedId(long id) {
+      insertedIds.add(id);
+      return this;
+    }
+
+    public Builder addInsertedIds(Collection<Long> ids) {
+      insertedIds.addAll(ids);
+      return this;
+    }
+
+    public Builder addUpdatedIds(Collection<Long> ids) {
+      updatedIds.addAll(ids);
+      return this;
+    }
+
+    public Builder addDeletedIds(Collection<Long> ids) {
+      deletedIds.addAll(ids);
+      return this;
+    }
+
+    public AnnotatedCallLogChanges build() {
+      return new AnnotatedCallLogChanges(
+          insertedIds.build(), updatedIds.build(), deletedIds.build());
+    }
+  }
+}
@@ -42,6 +42,12 @@ public class AnnotatedCallLogContract {
     public static final Uri DISTINCT_NUMBERS_CONTENT_URI =
         Uri.withAppendedPath(AnnotatedCallLogContract.CONTENT_URI, DISTINCT_PHONE_NUMBERS);
 
+    /**
+     * Query parameter used to limit the number of rows returned by a query of {@link
+     * #CONTENT_URI}, like {@link android.provider.CallLog.Calls#LIMIT_PARAM_KEY}.
+     */
+    public static final String LIMIT_PARAM_KEY = "limit";
+
     /** The MIME type of a {@link android.content.ContentProvider#getType(Uri)} single entry. */
     public static final String CONTENT_ITEM_TYPE = "vnd.android.cursor.item/annotated_call_log";
 
@@ -17,6 +17,7 @@
 package com.android.dialer.calllog.datasources;
 
 import android.support.annotation.MainThread;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.ListenableFuture;
 
 /**
@@ -66,10 +67,23 @@ public interface CallLogDataSource {
    * @see CallLogDataSource class doc for complete lifecyle information
    * @param mutations the set of mutations which this method should contribute to. Note that it may
    *     contain inserts from the system call log, and these inserts should be modified by each data
-   *     source.
+   *     source. Data sources other than the system call log data source may be given their own
+   *     copy of the mutations, see {@link #getFillDependencies()}.
    */
   ListenableFuture<Void> fill(CallLogMutations mutations);
 
+  /**
+   * The data sources whose {@link #fill(CallLogMutations)} must complete before this data source's
+   * starts, because this data source reads values they write to the mutations.
+   *
+   * <p>The system call log data source is always filled first and need not be listed. Data sources
+   * which don't depend on each other are filled concurrently, each on its own copy of the
+   * mutations, so they must not write the same columns.
+   */
+  default ImmutableSet<Class<? extends CallLogDataSource>> getFillDependencies() {
+    return ImmutableSet.of();
+  }
+
   /**
    * Called after database mutations have been applied to all data sources. This is useful for
    * saving state such as the timestamp of the last row processed in an underlying database. Note
@@ -17,9 +17,11 @@
 package com.android.dialer.calllog.datasources;
 
 import android.content.ContentValues;
+import android.support.annotation.Nullable;
 import android.util.ArrayMap;
 import android.util.ArraySet;
 import com.android.dialer.common.Assert;
+import java.util.Objects;
 
 /** A collection of mutations to the annotated call log. */
 public final class CallLogMutations {
@@ -79,6 +81,68 @@ public final class CallLogMutations {
     return inserts.isEmpty() && updates.isEmpty() && deletes.isEmpty();
   }
 
+  /**
+   * Returns a copy of these mutations which can be modified without affecting them. The values of
+   * the content values are shared, as they are immutable or, for byte arrays, never modified.
+   */
+  CallLogMutations copy() {
+    CallLogMutations copy = new CallLogMutations();
+    for (int i = 0; i < inserts.size(); i++) {
+      copy.inserts.put(inserts.keyAt(i), new ContentValues(inserts.valueAt(i)));
+    }
+    for (int i = 0; i < updates.size(); i++) {
+      copy.updates.put(updates.keyAt(i), new ContentValues(updates.valueAt(i)));
+    }
+    copy.deletes.addAll(deletes);
+    return copy;
+  }
+
+  /**
+   * Applies the changes which turned {@code base} into {@code changed} to these mutations.
+   *
+   * <p>Only values which differ from those in {@code base} are copied, so changes made by data
+   * sources which filled other copies of {@code base} and were merged earlier are kept.
+   */
+  void mergeChanges(CallLogMutations base, CallLogMutations changed) {
+    for (int i = 0; i < changed.inserts.size(); i++) {
+      long id = changed.inserts.keyAt(i);
+      ContentValues insert = inserts.get(id);
+      Assert.checkState(insert != null, "Can't add insert %d while filling", id);
+      insert.putAll(getChangedValues(base.inserts.get(id), changed.inserts.valueAt(i)));
+    }
+    for (int i = 0; i < changed.updates.size(); i++) {
+      long id = changed.updates.keyAt(i);
+      ContentValues changedValues =
+          getChangedValues(base.updates.get(id), changed.updates.valueAt(i));
+      ContentValues update = updates.get(id);
+      if (update != null) {
+        update.putAll(changedValues);
+      } else if (changedValues.size() > 0) {
+        updates.put(id, changedValues);
+      }
+    }
+    for (Long id : changed.deletes) {
+      if (!base.deletes.contains(id)) {
+        deletes.add(id);
+      }
+    }
+  }
+
+  private static ContentValues getChangedValues(
+      @Nullable ContentValues base, ContentValues changed) {
+    ContentValues changedValues = new ContentValues(changed);
+    if (base == null) {
+      return changedValues;
+    }
+    for (String key : changed.keySet()) {
+      // deepEquals compares the contents of byte arrays, which are used for BLOB columns.
+      if (base.containsKey(key) && Objects.deepEquals(base.get(key), changed.get(key))) {
+        changedValues.remove(key);
+      }
+    }
+    return changedValues;
+  }
+
   /**
    * Get the pending inserts.
    *
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.dialer.calllog.datasources;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Lets several data sources fill the same {@link CallLogMutations} concurrently.
+ *
+ * <p>{@link CallLogMutations} is not thread safe, so each data source fills its own copy of the
+ * mutations as they are when it starts. When it is done, the values it changed are merged back.
+ * Data sources filled concurrently must therefore not write the same columns, and a data source
+ * which reads columns written by another must only be filled after it; see {@link
+ * CallLogDataSource#getFillDependencies()}.
+ */
+public final class CallLogMutationsCombiner {
+
+  @GuardedBy("this")
+  private final CallLogMutations mutations;
+
+  public CallLogMutationsCombiner(CallLogMutations mutations) {
+    this.mutations = mutations;
+  }
+
+  /**
+   * Fills a copy of the mutations with {@code dataSource} and merges the changes it made into the
+   * mutations this combiner was created with.
+   */
+  public ListenableFuture<Void> fill(CallLogDataSource dataSource) {
+    CallLogMutations base;
+    synchronized (this) {
+      base = mutations.copy();
+    }
+    CallLogMutations copy = base.copy();
+    return Futures.transform(
+        dataSource.fill(copy),
+        unused -> {
+          synchronized (this) {
+            mutations.mergeChanges(base, copy);
+          }
+          return null;
+        },
+        MoreExecutors.directExecutor());
+  }
+}
@@ -21,6 +21,7 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.database.Cursor;
+import android.net.Uri;
 import android.os.Build.VERSION;
 import android.os.Build.VERSION_CODES;
 import android.provider.CallLog;
@@ -33,6 +34,7 @@ import android.support.annotation.VisibleForTesting;
 import android.support.annotation.WorkerThread;
 import android.telephony.PhoneNumberUtils;
 import android.text.TextUtils;
+import android.util.ArrayMap;
 import android.util.ArraySet;
 import com.android.dialer.DialerPhoneNumber;
 import com.android.dialer.calllog.database.AnnotatedCallLogDatabaseHelper;
@@ -56,6 +58,7 @@ import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 import javax.inject.Inject;
@@ -80,6 +83,7 @@ public class SystemCallLogDataSource implements CallLogDataSource {
   private final Duo duo;
 
   @Nullable private Long lastTimestampProcessed;
+  @Nullable private SystemCallLogIdJournal idJournal;
   private boolean isCallLogContentObserverRegistered = false;
 
   @Inject
@@ -137,7 +141,10 @@ public class SystemCallLogDataSource implements CallLogDataSource {
     ListenableFuture<Void> deleteSharedPref =
         backgroundExecutorService.submit(
             () -> {
-              sharedPreferences.edit().remove(PREF_LAST_TIMESTAMP_PROCESSED).apply();
+              SharedPreferences.Editor editor =
+                  sharedPreferences.edit().remove(PREF_LAST_TIMESTAMP_PROCESSED);
+              SystemCallLogIdJournal.clear(editor);
+              editor.apply();
               return null;
             });
 
@@ -195,6 +202,7 @@ public class SystemCallLogDataSource implements CallLogDataSource {
     Assert.isWorkerThread();
 
     lastTimestampProcessed = null;
+    idJournal = null;
 
     if (!PermissionsUtil.hasPermission(appContext, permission.READ_CALL_LOG)) {
       LogUtil.i("SystemCallLogDataSource.fill", "no call log permissions");
@@ -204,6 +212,27 @@ public class SystemCallLogDataSource implements CallLogDataSource {
     // This data source should always run first so the mutations should always be empty.
     Assert.checkArgument(mutations.isEmpty());
 
+    // The journal describes the system call log as of the last fill, so it is only valid if the
+    // annotated call log was built from that fill.
+    SystemCallLogIdJournal journal =
+        sharedPreferences.contains(PREF_LAST_TIMESTAMP_PROCESSED)
+            ? SystemCallLogIdJournal.load(sharedPreferences)
+            : null;
+    // Deletes are handled first, so that rows deleted after the journal was checked are found by
+    // the next fill rather than being both updated and deleted.
+    if (journal != null
+        && journal.addNewIds(appContext)
+        && handleDeletesWithJournal(appContext, journal, mutations)) {
+      handleInsertsAndUpdates(appContext, mutations);
+      idJournal = journal;
+      return null;
+    }
+
+    LogUtil.i("SystemCallLogDataSource.fill", "no usable id journal, comparing all ids");
+    // The journal is created before the deletes are found, so that rows deleted in between are
+    // still in it and will be found by the next fill.
+    idJournal = SystemCallLogIdJournal.scan(appContext);
+
     Set<Long> annotatedCallLogIds = getAnnotatedCallLogIds(appContext);
 
     LogUtil.i(
@@ -211,25 +240,28 @@ public class SystemCallLogDataSource implements CallLogDataSource {
         "found %d existing annotated call log ids",
         annotatedCallLogIds.size());
 
-    handleInsertsAndUpdates(appContext, mutations, annotatedCallLogIds);
+    handleInsertsAndUpdates(appContext, mutations);
     handleDeletes(appContext, annotatedCallLogIds, mutations);
     return null;
   }
 
   @WorkerThread
   private Void onSuccessfulFillInternal() {
+    SharedPreferences.Editor editor = sharedPreferences.edit();
     // If a fill operation was a no-op, lastTimestampProcessed could still be null.
     if (lastTimestampProcessed != null) {
-      sharedPreferences
-          .edit()
-          .putLong(PREF_LAST_TIMESTAMP_PROCESSED, lastTimestampProcessed)
-          .apply();
+      editor.putLong(PREF_LAST_TIMESTAMP_PROCESSED, lastTimestampProcessed);
+    }
+    if (idJournal != null) {
+      idJournal.save(editor);
+    } else {
+      SystemCallLogIdJournal.clear(editor);
     }
+    editor.apply();
     return null;
   }
 
-  private void handleInsertsAndUpdates(
-      Context appContext, CallLogMutations mutations, Set<Long> existingAnnotatedCallLogIds) {
+  private void handleInsertsAndUpdates(Context appContext, CallLogMutations mutations) {
     long previousTimestampProcessed = sharedPreferences.getLong(PREF_LAST_TIMESTAMP_PROCESSED, 0L);
 
     DialerPhoneNumberUtil dialerPhoneNumberUtil = new DialerPhoneNumberUtil();
@@ -283,6 +315,7 @@ public class SystemCallLogDataSource implements CallLogDataSource {
       // The cursor orders by LAST_MODIFIED DESC, so the first result is the most recent timestamp
       // processed.
       lastTimestampProcessed = cursor.getLong(lastModifiedColumn);
+      ArrayMap<Long, ContentValues> rows = new ArrayMap<>();
       do {
         long id = cursor.getLong(idColumn);
         long date = cursor.getLong(dateColumn);
@@ -354,12 +387,20 @@ public class SystemCallLogDataSource implements CallLogDataSource {
 
         setTranscriptionState(cursor, contentValues);
 
+        rows.put(id, contentValues);
+      } while (cursor.moveToNext());
+
+      Set<Long> existingAnnotatedCallLogIds =
+          getIdsThatMatch(
+              appContext, AnnotatedCallLog.CONTENT_URI, AnnotatedCallLog._ID, rows.keySet());
+      for (int i = 0; i < rows.size(); i++) {
+        long id = rows.keyAt(i);
         if (existingAnnotatedCallLogIds.contains(id)) {
-          mutations.update(id, contentValues);
+          mutations.update(id, rows.valueAt(i));
         } else {
-          mutations.insert(id, contentValues);
+          mutations.insert(id, rows.valueAt(i));
         }
-      } while (cursor.moveToNext());
+      }
     }
   }
 
@@ -428,10 +469,38 @@ public class SystemCallLogDataSource implements CallLogDataSource {
     return PROJECTION_PRE_O;
   }
 
+  /**
+   * Adds the deletes found by {@code journal} to the mutations, or returns false if they couldn't
+   * be found, in which case nothing is added and all IDs must be compared instead.
+   */
+  private static boolean handleDeletesWithJournal(
+      Context appContext, SystemCallLogIdJournal journal, CallLogMutations mutations) {
+    Set<Long> deletedIds = journal.removeDeletedIds(appContext);
+    if (deletedIds == null) {
+      LogUtil.w("SystemCallLogDataSource.handleDeletesWithJournal", "couldn't read ids");
+      return false;
+    }
+    if (deletedIds.isEmpty()) {
+      return true;
+    }
+    // Not every row in the system call log is in the annotated call log, e.g. Duo audio calls.
+    Set<Long> idsToDelete =
+        getIdsThatMatch(appContext, AnnotatedCallLog.CONTENT_URI, AnnotatedCallLog._ID, deletedIds);
+    LogUtil.i(
+        "SystemCallLogDataSource.handleDeletesWithJournal",
+        "found %d call log entries to remove",
+        idsToDelete.size());
+    for (long id : idsToDelete) {
+      mutations.delete(id);
+    }
+    return true;
+  }
+
   private static void handleDeletes(
       Context appContext, Set<Long> existingAnnotatedCallLogIds, CallLogMutations mutations) {
     Set<Long> systemCallLogIds =
-        getIdsFromSystemCallLogThatMatch(appContext, existingAnnotatedCallLogIds);
+        getIdsThatMatch(
+            appContext, Calls.CONTENT_URI_WITH_VOICEMAIL, Calls._ID, existingAnnotatedCallLogIds);
     LogUtil.i(
         "SystemCallLogDataSource.handleDeletes",
         "found %d matching entries in system call log",
@@ -478,8 +547,9 @@ public class SystemCallLogDataSource implements CallLogDataSource {
     return ids;
   }
 
-  private static Set<Long> getIdsFromSystemCallLogThatMatch(
-      Context appContext, Set<Long> matchingIds) {
+  /** Returns the IDs among {@code matchingIds} of the rows at {@code uri}. */
+  private static Set<Long> getIdsThatMatch(
+      Context appContext, Uri uri, String idColumnName, Collection<Long> matchingIds) {
     ArraySet<Long> ids = new ArraySet<>();
 
     // Batch the select statements into chunks of 999, the maximum size for SQLite selection args.
@@ -488,7 +558,7 @@ public class SystemCallLogDataSource implements CallLogDataSource {
       String[] questionMarks = new String[idsInBatch.size()];
       Arrays.fill(questionMarks, "?");
 
-      String whereClause = (Calls._ID + " in (") + TextUtils.join(",", questionMarks) + ")";
+      String whereClause = (idColumnName + " in (") + TextUtils.join(",", questionMarks) + ")";
       String[] whereArgs = new String[idsInBatch.size()];
       int i = 0;
       for (long id : idsInBatch) {
@@ -499,19 +569,19 @@ public class SystemCallLogDataSource implements CallLogDataSource {
           appContext
               .getContentResolver()
               .query(
-                  Calls.CONTENT_URI_WITH_VOICEMAIL,
-                  new String[] {Calls._ID},
+                  uri,
+                  new String[] {idColumnName},
                   whereClause,
                   whereArgs,
                   null)) {
 
         if (cursor == null) {
-          LogUtil.e("SystemCallLogDataSource.getIdsFromSystemCallLog", "null cursor");
+          LogUtil.e("SystemCallLogDataSource.getIdsThatMatch", "null cursor");
           return ids;
         }
 
         if (cursor.moveToFirst()) {
-          int idColumn = cursor.getColumnIndexOrThrow(Calls._ID);
+          int idColumn = cursor.getColumnIndexOrThrow(idColumnName);
           do {
             ids.add(cursor.getLong(idColumn));
           } while (cursor.moveToNext());
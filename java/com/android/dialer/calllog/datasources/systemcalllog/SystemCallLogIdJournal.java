@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.dialer.calllog.datasources.systemcalllog;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.provider.CallLog.Calls;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+import android.util.ArraySet;
+import android.util.Base64;
+import com.android.dialer.common.Assert;
+import com.android.dialer.common.LogUtil;
+import java.util.BitSet;
+import java.util.Set;
+
+/**
+ * The IDs of the rows in the system call log as of the last successful fill, used to find the rows
+ * deleted since then without looking up every annotated call log ID in the system call log.
+ *
+ * <p>IDs are kept in a bitmap, along with a high-water mark: the largest ID the journal has seen.
+ * The system call log never reuses IDs, so rows inserted since the last fill are exactly those
+ * above the high-water mark, and below it the system call log can only have lost rows. Deletes are
+ * found by comparing the number of rows the system call log has in an interval of IDs with the
+ * number of IDs in the journal in that interval. Intervals which differ are halved until they are
+ * small enough to compare ID by ID.
+ *
+ * <p>The number of rows in an interval is read with a {@link Calls#_COUNT} projection. When nothing
+ * was deleted, the count of the rows up to the high-water mark matches the journal, and this takes
+ * a single count query. Providers which don't allow the count projection are counted with {@link
+ * Cursor#getCount()} of a query of the IDs in the interval instead, which still reads every ID in
+ * the interval.
+ *
+ * <p>Not thread safe.
+ */
+final class SystemCallLogIdJournal {
+
+  @VisibleForTesting static final String PREF_IDS = "systemCallLogIdJournalIds";
+
+  @VisibleForTesting
+  static final String PREF_HIGH_WATER_MARK = "systemCallLogIdJournalHighWaterMark";
+
+  /** Intervals of at most this many IDs are compared ID by ID instead of being halved. */
+  private static final int MAX_SCANNED_INTERVAL_SIZE = 512;
+
+  /** Whether the call log provider rejected the {@link Calls#_COUNT} projection. */
+  private static volatile boolean countProjectionUnsupported;
+
+  private final BitSet ids;
+  private long highWaterMark;
+
+  private SystemCallLogIdJournal(BitSet ids, long highWaterMark) {
+    this.ids = ids;
+    this.highWaterMark = highWaterMark;
+  }
+
+  /** Returns the journal saved by {@link #save}, or null if there is none or it can't be read. */
+  @Nullable
+  static SystemCallLogIdJournal load(SharedPreferences sharedPreferences) {
+    String encodedIds = sharedPreferences.getString(PREF_IDS, null);
+    if (encodedIds == null || !sharedPreferences.contains(PREF_HIGH_WATER_MARK)) {
+      return null;
+    }
+    byte[] bytes;
+    try {
+      bytes = Base64.decode(encodedIds, Base64.NO_WRAP);
+    } catch (IllegalArgumentException e) {
+      LogUtil.e("SystemCallLogIdJournal.load", "invalid journal", e);
+      return null;
+    }
+    return new SystemCallLogIdJournal(
+        BitSet.valueOf(bytes), sharedPreferences.getLong(PREF_HIGH_WATER_MARK, 0L));
+  }
+
+  /**
+   * Creates a journal by reading every ID in the system call log, or returns null if the IDs can't
+   * be read or don't fit in the bitmap.
+   */
+  @WorkerThread
+  @Nullable
+  static SystemCallLogIdJournal scan(Context appContext) {
+    Assert.isWorkerThread();
+    SystemCallLogIdJournal journal = new SystemCallLogIdJournal(new BitSet(), 0L);
+    return journal.addIdsAbove(appContext, 0L) ? journal : null;
+  }
+
+  static void clear(SharedPreferences.Editor editor) {
+    editor.remove(PREF_IDS).remove(PREF_HIGH_WATER_MARK);
+  }
+
+  void save(SharedPreferences.Editor editor) {
+    editor
+        .putString(PREF_IDS, Base64.encodeToString(ids.toByteArray(), Base64.NO_WRAP))
+        .putLong(PREF_HIGH_WATER_MARK, highWaterMark);
+  }
+
+  /**
+   * Adds the rows inserted in the system call log since the high-water mark was last raised, and
+   * raises it to the largest ID in the system call log.
+   *
+   * @return false if the IDs couldn't be read or don't fit in the bitmap, in which case the journal
+   *     must not be used
+   */
+  @WorkerThread
+  boolean addNewIds(Context appContext) {
+    Assert.isWorkerThread();
+    return addIdsAbove(appContext, highWaterMark);
+  }
+
+  /**
+   * Removes the IDs no longer in the system call log from the journal and returns them. Only IDs
+   * up to the high-water mark are checked, so {@link #addNewIds(Context)} should be called first.
+   *
+   * @return null if the IDs couldn't be read, in which case the journal is left unchanged and must
+   *     not be used
+   */
+  @WorkerThread
+  @Nullable
+  Set<Long> removeDeletedIds(Context appContext) {
+    Assert.isWorkerThread();
+    Set<Long> deletedIds = new ArraySet<>();
+    if (highWaterMark > 0 && !findDeletedIds(appContext, 0, (int) highWaterMark, deletedIds)) {
+      return null;
+    }
+    for (long id : deletedIds) {
+      ids.clear((int) id);
+    }
+    return deletedIds;
+  }
+
+  private boolean addIdsAbove(Context appContext, long lowestExcludedId) {
+    try (Cursor cursor =
+        queryIds(appContext, Calls._ID + " > ?", new String[] {String.valueOf(lowestExcludedId)})) {
+      if (cursor == null) {
+        LogUtil.e("SystemCallLogIdJournal.addIdsAbove", "null cursor");
+        return false;
+      }
+      int idColumn = cursor.getColumnIndexOrThrow(Calls._ID);
+      while (cursor.moveToNext()) {
+        long id = cursor.getLong(idColumn);
+        if (id < 0 || id >= Integer.MAX_VALUE) {
+          LogUtil.w("SystemCallLogIdJournal.addIdsAbove", "id %d doesn't fit in the journal", id);
+          return false;
+        }
+        ids.set((int) id);
+        highWaterMark = Math.max(highWaterMark, id);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Adds the IDs in the journal between {@code low} and {@code high}, inclusive, which are no
+   * longer in the system call log to the set. Each interval costs a query.
+   *
+   * @return false if the IDs couldn't be read
+   */
+  private boolean findDeletedIds(Context appContext, int low, int high, Set<Long> deletedIds) {
+    int journalCount = ids.get(low, high + 1).cardinality();
+    if (journalCount == 0) {
+      return true;
+    }
+    String selection = Calls._ID + " >= ? AND " + Calls._ID + " <= ?";
+    String[] selectionArgs = new String[] {String.valueOf(low), String.valueOf(high)};
+
+    if (high - low >= MAX_SCANNED_INTERVAL_SIZE) {
+      int count = countIds(appContext, selection, selectionArgs);
+      if (count < 0) {
+        return false;
+      }
+      if (count == journalCount) {
+        return true;
+      }
+      int middle = low + (high - low) / 2;
+      return findDeletedIds(appContext, low, middle, deletedIds)
+          && findDeletedIds(appContext, middle + 1, high, deletedIds);
+    }
+
+    BitSet remainingIds = ids.get(low, high + 1);
+    try (Cursor cursor = queryIds(appContext, selection, selectionArgs)) {
+      if (cursor == null) {
+        LogUtil.e("SystemCallLogIdJournal.findDeletedIds", "null cursor");
+        return false;
+      }
+      int idColumn = cursor.getColumnIndexOrThrow(Calls._ID);
+      while (cursor.moveToNext()) {
+        remainingIds.clear((int) cursor.getLong(idColumn) - low);
+      }
+    }
+    for (int i = remainingIds.nextSetBit(0); i >= 0; i = remainingIds.nextSetBit(i + 1)) {
+      deletedIds.add((long) (low + i));
+    }
+    return true;
+  }
+
+  /** Returns the number of rows in the system call log that match, or -1 if it can't be read. */
+  private static int countIds(Context appContext, String selection, String[] selectionArgs) {
+    if (!countProjectionUnsupported) {
+      try (Cursor cursor =
+          appContext
+              .getContentResolver()
+              .query(
+                  Calls.CONTENT_URI_WITH_VOICEMAIL,
+                  new String[] {Calls._COUNT},
+                  selection,
+                  selectionArgs,
+                  null)) {
+        if (cursor == null) {
+          LogUtil.e("SystemCallLogIdJournal.countIds", "null cursor");
+          return -1;
+        }
+        return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+      } catch (IllegalArgumentException e) {
+        LogUtil.i("SystemCallLogIdJournal.countIds", "count projection not supported");
+        countProjectionUnsupported = true;
+      }
+    }
+    try (Cursor cursor = queryIds(appContext, selection, selectionArgs)) {
+      if (cursor == null) {
+        LogUtil.e("SystemCallLogIdJournal.countIds", "null cursor");
+        return -1;
+      }
+      return cursor.getCount();
+    }
+  }
+
+  @Nullable
+  private static Cursor queryIds(Context appContext, String selection, String[] selectionArgs) {
+    return appContext
+        .getContentResolver()
+        .query(
+            Calls.CONTENT_URI_WITH_VOICEMAIL,
+            new String[] {Calls._ID},
+            selection,
+            selectionArgs,
+            null);
+  }
+}
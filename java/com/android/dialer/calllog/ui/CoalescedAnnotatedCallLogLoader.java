@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.calllog.ui;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.CallLog.Calls;
+import android.support.annotation.MainThread;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.support.v4.content.AsyncTaskLoader;
+import com.android.dialer.calllog.database.CallLogDatabaseComponent;
+import com.android.dialer.calllog.database.Coalescer;
+import com.android.dialer.calllog.database.contract.AnnotatedCallLogChanges;
+import com.android.dialer.calllog.database.contract.AnnotatedCallLogContract.AnnotatedCallLog;
+import com.android.dialer.calllog.model.CoalescedRow;
+import com.android.dialer.common.LogUtil;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Loads {@link AnnotatedCallLog} and combines its rows with {@link Coalescer}.
+ *
+ * <p>The cursor is queried, coalesced and closed on the loader's background thread, so it cannot be
+ * closed while it is still being read. The rows are reloaded whenever {@link AnnotatedCallLog}
+ * changes.
+ *
+ * <p>Only the most recent {@link #PAGE_SIZE} rows are loaded at first. Older rows are loaded one
+ * page at a time through {@link #loadOlderRows()}, starting after the oldest row loaded so far in
+ * (timestamp, ID) order, so the time to show the call log does not depend on the size of the
+ * history. Reloads after a change load as many rows as have been loaded before.
+ *
+ * <p>Changes that only update or delete rows which haven't been loaded, as described by {@link
+ * AnnotatedCallLogChanges}, don't cause a reload. Rows outside the loaded window are assumed not
+ * to move into it when updated, since the timestamp of a call doesn't change.
+ */
+final class CoalescedAnnotatedCallLogLoader extends AsyncTaskLoader<ImmutableList<CoalescedRow>> {
+
+  /** Number of rows to load at first and each time older rows are loaded. */
+  @VisibleForTesting static final int PAGE_SIZE = 50;
+
+  private static final String SORT_ORDER =
+      AnnotatedCallLog.TIMESTAMP + " DESC, " + AnnotatedCallLog._ID + " DESC";
+
+  private final ContentObserver observer = new AnnotatedCallLogObserver();
+  private final Coalescer coalescer;
+
+  @Nullable private ImmutableList<CoalescedRow> coalescedRows;
+
+  /**
+   * IDs of the annotated call log rows in {@link #coalescedRows}, or null while a load is in
+   * progress and the rows it will deliver aren't known yet.
+   */
+  @Nullable private ImmutableSet<Long> loadedIds;
+
+  private boolean isObserverRegistered;
+  private boolean isLoadingOlderRows;
+
+  /** Set on the main thread and consumed by the next load. */
+  private volatile boolean olderRowsRequested;
+
+  private volatile boolean hasOlderRows;
+
+  /** Set by the last load to the IDs of all rows loaded so far, and published on delivery. */
+  private volatile ImmutableSet<Long> lastLoadedIds = ImmutableSet.of();
+
+  /**
+   * Set on the main thread when the loader is reset, so that the next load drops the paging state
+   * below and starts over from the first page.
+   */
+  private volatile boolean pagingResetRequested;
+
+  // The fields below are only accessed by loadInBackground(); loads never run concurrently.
+  private int loadedRowCount;
+  private long oldestLoadedTimestamp;
+  private long oldestLoadedId;
+  private final Set<Long> loadedIdsInBackground = new HashSet<>();
+
+  CoalescedAnnotatedCallLogLoader(Context context) {
+    super(context);
+    coalescer = CallLogDatabaseComponent.get(context).coalescer();
+  }
+
+  /**
+   * Loads the next page of rows older than those loaded so far, unless there are none or they are
+   * already being loaded.
+   */
+  @MainThread
+  void loadOlderRows() {
+    if (!hasOlderRows || isLoadingOlderRows) {
+      return;
+    }
+    LogUtil.enterBlock("CoalescedAnnotatedCallLogLoader.loadOlderRows");
+    isLoadingOlderRows = true;
+    olderRowsRequested = true;
+    forceLoad();
+  }
+
+  @Override
+  @Nullable
+  public ImmutableList<CoalescedRow> loadInBackground() {
+    if (pagingResetRequested) {
+      pagingResetRequested = false;
+      loadedRowCount = 0;
+      oldestLoadedTimestamp = 0;
+      oldestLoadedId = 0;
+      loadedIdsInBackground.clear();
+    }
+    boolean loadOlderRows = olderRowsRequested && loadedRowCount > 0;
+    olderRowsRequested = false;
+
+    int limit = loadOlderRows ? PAGE_SIZE : Math.max(PAGE_SIZE, loadedRowCount);
+    StringBuilder selection = new StringBuilder(AnnotatedCallLog.CALL_TYPE + " != ?");
+    List<String> selectionArgs = new ArrayList<>();
+    selectionArgs.add(Integer.toString(Calls.VOICEMAIL_TYPE));
+    if (loadOlderRows) {
+      selection
+          .append(" AND (")
+          .append(AnnotatedCallLog.TIMESTAMP)
+          .append(" < ? OR (")
+          .append(AnnotatedCallLog.TIMESTAMP)
+          .append(" = ? AND ")
+          .append(AnnotatedCallLog._ID)
+          .append(" < ?))");
+      selectionArgs.add(Long.toString(oldestLoadedTimestamp));
+      selectionArgs.add(Long.toString(oldestLoadedTimestamp));
+      selectionArgs.add(Long.toString(oldestLoadedId));
+    }
+
+    try (Cursor cursor =
+        getContext()
+            .getContentResolver()
+            .query(
+                AnnotatedCallLog.CONTENT_URI
+                    .buildUpon()
+                    .appendQueryParameter(
+                        AnnotatedCallLog.LIMIT_PARAM_KEY, Integer.toString(limit))
+                    .build(),
+                /* projection = */ null,
+                selection.toString(),
+                selectionArgs.toArray(new String[selectionArgs.size()]),
+                SORT_ORDER)) {
+      if (cursor == null) {
+        // This might be possible when the annotated call log hasn't been created but we're trying
+        // to show the call log.
+        LogUtil.w("CoalescedAnnotatedCallLogLoader.loadInBackground", "null cursor");
+        return null;
+      }
+
+      ImmutableList<CoalescedRow> rows =
+          loadOlderRows ? coalescer.coalesceOlderRows(cursor) : coalescer.coalesce(cursor);
+
+      if (!loadOlderRows) {
+        loadedIdsInBackground.clear();
+      }
+      int idColumn = cursor.getColumnIndexOrThrow(AnnotatedCallLog._ID);
+      cursor.moveToPosition(-1);
+      while (cursor.moveToNext()) {
+        loadedIdsInBackground.add(cursor.getLong(idColumn));
+      }
+      lastLoadedIds = ImmutableSet.copyOf(loadedIdsInBackground);
+
+      int rowCount = cursor.getCount();
+      if (cursor.moveToLast()) {
+        oldestLoadedTimestamp =
+            cursor.getLong(cursor.getColumnIndexOrThrow(AnnotatedCallLog.TIMESTAMP));
+        oldestLoadedId = cursor.getLong(idColumn);
+      }
+      loadedRowCount = loadOlderRows ? loadedRowCount + rowCount : rowCount;
+      hasOlderRows = rowCount == limit;
+      return rows;
+    }
+  }
+
+  @Override
+  public void deliverResult(@Nullable ImmutableList<CoalescedRow> coalescedRows) {
+    if (isReset()) {
+      return;
+    }
+    this.coalescedRows = coalescedRows;
+    loadedIds = lastLoadedIds;
+    isLoadingOlderRows = false;
+    if (isStarted()) {
+      super.deliverResult(coalescedRows);
+    }
+  }
+
+  @Override
+  protected void onForceLoad() {
+    loadedIds = null;
+    super.onForceLoad();
+  }
+
+  @Override
+  protected void onStartLoading() {
+    if (!isObserverRegistered) {
+      getContext()
+          .getContentResolver()
+          .registerContentObserver(
+              AnnotatedCallLog.CONTENT_URI, /* notifyForDescendants = */ true, observer);
+      isObserverRegistered = true;
+    }
+    if (coalescedRows != null) {
+      deliverResult(coalescedRows);
+    }
+    if (takeContentChanged() || coalescedRows == null) {
+      forceLoad();
+    }
+  }
+
+  @Override
+  protected void onStopLoading() {
+    cancelLoad();
+  }
+
+  @Override
+  protected void onReset() {
+    onStopLoading();
+    if (isObserverRegistered) {
+      getContext().getContentResolver().unregisterContentObserver(observer);
+      isObserverRegistered = false;
+    }
+    coalescedRows = null;
+    loadedIds = null;
+    isLoadingOlderRows = false;
+    olderRowsRequested = false;
+    hasOlderRows = false;
+    lastLoadedIds = ImmutableSet.of();
+    // A cancelled load may still be running, so the paging state is cleared by the next load.
+    pagingResetRequested = true;
+    coalescer.reset();
+  }
+
+  /**
+   * Whether a change notified with {@code uri} may affect the loaded rows. Inserts always do, as
+   * new rows may sort among the loaded ones and the oldest rows may be deleted to make room.
+   */
+  @MainThread
+  private boolean mayAffectLoadedRows(@Nullable Uri uri) {
+    AnnotatedCallLogChanges changes = AnnotatedCallLogChanges.fromUri(uri);
+    if (changes == null || loadedIds == null || !changes.getInsertedIds().isEmpty()) {
+      return true;
+    }
+    for (long id : changes.getUpdatedIds()) {
+      if (loadedIds.contains(id)) {
+        return true;
+      }
+    }
+    for (long id : changes.getDeletedIds()) {
+      if (loadedIds.contains(id)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Like {@link ForceLoadContentObserver}, but ignores changes to rows that aren't loaded. */
+  private final class AnnotatedCallLogObserver extends ContentObserver {
+
+    AnnotatedCallLogObserver() {
+      super(new Handler(Looper.getMainLooper()));
+    }
+
+    @Override
+    public boolean deliverSelfNotifications() {
+      return true;
+    }
+
+    @Override
+    public void onChange(boolean selfChange) {
+      onChange(selfChange, null);
+    }
+
+    @Override
+    public void onChange(boolean selfChange, @Nullable Uri uri) {
+      if (!mayAffectLoadedRows(uri)) {
+        LogUtil.i("AnnotatedCallLogObserver.onChange", "ignoring change to rows not loaded");
+        return;
+      }
+      onContentChanged();
+    }
+  }
+}
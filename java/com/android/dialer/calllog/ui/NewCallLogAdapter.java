@@ -30,8 +30,10 @@ import com.android.dialer.logging.Logger;
 import com.android.dialer.promotion.Promotion;
 import com.android.dialer.time.Clock;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.List;
 
 /** {@link RecyclerView.Adapter} for the new call log fragment. */
 final class NewCallLogAdapter extends RecyclerView.Adapter<ViewHolder> {
@@ -62,6 +64,9 @@ final class NewCallLogAdapter extends RecyclerView.Adapter<ViewHolder> {
     int CALL_LOG_ENTRY = 5;
   }
 
+  /** Number of rows ahead of the last bound row, in the direction of scrolling, to prefetch. */
+  private static final int PREFETCH_ROW_COUNT = 10;
+
   private final Clock clock;
   private final Activity activity;
   private final RealtimeRowProcessor realtimeRowProcessor;
@@ -82,6 +87,9 @@ final class NewCallLogAdapter extends RecyclerView.Adapter<ViewHolder> {
   /** Position of the "Older" header. Null when it should not be displayed. */
   @Nullable private Integer olderHeaderPosition;
 
+  /** Index in {@link #coalescedRows} of the last row bound, used to tell the scroll direction. */
+  private int lastBoundRowIndex = -1;
+
   NewCallLogAdapter(
       Activity activity,
       ImmutableList<CoalescedRow> coalescedRows,
@@ -100,6 +108,7 @@ final class NewCallLogAdapter extends RecyclerView.Adapter<ViewHolder> {
     this.coalescedRows = coalescedRows;
     this.realtimeRowProcessor.clearCache();
     this.popCounts.reset();
+    this.lastBoundRowIndex = -1;
 
     setCardAndHeaderPositions();
     notifyDataSetChanged();
@@ -242,7 +251,9 @@ final class NewCallLogAdapter extends RecyclerView.Adapter<ViewHolder> {
         if (olderHeaderPosition != null && position > olderHeaderPosition) {
           previousCardAndHeaders++;
         }
-        newCallLogViewHolder.bind(coalescedRows.get(position - previousCardAndHeaders));
+        int rowIndex = position - previousCardAndHeaders;
+        newCallLogViewHolder.bind(coalescedRows.get(rowIndex));
+        prefetchRowsAhead(rowIndex);
         break;
       default:
         throw Assert.createIllegalStateFailException(
@@ -250,6 +261,19 @@ final class NewCallLogAdapter extends RecyclerView.Adapter<ViewHolder> {
     }
   }
 
+  /** Prefetches the rows which will be displayed next if scrolling continues the same way. */
+  private void prefetchRowsAhead(int rowIndex) {
+    boolean scrollingUp = rowIndex < lastBoundRowIndex;
+    lastBoundRowIndex = rowIndex;
+    List<CoalescedRow> rowsAhead =
+        scrollingUp
+            ? Lists.reverse(
+                coalescedRows.subList(Math.max(0, rowIndex - PREFETCH_ROW_COUNT), rowIndex))
+            : coalescedRows.subList(
+                rowIndex + 1, Math.min(coalescedRows.size(), rowIndex + 1 + PREFETCH_ROW_COUNT));
+    realtimeRowProcessor.prefetch(rowsAhead);
+  }
+
   @Override
   @RowType
   public int getItemViewType(int position) {
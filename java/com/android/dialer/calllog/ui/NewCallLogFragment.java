@@ -16,7 +16,6 @@
 package com.android.dialer.calllog.ui;
 
 import android.app.Activity;
-import android.database.Cursor;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
@@ -32,14 +31,10 @@ import android.view.View;
 import android.view.ViewGroup;
 import com.android.dialer.calllog.CallLogComponent;
 import com.android.dialer.calllog.RefreshAnnotatedCallLogReceiver;
-import com.android.dialer.calllog.database.CallLogDatabaseComponent;
-import com.android.dialer.calllog.database.Coalescer;
 import com.android.dialer.calllog.model.CoalescedRow;
 import com.android.dialer.common.Assert;
 import com.android.dialer.common.LogUtil;
 import com.android.dialer.common.concurrent.DefaultFutureCallback;
-import com.android.dialer.common.concurrent.DialerExecutorComponent;
-import com.android.dialer.common.concurrent.SupportUiListener;
 import com.android.dialer.common.concurrent.ThreadUtil;
 import com.android.dialer.metrics.Metrics;
 import com.android.dialer.metrics.MetricsComponent;
@@ -51,13 +46,13 @@ import com.android.dialer.widget.EmptyContentView;
 import com.android.dialer.widget.EmptyContentView.OnEmptyViewActionButtonClickedListener;
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.Futures;
-import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
 import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
 
 /** The "new" call log fragment implementation, which is built on top of the annotated call log. */
-public final class NewCallLogFragment extends Fragment implements LoaderCallbacks<Cursor> {
+public final class NewCallLogFragment extends Fragment
+    implements LoaderCallbacks<ImmutableList<CoalescedRow>> {
 
   private static final int PHONE_PERMISSIONS_REQUEST_CODE = 1;
   private static final int LOADER_ID = 0;
@@ -65,10 +60,12 @@ public final class NewCallLogFragment extends Fragment implements LoaderCallback
   @VisibleForTesting
   static final long MARK_ALL_CALLS_READ_WAIT_MILLIS = TimeUnit.SECONDS.toMillis(3);
 
+  /** Older rows are loaded when the user scrolls within this many items of the end of the list. */
+  private static final int LOAD_OLDER_ROWS_THRESHOLD = 10;
+
   private RecyclerView recyclerView;
   private EmptyContentView emptyContentView;
   private RefreshAnnotatedCallLogReceiver refreshAnnotatedCallLogReceiver;
-  private SupportUiListener<ImmutableList<CoalescedRow>> coalesingAnnotatedCallLogListener;
 
   private boolean shouldMarkCallsRead = false;
   private final Runnable setShouldMarkCallsReadTrue = () -> shouldMarkCallsRead = true;
@@ -172,7 +169,7 @@ public final class NewCallLogFragment extends Fragment implements LoaderCallback
     // There are some types of data that we show in the call log that are not represented in the
     // AnnotatedCallLog. For example, CP2 information for invalid numbers can sometimes only be
     // fetched at display time. Because of this, we need to clear the adapter's cache and update it
-    // whenever the user arrives at the call log (rather than relying on changes to the CursorLoader
+    // whenever the user arrives at the call log (rather than relying on changes to the loader
     // alone).
     if (recyclerView.getAdapter() != null) {
       ((NewCallLogAdapter) recyclerView.getAdapter()).clearCache();
@@ -222,16 +219,17 @@ public final class NewCallLogFragment extends Fragment implements LoaderCallback
     recyclerView.addOnScrollListener(
         new RecyclerViewJankLogger(
             MetricsComponent.get(getContext()).metrics(), Metrics.NEW_CALL_LOG_JANK_EVENT_NAME));
+    recyclerView.addOnScrollListener(
+        new RecyclerView.OnScrollListener() {
+          @Override
+          public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+            loadOlderRowsIfNeeded();
+          }
+        });
 
     emptyContentView = view.findViewById(R.id.new_call_log_empty_content_view);
     configureEmptyContentView();
 
-    coalesingAnnotatedCallLogListener =
-        DialerExecutorComponent.get(getContext())
-            .createUiListener(
-                getChildFragmentManager(),
-                /* taskId = */ "NewCallLogFragment.coalescingAnnotatedCallLog");
-
     if (PermissionsUtil.hasCallLogReadPermissions(getContext())) {
       getLoaderManager().restartLoader(LOADER_ID, null, this);
     }
@@ -288,68 +286,68 @@ public final class NewCallLogFragment extends Fragment implements LoaderCallback
   }
 
   @Override
-  public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+  public Loader<ImmutableList<CoalescedRow>> onCreateLoader(int id, Bundle args) {
     LogUtil.enterBlock("NewCallLogFragment.onCreateLoader");
-    return new AnnotatedCallLogCursorLoader(Assert.isNotNull(getContext()));
+    return new CoalescedAnnotatedCallLogLoader(Assert.isNotNull(getContext()));
   }
 
   @Override
-  public void onLoadFinished(Loader<Cursor> loader, Cursor newCursor) {
+  public void onLoadFinished(
+      Loader<ImmutableList<CoalescedRow>> loader, ImmutableList<CoalescedRow> coalescedRows) {
     LogUtil.enterBlock("NewCallLogFragment.onLoadFinished");
 
-    if (newCursor == null) {
+    if (coalescedRows == null) {
       // This might be possible when the annotated call log hasn't been created but we're trying
       // to show the call log.
-      LogUtil.w("NewCallLogFragment.onLoadFinished", "null cursor");
+      LogUtil.w("NewCallLogFragment.onLoadFinished", "null coalesced rows");
       return;
     }
 
-    // Start combining adjacent rows which should be collapsed for display purposes.
-    // This is a time-consuming process so we will do it in the background.
-    ListenableFuture<ImmutableList<CoalescedRow>> coalescedRowsFuture =
-        CallLogDatabaseComponent.get(getContext()).coalescer().coalesce(newCursor);
-
-    coalesingAnnotatedCallLogListener.listen(
-        getContext(),
-        coalescedRowsFuture,
-        coalescedRows -> {
-          LogUtil.i("NewCallLogFragment.onLoadFinished", "coalescing succeeded");
-
-          // TODO(zachh): Handle empty cursor by showing empty view.
-          if (recyclerView.getAdapter() == null) {
-            recyclerView.setLayoutManager(new LinearLayoutManager(getContext()));
-            // Note: It's not clear if this callback can be invoked when there's no associated
-            // activity, but if crashes are observed here it may be possible to use getContext()
-            // instead.
-            Activity activity = Assert.isNotNull(getActivity());
-            recyclerView.setAdapter(
-                new NewCallLogAdapter(
-                    activity,
-                    coalescedRows,
-                    System::currentTimeMillis,
-                    PromotionComponent.get(getContext())
-                        .promotionManager()
-                        .getHighestPriorityPromotion(PromotionType.CARD)
-                        .orElse(null)));
-          } else {
-            ((NewCallLogAdapter) recyclerView.getAdapter()).updateRows(coalescedRows);
-          }
-        },
-        throwable -> {
-          // Coalescing can fail if the cursor passed to Coalescer is closed by the loader while
-          // the work is still in progress.
-          // This can happen when the loader restarts and finishes loading data before the
-          // coalescing work is completed.
-          // This failure is identified by ExpectedCoalescerException and doesn't need to be
-          // thrown as coalescing will be restarted on the latest data obtained by the loader.
-          if (!(throwable instanceof Coalescer.ExpectedCoalescerException)) {
-            throw new AssertionError(throwable);
-          }
-        });
+    // TODO(zachh): Handle empty cursor by showing empty view.
+    if (recyclerView.getAdapter() == null) {
+      recyclerView.setLayoutManager(new LinearLayoutManager(getContext()));
+      // Note: It's not clear if this callback can be invoked when there's no associated
+      // activity, but if crashes are observed here it may be possible to use getContext()
+      // instead.
+      Activity activity = Assert.isNotNull(getActivity());
+      recyclerView.setAdapter(
+          new NewCallLogAdapter(
+              activity,
+              coalescedRows,
+              System::currentTimeMillis,
+              PromotionComponent.get(getContext())
+                  .promotionManager()
+                  .getHighestPriorityPromotion(PromotionType.CARD)
+                  .orElse(null)));
+    } else {
+      ((NewCallLogAdapter) recyclerView.getAdapter()).updateRows(coalescedRows);
+    }
+
+    // The rows loaded so far might not fill the screen, in which case the user can't scroll to load
+    // more of them.
+    recyclerView.post(this::loadOlderRowsIfNeeded);
+  }
+
+  /** Loads older rows if the user is close to the end of the rows loaded so far. */
+  private void loadOlderRowsIfNeeded() {
+    if (!isAdded()) {
+      return;
+    }
+    LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+    if (layoutManager == null
+        || recyclerView.getAdapter() == null
+        || layoutManager.findLastVisibleItemPosition() + LOAD_OLDER_ROWS_THRESHOLD
+            < recyclerView.getAdapter().getItemCount()) {
+      return;
+    }
+    Loader<ImmutableList<CoalescedRow>> loader = getLoaderManager().getLoader(LOADER_ID);
+    if (loader != null) {
+      ((CoalescedAnnotatedCallLogLoader) loader).loadOlderRows();
+    }
   }
 
   @Override
-  public void onLoaderReset(Loader<Cursor> loader) {
+  public void onLoaderReset(Loader<ImmutableList<CoalescedRow>> loader) {
     LogUtil.enterBlock("NewCallLogFragment.onLoaderReset");
     recyclerView.setAdapter(null);
   }
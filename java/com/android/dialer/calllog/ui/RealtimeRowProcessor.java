@@ -33,6 +33,7 @@ import com.android.dialer.common.concurrent.ThreadUtil;
 import com.android.dialer.inject.ApplicationContext;
 import com.android.dialer.phonelookup.PhoneLookupInfo;
 import com.android.dialer.phonelookup.composite.CompositePhoneLookup;
+import com.android.dialer.phonelookup.composite.PhoneLookupInfoCache;
 import com.android.dialer.phonelookup.database.contract.PhoneLookupHistoryContract;
 import com.android.dialer.phonelookup.database.contract.PhoneLookupHistoryContract.PhoneLookupHistory;
 import com.google.common.collect.ImmutableMap;
@@ -40,8 +41,10 @@ import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.TimeUnit;
@@ -58,6 +61,11 @@ import javax.inject.Inject;
  * the CP2 information for all of them at once, and so information for those rows must be retrieved
  * at display time.
  *
+ * <p>Results are kept in the {@link PhoneLookupInfoCache} shared with other screens. So that rows
+ * show their final information as soon as they scroll into view, {@link #prefetch(List)} looks up
+ * rows which are about to be displayed, at most {@link #MAX_CONCURRENT_PREFETCHES} at a time so
+ * that lookups for rows being displayed are not delayed.
+ *
  * <p>This class also updates {@link PhoneLookupHistory} with the results that it fetches.
  */
 public final class RealtimeRowProcessor {
@@ -67,12 +75,28 @@ public final class RealtimeRowProcessor {
    */
   @VisibleForTesting static final long BATCH_WAIT_MILLIS = TimeUnit.SECONDS.toMillis(3);
 
+  /** Queued writes to PhoneLookupHistory are written without waiting once there are this many. */
+  @VisibleForTesting static final int MAX_BATCH_SIZE = 50;
+
+  @VisibleForTesting static final int MAX_CONCURRENT_PREFETCHES = 2;
+
   private final Context appContext;
   private final CompositePhoneLookup compositePhoneLookup;
+  private final PhoneLookupInfoCache cache;
   private final ListeningExecutorService uiExecutor;
   private final ListeningExecutorService backgroundExecutor;
 
-  private final Map<DialerPhoneNumber, PhoneLookupInfo> cache = new ArrayMap<>();
+  /** Lookups which haven't completed yet, shared by displayed and prefetched rows. */
+  private final Map<DialerPhoneNumber, ListenableFuture<PhoneLookupInfo>> pendingLookups =
+      new ArrayMap<>();
+
+  /** Numbers to prefetch once fewer than {@link #MAX_CONCURRENT_PREFETCHES} are in progress. */
+  private final ArrayDeque<DialerPhoneNumber> queuedPrefetches = new ArrayDeque<>();
+
+  private int prefetchesInProgress;
+
+  /** Incremented when the cache is cleared, so that results of earlier lookups aren't cached. */
+  private int cacheGeneration;
 
   private final Map<DialerPhoneNumber, PhoneLookupInfo> queuedPhoneLookupHistoryWrites =
       new LinkedHashMap<>(); // Keep the order so the most recent looked up value always wins
@@ -83,11 +107,13 @@ public final class RealtimeRowProcessor {
       @ApplicationContext Context appContext,
       @Ui ListeningExecutorService uiExecutor,
       @BackgroundExecutor ListeningExecutorService backgroundExecutor,
-      CompositePhoneLookup compositePhoneLookup) {
+      CompositePhoneLookup compositePhoneLookup,
+      PhoneLookupInfoCache cache) {
     this.appContext = appContext;
     this.uiExecutor = uiExecutor;
     this.backgroundExecutor = backgroundExecutor;
     this.compositePhoneLookup = compositePhoneLookup;
+    this.cache = cache;
   }
 
   /**
@@ -106,23 +132,92 @@ public final class RealtimeRowProcessor {
       return Futures.immediateFuture(applyPhoneLookupInfoToRow(cachedPhoneLookupInfo, row));
     }
 
-    ListenableFuture<PhoneLookupInfo> phoneLookupInfoFuture =
-        compositePhoneLookup.lookup(row.getNumber());
     return Futures.transform(
-        phoneLookupInfoFuture,
-        phoneLookupInfo -> {
-          queuePhoneLookupHistoryWrite(row.getNumber(), phoneLookupInfo);
-          cache.put(row.getNumber(), phoneLookupInfo);
-          return applyPhoneLookupInfoToRow(phoneLookupInfo, row);
-        },
-        uiExecutor /* ensures the cache is updated on a single thread */);
+        lookUp(row.getNumber()),
+        phoneLookupInfo -> applyPhoneLookupInfoToRow(phoneLookupInfo, row),
+        uiExecutor);
+  }
+
+  /**
+   * Starts looking up the rows which need additional work before they can be displayed, in order,
+   * replacing the rows passed to earlier calls which haven't been looked up yet.
+   */
+  @MainThread
+  void prefetch(List<CoalescedRow> rows) {
+    Assert.isMainThread();
+    queuedPrefetches.clear();
+    for (CoalescedRow row : rows) {
+      DialerPhoneNumber number = row.getNumber();
+      if (row.getNumberAttributes().getIsCp2InfoIncomplete()
+          && cache.get(number) == null
+          && !pendingLookups.containsKey(number)
+          && !queuedPrefetches.contains(number)) {
+        queuedPrefetches.add(number);
+      }
+    }
+    startQueuedPrefetches();
   }
 
-  /** Clears the internal cache. */
+  /** Clears the cache, e.g. because the information it was looked up from may have changed. */
   @MainThread
   public void clearCache() {
     Assert.isMainThread();
     cache.clear();
+    pendingLookups.clear();
+    queuedPrefetches.clear();
+    cacheGeneration++;
+  }
+
+  @MainThread
+  private void startQueuedPrefetches() {
+    while (prefetchesInProgress < MAX_CONCURRENT_PREFETCHES && !queuedPrefetches.isEmpty()) {
+      DialerPhoneNumber number = queuedPrefetches.poll();
+      if (cache.get(number) != null || pendingLookups.containsKey(number)) {
+        continue;
+      }
+      prefetchesInProgress++;
+      lookUp(number)
+          .addListener(
+              () -> {
+                prefetchesInProgress--;
+                startQueuedPrefetches();
+              },
+              uiExecutor);
+    }
+  }
+
+  /**
+   * Returns the lookup in progress for the number, or starts one. Results are cached and queued to
+   * be written to PhoneLookupHistory on the main thread.
+   */
+  @MainThread
+  private ListenableFuture<PhoneLookupInfo> lookUp(DialerPhoneNumber number) {
+    ListenableFuture<PhoneLookupInfo> pendingLookup = pendingLookups.get(number);
+    if (pendingLookup != null) {
+      return pendingLookup;
+    }
+    int generation = cacheGeneration;
+    ListenableFuture<PhoneLookupInfo> lookup =
+        Futures.transform(
+            compositePhoneLookup.lookup(number),
+            phoneLookupInfo -> {
+              queuePhoneLookupHistoryWrite(number, phoneLookupInfo);
+              if (generation == cacheGeneration) {
+                cache.put(number, phoneLookupInfo);
+              }
+              return phoneLookupInfo;
+            },
+            uiExecutor /* ensures pendingLookups is updated on a single thread */);
+    pendingLookups.put(number, lookup);
+    // Failed lookups are also removed, so they are retried the next time the row is displayed.
+    lookup.addListener(
+        () -> {
+          if (generation == cacheGeneration && pendingLookups.get(number) == lookup) {
+            pendingLookups.remove(number);
+          }
+        },
+        uiExecutor);
+    return lookup;
   }
 
   @MainThread
@@ -131,6 +226,12 @@ public final class RealtimeRowProcessor {
     Assert.isMainThread();
     queuedPhoneLookupHistoryWrites.put(dialerPhoneNumber, phoneLookupInfo);
     ThreadUtil.getUiThreadHandler().removeCallbacks(writePhoneLookupHistoryRunnable);
+    // While prefetching, lookups complete continuously, so the batch is written once it is full
+    // rather than after a pause.
+    if (queuedPhoneLookupHistoryWrites.size() >= MAX_BATCH_SIZE) {
+      writePhoneLookupHistory();
+      return;
+    }
     ThreadUtil.getUiThreadHandler().postDelayed(writePhoneLookupHistoryRunnable, BATCH_WAIT_MILLIS);
   }
 
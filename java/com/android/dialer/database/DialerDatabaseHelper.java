@@ -40,16 +40,22 @@ import com.android.dialer.common.LogUtil;
 import com.android.dialer.common.concurrent.DefaultFutureCallback;
 import com.android.dialer.common.concurrent.DialerExecutorComponent;
 import com.android.dialer.common.concurrent.DialerFutureSerializer;
-import com.android.dialer.common.database.Selection;
 import com.android.dialer.configprovider.ConfigProviderComponent;
 import com.android.dialer.contacts.resources.R;
 import com.android.dialer.database.FilteredNumberContract.FilteredNumberColumns;
+import com.android.dialer.metrics.Metrics;
+import com.android.dialer.metrics.MetricsComponent;
+import com.android.dialer.smartdial.util.SmartDialMatchEngine;
 import com.android.dialer.smartdial.util.SmartDialNameMatcher;
 import com.android.dialer.smartdial.util.SmartDialPrefix;
 import com.android.dialer.util.PermissionsUtil;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.MoreExecutors;
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Objects;
 import java.util.Set;
@@ -84,16 +90,43 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
   static final String DEFAULT_LAST_UPDATED_CONFIG_KEY = "smart_dial_default_last_update_millis";
 
   private static final String DATABASE_VERSION_PROPERTY = "database_version";
+
+  /**
+   * Start time of the smart dial sync in progress. Cleared when a sync completes, so a non-empty
+   * value at the start of a sync means the previous one was interrupted and may have left rows
+   * newer than {@link #LAST_UPDATED_MILLIS} behind.
+   */
+  private static final String SYNC_STARTED_PROPERTY = "smartdial_sync_started_millis";
+
+  /** Appended to the database name to name the snapshot of the smart dial index. */
+  private static final String SMART_DIAL_SNAPSHOT_SUFFIX = ".smartdial_index";
+
+  /** Maximum number of contacts or rows written per transaction while syncing. */
+  private static final int SYNC_BATCH_SIZE = 500;
   private static final int MAX_ENTRIES = 20;
+  /**
+   * Number of matches, in smart dial sort order, that are ranked by match quality before the top
+   * {@link #MAX_ENTRIES} are returned. Bounds the matching work per query.
+   */
+  private static final int RANKING_WINDOW = 100;
 
   private final Context context;
   private final DialerFutureSerializer dialerFutureSerializer = new DialerFutureSerializer();
+  private final SmartDialIndex smartDialIndex;
 
   private boolean isTestInstance = false;
 
   protected DialerDatabaseHelper(Context context, String databaseName, int dbVersion) {
     super(context, databaseName, null, dbVersion);
     this.context = Objects.requireNonNull(context, "Context must not be null");
+    // In-memory databases have no name, and nothing to persist across restarts.
+    this.smartDialIndex =
+        new SmartDialIndex(
+            databaseName == null
+                ? null
+                : new SmartDialIndexSnapshot(
+                    new File(context.getCacheDir(), databaseName + SMART_DIAL_SNAPSHOT_SUFFIX),
+                    dbVersion));
   }
 
   public void setIsTestInstance(boolean isTestInstance) {
@@ -112,6 +145,7 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
 
   private void setupTables(SQLiteDatabase db) {
     dropTables(db);
+    smartDialIndex.invalidate();
     db.execSQL(
         "CREATE TABLE "
             + Tables.SMARTDIAL_TABLE
@@ -361,6 +395,13 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
     }
   }
 
+  /** Returns the time of the last completed smart dial sync, or 0 if there was none. */
+  private long getLastUpdatedMillis() {
+    return context
+        .getSharedPreferences(DATABASE_LAST_CREATED_SHARED_PREF, Context.MODE_PRIVATE)
+        .getLong(LAST_UPDATED_MILLIS, 0);
+  }
+
   private void resetSmartDialLastUpdatedTime() {
     final SharedPreferences databaseLastUpdateSharedPref =
         context.getSharedPreferences(DATABASE_LAST_CREATED_SHARED_PREF, Context.MODE_PRIVATE);
@@ -393,55 +434,24 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
   }
 
   /**
-   * Removes rows in the smartdial database that matches the contacts that have been deleted by
-   * other apps since last update.
+   * Collects the contacts that have been deleted by other apps since last update. Their rows are
+   * removed from the smartdial database together with those of updated contacts.
    *
-   * @param db Database to operate on.
    * @param lastUpdatedTimeMillis the last time at which an update to the smart dial database was
    *     run.
+   * @param contactIds Receives the IDs of the deleted contacts.
    */
-  private void removeDeletedContacts(SQLiteDatabase db, String lastUpdatedTimeMillis) {
+  private void collectDeletedContacts(String lastUpdatedTimeMillis, Set<Long> contactIds) {
     Cursor deletedContactCursor = getDeletedContactCursor(lastUpdatedTimeMillis);
 
     if (deletedContactCursor == null) {
       return;
     }
 
-    db.beginTransaction();
     try {
-      if (!deletedContactCursor.moveToFirst()) {
-        return;
-      }
-
-      do {
-        if (deletedContactCursor.isNull(DeleteContactQuery.DELETED_CONTACT_ID)) {
-          LogUtil.i(
-              "DialerDatabaseHelper.removeDeletedContacts",
-              "contact_id column null. Row was deleted during iteration, skipping");
-          continue;
-        }
-
-        long deleteContactId = deletedContactCursor.getLong(DeleteContactQuery.DELETED_CONTACT_ID);
-
-        Selection smartDialSelection =
-            Selection.column(SmartDialDbColumns.CONTACT_ID).is("=", deleteContactId);
-        db.delete(
-            Tables.SMARTDIAL_TABLE,
-            smartDialSelection.getSelection(),
-            smartDialSelection.getSelectionArgs());
-
-        Selection prefixSelection =
-            Selection.column(PrefixColumns.CONTACT_ID).is("=", deleteContactId);
-        db.delete(
-            Tables.PREFIX_TABLE,
-            prefixSelection.getSelection(),
-            prefixSelection.getSelectionArgs());
-      } while (deletedContactCursor.moveToNext());
-
-      db.setTransactionSuccessful();
+      collectContactIds(deletedContactCursor, DeleteContactQuery.DELETED_CONTACT_ID, contactIds);
     } finally {
       deletedContactCursor.close();
-      db.endTransaction();
     }
   }
 
@@ -461,10 +471,25 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
    * previous instance of the dialer was destroyed for some reason. For data integrity, we delete
    * all of them.
    *
+   * <p>Only needed when the previous sync did not complete, see {@link #SYNC_STARTED_PROPERTY}.
+   *
    * @param db Database pointer to the dialer database.
    * @param last_update_time Time stamp of last successful update of the dialer database.
+   * @param changedContactIds Receives the IDs of the removed contacts.
    */
-  private void removePotentiallyCorruptedContacts(SQLiteDatabase db, String last_update_time) {
+  private void removePotentiallyCorruptedContacts(
+      SQLiteDatabase db, String last_update_time, Set<Long> changedContactIds) {
+    try (Cursor cursor =
+        db.query(
+            Tables.SMARTDIAL_TABLE,
+            new String[] {SmartDialDbColumns.CONTACT_ID},
+            SmartDialDbColumns.LAST_SMARTDIAL_UPDATE_TIME + " > " + last_update_time,
+            null,
+            null,
+            null,
+            null)) {
+      collectContactIds(cursor, 0, changedContactIds);
+    }
     db.delete(
         Tables.PREFIX_TABLE,
         PrefixColumns.CONTACT_ID
@@ -485,6 +510,20 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
         null);
   }
 
+  /** Adds the non-null contact IDs in {@code column} of {@code cursor} to {@code contactIds}. */
+  private static void collectContactIds(Cursor cursor, int column, Set<Long> contactIds) {
+    cursor.moveToPosition(-1);
+    while (cursor.moveToNext()) {
+      if (cursor.isNull(column)) {
+        LogUtil.i(
+            "DialerDatabaseHelper.collectContactIds",
+            "contact_id column null. Row was deleted during iteration, skipping");
+        continue;
+      }
+      contactIds.add(cursor.getLong(column));
+    }
+  }
+
   /**
    * Removes rows in the smartdial database that matches updated contacts.
    *
@@ -493,199 +532,216 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
    */
   @VisibleForTesting
   void removeUpdatedContacts(SQLiteDatabase db, Cursor updatedContactCursor) {
-    db.beginTransaction();
+    final Set<Long> contactIds = new HashSet<>();
+    collectContactIds(updatedContactCursor, UpdatedContactQuery.UPDATED_CONTACT_ID, contactIds);
+    removeContacts(db, contactIds);
+  }
+
+  /**
+   * Removes the smartdial and prefix rows of the given contacts, using compiled statements in
+   * transactions of at most {@link #SYNC_BATCH_SIZE} contacts.
+   *
+   * @param db Database pointer to the smartdial database
+   * @param contactIds IDs of the contacts to remove.
+   */
+  private void removeContacts(SQLiteDatabase db, Collection<Long> contactIds) {
+    if (contactIds.isEmpty()) {
+      return;
+    }
+    final SQLiteStatement smartDialDelete =
+        db.compileStatement(
+            "DELETE FROM "
+                + Tables.SMARTDIAL_TABLE
+                + " WHERE "
+                + SmartDialDbColumns.CONTACT_ID
+                + " = ?");
+    final SQLiteStatement prefixDelete =
+        db.compileStatement(
+            "DELETE FROM " + Tables.PREFIX_TABLE + " WHERE " + PrefixColumns.CONTACT_ID + " = ?");
     try {
-      updatedContactCursor.moveToPosition(-1);
-      while (updatedContactCursor.moveToNext()) {
-        if (updatedContactCursor.isNull(UpdatedContactQuery.UPDATED_CONTACT_ID)) {
-          LogUtil.i(
-              "DialerDatabaseHelper.removeUpdatedContacts",
-              "contact_id column null. Row was deleted during iteration, skipping");
-          continue;
+      int batchCount = 0;
+      db.beginTransaction();
+      try {
+        for (long contactId : contactIds) {
+          smartDialDelete.bindLong(1, contactId);
+          smartDialDelete.executeUpdateDelete();
+          prefixDelete.bindLong(1, contactId);
+          prefixDelete.executeUpdateDelete();
+
+          if (++batchCount == SYNC_BATCH_SIZE) {
+            db.setTransactionSuccessful();
+            db.endTransaction();
+            batchCount = 0;
+            db.beginTransaction();
+          }
         }
-
-        final Long contactId = updatedContactCursor.getLong(UpdatedContactQuery.UPDATED_CONTACT_ID);
-
-        db.delete(Tables.SMARTDIAL_TABLE, SmartDialDbColumns.CONTACT_ID + "=" + contactId, null);
-        db.delete(Tables.PREFIX_TABLE, PrefixColumns.CONTACT_ID + "=" + contactId, null);
+        db.setTransactionSuccessful();
+      } finally {
+        db.endTransaction();
       }
-
-      db.setTransactionSuccessful();
     } finally {
-      db.endTransaction();
+      smartDialDelete.close();
+      prefixDelete.close();
     }
   }
 
   /**
-   * Inserts updated contacts as rows to the smartdial table.
+   * Inserts updated contacts as rows to the smartdial table, together with the prefixes of their
+   * numbers and names. Rows are written with compiled statements in transactions of at most {@link
+   * #SYNC_BATCH_SIZE} rows so that readers of the database are not blocked for the whole sync.
    *
    * @param db Database pointer to the smartdial database.
    * @param updatedContactCursor Cursor pointing to the list of recently updated contacts.
    * @param currentMillis Current time to be recorded in the smartdial table as update timestamp.
+   * @param stats Receives the number of inserted rows and prefixes.
+   * @param insertedContactIds Receives the IDs of the inserted contacts.
    */
   @VisibleForTesting
   protected void insertUpdatedContactsAndNumberPrefix(
-      SQLiteDatabase db, Cursor updatedContactCursor, Long currentMillis) {
-    db.beginTransaction();
+      SQLiteDatabase db,
+      Cursor updatedContactCursor,
+      Long currentMillis,
+      SyncStats stats,
+      Set<Long> insertedContactIds) {
+    final String sqlInsert =
+        "INSERT INTO "
+            + Tables.SMARTDIAL_TABLE
+            + " ("
+            + SmartDialDbColumns.DATA_ID
+            + ", "
+            + SmartDialDbColumns.NUMBER
+            + ", "
+            + SmartDialDbColumns.CONTACT_ID
+            + ", "
+            + SmartDialDbColumns.LOOKUP_KEY
+            + ", "
+            + SmartDialDbColumns.DISPLAY_NAME_PRIMARY
+            + ", "
+            + SmartDialDbColumns.PHOTO_ID
+            + ", "
+            + SmartDialDbColumns.LAST_TIME_USED
+            + ", "
+            + SmartDialDbColumns.TIMES_USED
+            + ", "
+            + SmartDialDbColumns.STARRED
+            + ", "
+            + SmartDialDbColumns.IS_SUPER_PRIMARY
+            + ", "
+            + SmartDialDbColumns.IN_VISIBLE_GROUP
+            + ", "
+            + SmartDialDbColumns.IS_PRIMARY
+            + ", "
+            + SmartDialDbColumns.CARRIER_PRESENCE
+            + ", "
+            + SmartDialDbColumns.LAST_SMARTDIAL_UPDATE_TIME
+            + ") "
+            + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    final SQLiteStatement insert = db.compileStatement(sqlInsert);
+
+    final String prefixSqlInsert =
+        "INSERT INTO "
+            + Tables.PREFIX_TABLE
+            + " ("
+            + PrefixColumns.CONTACT_ID
+            + ", "
+            + PrefixColumns.PREFIX
+            + ") "
+            + " VALUES (?, ?)";
+    final SQLiteStatement prefixInsert = db.compileStatement(prefixSqlInsert);
+
     try {
-      final String sqlInsert =
-          "INSERT INTO "
-              + Tables.SMARTDIAL_TABLE
-              + " ("
-              + SmartDialDbColumns.DATA_ID
-              + ", "
-              + SmartDialDbColumns.NUMBER
-              + ", "
-              + SmartDialDbColumns.CONTACT_ID
-              + ", "
-              + SmartDialDbColumns.LOOKUP_KEY
-              + ", "
-              + SmartDialDbColumns.DISPLAY_NAME_PRIMARY
-              + ", "
-              + SmartDialDbColumns.PHOTO_ID
-              + ", "
-              + SmartDialDbColumns.LAST_TIME_USED
-              + ", "
-              + SmartDialDbColumns.TIMES_USED
-              + ", "
-              + SmartDialDbColumns.STARRED
-              + ", "
-              + SmartDialDbColumns.IS_SUPER_PRIMARY
-              + ", "
-              + SmartDialDbColumns.IN_VISIBLE_GROUP
-              + ", "
-              + SmartDialDbColumns.IS_PRIMARY
-              + ", "
-              + SmartDialDbColumns.CARRIER_PRESENCE
-              + ", "
-              + SmartDialDbColumns.LAST_SMARTDIAL_UPDATE_TIME
-              + ") "
-              + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
-      final SQLiteStatement insert = db.compileStatement(sqlInsert);
-
-      final String numberSqlInsert =
-          "INSERT INTO "
-              + Tables.PREFIX_TABLE
-              + " ("
-              + PrefixColumns.CONTACT_ID
-              + ", "
-              + PrefixColumns.PREFIX
-              + ") "
-              + " VALUES (?, ?)";
-      final SQLiteStatement numberInsert = db.compileStatement(numberSqlInsert);
-
-      updatedContactCursor.moveToPosition(-1);
-      while (updatedContactCursor.moveToNext()) {
-        insert.clearBindings();
-
-        if (updatedContactCursor.isNull(PhoneQuery.PHONE_ID)) {
-          LogUtil.i(
-              "DialerDatabaseHelper.insertUpdatedContactsAndNumberPrefix",
-              "_id column null. Row was deleted during iteration, skipping");
-          continue;
-        }
+      int batchCount = 0;
+      db.beginTransaction();
+      try {
+        updatedContactCursor.moveToPosition(-1);
+        while (updatedContactCursor.moveToNext()) {
+          insert.clearBindings();
 
-        // Handle string columns which can possibly be null first. In the case of certain
-        // null columns (due to malformed rows possibly inserted by third-party apps
-        // or sync adapters), skip the phone number row.
-        final String number = updatedContactCursor.getString(PhoneQuery.PHONE_NUMBER);
-        if (TextUtils.isEmpty(number)) {
-          continue;
-        } else {
-          insert.bindString(2, number);
-        }
+          if (updatedContactCursor.isNull(PhoneQuery.PHONE_ID)) {
+            LogUtil.i(
+                "DialerDatabaseHelper.insertUpdatedContactsAndNumberPrefix",
+                "_id column null. Row was deleted during iteration, skipping");
+            continue;
+          }
 
-        final String lookupKey = updatedContactCursor.getString(PhoneQuery.PHONE_LOOKUP_KEY);
-        if (TextUtils.isEmpty(lookupKey)) {
-          continue;
-        } else {
-          insert.bindString(4, lookupKey);
-        }
+          // Handle string columns which can possibly be null first. In the case of certain
+          // null columns (due to malformed rows possibly inserted by third-party apps
+          // or sync adapters), skip the phone number row.
+          final String number = updatedContactCursor.getString(PhoneQuery.PHONE_NUMBER);
+          if (TextUtils.isEmpty(number)) {
+            continue;
+          } else {
+            insert.bindString(2, number);
+          }
 
-        final String displayName = updatedContactCursor.getString(PhoneQuery.PHONE_DISPLAY_NAME);
-        if (displayName == null) {
-          insert.bindString(5, context.getResources().getString(R.string.missing_name));
-        } else {
+          final String lookupKey = updatedContactCursor.getString(PhoneQuery.PHONE_LOOKUP_KEY);
+          if (TextUtils.isEmpty(lookupKey)) {
+            continue;
+          } else {
+            insert.bindString(4, lookupKey);
+          }
+
+          String displayName = updatedContactCursor.getString(PhoneQuery.PHONE_DISPLAY_NAME);
+          if (displayName == null) {
+            displayName = context.getResources().getString(R.string.missing_name);
+          }
           insert.bindString(5, displayName);
+          final long contactId = updatedContactCursor.getLong(PhoneQuery.PHONE_CONTACT_ID);
+          insert.bindLong(1, updatedContactCursor.getLong(PhoneQuery.PHONE_ID));
+          insert.bindLong(3, contactId);
+          insert.bindLong(6, updatedContactCursor.getLong(PhoneQuery.PHONE_PHOTO_ID));
+          insert.bindLong(7, updatedContactCursor.getLong(PhoneQuery.PHONE_LAST_TIME_USED));
+          insert.bindLong(8, updatedContactCursor.getInt(PhoneQuery.PHONE_TIMES_USED));
+          insert.bindLong(9, updatedContactCursor.getInt(PhoneQuery.PHONE_STARRED));
+          insert.bindLong(10, updatedContactCursor.getInt(PhoneQuery.PHONE_IS_SUPER_PRIMARY));
+          insert.bindLong(11, updatedContactCursor.getInt(PhoneQuery.PHONE_IN_VISIBLE_GROUP));
+          insert.bindLong(12, updatedContactCursor.getInt(PhoneQuery.PHONE_IS_PRIMARY));
+          insert.bindLong(13, updatedContactCursor.getInt(PhoneQuery.PHONE_CARRIER_PRESENCE));
+          insert.bindLong(14, currentMillis);
+          insert.executeInsert();
+          stats.insertedRows++;
+
+          final ArrayList<String> numberPrefixes =
+              SmartDialPrefix.parseToNumberTokens(context, number);
+          stats.insertedPrefixes += insertPrefixes(prefixInsert, contactId, numberPrefixes);
+
+          /**
+           * Name prefixes are per contact rather than per number, so they are only computed for
+           * the first number of each contact.
+           */
+          if (insertedContactIds.add(contactId)) {
+            final ArrayList<String> namePrefixes =
+                SmartDialPrefix.generateNamePrefixes(context, displayName);
+            stats.insertedPrefixes += insertPrefixes(prefixInsert, contactId, namePrefixes);
+          }
+
+          if (++batchCount == SYNC_BATCH_SIZE) {
+            db.setTransactionSuccessful();
+            db.endTransaction();
+            batchCount = 0;
+            db.beginTransaction();
+          }
         }
-        insert.bindLong(1, updatedContactCursor.getLong(PhoneQuery.PHONE_ID));
-        insert.bindLong(3, updatedContactCursor.getLong(PhoneQuery.PHONE_CONTACT_ID));
-        insert.bindLong(6, updatedContactCursor.getLong(PhoneQuery.PHONE_PHOTO_ID));
-        insert.bindLong(7, updatedContactCursor.getLong(PhoneQuery.PHONE_LAST_TIME_USED));
-        insert.bindLong(8, updatedContactCursor.getInt(PhoneQuery.PHONE_TIMES_USED));
-        insert.bindLong(9, updatedContactCursor.getInt(PhoneQuery.PHONE_STARRED));
-        insert.bindLong(10, updatedContactCursor.getInt(PhoneQuery.PHONE_IS_SUPER_PRIMARY));
-        insert.bindLong(11, updatedContactCursor.getInt(PhoneQuery.PHONE_IN_VISIBLE_GROUP));
-        insert.bindLong(12, updatedContactCursor.getInt(PhoneQuery.PHONE_IS_PRIMARY));
-        insert.bindLong(13, updatedContactCursor.getInt(PhoneQuery.PHONE_CARRIER_PRESENCE));
-        insert.bindLong(14, currentMillis);
-        insert.executeInsert();
-        final String contactPhoneNumber = updatedContactCursor.getString(PhoneQuery.PHONE_NUMBER);
-        final ArrayList<String> numberPrefixes =
-            SmartDialPrefix.parseToNumberTokens(context, contactPhoneNumber);
-
-        for (String numberPrefix : numberPrefixes) {
-          numberInsert.bindLong(1, updatedContactCursor.getLong(PhoneQuery.PHONE_CONTACT_ID));
-          numberInsert.bindString(2, numberPrefix);
-          numberInsert.executeInsert();
-          numberInsert.clearBindings();
-        }
-      }
 
-      db.setTransactionSuccessful();
+        db.setTransactionSuccessful();
+      } finally {
+        db.endTransaction();
+      }
     } finally {
-      db.endTransaction();
+      insert.close();
+      prefixInsert.close();
     }
   }
 
-  /**
-   * Inserts prefixes of contact names to the prefix table.
-   *
-   * @param db Database pointer to the smartdial database.
-   * @param nameCursor Cursor pointing to the list of distinct updated contacts.
-   */
-  @VisibleForTesting
-  void insertNamePrefixes(SQLiteDatabase db, Cursor nameCursor) {
-    final int columnIndexName = nameCursor.getColumnIndex(SmartDialDbColumns.DISPLAY_NAME_PRIMARY);
-    final int columnIndexContactId = nameCursor.getColumnIndex(SmartDialDbColumns.CONTACT_ID);
-
-    db.beginTransaction();
-    try {
-      final String sqlInsert =
-          "INSERT INTO "
-              + Tables.PREFIX_TABLE
-              + " ("
-              + PrefixColumns.CONTACT_ID
-              + ", "
-              + PrefixColumns.PREFIX
-              + ") "
-              + " VALUES (?, ?)";
-      final SQLiteStatement insert = db.compileStatement(sqlInsert);
-
-      while (nameCursor.moveToNext()) {
-        if (nameCursor.isNull(columnIndexContactId)) {
-          LogUtil.i(
-              "DialerDatabaseHelper.insertNamePrefixes",
-              "contact_id column null. Row was deleted during iteration, skipping");
-          continue;
-        }
-
-        /** Computes a list of prefixes of a given contact name. */
-        final ArrayList<String> namePrefixes =
-            SmartDialPrefix.generateNamePrefixes(context, nameCursor.getString(columnIndexName));
-
-        for (String namePrefix : namePrefixes) {
-          insert.bindLong(1, nameCursor.getLong(columnIndexContactId));
-          insert.bindString(2, namePrefix);
-          insert.executeInsert();
-          insert.clearBindings();
-        }
-      }
-
-      db.setTransactionSuccessful();
-    } finally {
-      db.endTransaction();
+  private static int insertPrefixes(
+      SQLiteStatement prefixInsert, long contactId, ArrayList<String> prefixes) {
+    for (String prefix : prefixes) {
+      prefixInsert.bindLong(1, contactId);
+      prefixInsert.bindString(2, prefix);
+      prefixInsert.executeInsert();
+      prefixInsert.clearBindings();
     }
+    return prefixes.size();
   }
 
   /**
@@ -694,6 +750,10 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
    * accordingly. It also queries the deleted contact database to remove newly deleted contacts
    * since last update.
    *
+   * <p>Only contacts whose {@link Contacts#CONTACT_LAST_UPDATED_TIMESTAMP} moved are touched, so the
+   * cost of an incremental sync scales with the size of the change rather than the size of the
+   * contact set.
+   *
    * @param forceUpdate If set to true, update the database by reloading all contacts.
    */
   @WorkerThread
@@ -718,35 +778,55 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
         databaseLastUpdateSharedPref.getLong(LAST_UPDATED_MILLIS, defaultLastUpdateMillis);
 
     final String lastUpdateMillis = String.valueOf(forceUpdate ? 0 : sharedPrefLastUpdateMillis);
+    final boolean isFullSync = lastUpdateMillis.equals("0");
 
     LogUtil.i(
         "DialerDatabaseHelper.updateSmartDialDatabase", "last updated at %s", lastUpdateMillis);
 
+    final String timerEventName =
+        isFullSync ? Metrics.SMART_DIAL_FULL_SYNC_EVENT_NAME : Metrics.SMART_DIAL_SYNC_EVENT_NAME;
+    final Metrics metrics = MetricsComponent.get(context).metrics();
+    metrics.startTimer(timerEventName);
+
     /** Sets the time after querying the database as the current update time. */
     final Long currentMillis = System.currentTimeMillis();
+    final SyncStats stats = new SyncStats();
 
     if (DEBUG) {
       stopWatch.lap("Queried the Contacts database");
     }
 
-    /** Removes contacts that have been deleted. */
-    removeDeletedContacts(db, lastUpdateMillis);
-    removePotentiallyCorruptedContacts(db, lastUpdateMillis);
+    /** IDs of all contacts touched by this update, used to patch the in-memory index. */
+    final Set<Long> changedContactIds = new HashSet<>();
 
-    if (DEBUG) {
-      stopWatch.lap("Finished deleting deleted entries");
+    /**
+     * A full sync starts from empty tables. Otherwise, rows written by a sync that did not complete
+     * are newer than the last update time; they are only looked for if the previous sync left its
+     * start marker behind.
+     */
+    if (isFullSync) {
+      db.delete(Tables.PREFIX_TABLE, null, null);
+      db.delete(Tables.SMARTDIAL_TABLE, null, null);
+    } else if (!TextUtils.isEmpty(getProperty(db, SYNC_STARTED_PROPERTY, ""))) {
+      LogUtil.i(
+          "DialerDatabaseHelper.updateSmartDialDatabase",
+          "previous sync was interrupted, removing its rows");
+      removePotentiallyCorruptedContacts(db, lastUpdateMillis, changedContactIds);
     }
+    setProperty(db, SYNC_STARTED_PROPERTY, String.valueOf(currentMillis));
 
     /**
-     * If the database did not exist before, jump through deletion as there is nothing to delete.
+     * Collects contacts that have been deleted or updated. Updated contact information will be
+     * inserted later. Note that this has to use a separate result set from updatePhoneCursor, since
+     * it is possible for a contact to be updated (e.g. phone number deleted), but have no results
+     * show up in updatedPhoneCursor (since all of its phone numbers have been deleted).
+     *
+     * <p>If the database did not exist before, skip this as there is nothing to delete.
      */
-    if (!lastUpdateMillis.equals("0")) {
-      /**
-       * Removes contacts that have been updated. Updated contact information will be inserted
-       * later. Note that this has to use a separate result set from updatePhoneCursor, since it is
-       * possible for a contact to be updated (e.g. phone number deleted), but have no results show
-       * up in updatedPhoneCursor (since all of its phone numbers have been deleted).
-       */
+    if (!isFullSync) {
+      final Set<Long> removedContactIds = new HashSet<>();
+      collectDeletedContacts(lastUpdateMillis, removedContactIds);
+
       final Cursor updatedContactCursor =
           context
               .getContentResolver()
@@ -760,15 +840,21 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
         LogUtil.e(
             "DialerDatabaseHelper.updateSmartDialDatabase",
             "smartDial query received null for cursor");
+        metrics.stopTimer(timerEventName);
         return;
       }
       try {
-        removeUpdatedContacts(db, updatedContactCursor);
+        collectContactIds(
+            updatedContactCursor, UpdatedContactQuery.UPDATED_CONTACT_ID, removedContactIds);
       } finally {
         updatedContactCursor.close();
       }
+
+      removeContacts(db, removedContactIds);
+      stats.removedContacts = removedContactIds.size();
+      changedContactIds.addAll(removedContactIds);
       if (DEBUG) {
-        stopWatch.lap("Finished deleting entries belonging to updated contacts");
+        stopWatch.lap("Finished deleting entries belonging to deleted and updated contacts");
       }
     }
 
@@ -789,52 +875,24 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
       LogUtil.e(
           "DialerDatabaseHelper.updateSmartDialDatabase",
           "smartDial query received null for cursor");
+      metrics.stopTimer(timerEventName);
       return;
     }
 
     try {
-      /** Inserts recently updated phone numbers to the smartdial database. */
-      insertUpdatedContactsAndNumberPrefix(db, updatedPhoneCursor, currentMillis);
+      /** Inserts recently updated phone numbers and their name and number prefixes. */
+      final Set<Long> insertedContactIds = new HashSet<>();
+      insertUpdatedContactsAndNumberPrefix(
+          db, updatedPhoneCursor, currentMillis, stats, insertedContactIds);
+      stats.insertedContacts = insertedContactIds.size();
+      changedContactIds.addAll(insertedContactIds);
       if (DEBUG) {
-        stopWatch.lap("Finished building the smart dial table");
+        stopWatch.lap("Finished building the smart dial and prefix tables");
       }
     } finally {
       updatedPhoneCursor.close();
     }
 
-    /**
-     * Gets a list of distinct contacts which have been updated, and adds the name prefixes of these
-     * contacts to the prefix table.
-     */
-    final Cursor nameCursor =
-        db.rawQuery(
-            "SELECT DISTINCT "
-                + SmartDialDbColumns.DISPLAY_NAME_PRIMARY
-                + ", "
-                + SmartDialDbColumns.CONTACT_ID
-                + " FROM "
-                + Tables.SMARTDIAL_TABLE
-                + " WHERE "
-                + SmartDialDbColumns.LAST_SMARTDIAL_UPDATE_TIME
-                + " = "
-                + currentMillis,
-            new String[] {});
-    if (nameCursor != null) {
-      try {
-        if (DEBUG) {
-          stopWatch.lap("Queried the smart dial table for contact names");
-        }
-
-        /** Inserts prefixes of names into the prefix table. */
-        insertNamePrefixes(db, nameCursor);
-        if (DEBUG) {
-          stopWatch.lap("Finished building the name prefix table");
-        }
-      } finally {
-        nameCursor.close();
-      }
-    }
-
     /** Creates index on contact_id for fast JOIN operation. */
     db.execSQL(
         "CREATE INDEX IF NOT EXISTS smartdial_contact_id_index ON "
@@ -889,20 +947,45 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
       stopWatch.lap(TAG + "Finished recreating index");
     }
 
-    /** Updates the database index statistics. */
-    db.execSQL("ANALYZE " + Tables.SMARTDIAL_TABLE);
-    db.execSQL("ANALYZE " + Tables.PREFIX_TABLE);
-    db.execSQL("ANALYZE smartdial_contact_id_index");
-    db.execSQL("ANALYZE smartdial_last_update_index");
-    db.execSQL("ANALYZE nameprefix_index");
-    db.execSQL("ANALYZE nameprefix_contact_id_index");
+    /**
+     * Updates the database index statistics. Their distribution only changes meaningfully when the
+     * tables are rebuilt, so incremental syncs skip this full scan.
+     */
+    if (isFullSync) {
+      db.execSQL("ANALYZE " + Tables.SMARTDIAL_TABLE);
+      db.execSQL("ANALYZE " + Tables.PREFIX_TABLE);
+      db.execSQL("ANALYZE smartdial_contact_id_index");
+      db.execSQL("ANALYZE smartdial_last_update_index");
+      db.execSQL("ANALYZE nameprefix_index");
+      db.execSQL("ANALYZE nameprefix_contact_id_index");
+    }
     if (DEBUG) {
       stopWatch.stopAndLog(TAG + "Finished updating index stats", 0);
     }
 
+    /**
+     * Brings the in-memory index in line with the tables. A full rebuild reloads it from scratch,
+     * otherwise only the touched contacts are patched.
+     */
+    if (isFullSync) {
+      smartDialIndex.invalidate();
+      smartDialIndex.ensureLoaded(db, currentMillis);
+    } else {
+      /**
+       * After a process restart this restores the index from the snapshot of the previous sync, so
+       * that only the contacts changed since then need to be read from the tables.
+       */
+      smartDialIndex.ensureLoaded(db, sharedPrefLastUpdateMillis);
+      smartDialIndex.refreshContacts(db, changedContactIds, currentMillis);
+    }
+
     final SharedPreferences.Editor editor = databaseLastUpdateSharedPref.edit();
     editor.putLong(LAST_UPDATED_MILLIS, currentMillis);
-    editor.apply();
+    editor.commit();
+    setProperty(db, SYNC_STARTED_PROPERTY, "");
+
+    metrics.stopTimer(timerEventName);
+    LogUtil.i("DialerDatabaseHelper.updateSmartDialDatabase", "synced %s", stats);
 
     LogUtil.i("DialerDatabaseHelper.updateSmartDialDatabase", "broadcasting smart dial update");
 
@@ -916,135 +999,115 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
    * Returns a list of candidate contacts where the query is a prefix of the dialpad index of the
    * contact's name or phone number.
    *
+   * <p>Candidates are resolved through the in-memory {@link SmartDialIndex}, so concurrent lookups
+   * neither hit SQLite nor wait for each other. The index is loaded from the database on first use
+   * if the update thread has not done so yet.
+   *
+   * <p>Matches are ranked by {@link SmartDialMatchEngine}: contiguous matches first, then initials,
+   * then, if there are too few of those, names matching with one mistyped key. Matches of equal
+   * rank keep the smart dial sort order.
+   *
    * @param query The prefix of a contact's dialpad index.
    * @return A list of top candidate contacts that will be suggested to user to match their input.
    */
   @WorkerThread
-  public synchronized ArrayList<ContactNumber> getLooseMatches(
-      String query, SmartDialNameMatcher nameMatcher) {
-    final SQLiteDatabase db = getReadableDatabase();
-
-    /** Uses SQL query wildcard '%' to represent prefix matching. */
-    final String looseQuery = query + "%";
-
-    final ArrayList<ContactNumber> result = new ArrayList<>();
+  public ArrayList<ContactNumber> getLooseMatches(String query, SmartDialNameMatcher nameMatcher) {
+    return getLooseMatches(query, nameMatcher, new SmartDialRefinement());
+  }
 
+  /**
+   * Same as {@link #getLooseMatches(String, SmartDialNameMatcher)}, but refines the candidates kept
+   * in {@code refinement} when {@code query} extends the query they were computed for, so that
+   * each additional digit costs time proportional to the previous result set. The candidates for
+   * {@code query} are stored back into {@code refinement}.
+   */
+  @WorkerThread
+  public ArrayList<ContactNumber> getLooseMatches(
+      String query, SmartDialNameMatcher nameMatcher, SmartDialRefinement refinement) {
     final StopWatch stopWatch = DEBUG ? StopWatch.start(":Name Prefix query") : null;
 
-    final String currentTimeStamp = Long.toString(System.currentTimeMillis());
-
-    /** Queries the database to find contacts that have an index matching the query prefix. */
-    final Cursor cursor =
-        db.rawQuery(
-            "SELECT "
-                + SmartDialDbColumns.DATA_ID
-                + ", "
-                + SmartDialDbColumns.DISPLAY_NAME_PRIMARY
-                + ", "
-                + SmartDialDbColumns.PHOTO_ID
-                + ", "
-                + SmartDialDbColumns.NUMBER
-                + ", "
-                + SmartDialDbColumns.CONTACT_ID
-                + ", "
-                + SmartDialDbColumns.LOOKUP_KEY
-                + ", "
-                + SmartDialDbColumns.CARRIER_PRESENCE
-                + " FROM "
-                + Tables.SMARTDIAL_TABLE
-                + " WHERE "
-                + SmartDialDbColumns.CONTACT_ID
-                + " IN "
-                + " (SELECT "
-                + PrefixColumns.CONTACT_ID
-                + " FROM "
-                + Tables.PREFIX_TABLE
-                + " WHERE "
-                + Tables.PREFIX_TABLE
-                + "."
-                + PrefixColumns.PREFIX
-                + " LIKE '"
-                + looseQuery
-                + "')"
-                + " ORDER BY "
-                + SmartDialSortingOrder.SORT_ORDER,
-            new String[] {currentTimeStamp});
-    if (cursor == null) {
-      return result;
+    smartDialIndex.ensureLoaded(getReadableDatabase(), getLastUpdatedMillis());
+    final SmartDialIndex.Candidates previousCandidates = refinement.getCandidates();
+    final SmartDialIndex.Candidates candidates =
+        smartDialIndex.lookup(query, System.currentTimeMillis(), previousCandidates);
+    refinement.setCandidates(candidates);
+
+    if (DEBUG) {
+      stopWatch.lap("Prefix lookup completed");
     }
-    try {
-      if (DEBUG) {
-        stopWatch.lap("Prefix query completed");
-      }
 
-      /** Gets the column ID from the cursor. */
-      final int columnDataId = 0;
-      final int columnDisplayNamePrimary = 1;
-      final int columnPhotoId = 2;
-      final int columnNumber = 3;
-      final int columnId = 4;
-      final int columnLookupKey = 5;
-      final int columnCarrierPresence = 6;
+    final SmartDialMatchEngine matchEngine = new SmartDialMatchEngine(nameMatcher);
+    final ArrayList<RankedMatch> matches = new ArrayList<>();
+    final Set<ContactMatch> duplicates = new HashSet<>();
+    addRankedMatches(candidates, query, nameMatcher, matchEngine, duplicates, matches);
+
+    /** Only fall back to typos when exact matches leave room on the first page of results. */
+    if (matches.size() < MAX_ENTRIES && matchEngine.allowsTypos()) {
+      final SmartDialIndex.Candidates typoCandidates =
+          smartDialIndex.lookupTypos(
+              context,
+              query,
+              matchEngine,
+              System.currentTimeMillis(),
+              refinement.getTypoCandidates(),
+              previousCandidates);
+      refinement.setTypoCandidates(typoCandidates);
+      addRankedMatches(typoCandidates, query, nameMatcher, matchEngine, duplicates, matches);
       if (DEBUG) {
-        stopWatch.lap("Found column IDs");
+        stopWatch.lap("Typo lookup completed");
       }
+    } else {
+      refinement.setTypoCandidates(null);
+    }
 
-      final Set<ContactMatch> duplicates = new HashSet<>();
-      int counter = 0;
-      if (DEBUG) {
-        stopWatch.lap("Moved cursor to start");
-      }
-      /** Iterates the cursor to find top contact suggestions without duplication. */
-      while ((cursor.moveToNext()) && (counter < MAX_ENTRIES)) {
-        if (cursor.isNull(columnDataId)) {
-          LogUtil.i(
-              "DialerDatabaseHelper.getLooseMatches",
-              "_id column null. Row was deleted during iteration, skipping");
-          continue;
-        }
-        final long dataID = cursor.getLong(columnDataId);
-        final String displayName = cursor.getString(columnDisplayNamePrimary);
-        final String phoneNumber = cursor.getString(columnNumber);
-        final long id = cursor.getLong(columnId);
-        final long photoId = cursor.getLong(columnPhotoId);
-        final String lookupKey = cursor.getString(columnLookupKey);
-        final int carrierPresence = cursor.getInt(columnCarrierPresence);
-
-        /**
-         * If a contact already exists and another phone number of the contact is being processed,
-         * skip the second instance.
-         */
-        final ContactMatch contactMatch = new ContactMatch(lookupKey, id);
-        if (duplicates.contains(contactMatch)) {
-          continue;
-        }
+    /** The sort is stable, so matches of equal score stay in the smart dial sort order. */
+    Collections.sort(matches, RankedMatch.BY_SCORE);
+    final ArrayList<ContactNumber> result = new ArrayList<>();
+    for (int i = 0; i < matches.size() && i < MAX_ENTRIES; i++) {
+      result.add(matches.get(i).contact);
+    }
 
-        /**
-         * If the contact has either the name or number that matches the query, add to the result.
-         */
-        final boolean nameMatches = nameMatcher.matches(context, displayName);
-        final boolean numberMatches =
-            (nameMatcher.matchesNumber(context, phoneNumber, query) != null);
-        if (nameMatches || numberMatches) {
-          /** If a contact has not been added, add it to the result and the hash set. */
-          duplicates.add(contactMatch);
-          result.add(
-              new ContactNumber(
-                  id, dataID, displayName, phoneNumber, lookupKey, photoId, carrierPresence));
-          counter++;
-          if (DEBUG) {
-            stopWatch.lap("Added one result: Name: " + displayName);
-          }
-        }
+    if (DEBUG) {
+      stopWatch.stopAndLog(TAG + "Finished matching candidates", 0);
+    }
+    return result;
+  }
+
+  /**
+   * Scores {@code candidates} in their smart dial sort order and adds those that match to {@code
+   * matches}, skipping further numbers of contacts that were already added, until {@code matches}
+   * holds {@link #RANKING_WINDOW} entries.
+   */
+  private void addRankedMatches(
+      SmartDialIndex.Candidates candidates,
+      String query,
+      SmartDialNameMatcher nameMatcher,
+      SmartDialMatchEngine matchEngine,
+      Set<ContactMatch> duplicates,
+      ArrayList<RankedMatch> matches) {
+    for (int i = 0; i < candidates.size() && matches.size() < RANKING_WINDOW; i++) {
+      final ContactNumber contact = candidates.get(i);
+
+      /**
+       * If a contact already exists and another phone number of the contact is being processed,
+       * skip the second instance.
+       */
+      final ContactMatch contactMatch = new ContactMatch(contact.lookupKey, contact.id);
+      if (duplicates.contains(contactMatch)) {
+        continue;
       }
 
-      if (DEBUG) {
-        stopWatch.stopAndLog(TAG + "Finished loading cursor", 0);
+      /** If the contact has either the name or number that matches the query, add to the result. */
+      int score = matchEngine.scoreName(context, contact.displayName);
+      if (nameMatcher.matchesNumber(context, contact.phoneNumber, query) != null) {
+        score = Math.max(score, matchEngine.scoreNumberMatch());
+      }
+      if (score != SmartDialMatchEngine.NO_MATCH) {
+        /** If a contact has not been added, add it to the result and the hash set. */
+        duplicates.add(contactMatch);
+        matches.add(new RankedMatch(contact, score));
       }
-    } finally {
-      cursor.close();
     }
-    return result;
   }
 
   public interface Tables {
@@ -1190,76 +1253,6 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
         ContactsContract.DeletedContacts.CONTACT_DELETED_TIMESTAMP + " > ?";
   }
 
-  /**
-   * Gets the sorting order for the smartdial table. This computes a SQL "ORDER BY" argument by
-   * composing contact status and recent contact details together.
-   */
-  private interface SmartDialSortingOrder {
-
-    /** Current contacts - those contacted within the last 3 days (in milliseconds) */
-    long LAST_TIME_USED_CURRENT_MS = 3L * 24 * 60 * 60 * 1000;
-    /** Recent contacts - those contacted within the last 30 days (in milliseconds) */
-    long LAST_TIME_USED_RECENT_MS = 30L * 24 * 60 * 60 * 1000;
-
-    /** Time since last contact. */
-    String TIME_SINCE_LAST_USED_MS =
-        "( ?1 - " + Tables.SMARTDIAL_TABLE + "." + SmartDialDbColumns.LAST_TIME_USED + ")";
-
-    /**
-     * Contacts that have been used in the past 3 days rank higher than contacts that have been used
-     * in the past 30 days, which rank higher than contacts that have not been used in recent 30
-     * days.
-     */
-    String SORT_BY_DATA_USAGE =
-        "(CASE WHEN "
-            + TIME_SINCE_LAST_USED_MS
-            + " < "
-            + LAST_TIME_USED_CURRENT_MS
-            + " THEN 0 "
-            + " WHEN "
-            + TIME_SINCE_LAST_USED_MS
-            + " < "
-            + LAST_TIME_USED_RECENT_MS
-            + " THEN 1 "
-            + " ELSE 2 END)";
-
-    /**
-     * This sort order is similar to that used by the ContactsProvider when returning a list of
-     * frequently called contacts.
-     */
-    String SORT_ORDER =
-        Tables.SMARTDIAL_TABLE
-            + "."
-            + SmartDialDbColumns.STARRED
-            + " DESC, "
-            + Tables.SMARTDIAL_TABLE
-            + "."
-            + SmartDialDbColumns.IS_SUPER_PRIMARY
-            + " DESC, "
-            + SORT_BY_DATA_USAGE
-            + ", "
-            + Tables.SMARTDIAL_TABLE
-            + "."
-            + SmartDialDbColumns.TIMES_USED
-            + " DESC, "
-            + Tables.SMARTDIAL_TABLE
-            + "."
-            + SmartDialDbColumns.IN_VISIBLE_GROUP
-            + " DESC, "
-            + Tables.SMARTDIAL_TABLE
-            + "."
-            + SmartDialDbColumns.DISPLAY_NAME_PRIMARY
-            + ", "
-            + Tables.SMARTDIAL_TABLE
-            + "."
-            + SmartDialDbColumns.CONTACT_ID
-            + ", "
-            + Tables.SMARTDIAL_TABLE
-            + "."
-            + SmartDialDbColumns.IS_PRIMARY
-            + " DESC";
-  }
-
   /**
    * Simple data format for a contact, containing only information needed for showing up in smart
    * dial interface.
@@ -1316,6 +1309,37 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
     }
   }
 
+  /** Counters describing the work done by one smart dial sync. */
+  @VisibleForTesting
+  static final class SyncStats {
+    int removedContacts;
+    int insertedContacts;
+    int insertedRows;
+    int insertedPrefixes;
+
+    @Override
+    public String toString() {
+      return String.format(
+          "removedContacts: %d, insertedContacts: %d, insertedRows: %d, insertedPrefixes: %d",
+          removedContacts, insertedContacts, insertedRows, insertedPrefixes);
+    }
+  }
+
+  /** A matched contact number with its {@link SmartDialMatchEngine} score. */
+  private static final class RankedMatch {
+
+    static final Comparator<RankedMatch> BY_SCORE =
+        (first, second) -> Integer.compare(second.score, first.score);
+
+    private final ContactNumber contact;
+    private final int score;
+
+    RankedMatch(ContactNumber contact, int score) {
+      this.contact = contact;
+      this.score = score;
+    }
+  }
+
   /** Data format for finding duplicated contacts. */
   private static class ContactMatch {
 
@@ -0,0 +1,716 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import com.android.dialer.common.LogUtil;
+import com.android.dialer.common.database.Selection;
+import com.android.dialer.database.DialerDatabaseHelper.ContactNumber;
+import com.android.dialer.database.DialerDatabaseHelper.PrefixColumns;
+import com.android.dialer.database.DialerDatabaseHelper.SmartDialDbColumns;
+import com.android.dialer.database.DialerDatabaseHelper.Tables;
+import com.android.dialer.smartdial.util.SmartDialMatchEngine;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory T9 index over {@link Tables#SMARTDIAL_TABLE} and {@link Tables#PREFIX_TABLE}.
+ *
+ * <p>The SQLite tables remain the persistent backing store. This index mirrors them as a digit trie
+ * in which every node holds the sorted slots of all contacts having a prefix that passes through
+ * the node, so resolving a query is a walk of {@code query.length()} nodes followed by a sort of
+ * the matching rows. It is patched per contact after each smart dial database update rather than
+ * being rebuilt.
+ *
+ * <p>Lookups take a shared read lock and never block each other; only loading and patching take
+ * the write lock.
+ *
+ * <p>The index is persisted through a {@link SmartDialIndexSnapshot}, so that after a process
+ * restart it is restored without re-reading the tables.
+ *
+ * <p>A lookup can be refined from the {@link Candidates} of a previous one: when the new query
+ * extends the previous query and the index has not changed in between, the previous candidates are
+ * filtered against the new trie node instead of being collected and sorted again.
+ */
+final class SmartDialIndex {
+
+  /** SQLite limits the number of bound arguments in a single statement to 999. */
+  private static final int MAX_SELECTION_ARGS = 999;
+
+  /** Current contacts - those contacted within the last 3 days (in milliseconds) */
+  private static final long LAST_TIME_USED_CURRENT_MS = 3L * 24 * 60 * 60 * 1000;
+  /** Recent contacts - those contacted within the last 30 days (in milliseconds) */
+  private static final long LAST_TIME_USED_RECENT_MS = 30L * 24 * 60 * 60 * 1000;
+
+  private static final String[] ROW_PROJECTION =
+      new String[] {
+        SmartDialDbColumns.DATA_ID, // 0
+        SmartDialDbColumns.DISPLAY_NAME_PRIMARY, // 1
+        SmartDialDbColumns.PHOTO_ID, // 2
+        SmartDialDbColumns.NUMBER, // 3
+        SmartDialDbColumns.CONTACT_ID, // 4
+        SmartDialDbColumns.LOOKUP_KEY, // 5
+        SmartDialDbColumns.CARRIER_PRESENCE, // 6
+        SmartDialDbColumns.LAST_TIME_USED, // 7
+        SmartDialDbColumns.TIMES_USED, // 8
+        SmartDialDbColumns.STARRED, // 9
+        SmartDialDbColumns.IS_SUPER_PRIMARY, // 10
+        SmartDialDbColumns.IN_VISIBLE_GROUP, // 11
+        SmartDialDbColumns.IS_PRIMARY, // 12
+      };
+
+  private static final String[] PREFIX_PROJECTION =
+      new String[] {
+        PrefixColumns.CONTACT_ID, // 0
+        PrefixColumns.PREFIX, // 1
+      };
+
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  /** Persists the index across process restarts, or null to always load from the tables. */
+  @Nullable private final SmartDialIndexSnapshot snapshot;
+
+  /** Root of the digit trie. Its posting list contains every indexed contact. */
+  private Node root = new Node();
+
+  /** Indexed contacts by slot. Slots of removed contacts are null until reused. */
+  private final ArrayList<IndexedContact> contacts = new ArrayList<>();
+
+  private final Map<Long, Integer> slotsByContactId = new HashMap<>();
+  private final ArrayList<Integer> freeSlots = new ArrayList<>();
+
+  private boolean loaded;
+
+  /** Incremented on every change, so that stale {@link Candidates} are never refined. */
+  private long generation;
+
+  SmartDialIndex(@Nullable SmartDialIndexSnapshot snapshot) {
+    this.snapshot = snapshot;
+  }
+
+  /** Whether the index has been populated from the database and can serve lookups. */
+  boolean isLoaded() {
+    lock.readLock().lock();
+    try {
+      return loaded;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Drops all indexed data and the snapshot. The next {@link #ensureLoaded(SQLiteDatabase, long)}
+   * reloads everything from the tables.
+   */
+  void invalidate() {
+    lock.writeLock().lock();
+    try {
+      clearLocked();
+      loaded = false;
+      if (snapshot != null) {
+        snapshot.delete();
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Populates the index if it has not been populated yet, from the snapshot if it matches the sync
+   * performed at {@code syncMillis} and otherwise from the smart dial tables.
+   */
+  @WorkerThread
+  void ensureLoaded(SQLiteDatabase db, long syncMillis) {
+    if (isLoaded()) {
+      return;
+    }
+    lock.writeLock().lock();
+    try {
+      if (loaded) {
+        return;
+      }
+      clearLocked();
+      Map<Long, IndexedContact> loadedContacts =
+          snapshot == null ? null : snapshot.read(syncMillis);
+      boolean fromSnapshot = loadedContacts != null;
+      if (!fromSnapshot) {
+        loadedContacts = queryContacts(db, Selection.builder().build());
+      }
+      for (IndexedContact contact : loadedContacts.values()) {
+        addLocked(contact);
+      }
+      loaded = true;
+      LogUtil.i(
+          "SmartDialIndex.ensureLoaded",
+          "indexed %d contacts from %s",
+          loadedContacts.size(),
+          fromSnapshot ? "snapshot" : "database");
+      if (!fromSnapshot && snapshot != null) {
+        // The snapshot writes the dump in the background, once the lock is released.
+        snapshot.write(new ArrayList<>(loadedContacts.values()), syncMillis);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Re-reads the given contacts from the smart dial tables and replaces their entries in the index.
+   * Contacts no longer present in the tables are removed, and the change is appended to the
+   * snapshot as of the sync performed at {@code syncMillis}. Does nothing if the index is not
+   * loaded, since the next load will pick the changes up anyway.
+   */
+  @WorkerThread
+  void refreshContacts(SQLiteDatabase db, Collection<Long> contactIds, long syncMillis) {
+    if (!isLoaded()) {
+      return;
+    }
+
+    // Read outside of the write lock so lookups are only blocked while the trie is patched.
+    Map<Long, IndexedContact> refreshed = new HashMap<>();
+    List<String> args = new ArrayList<>();
+    for (Long contactId : contactIds) {
+      args.add(String.valueOf(contactId));
+      if (args.size() == MAX_SELECTION_ARGS) {
+        refreshed.putAll(
+            queryContacts(db, Selection.column(SmartDialDbColumns.CONTACT_ID).in(args)));
+        args.clear();
+      }
+    }
+    if (!args.isEmpty()) {
+      refreshed.putAll(queryContacts(db, Selection.column(SmartDialDbColumns.CONTACT_ID).in(args)));
+    }
+
+    lock.writeLock().lock();
+    try {
+      if (!loaded) {
+        return;
+      }
+      for (Long contactId : contactIds) {
+        removeLocked(contactId);
+        IndexedContact contact = refreshed.get(contactId);
+        if (contact != null) {
+          addLocked(contact);
+        }
+      }
+      if (snapshot != null) {
+        // Queued under the lock so that patches are never written out of order. The snapshot
+        // writes them in the background, once the lock is released.
+        snapshot.append(new ArrayList<>(contactIds), refreshed, syncMillis);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the rows of all contacts with a prefix starting with {@code query}, in the same order
+   * as the smart dial sort order, i.e. starred and frequently/recently used contacts first.
+   *
+   * @param query normalized dialpad query consisting of digits only.
+   * @param currentTimeMillis reference time used to bucket contacts by last usage.
+   * @param previous candidates of an earlier lookup, or null. They are refined instead of walking
+   *     the whole posting list if {@code query} extends their query and the index is unchanged.
+   */
+  Candidates lookup(String query, long currentTimeMillis, @Nullable Candidates previous) {
+    lock.readLock().lock();
+    try {
+      Node node = root;
+      for (int i = 0; i < query.length() && node != null; i++) {
+        node = node.child(query.charAt(i));
+      }
+
+      if (previous != null
+          && previous.generation == generation
+          && query.startsWith(previous.query)) {
+        return refineLocked(query, node, previous);
+      }
+
+      ArrayList<IndexedRow> rows = new ArrayList<>();
+      if (node != null) {
+        for (int i = 0; i < node.size; i++) {
+          Collections.addAll(rows, contacts.get(node.slots[i]).rows);
+        }
+      }
+      Collections.sort(rows, new SortOrder(currentTimeMillis));
+      return new Candidates(
+          query, generation, currentTimeMillis, rows.toArray(new IndexedRow[rows.size()]));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the rows of all contacts whose name matches {@code query} with one typo but which have
+   * no prefix starting with {@code query}, in the smart dial sort order.
+   *
+   * <p>This scans every contact, so it should only be used when {@link #lookup} does not yield
+   * enough results. Any prefix of a query matching a name with at most one typo also matches it
+   * either exactly or with one typo, so when {@code query} extends the query of both {@code
+   * previous} typo candidates and {@code previousExact} candidates and the index is unchanged, the
+   * union of the two is refined instead.
+   */
+  Candidates lookupTypos(
+      Context context,
+      String query,
+      SmartDialMatchEngine engine,
+      long currentTimeMillis,
+      @Nullable Candidates previous,
+      @Nullable Candidates previousExact) {
+    lock.readLock().lock();
+    try {
+      Node node = root;
+      for (int i = 0; i < query.length() && node != null; i++) {
+        node = node.child(query.charAt(i));
+      }
+
+      ArrayList<IndexedRow> rows = new ArrayList<>();
+      if (previous != null
+          && previousExact != null
+          && previous.generation == generation
+          && previousExact.generation == generation
+          && previous.query.equals(previousExact.query)
+          && query.startsWith(previous.query)) {
+        // Contacts which only matched the previous query exactly may now match with a typo.
+        addTypoMatchesLocked(context, node, engine, previous.rows, rows);
+        addTypoMatchesLocked(context, node, engine, previousExact.rows, rows);
+        Collections.sort(rows, new SortOrder(previous.currentTimeMillis));
+        return new Candidates(
+            query,
+            generation,
+            previous.currentTimeMillis,
+            rows.toArray(new IndexedRow[rows.size()]));
+      }
+
+      for (int slot = 0; slot < contacts.size(); slot++) {
+        IndexedContact contact = contacts.get(slot);
+        if (contact == null
+            || contact.rows.length == 0
+            || (node != null && node.contains(slot))) {
+          continue;
+        }
+        if (engine.scoreTypo(context, contact.rows[0].contactNumber.displayName)
+            != SmartDialMatchEngine.NO_MATCH) {
+          Collections.addAll(rows, contact.rows);
+        }
+      }
+      Collections.sort(rows, new SortOrder(currentTimeMillis));
+      return new Candidates(
+          query, generation, currentTimeMillis, rows.toArray(new IndexedRow[rows.size()]));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Adds the rows of {@code candidates} whose contact is not in the posting list of {@code node}
+   * but whose name matches with one typo. Consecutive rows of the same contact are scored once.
+   */
+  private void addTypoMatchesLocked(
+      Context context,
+      @Nullable Node node,
+      SmartDialMatchEngine engine,
+      IndexedRow[] candidates,
+      List<IndexedRow> rows) {
+    long lastContactId = -1;
+    boolean lastMatched = false;
+    for (IndexedRow row : candidates) {
+      long contactId = row.contactNumber.id;
+      if (contactId != lastContactId) {
+        lastContactId = contactId;
+        lastMatched =
+            (node == null || !node.contains(slotsByContactId.get(contactId)))
+                && engine.scoreTypo(context, row.contactNumber.displayName)
+                    != SmartDialMatchEngine.NO_MATCH;
+      }
+      if (lastMatched) {
+        rows.add(row);
+      }
+    }
+  }
+
+  /**
+   * Keeps the rows of {@code previous} whose contact is in the posting list of {@code node}. Since
+   * the posting list of a longer query is a subset of the shorter one, the previous order is
+   * preserved and no sort is needed; the cost is proportional to the previous result set.
+   */
+  private Candidates refineLocked(String query, @Nullable Node node, Candidates previous) {
+    ArrayList<IndexedRow> rows = new ArrayList<>();
+    if (node != null) {
+      for (IndexedRow row : previous.rows) {
+        if (node.contains(slotsByContactId.get(row.contactNumber.id))) {
+          rows.add(row);
+        }
+      }
+    }
+    return new Candidates(
+        query, generation, previous.currentTimeMillis, rows.toArray(new IndexedRow[rows.size()]));
+  }
+
+  private void clearLocked() {
+    generation++;
+    root = new Node();
+    contacts.clear();
+    slotsByContactId.clear();
+    freeSlots.clear();
+  }
+
+  private void addLocked(IndexedContact contact) {
+    generation++;
+    int slot;
+    if (freeSlots.isEmpty()) {
+      slot = contacts.size();
+      contacts.add(contact);
+    } else {
+      slot = freeSlots.remove(freeSlots.size() - 1);
+      contacts.set(slot, contact);
+    }
+    slotsByContactId.put(contact.contactId, slot);
+
+    root.add(slot);
+    for (String prefix : contact.prefixes) {
+      Node node = root;
+      for (int i = 0; i < prefix.length(); i++) {
+        node = node.getOrCreateChild(prefix.charAt(i));
+        if (node == null) {
+          break;
+        }
+        node.add(slot);
+      }
+    }
+  }
+
+  private void removeLocked(long contactId) {
+    Integer slot = slotsByContactId.remove(contactId);
+    if (slot == null) {
+      return;
+    }
+    generation++;
+    IndexedContact contact = contacts.get(slot);
+    root.remove(slot);
+    for (String prefix : contact.prefixes) {
+      Node node = root;
+      for (int i = 0; i < prefix.length() && node != null; i++) {
+        node = node.child(prefix.charAt(i));
+        if (node != null) {
+          node.remove(slot);
+        }
+      }
+    }
+    contacts.set(slot, null);
+    freeSlots.add(slot);
+  }
+
+  /**
+   * Reads the rows and prefixes of all contacts matching {@code contactSelection}, keyed by contact
+   * ID. Contacts without any prefix are dropped, mirroring the prefix table join used previously.
+   */
+  private static Map<Long, IndexedContact> queryContacts(
+      SQLiteDatabase db, Selection contactSelection) {
+    Map<Long, List<IndexedRow>> rowsByContactId = new HashMap<>();
+    try (Cursor cursor =
+        db.query(
+            Tables.SMARTDIAL_TABLE,
+            ROW_PROJECTION,
+            contactSelection.getSelection(),
+            contactSelection.getSelectionArgs(),
+            null,
+            null,
+            null)) {
+      while (cursor.moveToNext()) {
+        if (cursor.isNull(0)) {
+          continue;
+        }
+        IndexedRow row = new IndexedRow(cursor);
+        List<IndexedRow> rows = rowsByContactId.get(row.contactNumber.id);
+        if (rows == null) {
+          rows = new ArrayList<>();
+          rowsByContactId.put(row.contactNumber.id, rows);
+        }
+        rows.add(row);
+      }
+    }
+
+    Map<Long, List<String>> prefixesByContactId = new HashMap<>();
+    try (Cursor cursor =
+        db.query(
+            Tables.PREFIX_TABLE,
+            PREFIX_PROJECTION,
+            contactSelection.getSelection(),
+            contactSelection.getSelectionArgs(),
+            null,
+            null,
+            null)) {
+      while (cursor.moveToNext()) {
+        if (cursor.isNull(0) || cursor.isNull(1)) {
+          continue;
+        }
+        long contactId = cursor.getLong(0);
+        List<String> prefixes = prefixesByContactId.get(contactId);
+        if (prefixes == null) {
+          prefixes = new ArrayList<>();
+          prefixesByContactId.put(contactId, prefixes);
+        }
+        prefixes.add(cursor.getString(1));
+      }
+    }
+
+    Map<Long, IndexedContact> result = new HashMap<>();
+    for (Map.Entry<Long, List<IndexedRow>> entry : rowsByContactId.entrySet()) {
+      List<String> prefixes = prefixesByContactId.get(entry.getKey());
+      if (prefixes == null) {
+        continue;
+      }
+      result.put(
+          entry.getKey(),
+          new IndexedContact(
+              entry.getKey(),
+              entry.getValue().toArray(new IndexedRow[0]),
+              prefixes.toArray(new String[0])));
+    }
+    return result;
+  }
+
+  /**
+   * Sorted rows matching a query, valid for refinement only as long as the index stays at the
+   * generation it was computed from.
+   */
+  static final class Candidates {
+    private final String query;
+    private final long generation;
+    private final long currentTimeMillis;
+    private final IndexedRow[] rows;
+
+    private Candidates(String query, long generation, long currentTimeMillis, IndexedRow[] rows) {
+      this.query = query;
+      this.generation = generation;
+      this.currentTimeMillis = currentTimeMillis;
+      this.rows = rows;
+    }
+
+    /** Returns the number of candidate rows. */
+    int size() {
+      return rows.length;
+    }
+
+    /** Returns the candidate row at {@code position}. */
+    ContactNumber get(int position) {
+      return rows[position].contactNumber;
+    }
+  }
+
+  /** A contact with all of its phone number rows and dialpad prefixes. */
+  static final class IndexedContact {
+    final long contactId;
+    final IndexedRow[] rows;
+    final String[] prefixes;
+
+    IndexedContact(long contactId, IndexedRow[] rows, String[] prefixes) {
+      this.contactId = contactId;
+      this.rows = rows;
+      this.prefixes = prefixes;
+    }
+  }
+
+  /** A row of the smart dial table together with the columns it is ranked by. */
+  static final class IndexedRow {
+    final ContactNumber contactNumber;
+    final long lastTimeUsed;
+    final int timesUsed;
+    final int starred;
+    final int isSuperPrimary;
+    final int inVisibleGroup;
+    final int isPrimary;
+
+    IndexedRow(
+        ContactNumber contactNumber,
+        long lastTimeUsed,
+        int timesUsed,
+        int starred,
+        int isSuperPrimary,
+        int inVisibleGroup,
+        int isPrimary) {
+      this.contactNumber = contactNumber;
+      this.lastTimeUsed = lastTimeUsed;
+      this.timesUsed = timesUsed;
+      this.starred = starred;
+      this.isSuperPrimary = isSuperPrimary;
+      this.inVisibleGroup = inVisibleGroup;
+      this.isPrimary = isPrimary;
+    }
+
+    IndexedRow(Cursor cursor) {
+      this(
+          new ContactNumber(
+              cursor.getLong(4),
+              cursor.getLong(0),
+              cursor.getString(1),
+              cursor.getString(3),
+              cursor.getString(5),
+              cursor.getLong(2),
+              cursor.getInt(6)),
+          cursor.getLong(7),
+          cursor.getInt(8),
+          cursor.getInt(9),
+          cursor.getInt(10),
+          cursor.getInt(11),
+          cursor.getInt(12));
+    }
+  }
+
+  /**
+   * Orders rows the same way as the ContactsProvider orders frequently called contacts: starred,
+   * super primary, recency bucket, usage count, visibility, display name, contact and primary.
+   */
+  private static final class SortOrder implements Comparator<IndexedRow> {
+    private final long currentTimeMillis;
+
+    SortOrder(long currentTimeMillis) {
+      this.currentTimeMillis = currentTimeMillis;
+    }
+
+    @Override
+    public int compare(IndexedRow a, IndexedRow b) {
+      int result = Integer.compare(b.starred, a.starred);
+      if (result != 0) {
+        return result;
+      }
+      result = Integer.compare(b.isSuperPrimary, a.isSuperPrimary);
+      if (result != 0) {
+        return result;
+      }
+      result = Integer.compare(usageBucket(a), usageBucket(b));
+      if (result != 0) {
+        return result;
+      }
+      result = Integer.compare(b.timesUsed, a.timesUsed);
+      if (result != 0) {
+        return result;
+      }
+      result = Integer.compare(b.inVisibleGroup, a.inVisibleGroup);
+      if (result != 0) {
+        return result;
+      }
+      result = compareNullable(a.contactNumber.displayName, b.contactNumber.displayName);
+      if (result != 0) {
+        return result;
+      }
+      result = Long.compare(a.contactNumber.id, b.contactNumber.id);
+      if (result != 0) {
+        return result;
+      }
+      return Integer.compare(b.isPrimary, a.isPrimary);
+    }
+
+    /**
+     * Contacts that have been used in the past 3 days rank higher than contacts that have been used
+     * in the past 30 days, which rank higher than contacts that have not been used in recent 30
+     * days.
+     */
+    private int usageBucket(IndexedRow row) {
+      long timeSinceLastUsed = currentTimeMillis - row.lastTimeUsed;
+      if (timeSinceLastUsed < LAST_TIME_USED_CURRENT_MS) {
+        return 0;
+      }
+      if (timeSinceLastUsed < LAST_TIME_USED_RECENT_MS) {
+        return 1;
+      }
+      return 2;
+    }
+
+    /** SQLite sorts NULL before any other value. */
+    private static int compareNullable(String a, String b) {
+      if (a == null || b == null) {
+        return a == null ? (b == null ? 0 : -1) : 1;
+      }
+      return a.compareTo(b);
+    }
+  }
+
+  /**
+   * A node of the digit trie. Holds the sorted slots of every contact with a prefix passing
+   * through this node.
+   */
+  private static final class Node {
+    private static final int DIGITS = 10;
+
+    private Node[] children;
+    private int[] slots = new int[2];
+    private int size;
+
+    Node child(char digit) {
+      if (children == null || digit < '0' || digit > '9') {
+        return null;
+      }
+      return children[digit - '0'];
+    }
+
+    /** Returns the child for {@code digit}, or null if it is not a dialpad digit. */
+    Node getOrCreateChild(char digit) {
+      if (digit < '0' || digit > '9') {
+        return null;
+      }
+      if (children == null) {
+        children = new Node[DIGITS];
+      }
+      Node child = children[digit - '0'];
+      if (child == null) {
+        child = new Node();
+        children[digit - '0'] = child;
+      }
+      return child;
+    }
+
+    boolean contains(int slot) {
+      return Arrays.binarySearch(slots, 0, size, slot) >= 0;
+    }
+
+    void add(int slot) {
+      int index = Arrays.binarySearch(slots, 0, size, slot);
+      if (index >= 0) {
+        return;
+      }
+      index = -(index + 1);
+      if (size == slots.length) {
+        slots = Arrays.copyOf(slots, size * 2);
+      }
+      System.arraycopy(slots, index, slots, index + 1, size - index);
+      slots[index] = slot;
+      size++;
+    }
+
+    void remove(int slot) {
+      int index = Arrays.binarySearch(slots, 0, size, slot);
+      if (index < 0) {
+        return;
+      }
+      System.arraycopy(slots, index + 1, slots, index, size - index - 1);
+      size--;
+    }
+  }
+}
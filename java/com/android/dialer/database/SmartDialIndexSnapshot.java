@@ -0,0 +1,421 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.database;
+
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import com.android.dialer.common.LogUtil;
+import com.android.dialer.database.DialerDatabaseHelper.ContactNumber;
+import com.android.dialer.database.SmartDialIndex.IndexedContact;
+import com.android.dialer.database.SmartDialIndex.IndexedRow;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Versioned on-disk snapshot of a {@link SmartDialIndex}, so that after a process restart the index
+ * is restored by reading a single file instead of querying every row of the smart dial tables.
+ *
+ * <p>The file is a log of records: a dump of all contacts, followed by the contacts changed by each
+ * incremental sync. Every batch of records ends with a commit record carrying the smart dial sync
+ * time it corresponds to; a snapshot is only used if its last commit matches the sync time the
+ * caller expects, and records after the last commit (e.g. from an interrupted write) are ignored.
+ * Once the appended patches outgrow the dump, the file is rewritten from its own contents.
+ *
+ * <p>Writes and deletes are queued and performed one at a time on a background thread, in the order
+ * they were requested, so that callers don't do file I/O while holding the lock of the index.
+ */
+final class SmartDialIndexSnapshot {
+
+  private static final int MAGIC = 0x53444958; // "SDIX"
+  private static final int FORMAT_VERSION = 1;
+
+  private static final byte RECORD_CONTACT = 1;
+  private static final byte RECORD_REMOVE = 2;
+  private static final byte RECORD_COMMIT = 3;
+
+  private static final long IDLE_WRITER_TIMEOUT_SECONDS = 30;
+
+  /** Sizes of the smallest possible row and string, used to bound counts read from the file. */
+  private static final int MIN_ROW_BYTES = 3 * 8 + 3 * 4 + 6 * 4;
+
+  private static final int MIN_STRING_BYTES = 4;
+
+  private final File file;
+  private final int databaseVersion;
+
+  /** Number of contacts in the dump and number of patch records appended after it. */
+  private int dumpedContacts;
+
+  private int patchRecords;
+
+  /** Incremented by {@link #delete()}, so that writes queued before it are dropped. */
+  private final AtomicInteger epoch = new AtomicInteger();
+
+  /** Whether {@link #delete()} was called and the file has not been deleted yet. */
+  private volatile boolean deletePending;
+
+  private final ThreadPoolExecutor writer;
+
+  SmartDialIndexSnapshot(File file, int databaseVersion) {
+    this.file = file;
+    this.databaseVersion = databaseVersion;
+    writer =
+        new ThreadPoolExecutor(
+            1,
+            1,
+            IDLE_WRITER_TIMEOUT_SECONDS,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            runnable -> new Thread(runnable, "SmartDialIndexSnapshot"));
+    writer.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Reads the contacts of the snapshot, or returns null if there is no usable snapshot for the sync
+   * performed at {@code syncMillis}.
+   */
+  @WorkerThread
+  @Nullable
+  synchronized Map<Long, IndexedContact> read(long syncMillis) {
+    deleteIfPendingLocked();
+    return readLocked(syncMillis);
+  }
+
+  @Nullable
+  private Map<Long, IndexedContact> readLocked(long syncMillis) {
+    if (!file.exists()) {
+      return null;
+    }
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+      if (randomAccessFile.length() > Integer.MAX_VALUE) {
+        throw new IOException("snapshot too large: " + randomAccessFile.length());
+      }
+      // Every record ends up on the heap anyway, so read the file in one go.
+      byte[] bytes = new byte[(int) randomAccessFile.length()];
+      randomAccessFile.readFully(bytes);
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      if (buffer.getInt() != MAGIC
+          || buffer.getInt() != FORMAT_VERSION
+          || buffer.getInt() != databaseVersion) {
+        LogUtil.i("SmartDialIndexSnapshot.read", "discarding snapshot of another version");
+        return null;
+      }
+
+      Map<Long, IndexedContact> contacts = new HashMap<>();
+      // Changes since the last commit, with null values for removed contacts.
+      Map<Long, IndexedContact> pending = new LinkedHashMap<>();
+      long committedMillis = -1;
+      int committedDump = -1;
+      int records = 0;
+      try {
+        while (buffer.hasRemaining()) {
+          byte type = buffer.get();
+          if (type == RECORD_CONTACT) {
+            IndexedContact contact = readContact(buffer);
+            pending.put(contact.contactId, contact);
+          } else if (type == RECORD_REMOVE) {
+            pending.put(buffer.getLong(), null);
+          } else if (type == RECORD_COMMIT) {
+            committedMillis = buffer.getLong();
+            for (Map.Entry<Long, IndexedContact> change : pending.entrySet()) {
+              if (change.getValue() == null) {
+                contacts.remove(change.getKey());
+              } else {
+                contacts.put(change.getKey(), change.getValue());
+              }
+            }
+            if (committedDump == -1) {
+              committedDump = pending.size();
+            } else {
+              records += pending.size();
+            }
+            pending.clear();
+          } else {
+            break;
+          }
+        }
+      } catch (BufferUnderflowException e) {
+        LogUtil.i("SmartDialIndexSnapshot.read", "ignoring uncommitted tail");
+      }
+
+      if (committedMillis != syncMillis) {
+        LogUtil.i(
+            "SmartDialIndexSnapshot.read",
+            "snapshot is at %d, expected %d",
+            committedMillis,
+            syncMillis);
+        return null;
+      }
+      dumpedContacts = committedDump;
+      patchRecords = records;
+      return contacts;
+    } catch (IOException | RuntimeException e) {
+      // Corrupt lengths are reported as IOExceptions; anything else is just as unexpected.
+      LogUtil.e("SmartDialIndexSnapshot.read", "unable to read snapshot", e);
+      return null;
+    }
+  }
+
+  /**
+   * Replaces the snapshot with a dump of {@code contacts}, as of the sync at {@code syncMillis}.
+   * The dump is written in the background, so {@code contacts} must not be changed afterwards.
+   */
+  void write(Collection<IndexedContact> contacts, long syncMillis) {
+    enqueue(() -> writeLocked(contacts, syncMillis));
+  }
+
+  /**
+   * Appends the result of an incremental sync at {@code syncMillis}: every contact in {@code
+   * changedContactIds} is replaced by its entry in {@code refreshed}, or removed if it has none.
+   * The patch is written in the background, so neither collection must be changed afterwards.
+   */
+  void append(
+      Collection<Long> changedContactIds, Map<Long, IndexedContact> refreshed, long syncMillis) {
+    enqueue(
+        () -> {
+          appendLocked(changedContactIds, refreshed, syncMillis);
+          if (needsCompactionLocked()) {
+            LogUtil.i("SmartDialIndexSnapshot.append", "compacting snapshot");
+            Map<Long, IndexedContact> contacts = readLocked(syncMillis);
+            if (contacts != null) {
+              writeLocked(contacts.values(), syncMillis);
+            }
+          }
+        });
+  }
+
+  /**
+   * Deletes the snapshot, and drops the writes which are still queued. Doesn't wait for a write in
+   * progress; the file is deleted in the background, or by the next {@link #read(long)}.
+   */
+  void delete() {
+    deletePending = true;
+    epoch.incrementAndGet();
+    writer.execute(
+        () -> {
+          synchronized (SmartDialIndexSnapshot.this) {
+            deleteIfPendingLocked();
+          }
+        });
+  }
+
+  private void deleteIfPendingLocked() {
+    if (deletePending) {
+      deletePending = false;
+      file.delete();
+      dumpedContacts = 0;
+      patchRecords = 0;
+    }
+  }
+
+  /** Queues {@code write}, unless the snapshot is deleted before it runs. */
+  private void enqueue(Runnable write) {
+    int writeEpoch = epoch.get();
+    writer.execute(
+        () -> {
+          synchronized (SmartDialIndexSnapshot.this) {
+            if (epoch.get() == writeEpoch) {
+              deleteIfPendingLocked();
+              write.run();
+            }
+          }
+        });
+  }
+
+  @WorkerThread
+  private void writeLocked(Collection<IndexedContact> contacts, long syncMillis) {
+    File tempFile = new File(file.getPath() + ".tmp");
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      out.writeInt(databaseVersion);
+      for (IndexedContact contact : contacts) {
+        writeContact(out, contact);
+      }
+      out.writeByte(RECORD_COMMIT);
+      out.writeLong(syncMillis);
+    } catch (IOException e) {
+      LogUtil.e("SmartDialIndexSnapshot.write", "unable to write snapshot", e);
+      tempFile.delete();
+      return;
+    }
+    if (!tempFile.renameTo(file)) {
+      LogUtil.e("SmartDialIndexSnapshot.write", "unable to replace snapshot");
+      tempFile.delete();
+      return;
+    }
+    dumpedContacts = contacts.size();
+    patchRecords = 0;
+  }
+
+  @WorkerThread
+  private void appendLocked(
+      Collection<Long> changedContactIds, Map<Long, IndexedContact> refreshed, long syncMillis) {
+    if (!file.exists()) {
+      return;
+    }
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)))) {
+      for (Long contactId : changedContactIds) {
+        IndexedContact contact = refreshed.get(contactId);
+        if (contact == null) {
+          out.writeByte(RECORD_REMOVE);
+          out.writeLong(contactId);
+        } else {
+          writeContact(out, contact);
+        }
+      }
+      out.writeByte(RECORD_COMMIT);
+      out.writeLong(syncMillis);
+      patchRecords += changedContactIds.size();
+    } catch (IOException e) {
+      LogUtil.e("SmartDialIndexSnapshot.append", "unable to append to snapshot", e);
+      epoch.incrementAndGet();
+      file.delete();
+      dumpedContacts = 0;
+      patchRecords = 0;
+    }
+  }
+
+  /** Whether the appended patches have outgrown the dump and the file should be rewritten. */
+  private boolean needsCompactionLocked() {
+    return patchRecords > Math.max(dumpedContacts, 100);
+  }
+
+  private static void writeContact(DataOutputStream out, IndexedContact contact)
+      throws IOException {
+    out.writeByte(RECORD_CONTACT);
+    out.writeLong(contact.contactId);
+    out.writeInt(contact.rows.length);
+    for (IndexedRow row : contact.rows) {
+      ContactNumber contactNumber = row.contactNumber;
+      out.writeLong(contactNumber.dataId);
+      writeString(out, contactNumber.displayName);
+      writeString(out, contactNumber.phoneNumber);
+      writeString(out, contactNumber.lookupKey);
+      out.writeLong(contactNumber.photoId);
+      out.writeInt(contactNumber.carrierPresence);
+      out.writeLong(row.lastTimeUsed);
+      out.writeInt(row.timesUsed);
+      out.writeInt(row.starred);
+      out.writeInt(row.isSuperPrimary);
+      out.writeInt(row.inVisibleGroup);
+      out.writeInt(row.isPrimary);
+    }
+    out.writeInt(contact.prefixes.length);
+    for (String prefix : contact.prefixes) {
+      writeString(out, prefix);
+    }
+  }
+
+  private static IndexedContact readContact(ByteBuffer buffer) throws IOException {
+    long contactId = buffer.getLong();
+    IndexedRow[] rows = new IndexedRow[readCount(buffer, MIN_ROW_BYTES)];
+    for (int i = 0; i < rows.length; i++) {
+      long dataId = buffer.getLong();
+      String displayName = readString(buffer);
+      String phoneNumber = readString(buffer);
+      String lookupKey = readString(buffer);
+      long photoId = buffer.getLong();
+      int carrierPresence = buffer.getInt();
+      rows[i] =
+          new IndexedRow(
+              new ContactNumber(
+                  contactId,
+                  dataId,
+                  displayName,
+                  phoneNumber,
+                  lookupKey,
+                  photoId,
+                  carrierPresence),
+              buffer.getLong(),
+              buffer.getInt(),
+              buffer.getInt(),
+              buffer.getInt(),
+              buffer.getInt(),
+              buffer.getInt());
+    }
+    String[] prefixes = new String[readCount(buffer, MIN_STRING_BYTES)];
+    for (int i = 0; i < prefixes.length; i++) {
+      prefixes[i] = readString(buffer);
+    }
+    return new IndexedContact(contactId, rows, prefixes);
+  }
+
+  /** Writes a length-prefixed UTF-8 string, or a length of -1 for null. */
+  private static void writeString(DataOutputStream out, @Nullable String value)
+      throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * Reads the number of entries of an array, each taking at least {@code minBytesPerEntry} bytes.
+   *
+   * @throws IOException if the count is negative
+   * @throws BufferUnderflowException if the entries don't fit in the rest of the buffer, i.e. the
+   *     snapshot ends with an incomplete record
+   */
+  private static int readCount(ByteBuffer buffer, int minBytesPerEntry) throws IOException {
+    int count = buffer.getInt();
+    if (count < 0) {
+      throw new IOException("corrupt snapshot, count: " + count);
+    }
+    if (count > buffer.remaining() / minBytesPerEntry) {
+      throw new BufferUnderflowException();
+    }
+    return count;
+  }
+
+  @Nullable
+  private static String readString(ByteBuffer buffer) throws IOException {
+    int length = buffer.getInt();
+    if (length == -1) {
+      return null;
+    }
+    if (length < 0) {
+      throw new IOException("corrupt snapshot, string length: " + length);
+    }
+    if (length > buffer.remaining()) {
+      throw new BufferUnderflowException();
+    }
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.database;
+
+import android.support.annotation.Nullable;
+import com.android.dialer.database.SmartDialIndex.Candidates;
+
+/**
+ * Holds the candidates of the last smart dial lookup made on behalf of one caller, so that the next
+ * query can be answered by filtering them when it extends the previous query (e.g. "56" after "5").
+ *
+ * <p>Backspace, or any change to the smart dial database in between, falls back to a full lookup.
+ * Each caller issuing a sequence of queries, such as a search screen, should keep one instance for
+ * all of them. Candidates are only refined by queries extending the query they were found for, so
+ * lookups racing on the same instance at worst fall back to a full lookup.
+ */
+public final class SmartDialRefinement {
+
+  @Nullable private volatile Candidates candidates;
+  @Nullable private volatile Candidates typoCandidates;
+
+  @Nullable
+  Candidates getCandidates() {
+    return candidates;
+  }
+
+  void setCandidates(@Nullable Candidates candidates) {
+    this.candidates = candidates;
+  }
+
+  @Nullable
+  Candidates getTypoCandidates() {
+    return typoCandidates;
+  }
+
+  void setTypoCandidates(@Nullable Candidates typoCandidates) {
+    this.typoCandidates = typoCandidates;
+  }
+
+  /** Forgets the previous candidates so that the next lookup is a full one. */
+  public void reset() {
+    candidates = null;
+    typoCandidates = null;
+  }
+}
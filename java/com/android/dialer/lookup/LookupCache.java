@@ -16,104 +16,86 @@
 
 package com.android.dialer.lookup;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.provider.ContactsContract.Contacts;
 import android.telephony.PhoneNumberUtils;
 import android.telephony.TelephonyManager;
-import android.util.JsonReader;
-import android.util.JsonWriter;
 import android.util.Log;
+import android.util.LruCache;
 
 import com.android.dialer.phonenumbercache.ContactInfo;
-import com.android.dialer.util.DialerUtils;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.InputStreamReader;
-import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Cache of reverse lookup results, keyed by E164 number.
+ *
+ * <p>Results are stored in a single SQLite database, with an in-memory LRU cache in front of it so
+ * that repeated lookups of the same number, e.g. while a call is ringing, don't touch the disk.
+ * Numbers the lookup provider reported as unknown are cached too, for a shorter time, so that
+ * calls from them don't go to the network every time. Entries expire so that changed listings are
+ * picked up.
+ */
 public class LookupCache {
   private static final String TAG = LookupCache.class.getSimpleName();
 
-  public static final String NAME = "Name";
-  public static final String TYPE = "Type";
-  public static final String LABEL = "Label";
-  public static final String NUMBER = "Number";
-  public static final String FORMATTED_NUMBER = "FormattedNumber";
-  public static final String NORMALIZED_NUMBER = "NormalizedNumber";
-  public static final String PHOTO_ID = "PhotoID";
-  public static final String LOOKUP_URI = "LookupURI";
+  /** How long a found contact is used before it is looked up again. */
+  private static final long CONTACT_TTL_MILLIS = TimeUnit.DAYS.toMillis(7);
+  /** How long a number which wasn't found is not looked up again. */
+  private static final long NOT_FOUND_TTL_MILLIS = TimeUnit.DAYS.toMillis(1);
 
-  public static boolean hasCachedContact(Context context, String number) {
-    String normalizedNumber = formatE164(context, number);
-    if (normalizedNumber == null) {
-        return false;
-    }
+  private static final int MEMORY_CACHE_SIZE = 64;
+
+  private static final LruCache<String, Entry> memoryCache = new LruCache<>(MEMORY_CACHE_SIZE);
 
-    File file = getFilePath(context, normalizedNumber);
-    return file.exists();
+  private static DatabaseHelper databaseHelper;
+
+  public static boolean hasCachedContact(Context context, String number) {
+    return getCachedContact(context, number) != null;
   }
 
   public static void cacheContact(Context context, ContactInfo info) {
-    File file = getFilePath(context, info.normalizedNumber);
-
-    if (file.exists()) {
-      file.delete();
+    if (info.normalizedNumber == null) {
+      return;
     }
 
-    FileOutputStream out = null;
-    JsonWriter writer = null;
-
-    try {
-      out = new FileOutputStream(file);
-      writer = new JsonWriter(new OutputStreamWriter(out, "UTF-8"));
-      writer.setIndent("  ");
-      List messages = new ArrayList();
-
-      writer.beginObject();
-      if (info.name != null) {
-        writer.name(NAME).value(info.name);
-      }
-      writer.name(TYPE).value(info.type);
-      if (info.label != null) {
-        writer.name(LABEL).value(info.label);
-      }
-      if (info.number != null) {
-        writer.name(NUMBER).value(info.number);
-      }
-      if (info.formattedNumber != null) {
-          writer.name(FORMATTED_NUMBER).value(info.formattedNumber);
-      }
-      if (info.normalizedNumber != null) {
-          writer.name(NORMALIZED_NUMBER).value(info.normalizedNumber);
-      }
-      writer.name(PHOTO_ID).value(info.photoId);
-
-      if (info.lookupUri != null) {
-          writer.name(LOOKUP_URI).value(info.lookupUri.toString());
-      }
-
-      // We do not save the photo URI. If there's a cached image, that
-      // will be used when the contact is retrieved. Otherwise, photoUri
-      // will be set to null.
+    ContentValues values = new ContentValues();
+    values.put(Columns.NORMALIZED_NUMBER, info.normalizedNumber);
+    values.put(Columns.FOUND, 1);
+    values.put(Columns.NAME, info.name);
+    values.put(Columns.TYPE, info.type);
+    values.put(Columns.LABEL, info.label);
+    values.put(Columns.NUMBER, info.number);
+    values.put(Columns.FORMATTED_NUMBER, info.formattedNumber);
+    values.put(Columns.PHOTO_ID, info.photoId);
+    values.put(Columns.LOOKUP_URI, info.lookupUri != null ? info.lookupUri.toString() : null);
+    // We do not save the photo URI. If there's a cached image, that
+    // will be used when the contact is retrieved.
+    putEntry(context, info.normalizedNumber, values);
+  }
 
-      writer.endObject();
-    } catch (IOException e) {
-      e.printStackTrace();
-    } finally {
-      DialerUtils.closeQuietly(writer);
-      DialerUtils.closeQuietly(out);
-    }
+  /**
+   * Remembers that the lookup providers don't know {@code normalizedNumber}, so that
+   * {@link #isCachedAsNotFound(Context, String)} returns true until the entry expires.
+   */
+  public static void cacheNotFound(Context context, String normalizedNumber) {
+    ContentValues values = new ContentValues();
+    values.put(Columns.NORMALIZED_NUMBER, normalizedNumber);
+    values.put(Columns.FOUND, 0);
+    putEntry(context, normalizedNumber, values);
   }
 
   public static ContactInfo getCachedContact(Context context, String number) {
@@ -122,108 +104,64 @@ public class LookupCache {
       return null;
     }
 
-    File file = getFilePath(context, normalizedNumber);
-    if (!file.exists()) {
-      // Whatever is calling this should probably check anyway
+    Entry entry = getEntry(context, normalizedNumber);
+    if (entry == null || entry.info == null) {
       return null;
     }
+    return copyOf(entry.info);
+  }
 
-    ContactInfo info = new ContactInfo();
-
-    FileInputStream in = null;
-    JsonReader reader = null;
-
-    try {
-      in = new FileInputStream(file);
-      reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
-
-      reader.beginObject();
-      while (reader.hasNext()) {
-        String name = reader.nextName();
-
-        if (NAME.equals(name)) {
-          info.name = reader.nextString();
-        } else if (TYPE.equals(name)) {
-          info.type = reader.nextInt();
-        } else if (LABEL.equals(name)) {
-          info.label = reader.nextString();
-        } else if (NUMBER.equals(name)) {
-          info.number = reader.nextString();
-        } else if (FORMATTED_NUMBER.equals(name)) {
-          info.formattedNumber = reader.nextString();
-        } else if (NORMALIZED_NUMBER.equals(name)) {
-          info.normalizedNumber = reader.nextString();
-        } else if (PHOTO_ID.equals(name)) {
-          info.photoId = reader.nextInt();
-        } else if (LOOKUP_URI.equals(name)) {
-          Uri lookupUri = Uri.parse(reader.nextString());
-
-          if (hasCachedImage(context, normalizedNumber)) {
-            // Insert cached photo URI
-            Uri image = Uri.withAppendedPath(LookupProvider.IMAGE_CACHE_URI,
-                Uri.encode(normalizedNumber));
-
-            String json = lookupUri.getEncodedFragment();
-            if (json != null) {
-              try {
-                JSONObject jsonObj = new JSONObject(json);
-                jsonObj.putOpt(Contacts.PHOTO_URI, image.toString());
-                lookupUri = lookupUri.buildUpon()
-                    .encodedFragment(jsonObj.toString())
-                    .build();
-              } catch (JSONException e) {
-                Log.e(TAG, "Failed to add image URI to json", e);
-              }
-            }
-
-            info.photoUri = image;
-          }
-
-          info.lookupUri = lookupUri;
-        }
-      }
-      reader.endObject();
-    } catch (IOException e) {
-      e.printStackTrace();
-    } finally {
-      DialerUtils.closeQuietly(reader);
-      DialerUtils.closeQuietly(in);
+  /** Returns whether the lookup providers recently didn't know {@code number}. */
+  public static boolean isCachedAsNotFound(Context context, String number) {
+    String normalizedNumber = formatE164(context, number);
+    if (normalizedNumber == null) {
+      return false;
     }
 
-    return info;
+    Entry entry = getEntry(context, normalizedNumber);
+    return entry != null && entry.info == null;
   }
 
   public static void deleteCachedContacts(Context context) {
-    File dir = new File(context.getCacheDir(), "lookup");
-    if (!dir.exists()) {
-      Log.v(TAG, "Lookup cache directory does not exist. Not clearing it.");
-      return;
-    }
-
-    if (!dir.isDirectory()) {
-      Log.e(TAG, "Path " + dir + " is not a directory");
-      return;
-    }
-
-    File[] files = dir.listFiles();
-    if (files != null) {
-      for (File file : files) {
-        if (file.isFile()) {
-          file.delete();
-        }
+    memoryCache.evictAll();
+    try {
+      SQLiteDatabase db = getDatabaseHelper(context).getWritableDatabase();
+      db.beginTransaction();
+      try {
+        db.delete(Columns.TABLE, null, null);
+        db.delete(ImageColumns.TABLE, null, null);
+        db.setTransactionSuccessful();
+      } finally {
+        db.endTransaction();
       }
+    } catch (SQLiteException e) {
+      Log.e(TAG, "Failed to clear lookup cache", e);
     }
   }
 
-  public static void deleteCachedContact(Context context, String normalizedNumber) {
-    File f = getFilePath(context, normalizedNumber);
-    if (f.exists()) {
-      f.delete();
+  /**
+   * Forgets the numbers which the lookup providers didn't know, e.g. because another provider
+   * was chosen which may know them.
+   */
+  public static void deleteNotFoundEntries(Context context) {
+    memoryCache.evictAll();
+    try {
+      SQLiteDatabase db = getDatabaseHelper(context).getWritableDatabase();
+      db.delete(Columns.TABLE, Columns.FOUND + " = 0", null);
+    } catch (SQLiteException e) {
+      Log.e(TAG, "Failed to delete numbers not found", e);
     }
+  }
 
-    f = getImagePath(context, normalizedNumber);
-    if (f.exists()) {
-      f.delete();
+  public static void deleteCachedContact(Context context, String normalizedNumber) {
+    memoryCache.remove(normalizedNumber);
+    try {
+      SQLiteDatabase db = getDatabaseHelper(context).getWritableDatabase();
+      String[] args = new String[] {normalizedNumber};
+      db.delete(Columns.TABLE, Columns.NORMALIZED_NUMBER + " = ?", args);
+      db.delete(ImageColumns.TABLE, ImageColumns.NORMALIZED_NUMBER + " = ?", args);
+    } catch (SQLiteException e) {
+      Log.e(TAG, "Failed to delete cached contact", e);
     }
   }
 
@@ -233,8 +171,8 @@ public class LookupCache {
       return false;
     }
 
-    File file = getImagePath(context, normalizedNumber);
-    return file.exists();
+    Entry entry = getEntry(context, normalizedNumber);
+    return entry != null && entry.hasImage;
   }
 
   public static Uri cacheImage(Context context, String normalizedNumber, Bitmap bmp) {
@@ -244,30 +182,214 @@ public class LookupCache {
       return null;
     }
 
-    File image = getImagePath(context, normalizedNumber);
-    FileOutputStream out = null;
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    if (!bmp.compress(Bitmap.CompressFormat.WEBP, 100, out)) {
+      Log.e(TAG, "Failed to compress image");
+      return null;
+    }
 
+    ContentValues values = new ContentValues();
+    values.put(ImageColumns.NORMALIZED_NUMBER, normalizedNumber);
+    values.put(ImageColumns.DATA, out.toByteArray());
     try {
-      out = new FileOutputStream(image);
-      bmp.compress(Bitmap.CompressFormat.WEBP, 100, out);
-      return Uri.fromFile(image);
-    } catch (Exception e) {
-      e.printStackTrace();
-    } finally {
-      DialerUtils.closeQuietly(out);
+      getDatabaseHelper(context)
+          .getWritableDatabase()
+          .insertWithOnConflict(ImageColumns.TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    } catch (SQLiteException e) {
+      Log.e(TAG, "Failed to cache image", e);
+      return null;
     }
-    return null;
+    // The contact, if cached, now has an image
+    memoryCache.remove(normalizedNumber);
+    return getImageUri(normalizedNumber);
   }
 
   public static Bitmap getCachedImage(Context context, String normalizedNumber) {
-    File image = getImagePath(context, normalizedNumber);
-    if (!image.exists()) {
+    byte[] data = getCachedImageData(context, normalizedNumber);
+    if (data == null) {
       return null;
     }
 
     BitmapFactory.Options options = new BitmapFactory.Options();
     options.inPreferredConfig = Bitmap.Config.ARGB_8888;
-    return BitmapFactory.decodeFile(image.getPath(), options);
+    return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+  }
+
+  /** Returns the compressed cached image of {@code normalizedNumber}, or null if there is none. */
+  public static byte[] getCachedImageData(Context context, String normalizedNumber) {
+    try (Cursor cursor =
+        getDatabaseHelper(context)
+            .getReadableDatabase()
+            .query(
+                ImageColumns.TABLE,
+                new String[] {ImageColumns.DATA},
+                ImageColumns.NORMALIZED_NUMBER + " = ?",
+                new String[] {normalizedNumber},
+                null,
+                null,
+                null)) {
+      return cursor.moveToFirst() ? cursor.getBlob(0) : null;
+    } catch (SQLiteException e) {
+      Log.e(TAG, "Failed to read cached image", e);
+      return null;
+    }
+  }
+
+  private static Entry getEntry(Context context, String normalizedNumber) {
+    long now = System.currentTimeMillis();
+    Entry entry = memoryCache.get(normalizedNumber);
+    if (entry == null) {
+      entry = readEntry(context, normalizedNumber);
+      if (entry == null) {
+        return null;
+      }
+      memoryCache.put(normalizedNumber, entry);
+    }
+    if (entry.isExpired(now)) {
+      deleteCachedContact(context, normalizedNumber);
+      return null;
+    }
+    return entry;
+  }
+
+  private static Entry readEntry(Context context, String normalizedNumber) {
+    String hasImage =
+        "EXISTS (SELECT 1 FROM "
+            + ImageColumns.TABLE
+            + " WHERE "
+            + ImageColumns.TABLE
+            + "."
+            + ImageColumns.NORMALIZED_NUMBER
+            + " = "
+            + Columns.TABLE
+            + "."
+            + Columns.NORMALIZED_NUMBER
+            + ")";
+    try (Cursor cursor =
+        getDatabaseHelper(context)
+            .getReadableDatabase()
+            .query(
+                Columns.TABLE,
+                new String[] {
+                  Columns.TIMESTAMP,
+                  Columns.FOUND,
+                  Columns.NAME,
+                  Columns.TYPE,
+                  Columns.LABEL,
+                  Columns.NUMBER,
+                  Columns.FORMATTED_NUMBER,
+                  Columns.PHOTO_ID,
+                  Columns.LOOKUP_URI,
+                  hasImage
+                },
+                Columns.NORMALIZED_NUMBER + " = ?",
+                new String[] {normalizedNumber},
+                null,
+                null,
+                null)) {
+      if (!cursor.moveToFirst()) {
+        return null;
+      }
+      long timestamp = cursor.getLong(0);
+      if (cursor.getInt(1) == 0) {
+        return new Entry(null, false, timestamp, NOT_FOUND_TTL_MILLIS);
+      }
+
+      ContactInfo info = new ContactInfo();
+      info.normalizedNumber = normalizedNumber;
+      info.name = cursor.getString(2);
+      info.type = cursor.getInt(3);
+      info.label = cursor.getString(4);
+      info.number = cursor.getString(5);
+      info.formattedNumber = cursor.getString(6);
+      info.photoId = cursor.getLong(7);
+      boolean hasCachedImage = cursor.getInt(9) != 0;
+
+      String lookupUriString = cursor.getString(8);
+      if (lookupUriString != null) {
+        Uri lookupUri = Uri.parse(lookupUriString);
+
+        if (hasCachedImage) {
+          // Insert cached photo URI
+          Uri image = getImageUri(normalizedNumber);
+
+          String json = lookupUri.getEncodedFragment();
+          if (json != null) {
+            try {
+              JSONObject jsonObj = new JSONObject(json);
+              jsonObj.putOpt(Contacts.PHOTO_URI, image.toString());
+              lookupUri = lookupUri.buildUpon()
+                  .encodedFragment(jsonObj.toString())
+                  .build();
+            } catch (JSONException e) {
+              Log.e(TAG, "Failed to add image URI to json", e);
+            }
+          }
+
+          info.photoUri = image;
+        }
+
+        info.lookupUri = lookupUri;
+      }
+      return new Entry(info, hasCachedImage, timestamp, CONTACT_TTL_MILLIS);
+    } catch (SQLiteException e) {
+      Log.e(TAG, "Failed to read cached contact", e);
+      return null;
+    }
+  }
+
+  private static void putEntry(Context context, String normalizedNumber, ContentValues values) {
+    long now = System.currentTimeMillis();
+    values.put(Columns.TIMESTAMP, now);
+    memoryCache.remove(normalizedNumber);
+    try {
+      SQLiteDatabase db = getDatabaseHelper(context).getWritableDatabase();
+      db.beginTransaction();
+      try {
+        db.insertWithOnConflict(Columns.TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+        // Writes are rare, so dropping expired entries here keeps the database small without
+        // scheduling any cleanup.
+        deleteExpiredEntries(db, now);
+        db.setTransactionSuccessful();
+      } finally {
+        db.endTransaction();
+      }
+    } catch (SQLiteException e) {
+      Log.e(TAG, "Failed to cache contact", e);
+    }
+  }
+
+  private static void deleteExpiredEntries(SQLiteDatabase db, long now) {
+    db.delete(
+        Columns.TABLE,
+        "(" + Columns.FOUND + " = 0 AND " + Columns.TIMESTAMP + " < ?) OR "
+            + Columns.TIMESTAMP + " < ?",
+        new String[] {
+          String.valueOf(now - NOT_FOUND_TTL_MILLIS), String.valueOf(now - CONTACT_TTL_MILLIS)
+        });
+    db.delete(
+        ImageColumns.TABLE,
+        ImageColumns.NORMALIZED_NUMBER + " NOT IN (SELECT " + Columns.NORMALIZED_NUMBER
+            + " FROM " + Columns.TABLE + ")",
+        null);
+  }
+
+  private static ContactInfo copyOf(ContactInfo cached) {
+    ContactInfo info = new ContactInfo();
+    info.normalizedNumber = cached.normalizedNumber;
+    info.name = cached.name;
+    info.type = cached.type;
+    info.label = cached.label;
+    info.number = cached.number;
+    info.formattedNumber = cached.formattedNumber;
+    info.photoId = cached.photoId;
+    info.photoUri = cached.photoUri;
+    info.lookupUri = cached.lookupUri;
+    return info;
+  }
+
+  private static Uri getImageUri(String normalizedNumber) {
+    return Uri.withAppendedPath(LookupProvider.IMAGE_CACHE_URI, Uri.encode(normalizedNumber));
   }
 
   private static String formatE164(Context context, String number) {
@@ -276,21 +398,105 @@ public class LookupCache {
     return PhoneNumberUtils.formatNumberToE164(number, countryIso);
   }
 
-  private static File getFilePath(Context context, String normalizedNumber) {
-    File dir = new File(context.getCacheDir(), "lookup");
-    if (!dir.exists()) {
-      dir.mkdirs();
+  private static synchronized DatabaseHelper getDatabaseHelper(Context context) {
+    if (databaseHelper == null) {
+      databaseHelper = new DatabaseHelper(context.getApplicationContext());
     }
+    return databaseHelper;
+  }
 
-    return new File(dir, normalizedNumber + ".json");
+  private static final class Entry {
+    /** The cached contact, or null if the number wasn't found. */
+    final ContactInfo info;
+    final boolean hasImage;
+    final long timestamp;
+    final long ttlMillis;
+
+    Entry(ContactInfo info, boolean hasImage, long timestamp, long ttlMillis) {
+      this.info = info;
+      this.hasImage = hasImage;
+      this.timestamp = timestamp;
+      this.ttlMillis = ttlMillis;
+    }
+
+    boolean isExpired(long now) {
+      // Also expire entries from the future, e.g. after the clock was changed
+      return now - timestamp > ttlMillis || timestamp > now;
+    }
   }
 
-  public static File getImagePath(Context context, String normalizedNumber) {
-    File dir = new File(context.getCacheDir(), "lookup");
-    if (!dir.exists()) {
-      dir.mkdirs();
+  private interface Columns {
+    String TABLE = "contacts";
+    String NORMALIZED_NUMBER = "normalized_number";
+    String TIMESTAMP = "timestamp";
+    String FOUND = "found";
+    String NAME = "name";
+    String TYPE = "type";
+    String LABEL = "label";
+    String NUMBER = "number";
+    String FORMATTED_NUMBER = "formatted_number";
+    String PHOTO_ID = "photo_id";
+    String LOOKUP_URI = "lookup_uri";
+  }
+
+  private interface ImageColumns {
+    String TABLE = "images";
+    String NORMALIZED_NUMBER = "normalized_number";
+    String DATA = "data";
+  }
+
+  private static final class DatabaseHelper extends SQLiteOpenHelper {
+    private static final int VERSION = 1;
+    private static final String DB_NAME = "lookup_cache.db";
+
+    private final Context context;
+
+    DatabaseHelper(Context context) {
+      super(context, DB_NAME, null, VERSION);
+      this.context = context;
     }
 
-    return new File(dir, normalizedNumber + ".webp");
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+      db.execSQL("CREATE TABLE " + Columns.TABLE + " (" +
+          Columns.NORMALIZED_NUMBER + " TEXT PRIMARY KEY NOT NULL," +
+          Columns.TIMESTAMP + " INTEGER NOT NULL," +
+          Columns.FOUND + " INTEGER NOT NULL," +
+          Columns.NAME + " TEXT," +
+          Columns.TYPE + " INTEGER," +
+          Columns.LABEL + " TEXT," +
+          Columns.NUMBER + " TEXT," +
+          Columns.FORMATTED_NUMBER + " TEXT," +
+          Columns.PHOTO_ID + " INTEGER," +
+          Columns.LOOKUP_URI + " TEXT" +
+          ");"
+      );
+      db.execSQL("CREATE TABLE " + ImageColumns.TABLE + " (" +
+          ImageColumns.NORMALIZED_NUMBER + " TEXT PRIMARY KEY NOT NULL," +
+          ImageColumns.DATA + " BLOB NOT NULL" +
+          ");"
+      );
+      db.execSQL("CREATE INDEX IF NOT EXISTS timestamp_index ON " +
+          Columns.TABLE + " (" + Columns.TIMESTAMP + ");"
+      );
+
+      deleteLegacyCacheFiles();
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {}
+
+    /** Deletes the one file per number and image the cache used to be stored in. */
+    private void deleteLegacyCacheFiles() {
+      File dir = new File(context.getCacheDir(), "lookup");
+      File[] files = dir.listFiles();
+      if (files == null) {
+        return;
+      }
+      for (File file : files) {
+        file.delete();
+      }
+      dir.delete();
+    }
   }
 }
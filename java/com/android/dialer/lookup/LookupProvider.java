@@ -29,14 +29,17 @@ import android.location.LocationListener;
 import android.location.LocationManager;
 import android.net.Uri;
 import android.os.Bundle;
-import android.os.Handler;
+import android.os.CancellationSignal;
 import android.os.Looper;
 import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.provider.ContactsContract;
 import android.provider.ContactsContract.CommonDataKinds.StructuredPostal;
 import android.provider.ContactsContract.Contacts;
 import android.provider.Settings;
 import android.util.Log;
+import android.util.LruCache;
+import android.util.SparseArray;
 
 import com.android.dialer.searchfragment.common.Projections;
 import com.android.dialer.phonenumbercache.ContactInfo;
@@ -47,20 +50,32 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Collections;
 import java.util.List;
 
+/**
+ * Provides the results of nearby and people searches to the extended directory search.
+ *
+ * <p>Searches run on a small pool of threads, newest first. A search cancels the previous search
+ * of the same kind, which is stale while the user is still typing, and the results of recent
+ * searches are reused for a short time, e.g. when a character is deleted again.
+ */
 public class LookupProvider extends ContentProvider {
   private static final String TAG = LookupProvider.class.getSimpleName();
 
@@ -78,7 +93,13 @@ public class LookupProvider extends ContentProvider {
       Uri.withAppendedPath(AUTHORITY_URI, "images");
 
   private static final UriMatcher uriMatcher = new UriMatcher(-1);
-  private final LinkedList<FutureTask> activeTasks = new LinkedList<>();
+
+  private static final int MAX_CONCURRENT_QUERIES = 2;
+  private static final long IDLE_THREAD_TIMEOUT_SECONDS = 30;
+  private static final long QUERY_TIMEOUT_MILLIS = 10000;
+
+  private static final int RESULT_CACHE_SIZE = 16;
+  private static final long RESULT_CACHE_TTL_MILLIS = 60000;
 
   private static final int NEARBY = 0;
   private static final int PEOPLE = 1;
@@ -92,44 +113,64 @@ public class LookupProvider extends ContentProvider {
     uriMatcher.addURI(AUTHORITY, "images/*", IMAGE);
   }
 
-  private class FutureCallable<T> implements Callable<T> {
-    private final Callable<T> callable;
-    private volatile FutureTask<T> future;
+  private final AtomicLong querySequence = new AtomicLong();
+  private final AtomicInteger threadCount = new AtomicInteger();
+  private final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+      MAX_CONCURRENT_QUERIES, MAX_CONCURRENT_QUERIES,
+      IDLE_THREAD_TIMEOUT_SECONDS, TimeUnit.SECONDS, new PriorityBlockingQueue<>(),
+      runnable -> new Thread(runnable, "LookupProvider-" + threadCount.incrementAndGet()));
 
-    public FutureCallable(Callable<T> callable) {
-      future = null;
-      this.callable = callable;
-    }
+  /** The latest query of each URI type. Guarded by itself. */
+  private final SparseArray<QueryTask<?>> activeQueries = new SparseArray<>();
 
-    public T call() throws Exception {
-      Log.v(TAG, "Future called for " + Thread.currentThread().getName());
+  /** Results of recent queries, by URI type, limit and filter. */
+  private final LruCache<String, CachedResults> resultCache = new LruCache<>(RESULT_CACHE_SIZE);
 
-      T result = callable.call();
-      if (future == null) {
-        return result;
-      }
+  /** A query which runs before the queries submitted before it. */
+  private static class QueryTask<T> extends FutureTask<T> implements Comparable<QueryTask<?>> {
+    private final long sequence;
 
-      synchronized (activeTasks) {
-        activeTasks.remove(future);
-      }
+    QueryTask(Callable<T> callable, long sequence) {
+      super(callable);
+      this.sequence = sequence;
+    }
+
+    @Override
+    public int compareTo(QueryTask<?> other) {
+      return Long.compare(other.sequence, sequence);
+    }
+  }
+
+  private static class CachedResults {
+    final List<ContactInfo> results;
+    final long timestamp;
 
-      future = null;
-      return result;
+    CachedResults(List<ContactInfo> results) {
+      this.results = results;
+      this.timestamp = SystemClock.elapsedRealtime();
     }
 
-    public void setFuture(FutureTask<T> future) {
-      this.future = future;
+    boolean isExpired() {
+      return SystemClock.elapsedRealtime() - timestamp > RESULT_CACHE_TTL_MILLIS;
     }
   }
 
   @Override
   public boolean onCreate() {
+    // Don't keep threads around between searches
+    executor.allowCoreThreadTimeOut(true);
     return true;
   }
 
   @Override
-  public Cursor query(Uri uri, final String[] projection, String selection,
+  public Cursor query(Uri uri, String[] projection, String selection,
       String[] selectionArgs, String sortOrder) {
+    return query(uri, projection, selection, selectionArgs, sortOrder, null);
+  }
+
+  @Override
+  public Cursor query(Uri uri, final String[] projection, String selection,
+      String[] selectionArgs, String sortOrder, CancellationSignal cancellationSignal) {
     if (DEBUG) Log.v(TAG, "query: " + uri);
 
     Location lastLocation = null;
@@ -168,12 +209,12 @@ public class LookupProvider extends ContentProvider {
         final Location finalLastLocation = lastLocation;
         final int finalMaxResults = maxResults;
 
-        return execute(new Callable<Cursor>() {
+        return execute(match, new Callable<Cursor>() {
           @Override
           public Cursor call() {
             return handleFilter(match, projection, filter, finalMaxResults, finalLastLocation);
           }
-        }, "FilterThread");
+        }, cancellationSignal);
     }
 
     return null;
@@ -214,14 +255,14 @@ public class LookupProvider extends ContentProvider {
     switch (uriMatcher.match(uri)) {
       case IMAGE:
         String number = uri.getLastPathSegment();
-        File image = LookupCache.getImagePath(getContext(), number);
 
         if (mode.equals("r")) {
-          if (image == null || !image.exists() || !image.isFile()) {
+          byte[] image = LookupCache.getCachedImageData(getContext(), number);
+          if (image == null) {
             throw new FileNotFoundException("Cached image does not exist");
           }
 
-          return ParcelFileDescriptor.open(image, ParcelFileDescriptor.MODE_READ_ONLY);
+          return openPipeHelper(uri, "image/webp", null, image, new ImageWriter());
         } else {
           throw new FileNotFoundException("The URI is read only");
         }
@@ -231,6 +272,19 @@ public class LookupProvider extends ContentProvider {
     }
   }
 
+  /** Writes a cached image to the pipe returned by {@link #openFile(Uri, String)}. */
+  private static class ImageWriter implements PipeDataWriter<byte[]> {
+    @Override
+    public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType,
+        Bundle opts, byte[] image) {
+      try (FileOutputStream out = new FileOutputStream(output.getFileDescriptor())) {
+        out.write(image);
+      } catch (IOException e) {
+        Log.w(TAG, "Failed to write cached image", e);
+      }
+    }
+  }
+
   /**
    * Check if the location services is on.
    *
@@ -303,55 +357,73 @@ public class LookupProvider extends ContentProvider {
     } catch (UnsupportedEncodingException e) {
     }
 
-    ArrayList<ContactInfo> results = null;
+    String cacheKey = type + "/" + maxResults + "/" + filter;
+    CachedResults cached = resultCache.get(cacheKey);
+    if (cached != null && !cached.isExpired()) {
+      if (DEBUG) Log.v(TAG, "handleFilter(" + filter + "): cached");
+      MatrixCursor cursor = new MatrixCursor(Projections.DATA_PROJECTION);
+      addResults(cursor, cached.results, maxResults);
+      return cursor.getCount() > 0 ? cursor : null;
+    }
+
+    // Rows are added as each lookup finishes, and the remaining lookups are skipped once the
+    // cursor is full
+    MatrixCursor cursor = new MatrixCursor(Projections.DATA_PROJECTION);
+    List<ContactInfo> results = new ArrayList<>();
     if ((type == NEARBY || type == NEARBY_AND_PEOPLE) && lastLocation != null) {
       ForwardLookup fl = ForwardLookup.getInstance(getContext());
       List<ContactInfo> nearby = fl.lookup(getContext(), filter, lastLocation);
       if (nearby != null) {
-        results.addAll(nearby);
+        results.addAll(addResults(cursor, nearby, maxResults));
       }
     }
-    if (type == PEOPLE || type == NEARBY_AND_PEOPLE) {
+    if ((type == PEOPLE || type == NEARBY_AND_PEOPLE) && !isFull(cursor, maxResults)
+        && !Thread.currentThread().isInterrupted()) {
       PeopleLookup pl = PeopleLookup.getInstance(getContext());
       List<ContactInfo> people = pl.lookup(getContext(), filter);
       if (people != null) {
-        results.addAll(people);
+        results.addAll(addResults(cursor, people, maxResults));
       }
     }
 
-    if (results.isEmpty()) {
-      if (DEBUG) Log.v(TAG, "handleFilter(" + filter + "): No results");
+    if (Thread.currentThread().isInterrupted()) {
+      // Superseded by a newer query, so the results may be incomplete
       return null;
     }
+    resultCache.put(cacheKey, new CachedResults(Collections.unmodifiableList(results)));
 
-    Cursor cursor = null;
-    try {
-      cursor = buildResultCursor(projection, results, maxResults);
-      if (DEBUG) {
-        Log.v(TAG, "handleFilter(" + filter + "): " + cursor.getCount() + " matches");
-      }
-    } catch (JSONException e) {
-      Log.e(TAG, "JSON failure", e);
+    if (cursor.getCount() == 0) {
+      if (DEBUG) Log.v(TAG, "handleFilter(" + filter + "): No results");
+      return null;
     }
 
+    if (DEBUG) {
+      Log.v(TAG, "handleFilter(" + filter + "): " + cursor.getCount() + " matches");
+    }
     return cursor;
   }
 
+  private static boolean isFull(Cursor cursor, int maxResults) {
+    return maxResults != -1 && cursor.getCount() >= maxResults;
+  }
+
   /**
-   * Query results.
+   * Add results to the cursor.
    *
-   * @param projection Columns to include in query
+   * @param cursor Cursor with the extended directory projection
    * @param results Results for the forward lookup
-   * @param maxResults Maximum number of rows/results to add to cursor
-   * @return Cursor for forward lookup query results
+   * @param maxResults Maximum number of rows/results in the cursor
+   * @return The results which were added
    */
-  private Cursor buildResultCursor(String[] projection, List<ContactInfo> results, int maxResults)
-      throws JSONException {
-    // Extended directories always use this projection
-    MatrixCursor cursor = new MatrixCursor(Projections.DATA_PROJECTION);
-
-    int id = 1;
+  private List<ContactInfo> addResults(MatrixCursor cursor, List<ContactInfo> results,
+      int maxResults) {
+    int count = 0;
     for (ContactInfo result : results) {
+      if (isFull(cursor, maxResults)) {
+        break;
+      }
+
+      int id = cursor.getCount() + 1;
       Object[] row = new Object[Projections.DATA_PROJECTION.length];
 
       row[Projections.ID] = id;
@@ -365,15 +437,10 @@ public class LookupProvider extends ContentProvider {
       row[Projections.CONTACT_ID] = id;
 
       cursor.addRow(row);
-
-      if (maxResults != -1 && cursor.getCount() >= maxResults) {
-        break;
-      }
-
-      id++;
+      count++;
     }
 
-    return cursor;
+    return results.subList(0, count);
   }
 
   private String getAddress(ContactInfo info) {
@@ -417,44 +484,54 @@ public class LookupProvider extends ContentProvider {
   }
 
   /**
-   * Execute thread that is killed after a specified amount of time.
+   * Run a query on the executor, cancelling the previous query of the same type.
    *
-   * @param callable The thread
-   * @param name Name of the thread
-   * @return Instance of the thread
+   * @param type URI type of the query
+   * @param callable The query
+   * @param cancellationSignal Signal cancelling the query, or null
+   * @return Result of the query, or null if it failed, timed out or was cancelled
    */
-  private <T> T execute(Callable<T> callable, String name) {
-    FutureCallable<T> futureCallable = new FutureCallable<T>(callable);
-    FutureTask<T> future = new FutureTask<T>(futureCallable);
-    futureCallable.setFuture(future);
-
-    synchronized (activeTasks) {
-      activeTasks.addLast(future);
-      Log.v(TAG, "Currently running tasks: " + activeTasks.size());
-
-      while (activeTasks.size() > 8) {
-        Log.w(TAG, "Too many tasks, canceling one");
-        activeTasks.removeFirst().cancel(true);
+  private <T> T execute(int type, Callable<T> callable, CancellationSignal cancellationSignal) {
+    QueryTask<T> task = new QueryTask<>(callable, querySequence.incrementAndGet());
+
+    synchronized (activeQueries) {
+      QueryTask<?> previous = activeQueries.get(type);
+      if (previous != null) {
+        Log.v(TAG, "Cancelling stale query");
+        previous.cancel(true);
+        executor.purge();
       }
+      activeQueries.put(type, task);
     }
 
-    Log.v(TAG, "Starting task " + name);
+    if (cancellationSignal != null) {
+      cancellationSignal.setOnCancelListener(() -> task.cancel(true));
+    }
 
-    new Thread(future, name).start();
+    executor.execute(task);
 
     try {
-      Log.v(TAG, "Getting future " + name);
-      return future.get(10000, TimeUnit.MILLISECONDS);
+      return task.get(QUERY_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
     } catch (InterruptedException e) {
-      Log.w(TAG, "Task was interrupted: " + name);
+      Log.w(TAG, "Query was interrupted");
+      task.cancel(true);
       Thread.currentThread().interrupt();
     } catch (ExecutionException e) {
-      Log.w(TAG, "Task threw an exception: " + name, e);
+      Log.w(TAG, "Query threw an exception", e);
     } catch (TimeoutException e) {
-      Log.w(TAG, "Task timed out: " + name);
-      future.cancel(true);
+      Log.w(TAG, "Query timed out");
+      task.cancel(true);
     } catch (CancellationException e) {
-      Log.w(TAG, "Task was cancelled: " + name);
+      Log.v(TAG, "Query was cancelled");
+    } finally {
+      if (cancellationSignal != null) {
+        cancellationSignal.setOnCancelListener(null);
+      }
+      synchronized (activeQueries) {
+        if (activeQueries.get(type) == task) {
+          activeQueries.remove(type);
+        }
+      }
     }
 
     return null;
@@ -24,6 +24,7 @@ import android.preference.PreferenceFragment;
 import android.preference.SwitchPreference;
 
 import com.android.dialer.R;
+import com.android.dialer.common.concurrent.DialerExecutorComponent;
 
 import java.util.Arrays;
 
@@ -90,6 +91,12 @@ public class LookupSettingsFragment extends PreferenceFragment
     } else if (preference == peopleLookupProvider) {
       LookupSettings.setPeopleLookupProvider(context, (String) newValue);
     } else if (preference == reverseLookupProvider) {
+      if (!newValue.equals(LookupSettings.getReverseLookupProvider(context))) {
+        // The new provider may know the numbers the previous one didn't
+        DialerExecutorComponent.get(context)
+            .backgroundExecutor()
+            .execute(() -> LookupCache.deleteNotFoundEntries(context));
+      }
       LookupSettings.setReverseLookupProvider(context, (String) newValue);
     }
 
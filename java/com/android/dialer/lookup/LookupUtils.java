@@ -17,12 +17,14 @@
 package com.android.dialer.lookup;
 
 import android.text.Html;
+import android.util.LruCache;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStreamWriter;
 import java.net.HttpURLConnection;
 import java.net.URL;
@@ -30,19 +32,94 @@ import java.nio.charset.Charset;
 import java.nio.charset.IllegalCharsetNameException;
 import java.nio.charset.UnsupportedCharsetException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+/**
+ * HTTP and parsing helpers shared by the lookup providers.
+ *
+ * <p>Requests go through {@link HttpURLConnection}, which on Android pools keep-alive connections
+ * and transparently requests and decompresses gzip responses. To let connections be reused,
+ * response bodies are always read to the end and closed instead of disconnecting. Responses are
+ * not cached on disk, as they contain the looked up numbers; results are cached by {@link
+ * LookupCache} instead.
+ *
+ * <p>Interrupting a thread doesn't stop a read blocked on the network, so requests made within a
+ * {@link RequestGroup} can instead be aborted from another thread.
+ */
 public class LookupUtils {
   private static final String USER_AGENT =
       "Mozilla/5.0 (X11; Linux x86_64; rv:42.0) Gecko/20100101 Firefox/42.0";
 
+  private static final int CONNECT_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(5);
+  private static final int READ_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(10);
+
+  private static final int PATTERN_CACHE_SIZE = 32;
+
+  /** Patterns recently compiled by the methods taking a regex string, by flags and regex. */
+  private static final LruCache<String, Pattern> patternCache = new LruCache<>(PATTERN_CACHE_SIZE);
+
+  private static final ThreadLocal<RequestGroup> currentRequestGroup = new ThreadLocal<>();
+
+  /** Parses a response body while it is being received. */
+  public interface ResponseParser<T> {
+    T parse(InputStream in, Charset charset) throws IOException;
+  }
+
+  /**
+   * The requests made on behalf of a single lookup. {@link #abort()} disconnects the requests in
+   * progress, so that they fail right away instead of holding their thread until the read timeout,
+   * and makes later requests fail before connecting.
+   */
+  public static final class RequestGroup {
+    private final Set<HttpURLConnection> connections =
+        Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private volatile boolean aborted;
+
+    /** Aborts the requests of the group. Can be called from any thread but the main thread. */
+    public void abort() {
+      aborted = true;
+      for (HttpURLConnection connection : connections) {
+        connection.disconnect();
+      }
+    }
+
+    private void add(HttpURLConnection connection) throws InterruptedIOException {
+      connections.add(connection);
+      // Checked after adding, so that a concurrent abort() either sees the connection or is seen
+      if (aborted) {
+        connections.remove(connection);
+        throw new InterruptedIOException("Lookup aborted");
+      }
+    }
+  }
+
+  /**
+   * Makes the requests of the calling thread part of {@code group} until this is called again,
+   * with null to leave the group.
+   */
+  public static void setRequestGroup(RequestGroup group) {
+    if (group == null) {
+      currentRequestGroup.remove();
+    } else {
+      currentRequestGroup.set(group);
+    }
+  }
+
   private static HttpURLConnection prepareHttpConnection(String url, Map<String, String> headers)
       throws IOException {
     // open connection
     HttpURLConnection urlConnection = (HttpURLConnection) new URL(url).openConnection();
+    urlConnection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+    urlConnection.setReadTimeout(READ_TIMEOUT_MILLIS);
+    // don't store responses in an HTTP cache another component may have installed
+    urlConnection.setUseCaches(false);
     // set user agent (default value is null)
     urlConnection.setRequestProperty("User-Agent", USER_AGENT);
     // set all other headers if not null
@@ -52,27 +129,56 @@ public class LookupUtils {
       }
     }
 
+    RequestGroup group = currentRequestGroup.get();
+    if (group != null) {
+      group.add(urlConnection);
+    }
     return urlConnection;
   }
 
-  private static byte[] httpFetch(HttpURLConnection urlConnection) throws IOException {
-    // query url, read and return buffered response body
-    // we want to make sure that the connection gets closed here
-    InputStream is = new BufferedInputStream(urlConnection.getInputStream());
-    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    byte[] result = null;
+  /** Removes a finished request from the group of the calling thread. */
+  private static void release(HttpURLConnection urlConnection) {
+    RequestGroup group = currentRequestGroup.get();
+    if (group != null) {
+      group.connections.remove(urlConnection);
+    }
+  }
+
+  private static <T> T httpFetch(HttpURLConnection urlConnection, ResponseParser<T> parser)
+      throws IOException {
+    InputStream is;
+    try {
+      is = new BufferedInputStream(urlConnection.getInputStream());
+    } catch (IOException e) {
+      // The connection can't be reused after an error, so release it right away
+      urlConnection.disconnect();
+      release(urlConnection);
+      throw e;
+    }
     try {
+      T result = parser.parse(is, determineCharset(urlConnection));
+      // Read whatever the parser left, so that the connection can be reused
       byte[] partial = new byte[4096];
-      int read;
-      while ((read = is.read(partial, 0, 4096)) != -1) {
-        baos.write(partial, 0, read);
-      }
-      result = baos.toByteArray();
+      while (is.read(partial) != -1) {}
+      return result;
     } finally {
+      release(urlConnection);
       is.close();
-      baos.close();
     }
-    return result;
+  }
+
+  private static byte[] readFully(InputStream is) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    byte[] partial = new byte[4096];
+    int read;
+    while ((read = is.read(partial, 0, 4096)) != -1) {
+      baos.write(partial, 0, read);
+    }
+    return baos.toByteArray();
+  }
+
+  private static String readString(InputStream is, Charset charset) throws IOException {
+    return new String(readFully(is), charset);
   }
 
   private static Charset determineCharset(HttpURLConnection connection) {
@@ -94,53 +200,53 @@ public class LookupUtils {
   }
 
   public static String httpGet(String url, Map<String, String> headers) throws IOException {
-    HttpURLConnection connection = prepareHttpConnection(url, headers);
-    try {
-      byte[] response = httpFetch(connection);
-      return new String(response, determineCharset(connection));
-    } finally {
-      connection.disconnect();
-    }
+    return httpGet(url, headers, LookupUtils::readString);
   }
 
   public static byte[] httpGetBytes(String url, Map<String, String> headers) throws IOException {
-    HttpURLConnection connection = prepareHttpConnection(url, headers);
-    try {
-      return httpFetch(connection);
-    } finally {
-      connection.disconnect();
-    }
+    return httpGet(url, headers, (is, charset) -> readFully(is));
+  }
+
+  /**
+   * Requests {@code url} and parses the response body with {@code parser} while it is being
+   * received, instead of buffering all of it first.
+   */
+  public static <T> T httpGet(String url, Map<String, String> headers, ResponseParser<T> parser)
+      throws IOException {
+    return httpFetch(prepareHttpConnection(url, headers), parser);
   }
 
   public static String httpPost(String url, Map<String, String> headers, String postData)
       throws IOException {
     HttpURLConnection connection = prepareHttpConnection(url, headers);
 
-    try {
-      // write postData to buffered output stream
-      if (postData != null) {
-        connection.setDoOutput(true);
-        BufferedWriter bw = new BufferedWriter(
-            new OutputStreamWriter(connection.getOutputStream()));
-        try {
-          bw.write(postData, 0, postData.length());
-          // close connection and re-throw exception
-        } finally {
-          bw.close();
-        }
+    // write postData to buffered output stream
+    if (postData != null) {
+      connection.setDoOutput(true);
+      BufferedWriter bw = new BufferedWriter(
+          new OutputStreamWriter(connection.getOutputStream()));
+      try {
+        bw.write(postData, 0, postData.length());
+      } catch (IOException e) {
+        // close connection and re-throw exception
+        connection.disconnect();
+        release(connection);
+        throw e;
+      } finally {
+        bw.close();
       }
-      byte[] response = httpFetch(connection);
-      return new String(response, determineCharset(connection));
-    } finally {
-      connection.disconnect();
     }
+    return httpFetch(connection, LookupUtils::readString);
   }
 
   public static List<String> allRegexResults(String input, String regex, boolean dotall) {
+    return allRegexResults(input, compile(regex, dotall));
+  }
+
+  public static List<String> allRegexResults(String input, Pattern pattern) {
     if (input == null) {
       return null;
     }
-    Pattern pattern = Pattern.compile(regex, dotall ? Pattern.DOTALL : 0);
     Matcher matcher = pattern.matcher(input);
 
     List<String> regexResults = new ArrayList<String>();
@@ -151,14 +257,28 @@ public class LookupUtils {
   }
 
   public static String firstRegexResult(String input, String regex, boolean dotall) {
+    return firstRegexResult(input, compile(regex, dotall));
+  }
+
+  public static String firstRegexResult(String input, Pattern pattern) {
     if (input == null) {
       return null;
     }
-    Pattern pattern = Pattern.compile(regex, dotall ? Pattern.DOTALL : 0);
     Matcher m = pattern.matcher(input);
     return m.find() ? m.group(1).trim() : null;
   }
 
+  private static Pattern compile(String regex, boolean dotall) {
+    int flags = dotall ? Pattern.DOTALL : 0;
+    String key = flags + ":" + regex;
+    Pattern pattern = patternCache.get(key);
+    if (pattern == null) {
+      pattern = Pattern.compile(regex, flags);
+      patternCache.put(key, pattern);
+    }
+    return pattern;
+  }
+
   public static String fromHtml(String input) {
     if (input == null) {
       return null;
@@ -29,13 +29,23 @@ import com.android.dialer.lookup.yellowpages.YellowPagesReverseLookup;
 import com.android.dialer.lookup.zabasearch.ZabaSearchReverseLookup;
 
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 public abstract class ReverseLookup {
   private static final String TAG = ReverseLookup.class.getSimpleName();
 
+  private static final long DEFAULT_LOOKUP_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+  /**
+   * Returned by {@link #lookupNumber} when the provider answered that it doesn't know the number.
+   * Compared by identity. Only this result is cached as not found, so that numbers the provider
+   * can't handle, or failed and unexpected responses, are looked up again next time.
+   */
+  public static final ContactInfo NOT_FOUND = new ContactInfo();
+
   private static ReverseLookup INSTANCE = null;
 
-  public static ReverseLookup getInstance(Context context) {
+  public static synchronized ReverseLookup getInstance(Context context) {
     String provider = LookupSettings.getReverseLookupProvider(context);
 
     if (INSTANCE == null || !isInstance(provider)) {
@@ -90,13 +100,22 @@ public abstract class ReverseLookup {
     return null;
   }
 
+  /**
+   * Returns how long a lookup may take before it is abandoned. Providers with slow responses
+   * should return a longer timeout.
+   */
+  public long getLookupTimeoutMillis() {
+    return DEFAULT_LOOKUP_TIMEOUT_MILLIS;
+  }
+
   /**
    * Perform phone number lookup.
    *
    * @param context The application context
    * @param normalizedNumber The normalized phone number
    * @param formattedNumber The formatted phone number
-   * @return The phone number info object
+   * @return The phone number info object, {@link #NOT_FOUND} if the provider doesn't know the
+   *     number, or null if it can't tell
    */
   public abstract ContactInfo lookupNumber(Context context,
       String normalizedNumber, String formattedNumber) throws IOException;
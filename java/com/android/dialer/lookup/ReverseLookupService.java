@@ -19,11 +19,13 @@ package com.android.dialer.lookup;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Handler;
-import android.os.HandlerThread;
-import android.os.Message;
+import android.os.Looper;
 import android.telephony.PhoneNumberUtils;
 import android.telephony.TelephonyManager;
+import android.util.ArrayMap;
+import android.util.Log;
 
 import com.android.dialer.location.GeoUtil;
 import com.android.dialer.logging.ContactLookupResult;
@@ -31,33 +33,59 @@ import com.android.dialer.phonenumbercache.ContactInfo;
 import com.android.incallui.bindings.PhoneNumberService;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class ReverseLookupService implements PhoneNumberService, Handler.Callback {
-  private final HandlerThread backgroundThread;
-  private final Handler backgroundHandler;
+/**
+ * Looks up the numbers of calls with the reverse lookup provider.
+ *
+ * <p>Lookups run on a small pool of threads, so that the lookup for a second call never waits for
+ * a slow lookup of the first. Lookups of a number which is already being looked up share the
+ * pending lookup instead of querying the provider again. Lookups which take longer than the
+ * provider's timeout, or whose listeners were all cancelled, are abandoned: their HTTP requests are
+ * disconnected, so that they give up their thread right away.
+ *
+ * <p>{@link #getPhoneNumberInfo} and {@link #cancelPhoneNumberInfo} must be called on the main
+ * thread, and listeners are notified on it.
+ */
+public class ReverseLookupService implements PhoneNumberService {
+  private static final String TAG = ReverseLookupService.class.getSimpleName();
+
+  private static final int MAX_CONCURRENT_LOOKUPS = 3;
+  private static final long IDLE_THREAD_TIMEOUT_SECONDS = 30;
+
+  private final ThreadPoolExecutor executor;
   private final Handler handler;
   private final Context context;
   private final TelephonyManager telephonyManager;
 
-  private static final int MSG_LOOKUP = 1;
-  private static final int MSG_NOTIFY_NUMBER = 2;
+  /** Pending lookups by normalized number. Only accessed on the main thread. */
+  private final Map<String, LookupRequest> pendingLookups = new ArrayMap<>();
 
   public ReverseLookupService(Context context) {
     this.context = context;
     telephonyManager = context.getSystemService(TelephonyManager.class);
 
-    // TODO: stop after a while?
-    backgroundThread = new HandlerThread("ReverseLookup");
-    backgroundThread.start();
+    AtomicInteger threadCount = new AtomicInteger();
+    executor = new ThreadPoolExecutor(MAX_CONCURRENT_LOOKUPS, MAX_CONCURRENT_LOOKUPS,
+        IDLE_THREAD_TIMEOUT_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+        runnable -> new Thread(runnable, "ReverseLookup-" + threadCount.incrementAndGet()));
+    // Don't keep threads around between calls
+    executor.allowCoreThreadTimeOut(true);
 
-    backgroundHandler = new Handler(backgroundThread.getLooper(), this);
-    handler = new Handler(this);
+    handler = new Handler(Looper.getMainLooper());
   }
 
   @Override
   public void getPhoneNumberInfo(String phoneNumber, NumberLookupListener numberListener) {
     if (!LookupSettings.isReverseLookupEnabled(context)) {
-      LookupCache.deleteCachedContacts(context);
+      executor.execute(() -> LookupCache.deleteCachedContacts(context));
       return;
     }
 
@@ -70,58 +98,103 @@ public class ReverseLookupService implements PhoneNumberService, Handler.Callbac
       return;
     }
 
-    LookupRequest request = new LookupRequest();
+    LookupRequest request = pendingLookups.get(normalizedNumber);
+    if (request != null) {
+      // The number is already being looked up, wait for that lookup instead
+      request.numberListeners.add(numberListener);
+      return;
+    }
+
+    ReverseLookup reverseLookup = ReverseLookup.getInstance(context);
+    if (reverseLookup == null) {
+      return;
+    }
+
+    request = new LookupRequest();
     request.normalizedNumber = normalizedNumber;
     request.formattedNumber = PhoneNumberUtils.formatNumber(phoneNumber,
         request.normalizedNumber, GeoUtil.getCurrentCountryIso(context));
-    request.numberListener = numberListener;
+    request.numberListeners.add(numberListener);
+    pendingLookups.put(normalizedNumber, request);
 
-    backgroundHandler.obtainMessage(MSG_LOOKUP, request).sendToTarget();
+    final LookupRequest lookupRequest = request;
+    request.future = executor.submit(() -> {
+      // background thread
+      ContactInfo info;
+      LookupUtils.setRequestGroup(lookupRequest.requests);
+      try {
+        info = doLookup(reverseLookup, lookupRequest);
+      } finally {
+        LookupUtils.setRequestGroup(null);
+      }
+      handler.post(() -> onLookupComplete(lookupRequest, info));
+    });
+    request.timeout = () -> {
+      Log.w(TAG, "Reverse lookup timed out");
+      onLookupComplete(lookupRequest, null);
+    };
+    handler.postDelayed(request.timeout, reverseLookup.getLookupTimeoutMillis());
   }
 
   @Override
-  public boolean handleMessage(Message msg) {
-    switch (msg.what) {
-      case MSG_LOOKUP: {
-        // background thread
-        LookupRequest request = (LookupRequest) msg.obj;
-        request.contactInfo = doLookup(request);
-        if (request.contactInfo != null) {
-          handler.obtainMessage(MSG_NOTIFY_NUMBER, request).sendToTarget();
-        }
-        break;
-      }
-      case MSG_NOTIFY_NUMBER: {
-        // main thread
-        LookupRequest request = (LookupRequest) msg.obj;
-        if (request.numberListener != null) {
-          LookupNumberInfo info = new LookupNumberInfo(request.contactInfo);
-          request.numberListener.onPhoneNumberInfoComplete(info);
-        }
-        break;
+  public void cancelPhoneNumberInfo(NumberLookupListener numberListener) {
+    for (LookupRequest request : new ArrayList<>(pendingLookups.values())) {
+      if (request.numberListeners.remove(numberListener) && request.numberListeners.isEmpty()) {
+        abandon(request);
       }
     }
+  }
+
+  /** Notifies the listeners of {@code request}, unless it was completed or abandoned before. */
+  private void onLookupComplete(LookupRequest request, ContactInfo info) {
+    // main thread
+    if (pendingLookups.get(request.normalizedNumber) != request) {
+      return;
+    }
+    abandon(request);
+
+    LookupNumberInfo numberInfo = info != null ? new LookupNumberInfo(info) : null;
+    for (NumberLookupListener numberListener : request.numberListeners) {
+      numberListener.onPhoneNumberInfoComplete(numberInfo);
+    }
+  }
 
-    return true;
+  private void abandon(LookupRequest request) {
+    pendingLookups.remove(request.normalizedNumber);
+    handler.removeCallbacks(request.timeout);
+    if (request.future.isDone()) {
+      return;
+    }
+    // Drops the lookup if it hasn't started yet. Interrupting it doesn't stop a blocking read, so
+    // also disconnect its requests, off the main thread as that may do network I/O.
+    request.future.cancel(true);
+    AsyncTask.THREAD_POOL_EXECUTOR.execute(request.requests::abort);
   }
 
-  private ContactInfo doLookup(LookupRequest request) {
+  private ContactInfo doLookup(ReverseLookup reverseLookup, LookupRequest request) {
     final String number = request.normalizedNumber;
 
-    if (LookupCache.hasCachedContact(context, number)) {
-      ContactInfo info = LookupCache.getCachedContact(context, number);
-      if (!ContactInfo.EMPTY.equals(info)) {
-        return info;
-      } else if (info != null) {
-        // If we have an empty cached contact, remove it and redo lookup
-        LookupCache.deleteCachedContact(context, number);
+    ContactInfo cachedInfo = LookupCache.getCachedContact(context, number);
+    if (cachedInfo != null) {
+      if (!ContactInfo.EMPTY.equals(cachedInfo)) {
+        return cachedInfo;
       }
+      // If we have an empty cached contact, remove it and redo lookup
+      LookupCache.deleteCachedContact(context, number);
+    } else if (LookupCache.isCachedAsNotFound(context, number)) {
+      return null;
     }
 
     try {
-      ReverseLookup inst = ReverseLookup.getInstance(context);
-      ContactInfo info = inst.lookupNumber(context, number, request.formattedNumber);
-      if (info != null && !info.equals(ContactInfo.EMPTY)) {
+      ContactInfo info = reverseLookup.lookupNumber(context, number, request.formattedNumber);
+      if (Thread.currentThread().isInterrupted()) {
+        // Abandoned while looking up. Don't cache a result which may be incomplete.
+        return null;
+      }
+      if (info == ReverseLookup.NOT_FOUND) {
+        // The provider answered, but doesn't know the number
+        LookupCache.cacheNotFound(context, number);
+      } else if (info != null && !info.equals(ContactInfo.EMPTY)) {
         LookupCache.cacheContact(context, info);
         return info;
       }
@@ -146,8 +219,10 @@ public class ReverseLookupService implements PhoneNumberService, Handler.Callbac
   private static class LookupRequest {
     String normalizedNumber;
     String formattedNumber;
-    NumberLookupListener numberListener;
-    ContactInfo contactInfo;
+    final List<NumberLookupListener> numberListeners = new ArrayList<>();
+    final LookupUtils.RequestGroup requests = new LookupUtils.RequestGroup();
+    Future<?> future;
+    Runnable timeout;
   }
 
   private static class LookupNumberInfo implements PhoneNumberInfo {
@@ -25,20 +25,24 @@ import com.android.dialer.lookup.LookupUtils;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.regex.Pattern;
 
 public final class AuskunftApi {
   private static final String TAG = AuskunftApi.class.getSimpleName();
 
   private static final String PEOPLE_LOOKUP_URL = "https://auskunft.at/suche";
 
-  private static final String SEARCH_RESULTS_REGEX =
-      "(?i)<section[\\s]+class=[\"']?search-entry(.*?)?</section";
-  private static final String NAME_REGEX =
-      "(?i)<h1[\\s]+itemprop=[\"']?name[\"']?>(.*?)</h1";
-  private static final String NUMBER_REGEX =
-      "(?i)phone[\"'][\\s]+?href=[\"']{1}tel:(.*?)[\"']{1}";
-  private static final String ADDRESS_REGEX =
-      "(?i)<span[\\s]+itemprop=[\"']?streetAddress[\"']?>(.*?)</a";
+  private static final Pattern SEARCH_RESULTS_PATTERN = Pattern.compile(
+      "(?i)<section[\\s]+class=[\"']?search-entry(.*?)?</section", Pattern.DOTALL);
+  private static final Pattern NAME_PATTERN = Pattern.compile(
+      "(?i)<h1[\\s]+itemprop=[\"']?name[\"']?>(.*?)</h1", Pattern.DOTALL);
+  private static final Pattern NUMBER_PATTERN = Pattern.compile(
+      "(?i)phone[\"'][\\s]+?href=[\"']{1}tel:(.*?)[\"']{1}", Pattern.DOTALL);
+  private static final Pattern ADDRESS_PATTERN = Pattern.compile(
+      "(?i)<span[\\s]+itemprop=[\"']?streetAddress[\"']?>(.*?)</a", Pattern.DOTALL);
+
+  private static final Pattern NEWLINE_PATTERN = Pattern.compile("\\r|\\n");
+  private static final Pattern WHITESPACE_PATTERN = Pattern.compile("\\s+");
 
   private static final String BUSINESS_IDENTIFIER = "(Firma)";
 
@@ -54,7 +58,7 @@ public final class AuskunftApi {
 
     // get all search entry sections
     List<String> entries = LookupUtils.allRegexResults(
-        LookupUtils.httpGet(uri.toString(), null), SEARCH_RESULTS_REGEX, true);
+        LookupUtils.httpGet(uri.toString(), null), SEARCH_RESULTS_PATTERN);
 
     // abort lookup if nothing found
     if (entries == null || entries.isEmpty()) {
@@ -66,9 +70,9 @@ public final class AuskunftApi {
     List<ContactInfo> infos = new ArrayList<ContactInfo>();
     for (String entry : entries) {
       // parse wanted data and replace null values
-      String name = replaceNullResult(LookupUtils.firstRegexResult(entry, NAME_REGEX, true));
-      String address = replaceNullResult(LookupUtils.firstRegexResult(entry, ADDRESS_REGEX, true));
-      String number = replaceNullResult(LookupUtils.firstRegexResult(entry, NUMBER_REGEX, true));
+      String name = replaceNullResult(LookupUtils.firstRegexResult(entry, NAME_PATTERN));
+      String address = replaceNullResult(LookupUtils.firstRegexResult(entry, ADDRESS_PATTERN));
+      String number = replaceNullResult(LookupUtils.firstRegexResult(entry, NUMBER_PATTERN));
       // ignore entry if name or number is empty (should not occur)
       // missing addresses won't be a problem (but do occur)
       if (name.isEmpty() || number.isEmpty()) {
@@ -90,9 +94,9 @@ public final class AuskunftApi {
     // get displayable text
     result = LookupUtils.fromHtml(result);
     // replace newlines with spaces
-    result = result.replaceAll("\\r|\\n", " ");
+    result = NEWLINE_PATTERN.matcher(result).replaceAll(" ");
     // replace multiple spaces with one
-    result = result.replaceAll("\\s+", " ");
+    result = WHITESPACE_PATTERN.matcher(result).replaceAll(" ");
     // remove business identifier that is originally not part of the name
     result = result.replace(BUSINESS_IDENTIFIER, "");
     // final trimming
@@ -28,6 +28,7 @@ import com.android.dialer.lookup.LookupSettings;
 import com.android.dialer.lookup.LookupUtils;
 import com.android.dialer.lookup.ReverseLookup;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 
 public class OpenCnamReverseLookup extends ReverseLookup {
@@ -60,7 +61,13 @@ public class OpenCnamReverseLookup extends ReverseLookup {
       return null;
     }
 
-    String displayName = httpGetRequest(context, normalizedNumber);
+    String displayName;
+    try {
+      displayName = httpGetRequest(context, normalizedNumber);
+    } catch (FileNotFoundException e) {
+      // The service answers 404 for numbers without a CNAM listing
+      return NOT_FOUND;
+    }
     if (DEBUG) Log.d(TAG, "Reverse lookup returned name: " + displayName);
 
     // Check displayName. The free tier of the service will return the
@@ -33,6 +33,34 @@ public class YellowPagesApi {
   static final String LOOKUP_URL_CANADA =
       "https://www.yellowpages.ca/search/si/1/";
 
+  private static final Pattern GALLERY_REF_PATTERN =
+      Pattern.compile("href=\"([^\"]+gallery\\?lid=[^\"]+)\"", Pattern.DOTALL);
+  private static final Pattern GALLERY_IMAGE_PATTERN =
+      Pattern.compile("\"type\":\"image\",\"src\":\"([^\"]+)\"", Pattern.DOTALL);
+
+  private static final Pattern NAME_AND_WEBSITE_PATTERN_UNITED_STATES = Pattern.compile(
+      "<a href=\"([^>]+?)\"[^>]+?class=\"url[^>]+?>([^<]+)</a>",
+      Pattern.DOTALL);
+  private static final Pattern NUMBER_PATTERN_UNITED_STATES =
+      Pattern.compile("business-phone.*?>\n*([^\n<]+)\n*<", Pattern.DOTALL);
+  private static final Pattern ADDRESS_STREET_PATTERN_UNITED_STATES =
+      Pattern.compile("street-address.*?>\n*([^\n<]+)\n*<", Pattern.DOTALL);
+  private static final Pattern ADDRESS_CITY_PATTERN_UNITED_STATES =
+      Pattern.compile("locality.*?>\n*([^\n<]+)\n*<", Pattern.DOTALL);
+  private static final Pattern ADDRESS_STATE_PATTERN_UNITED_STATES =
+      Pattern.compile("region.*?>\n*([^\n<]+)\n*<", Pattern.DOTALL);
+  private static final Pattern ADDRESS_ZIP_PATTERN_UNITED_STATES =
+      Pattern.compile("postal-code.*?>\n*([^\n<]+)\n*<", Pattern.DOTALL);
+
+  private static final Pattern NAME_AND_WEBSITE_PATTERN_CANADA = Pattern.compile(
+      "class=\"ypgListingTitleLink utagLink\".*?href=\"(.*?)\">"
+      + "(<span\\s+class=\"listingTitle\">.*?</span>)",
+      Pattern.DOTALL);
+  private static final Pattern NUMBER_PATTERN_CANADA =
+      Pattern.compile("<div\\s+class=\"phoneNumber\">(.*?)</div>", Pattern.DOTALL);
+  private static final Pattern ADDRESS_PATTERN_CANADA =
+      Pattern.compile("<div\\s+class=\"address\">(.*?)</div>", Pattern.DOTALL);
+
   private final String number;
   private String output = null;
   private ContactInfo info = null;
@@ -49,8 +77,7 @@ public class YellowPagesApi {
 
   private String getPhotoUrl(String website) throws IOException {
     String output = LookupUtils.httpGet(website, null);
-    String galleryRef = LookupUtils.firstRegexResult(output,
-        "href=\"([^\"]+gallery\\?lid=[^\"]+)\"", true);
+    String galleryRef = LookupUtils.firstRegexResult(output, GALLERY_REF_PATTERN);
     if (galleryRef == null) {
       return null;
     }
@@ -58,17 +85,14 @@ public class YellowPagesApi {
     // Get first image
     return LookupUtils.firstRegexResult(
         LookupUtils.httpGet("https://www.yellowpages.com" + galleryRef, null),
-        "\"type\":\"image\",\"src\":\"([^\"]+)\"", true);
+        GALLERY_IMAGE_PATTERN);
   }
 
   private String[] parseNameWebsiteUnitedStates() {
-    Pattern regexNameAndWebsite = Pattern.compile(
-        "<a href=\"([^>]+?)\"[^>]+?class=\"url[^>]+?>([^<]+)</a>",
-        Pattern.DOTALL);
     String name = null;
     String website = null;
 
-    Matcher m = regexNameAndWebsite.matcher(output);
+    Matcher m = NAME_AND_WEBSITE_PATTERN_UNITED_STATES.matcher(output);
     if (m.find()) {
       website = m.group(1).trim();
       name = m.group(2).trim();
@@ -78,14 +102,10 @@ public class YellowPagesApi {
   }
 
   private String[] parseNameWebsiteCanada() {
-    Pattern regexNameAndWebsite = Pattern.compile(
-        "class=\"ypgListingTitleLink utagLink\".*?href=\"(.*?)\">"
-        + "(<span\\s+class=\"listingTitle\">.*?</span>)",
-        Pattern.DOTALL);
     String name = null;
     String website = null;
 
-    Matcher m = regexNameAndWebsite.matcher(output);
+    Matcher m = NAME_AND_WEBSITE_PATTERN_CANADA.matcher(output);
     if (m.find()) {
       website = m.group(1).trim();
       name = LookupUtils.fromHtml(m.group(2).trim());
@@ -99,28 +119,25 @@ public class YellowPagesApi {
   }
 
   private String parseNumberUnitedStates() {
-    return LookupUtils.firstRegexResult(output,
-        "business-phone.*?>\n*([^\n<]+)\n*<", true);
+    return LookupUtils.firstRegexResult(output, NUMBER_PATTERN_UNITED_STATES);
   }
 
   private String parseNumberCanada() {
-    return LookupUtils.firstRegexResult(output,
-        "<div\\s+class=\"phoneNumber\">(.*?)</div>", true);
+    return LookupUtils.firstRegexResult(output, NUMBER_PATTERN_CANADA);
   }
 
   private String parseAddressUnitedStates() {
-    String addressStreet = LookupUtils.firstRegexResult(output,
-        "street-address.*?>\n*([^\n<]+)\n*<", true);
+    String addressStreet =
+        LookupUtils.firstRegexResult(output, ADDRESS_STREET_PATTERN_UNITED_STATES);
     if (addressStreet != null && addressStreet.endsWith(",")) {
       addressStreet = addressStreet.substring(0, addressStreet.length() - 1);
     }
 
-    String addressCity = LookupUtils.firstRegexResult(output,
-        "locality.*?>\n*([^\n<]+)\n*<", true);
-    String addressState = LookupUtils.firstRegexResult(output,
-        "region.*?>\n*([^\n<]+)\n*<", true);
-    String addressZip = LookupUtils.firstRegexResult(output,
-        "postal-code.*?>\n*([^\n<]+)\n*<", true);
+    String addressCity =
+        LookupUtils.firstRegexResult(output, ADDRESS_CITY_PATTERN_UNITED_STATES);
+    String addressState =
+        LookupUtils.firstRegexResult(output, ADDRESS_STATE_PATTERN_UNITED_STATES);
+    String addressZip = LookupUtils.firstRegexResult(output, ADDRESS_ZIP_PATTERN_UNITED_STATES);
 
     StringBuilder sb = new StringBuilder();
 
@@ -145,8 +162,7 @@ public class YellowPagesApi {
   }
 
   private String parseAddressCanada() {
-    String address = LookupUtils.firstRegexResult(output,
-        "<div\\s+class=\"address\">(.*?)</div>", true);
+    String address = LookupUtils.firstRegexResult(output, ADDRESS_PATTERN_CANADA);
     return LookupUtils.fromHtml(address);
   }
 
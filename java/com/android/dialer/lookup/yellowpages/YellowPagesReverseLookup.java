@@ -60,8 +60,8 @@ public class YellowPagesReverseLookup extends ReverseLookup {
 
     if (scheme.startsWith("http")) {
       try {
-        byte[] response = LookupUtils.httpGetBytes(uri.toString(), null);
-        return BitmapFactory.decodeByteArray(response, 0, response.length);
+        return LookupUtils.httpGet(uri.toString(), null,
+            (in, charset) -> BitmapFactory.decodeStream(in));
       } catch (IOException e) {
         Log.e(TAG, "Failed to retrieve image", e);
       }
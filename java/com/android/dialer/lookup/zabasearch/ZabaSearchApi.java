@@ -21,12 +21,26 @@ import android.text.TextUtils;
 import com.android.dialer.lookup.LookupUtils;
 
 import java.io.IOException;
+import java.util.regex.Pattern;
 
 public class ZabaSearchApi {
   private static final String TAG = ZabaSearchApi.class.getSimpleName();
 
   private static final String LOOKUP_URL = "https://www.zabasearch.com/phone/";
 
+  private static final Pattern NAME_PATTERN =
+      Pattern.compile("itemprop=\"?name\"?>([^<]+)<", Pattern.DOTALL);
+  private static final Pattern PHONE_NUMBER_PATTERN =
+      Pattern.compile("itemprop=\"?telephone\"?>([^<]+)<", Pattern.DOTALL);
+  private static final Pattern ADDRESS_STREET_PATTERN =
+      Pattern.compile("itemprop=\"?streetAddress\"?>([^<]+?)(&nbsp;)*<", Pattern.DOTALL);
+  private static final Pattern ADDRESS_CITY_PATTERN =
+      Pattern.compile("itemprop=\"?addressLocality\"?>([^<]+)<", Pattern.DOTALL);
+  private static final Pattern ADDRESS_STATE_PATTERN =
+      Pattern.compile("itemprop=\"?addressRegion\"?>([^<]+)<", Pattern.DOTALL);
+  private static final Pattern ADDRESS_ZIP_PATTERN =
+      Pattern.compile("itemprop=\"?postalCode\"?>([^<]+)<", Pattern.DOTALL);
+
   private final String number;
   public String output = null;
   private ContactInfo info = null;
@@ -41,20 +55,14 @@ public class ZabaSearchApi {
 
   private void buildContactInfo() {
     // Name
-    String name = LookupUtils.firstRegexResult(output,
-        "itemprop=\"?name\"?>([^<]+)<", true);
+    String name = LookupUtils.firstRegexResult(output, NAME_PATTERN);
     // Formatted phone number
-    String phoneNumber = LookupUtils.firstRegexResult(output,
-        "itemprop=\"?telephone\"?>([^<]+)<", true);
+    String phoneNumber = LookupUtils.firstRegexResult(output, PHONE_NUMBER_PATTERN);
     // Address
-    String addressStreet = LookupUtils.firstRegexResult(output,
-        "itemprop=\"?streetAddress\"?>([^<]+?)(&nbsp;)*<", true);
-    String addressCity = LookupUtils.firstRegexResult(output,
-        "itemprop=\"?addressLocality\"?>([^<]+)<", true);
-    String addressState = LookupUtils.firstRegexResult(output,
-        "itemprop=\"?addressRegion\"?>([^<]+)<", true);
-    String addressZip = LookupUtils.firstRegexResult(output,
-        "itemprop=\"?postalCode\"?>([^<]+)<", true);
+    String addressStreet = LookupUtils.firstRegexResult(output, ADDRESS_STREET_PATTERN);
+    String addressCity = LookupUtils.firstRegexResult(output, ADDRESS_CITY_PATTERN);
+    String addressState = LookupUtils.firstRegexResult(output, ADDRESS_STATE_PATTERN);
+    String addressZip = LookupUtils.firstRegexResult(output, ADDRESS_ZIP_PATTERN);
 
     StringBuilder sb = new StringBuilder();
 
@@ -38,6 +38,8 @@ public interface Metrics {
 
   // Events related to refreshing the annotated call log.
   String NEW_CALL_LOG_COALESCE = "NewCallLog.Coalesce";
+  String NEW_CALL_LOG_COALESCE_OLDER_ROWS = "NewCallLog.CoalesceOlderRows";
+  String ANNOTATED_CALL_LOG_BULK_WRITE_EVENT_NAME = "MutationApplier.BulkWrite";
   String ANNOTATED_CALL_LOG_NOT_DIRTY = "RefreshAnnotatedCallLogReceiver.NotDirty";
   String ANNOTATED_CALL_LOG_CHANGES_NEEDED = "RefreshAnnotatedCallLogReceiver.ChangesNeeded";
   String ANNOTATED_LOG_NO_CHANGES_NEEDED = "RefreshAnnotatedCallLogReceiver.NoChangesNeeded";
@@ -46,6 +48,10 @@ public interface Metrics {
   String NEW_CALL_LOG_FORCE_REFRESH_NO_CHANGES_NEEDED =
       "RefreshAnnotatedCallLogReceiver.ForceRefreshNoChangesNeeded";
 
+  // Events related to syncing the smart dial database with CP2.
+  String SMART_DIAL_SYNC_EVENT_NAME = "DialerDatabaseHelper.SmartDialSync";
+  String SMART_DIAL_FULL_SYNC_EVENT_NAME = "DialerDatabaseHelper.SmartDialFullSync";
+
   String INITIAL_FILL_EVENT_NAME = "RefreshAnnotatedCallLog.Initial.Fill";
   String INITIAL_ON_SUCCESSFUL_FILL_EVENT_NAME = "RefreshAnnotatedCallLog.Initial.OnSuccessfulFill";
   String INITIAL_APPLY_MUTATIONS_EVENT_NAME = "RefreshAnnotatedCallLog.Initial.ApplyMutations";
@@ -68,6 +74,7 @@ public interface Metrics {
   String ON_SUCCESSFUL_BULK_UPDATE_TEMPLATE = "%s.OnSuccessfulBulkUpdate";
   String LOOKUP_FOR_CALL_TEMPLATE = "%s.LookupForCall";
   String LOOKUP_FOR_NUMBER_TEMPLATE = "%s.LookupForNumber";
+  String LOOKUP_FOR_NUMBERS_TEMPLATE = "%s.LookupForNumbers";
 
   /** Start a timer. */
   void startTimer(String timerEventName);
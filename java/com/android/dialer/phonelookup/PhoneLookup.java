@@ -30,6 +30,8 @@ import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Provides operations related to retrieving information about phone numbers.
@@ -82,6 +84,37 @@ public interface PhoneLookup<T> {
    */
   ListenableFuture<T> lookup(DialerPhoneNumber dialerPhoneNumber);
 
+  /**
+   * Returns a future containing new info for each of the provided numbers. The returned map must
+   * contain exactly the provided numbers as keys.
+   *
+   * <p>The info for each number is meant to be what {@link #lookup(DialerPhoneNumber)} returns, but
+   * implementations may match numbers differently when looking up several at once, so callers
+   * should not rely on the two being identical.
+   *
+   * <p>The default implementation simply delegates to {@link #lookup(DialerPhoneNumber)} for each
+   * number. Implementations which can look up several numbers with a single query should override
+   * this method.
+   */
+  default ListenableFuture<ImmutableMap<DialerPhoneNumber, T>> lookupAll(
+      ImmutableSet<DialerPhoneNumber> dialerPhoneNumbers) {
+    List<ListenableFuture<T>> futures = new ArrayList<>();
+    for (DialerPhoneNumber dialerPhoneNumber : dialerPhoneNumbers) {
+      futures.add(lookup(dialerPhoneNumber));
+    }
+    return Futures.transform(
+        Futures.allAsList(futures),
+        infos -> {
+          ImmutableMap.Builder<DialerPhoneNumber, T> infoMap = ImmutableMap.builder();
+          int i = 0;
+          for (DialerPhoneNumber dialerPhoneNumber : dialerPhoneNumbers) {
+            infoMap.put(dialerPhoneNumber, infos.get(i++));
+          }
+          return infoMap.build();
+        },
+        MoreExecutors.directExecutor());
+  }
+
   /**
    * Returns a future which returns true if the information for any of the provided phone numbers
    * has changed, usually since {@link #onSuccessfulBulkUpdate()} was last invoked.
@@ -72,6 +72,20 @@ public class SystemBlockedNumberPhoneLookup implements PhoneLookup<SystemBlocked
     return executorService.submit(() -> queryNumbers(ImmutableSet.of(number)).get(number));
   }
 
+  @Override
+  public ListenableFuture<ImmutableMap<DialerPhoneNumber, SystemBlockedNumberInfo>> lookupAll(
+      ImmutableSet<DialerPhoneNumber> numbers) {
+    if (!FilteredNumberCompat.useNewFiltering(appContext)) {
+      ImmutableMap.Builder<DialerPhoneNumber, SystemBlockedNumberInfo> result =
+          ImmutableMap.builder();
+      for (DialerPhoneNumber number : numbers) {
+        result.put(number, SystemBlockedNumberInfo.getDefaultInstance());
+      }
+      return Futures.immediateFuture(result.build());
+    }
+    return executorService.submit(() -> queryNumbers(numbers));
+  }
+
   @Override
   public ListenableFuture<Boolean> isDirty(ImmutableSet<DialerPhoneNumber> phoneNumbers) {
     // Dirty state is recorded with PhoneLookupDataSource.markDirtyAndNotify(), which will force
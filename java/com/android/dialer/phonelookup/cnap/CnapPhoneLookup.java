@@ -20,6 +20,8 @@ import android.content.Context;
 import android.database.Cursor;
 import android.telecom.Call;
 import android.text.TextUtils;
+import android.util.ArrayMap;
+import android.util.ArraySet;
 import com.android.dialer.DialerPhoneNumber;
 import com.android.dialer.common.Assert;
 import com.android.dialer.common.LogUtil;
@@ -36,6 +38,8 @@ import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.protobuf.InvalidProtocolBufferException;
+import java.util.Map;
+import java.util.Set;
 import javax.inject.Inject;
 
 /** PhoneLookup implementation for CNAP info. */
@@ -117,6 +121,68 @@ public final class CnapPhoneLookup implements PhoneLookup<CnapInfo> {
         });
   }
 
+  /**
+   * Like {@link #lookup(DialerPhoneNumber)}, returns the existing info in {@link
+   * PhoneLookupHistory}, which is read with a single query for all the numbers.
+   */
+  @Override
+  public ListenableFuture<ImmutableMap<DialerPhoneNumber, CnapInfo>> lookupAll(
+      ImmutableSet<DialerPhoneNumber> dialerPhoneNumbers) {
+    if (dialerPhoneNumbers.isEmpty()) {
+      return Futures.immediateFuture(ImmutableMap.of());
+    }
+    return backgroundExecutorService.submit(
+        () -> {
+          Set<String> normalizedNumbers = new ArraySet<>();
+          for (DialerPhoneNumber dialerPhoneNumber : dialerPhoneNumbers) {
+            normalizedNumbers.add(dialerPhoneNumber.getNormalizedNumber());
+          }
+          Selection selection =
+              Selection.column(PhoneLookupHistory.NORMALIZED_NUMBER).in(normalizedNumbers);
+
+          Map<String, CnapInfo> cnapInfos = new ArrayMap<>();
+          try (Cursor cursor =
+              appContext
+                  .getContentResolver()
+                  .query(
+                      PhoneLookupHistory.CONTENT_URI,
+                      new String[] {
+                        PhoneLookupHistory.NORMALIZED_NUMBER, PhoneLookupHistory.PHONE_LOOKUP_INFO
+                      },
+                      selection.getSelection(),
+                      selection.getSelectionArgs(),
+                      /* sortOrder = */ null)) {
+            if (cursor == null) {
+              LogUtil.e("CnapPhoneLookup.lookupAll", "null cursor");
+            } else {
+              int normalizedNumberColumn =
+                  cursor.getColumnIndexOrThrow(PhoneLookupHistory.NORMALIZED_NUMBER);
+              int phoneLookupInfoColumn =
+                  cursor.getColumnIndexOrThrow(PhoneLookupHistory.PHONE_LOOKUP_INFO);
+              while (cursor.moveToNext()) {
+                PhoneLookupInfo phoneLookupInfo;
+                try {
+                  phoneLookupInfo =
+                      PhoneLookupInfo.parseFrom(cursor.getBlob(phoneLookupInfoColumn));
+                } catch (InvalidProtocolBufferException e) {
+                  throw new IllegalStateException(e);
+                }
+                cnapInfos.put(
+                    cursor.getString(normalizedNumberColumn), phoneLookupInfo.getCnapInfo());
+              }
+            }
+          }
+
+          ImmutableMap.Builder<DialerPhoneNumber, CnapInfo> cnapInfoMap = ImmutableMap.builder();
+          for (DialerPhoneNumber dialerPhoneNumber : dialerPhoneNumbers) {
+            CnapInfo cnapInfo = cnapInfos.get(dialerPhoneNumber.getNormalizedNumber());
+            cnapInfoMap.put(
+                dialerPhoneNumber, cnapInfo != null ? cnapInfo : CnapInfo.getDefaultInstance());
+          }
+          return cnapInfoMap.build();
+        });
+  }
+
   @Override
   public ListenableFuture<Boolean> isDirty(ImmutableSet<DialerPhoneNumber> phoneNumbers) {
     return Futures.immediateFuture(false);
@@ -123,6 +123,36 @@ public final class CompositePhoneLookup {
     return combinedFuture;
   }
 
+  /**
+   * Delegates to a set of dependent lookups to build a complete {@link PhoneLookupInfo} for each of
+   * the provided numbers, issuing a single {@link PhoneLookup#lookupAll(ImmutableSet)} per
+   * dependent lookup.
+   *
+   * <p>Note: If any of the dependent lookups fails, the returned future will also fail. If any of
+   * the dependent lookups does not complete, the returned future will also not complete.
+   */
+  @SuppressWarnings("unchecked")
+  public ListenableFuture<ImmutableMap<DialerPhoneNumber, PhoneLookupInfo>> lookupAll(
+      ImmutableSet<DialerPhoneNumber> dialerPhoneNumbers) {
+    List<ListenableFuture<ImmutableMap<DialerPhoneNumber, ?>>> futures = new ArrayList<>();
+    for (PhoneLookup phoneLookup : phoneLookups) {
+      ListenableFuture<ImmutableMap<DialerPhoneNumber, ?>> lookupFuture =
+          phoneLookup.lookupAll(dialerPhoneNumbers);
+      String eventName =
+          String.format(Metrics.LOOKUP_FOR_NUMBERS_TEMPLATE, phoneLookup.getLoggingName());
+      futureTimer.applyTiming(lookupFuture, eventName);
+      futures.add(lookupFuture);
+    }
+    ListenableFuture<ImmutableMap<DialerPhoneNumber, PhoneLookupInfo>> combinedFuture =
+        Futures.transform(
+            Futures.allAsList(futures),
+            allMaps -> combineSubMaps(dialerPhoneNumbers, allMaps),
+            lightweightExecutorService);
+    String eventName = String.format(Metrics.LOOKUP_FOR_NUMBERS_TEMPLATE, getLoggingName());
+    futureTimer.applyTiming(combinedFuture, eventName);
+    return combinedFuture;
+  }
+
   /** Combines a list of sub-message futures into a future for {@link PhoneLookupInfo}. */
   @SuppressWarnings({"unchecked", "rawtype"})
   private ListenableFuture<PhoneLookupInfo> combineSubMessageFutures(
@@ -182,27 +212,7 @@ public final class CompositePhoneLookup {
           ListenableFuture<ImmutableMap<DialerPhoneNumber, PhoneLookupInfo>> combinedFuture =
               Futures.transform(
                   Futures.allAsList(futures),
-                  (allMaps) -> {
-                    Preconditions.checkNotNull(allMaps);
-                    ImmutableMap.Builder<DialerPhoneNumber, PhoneLookupInfo> combinedMap =
-                        ImmutableMap.builder();
-                    for (DialerPhoneNumber dialerPhoneNumber : existingInfoMap.keySet()) {
-                      PhoneLookupInfo.Builder combinedInfo = PhoneLookupInfo.newBuilder();
-                      for (int i = 0; i < allMaps.size(); i++) {
-                        ImmutableMap<DialerPhoneNumber, ?> map = allMaps.get(i);
-                        Object subInfo = map.get(dialerPhoneNumber);
-                        if (subInfo == null) {
-                          throw new IllegalStateException(
-                              "A sublookup didn't return an info for number: "
-                                  + LogUtil.sanitizePhoneNumber(
-                                      dialerPhoneNumber.getNormalizedNumber()));
-                        }
-                        phoneLookups.get(i).setSubMessage(combinedInfo, subInfo);
-                      }
-                      combinedMap.put(dialerPhoneNumber, combinedInfo.build());
-                    }
-                    return combinedMap.build();
-                  },
+                  allMaps -> combineSubMaps(existingInfoMap.keySet(), allMaps),
                   lightweightExecutorService);
           String eventName = getMostRecentInfoEventName(getLoggingName(), isBuilt);
           futureTimer.applyTiming(combinedFuture, eventName);
@@ -211,6 +221,33 @@ public final class CompositePhoneLookup {
         MoreExecutors.directExecutor());
   }
 
+  /**
+   * Combines the maps returned by each of the dependent lookups, in the order of {@link
+   * #phoneLookups}, into a map of complete {@link PhoneLookupInfo PhoneLookupInfos}.
+   */
+  @SuppressWarnings("unchecked")
+  private ImmutableMap<DialerPhoneNumber, PhoneLookupInfo> combineSubMaps(
+      ImmutableSet<DialerPhoneNumber> dialerPhoneNumbers,
+      List<ImmutableMap<DialerPhoneNumber, ?>> allMaps) {
+    Preconditions.checkNotNull(allMaps);
+    ImmutableMap.Builder<DialerPhoneNumber, PhoneLookupInfo> combinedMap = ImmutableMap.builder();
+    for (DialerPhoneNumber dialerPhoneNumber : dialerPhoneNumbers) {
+      PhoneLookupInfo.Builder combinedInfo = PhoneLookupInfo.newBuilder();
+      for (int i = 0; i < allMaps.size(); i++) {
+        ImmutableMap<DialerPhoneNumber, ?> map = allMaps.get(i);
+        Object subInfo = map.get(dialerPhoneNumber);
+        if (subInfo == null) {
+          throw new IllegalStateException(
+              "A sublookup didn't return an info for number: "
+                  + LogUtil.sanitizePhoneNumber(dialerPhoneNumber.getNormalizedNumber()));
+        }
+        phoneLookups.get(i).setSubMessage(combinedInfo, subInfo);
+      }
+      combinedMap.put(dialerPhoneNumber, combinedInfo.build());
+    }
+    return combinedMap.build();
+  }
+
   private <T> ListenableFuture<ImmutableMap<DialerPhoneNumber, T>> buildSubmapAndGetMostRecentInfo(
       ImmutableMap<DialerPhoneNumber, PhoneLookupInfo> existingInfoMap,
       PhoneLookup<T> phoneLookup,
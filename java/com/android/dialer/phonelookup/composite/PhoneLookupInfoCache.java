@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.phonelookup.composite;
+
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.util.LruCache;
+import com.android.dialer.DialerPhoneNumber;
+import com.android.dialer.phonelookup.PhoneLookupInfo;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Size-bounded cache of the results of {@link CompositePhoneLookup#lookup(DialerPhoneNumber)},
+ * shared by all screens which look up numbers as they are displayed, so that a number looked up
+ * by one of them is shown immediately by the others.
+ *
+ * <p>Thread safe.
+ */
+@Singleton
+public final class PhoneLookupInfoCache {
+
+  /** Enough for several screens of rows, while keeping the memory used small. */
+  @VisibleForTesting static final int MAX_SIZE = 256;
+
+  private final LruCache<DialerPhoneNumber, PhoneLookupInfo> cache = new LruCache<>(MAX_SIZE);
+
+  @Inject
+  PhoneLookupInfoCache() {}
+
+  @Nullable
+  public PhoneLookupInfo get(DialerPhoneNumber dialerPhoneNumber) {
+    return cache.get(dialerPhoneNumber);
+  }
+
+  public void put(DialerPhoneNumber dialerPhoneNumber, PhoneLookupInfo phoneLookupInfo) {
+    cache.put(dialerPhoneNumber, phoneLookupInfo);
+  }
+
+  /** Removes all entries, e.g. because the information they were looked up from changed. */
+  public void clear() {
+    cache.evictAll();
+  }
+}
@@ -145,6 +145,33 @@ public final class Cp2DefaultDirectoryPhoneLookup implements PhoneLookup<Cp2Info
     return Cp2Info.newBuilder().addAllCp2ContactInfo(cp2ContactInfos).build();
   }
 
+  @Override
+  public ListenableFuture<ImmutableMap<DialerPhoneNumber, Cp2Info>> lookupAll(
+      ImmutableSet<DialerPhoneNumber> dialerPhoneNumbers) {
+    if (!PermissionsUtil.hasContactsReadPermissions(appContext)) {
+      return Futures.immediateFuture(
+          ImmutableMap.copyOf(
+              Maps.asMap(dialerPhoneNumbers, unused -> Cp2Info.getDefaultInstance())));
+    }
+
+    return Futures.transform(
+        queryAll(dialerPhoneNumbers),
+        map -> {
+          // Numbers which aren't in the map aren't associated with any contact.
+          ImmutableMap.Builder<DialerPhoneNumber, Cp2Info> infoMap = ImmutableMap.builder();
+          for (DialerPhoneNumber dialerPhoneNumber : dialerPhoneNumbers) {
+            Set<Cp2ContactInfo> cp2ContactInfos = map.get(dialerPhoneNumber);
+            infoMap.put(
+                dialerPhoneNumber,
+                cp2ContactInfos == null
+                    ? Cp2Info.getDefaultInstance()
+                    : Cp2Info.newBuilder().addAllCp2ContactInfo(cp2ContactInfos).build());
+          }
+          return infoMap.build();
+        },
+        lightweightExecutorService);
+  }
+
   @Override
   public ListenableFuture<Boolean> isDirty(ImmutableSet<DialerPhoneNumber> phoneNumbers) {
     if (!PermissionsUtil.hasContactsReadPermissions(appContext)) {
@@ -698,66 +725,13 @@ public final class Cp2DefaultDirectoryPhoneLookup implements PhoneLookup<Cp2Info
             return Futures.immediateFuture(new ArrayMap<>());
           }
 
-          // Divide the numbers into those that are valid and those that are not. Issue a single
-          // batch query for the valid numbers against the PHONE table, and in parallel issue
-          // individual queries against PHONE_LOOKUP for each invalid number.
           // TODO(zachh): These queries are inefficient without a lastModified column to filter on.
-          PartitionedNumbers partitionedNumbers =
-              new PartitionedNumbers(ImmutableSet.copyOf(updatedNumbers));
-
-          ListenableFuture<Map<String, Set<Cp2ContactInfo>>> validNumbersFuture =
-              batchQueryForValidNumbers(partitionedNumbers.validE164Numbers());
-
-          List<ListenableFuture<Set<Cp2ContactInfo>>> invalidNumbersFuturesList = new ArrayList<>();
-          for (String invalidNumber : partitionedNumbers.invalidNumbers()) {
-            invalidNumbersFuturesList.add(individualQueryForInvalidNumber(invalidNumber));
-          }
-
-          ListenableFuture<List<Set<Cp2ContactInfo>>> invalidNumbersFuture =
-              Futures.allAsList(invalidNumbersFuturesList);
-
-          Callable<Map<DialerPhoneNumber, Set<Cp2ContactInfo>>> computeMap =
-              () -> {
-                // These get() calls are safe because we are using whenAllSucceed below.
-                Map<String, Set<Cp2ContactInfo>> validNumbersResult = validNumbersFuture.get();
-                List<Set<Cp2ContactInfo>> invalidNumbersResult = invalidNumbersFuture.get();
-
-                Map<DialerPhoneNumber, Set<Cp2ContactInfo>> map = new ArrayMap<>();
-
-                // First update the map with the valid number results.
-                for (Entry<String, Set<Cp2ContactInfo>> entry : validNumbersResult.entrySet()) {
-                  String validNumber = entry.getKey();
-                  Set<Cp2ContactInfo> cp2ContactInfos = entry.getValue();
-
-                  Set<DialerPhoneNumber> dialerPhoneNumbers =
-                      partitionedNumbers.dialerPhoneNumbersForValidE164(validNumber);
-
-                  addInfo(map, dialerPhoneNumbers, cp2ContactInfos);
-
-                  // We are going to remove the numbers that we've handled so that we later can
-                  // detect numbers that weren't handled and therefore need to have their contact
-                  // information removed.
-                  updatedNumbers.removeAll(dialerPhoneNumbers);
-                }
-
-                // Next update the map with the invalid results.
-                int i = 0;
-                for (String invalidNumber : partitionedNumbers.invalidNumbers()) {
-                  Set<Cp2ContactInfo> cp2Infos = invalidNumbersResult.get(i++);
-                  Set<DialerPhoneNumber> dialerPhoneNumbers =
-                      partitionedNumbers.dialerPhoneNumbersForInvalid(invalidNumber);
-
-                  addInfo(map, dialerPhoneNumbers, cp2Infos);
-
-                  // We are going to remove the numbers that we've handled so that we later can
-                  // detect numbers that weren't handled and therefore need to have their contact
-                  // information removed.
-                  updatedNumbers.removeAll(dialerPhoneNumbers);
-                }
-
-                // The leftovers in updatedNumbers that weren't removed are numbers that were
-                // previously associated with contacts, but are no longer. Remove the contact
-                // information for them.
+          return Futures.transform(
+              queryAll(ImmutableSet.copyOf(updatedNumbers)),
+              map -> {
+                // The numbers that weren't found are numbers that were previously associated with
+                // contacts, but are no longer. Remove the contact information for them.
+                updatedNumbers.removeAll(map.keySet());
                 for (DialerPhoneNumber dialerPhoneNumber : updatedNumbers) {
                   map.put(dialerPhoneNumber, ImmutableSet.of());
                 }
@@ -766,13 +740,61 @@ public final class Cp2DefaultDirectoryPhoneLookup implements PhoneLookup<Cp2Info
                     "found %d numbers that may need updating",
                     updatedNumbers.size());
                 return map;
-              };
-          return Futures.whenAllSucceed(validNumbersFuture, invalidNumbersFuture)
-              .call(computeMap, lightweightExecutorService);
+              },
+              lightweightExecutorService);
         },
         lightweightExecutorService);
   }
 
+  /**
+   * Looks up the contacts of each of the provided numbers, the same way as {@link
+   * #lookup(DialerPhoneNumber)}: valid numbers with a single batch query against the PHONE table,
+   * and, in parallel, invalid numbers with individual queries against PHONE_LOOKUP.
+   *
+   * @return a mutable map of the numbers which were queried to their contacts. Numbers which aren't
+   *     in the map aren't associated with any contact.
+   */
+  private ListenableFuture<Map<DialerPhoneNumber, Set<Cp2ContactInfo>>> queryAll(
+      ImmutableSet<DialerPhoneNumber> dialerPhoneNumbers) {
+    PartitionedNumbers partitionedNumbers = new PartitionedNumbers(dialerPhoneNumbers);
+
+    ListenableFuture<Map<String, Set<Cp2ContactInfo>>> validNumbersFuture =
+        batchQueryForValidNumbers(partitionedNumbers.validE164Numbers());
+
+    List<ListenableFuture<Set<Cp2ContactInfo>>> invalidNumbersFuturesList = new ArrayList<>();
+    for (String invalidNumber : partitionedNumbers.invalidNumbers()) {
+      invalidNumbersFuturesList.add(individualQueryForInvalidNumber(invalidNumber));
+    }
+
+    ListenableFuture<List<Set<Cp2ContactInfo>>> invalidNumbersFuture =
+        Futures.allAsList(invalidNumbersFuturesList);
+
+    Callable<Map<DialerPhoneNumber, Set<Cp2ContactInfo>>> computeMap =
+        () -> {
+          // These get() calls are safe because we are using whenAllSucceed below.
+          Map<String, Set<Cp2ContactInfo>> validNumbersResult = validNumbersFuture.get();
+          List<Set<Cp2ContactInfo>> invalidNumbersResult = invalidNumbersFuture.get();
+
+          Map<DialerPhoneNumber, Set<Cp2ContactInfo>> map = new ArrayMap<>();
+          for (Entry<String, Set<Cp2ContactInfo>> entry : validNumbersResult.entrySet()) {
+            addInfo(
+                map,
+                partitionedNumbers.dialerPhoneNumbersForValidE164(entry.getKey()),
+                entry.getValue());
+          }
+          int i = 0;
+          for (String invalidNumber : partitionedNumbers.invalidNumbers()) {
+            addInfo(
+                map,
+                partitionedNumbers.dialerPhoneNumbersForInvalid(invalidNumber),
+                invalidNumbersResult.get(i++));
+          }
+          return map;
+        };
+    return Futures.whenAllSucceed(validNumbersFuture, invalidNumbersFuture)
+        .call(computeMap, lightweightExecutorService);
+  }
+
   private ListenableFuture<Map<String, Set<Cp2ContactInfo>>> batchQueryForValidNumbers(
       Set<String> validE164Numbers) {
     return backgroundExecutorService.submit(
@@ -74,6 +74,26 @@ public final class SpamPhoneLookup implements PhoneLookup<SpamInfo> {
         lightweightExecutorService);
   }
 
+  @Override
+  public ListenableFuture<ImmutableMap<DialerPhoneNumber, SpamInfo>> lookupAll(
+      ImmutableSet<DialerPhoneNumber> dialerPhoneNumbers) {
+    return Futures.transform(
+        spam.batchCheckSpamStatus(dialerPhoneNumbers),
+        spamStatusMap -> {
+          ImmutableMap.Builder<DialerPhoneNumber, SpamInfo> spamInfoMap =
+              new ImmutableMap.Builder<>();
+          for (DialerPhoneNumber dialerPhoneNumber : dialerPhoneNumbers) {
+            spamInfoMap.put(
+                dialerPhoneNumber,
+                SpamInfo.newBuilder()
+                    .setIsSpam(Assert.isNotNull(spamStatusMap.get(dialerPhoneNumber)).isSpam())
+                    .build());
+          }
+          return spamInfoMap.build();
+        },
+        lightweightExecutorService);
+  }
+
   @Override
   public ListenableFuture<Boolean> isDirty(ImmutableSet<DialerPhoneNumber> phoneNumbers) {
     ListenableFuture<Long> lastTimestampProcessedFuture =
@@ -30,6 +30,8 @@ import android.support.annotation.Nullable;
 import android.support.annotation.WorkerThread;
 import android.telephony.PhoneNumberUtils;
 import android.text.TextUtils;
+import android.util.ArrayMap;
+import android.util.ArraySet;
 import com.android.contacts.common.ContactsUtils;
 import com.android.contacts.common.ContactsUtils.UserType;
 import com.android.contacts.common.util.Constants;
@@ -44,7 +46,10 @@ import com.android.dialer.telecom.TelecomUtil;
 import com.android.dialer.util.PermissionsUtil;
 import com.android.dialer.util.UriUtils;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -246,6 +251,115 @@ public class ContactInfoHelper {
     return updatedInfo;
   }
 
+  /**
+   * Looks up several numbers at once in the default directory, with a single query matching their
+   * E164 form against {@link Phone#NORMALIZED_NUMBER}.
+   *
+   * <p>Only numbers which exactly match a single contact are returned. The others, including SIP
+   * addresses and numbers which aren't valid, should be looked up with {@link #lookupNumber(String,
+   * String)}, which also matches numbers loosely and searches the work profile.
+   *
+   * @param countryIsoByNumber the numbers to look up, each with the country associated with it
+   * @return the contact info of the numbers which matched a contact, keyed by number
+   */
+  @WorkerThread
+  public Map<String, ContactInfo> lookupNumbersInDefaultDirectory(
+      Map<String, String> countryIsoByNumber) {
+    Map<String, ContactInfo> infoByNumber = new ArrayMap<>();
+    if (!PermissionsUtil.hasContactsReadPermissions(context)) {
+      return infoByNumber;
+    }
+
+    Map<String, List<String>> numbersByE164 = new ArrayMap<>();
+    for (Map.Entry<String, String> entry : countryIsoByNumber.entrySet()) {
+      String number = entry.getKey();
+      if (TextUtils.isEmpty(number) || PhoneNumberHelper.isUriNumber(number)) {
+        continue;
+      }
+      String e164 = PhoneNumberUtils.formatNumberToE164(number, entry.getValue());
+      if (e164 == null) {
+        continue;
+      }
+      List<String> numbers = numbersByE164.get(e164);
+      if (numbers == null) {
+        numbers = new ArrayList<>();
+        numbersByE164.put(e164, numbers);
+      }
+      numbers.add(number);
+    }
+    if (numbersByE164.isEmpty()) {
+      return infoByNumber;
+    }
+
+    String[] questionMarks = new String[numbersByE164.size()];
+    Arrays.fill(questionMarks, "?");
+    Map<String, Long> contactIdByE164 = new ArrayMap<>();
+    Set<String> ambiguousE164Numbers = new ArraySet<>();
+    try (Cursor cursor =
+        context
+            .getContentResolver()
+            .query(
+                Phone.CONTENT_URI,
+                PhoneQuery.BATCH_LOOKUP_PROJECTION,
+                Phone.NORMALIZED_NUMBER + " IN (" + TextUtils.join(",", questionMarks) + ")",
+                numbersByE164.keySet().toArray(new String[numbersByE164.size()]),
+                null)) {
+      if (cursor == null) {
+        LogUtil.w("ContactInfoHelper.lookupNumbersInDefaultDirectory", "null cursor");
+        return infoByNumber;
+      }
+      while (cursor.moveToNext()) {
+        String e164 = cursor.getString(PhoneQuery.BATCH_LOOKUP_NORMALIZED_NUMBER);
+        List<String> numbers = numbersByE164.get(e164);
+        if (numbers == null) {
+          continue;
+        }
+        long contactId = cursor.getLong(PhoneQuery.BATCH_LOOKUP_CONTACT_ID);
+        Long previousContactId = contactIdByE164.put(e164, contactId);
+        if (previousContactId != null && previousContactId != contactId) {
+          // Leave it to PhoneLookup to decide which of several contacts to show.
+          ambiguousE164Numbers.add(e164);
+        }
+        for (String number : numbers) {
+          ContactInfo info = createBatchLookupContactInfo(cursor);
+          info.formattedNumber = formatPhoneNumber(number, null, countryIsoByNumber.get(number));
+          infoByNumber.put(number, info);
+        }
+      }
+    }
+    for (String e164 : ambiguousE164Numbers) {
+      for (String number : numbersByE164.get(e164)) {
+        infoByNumber.remove(number);
+      }
+    }
+    LogUtil.i(
+        "ContactInfoHelper.lookupNumbersInDefaultDirectory",
+        "found %d of %d numbers",
+        infoByNumber.size(),
+        countryIsoByNumber.size());
+    return infoByNumber;
+  }
+
+  private static ContactInfo createBatchLookupContactInfo(Cursor cursor) {
+    ContactInfo info = new ContactInfo();
+    long contactId = cursor.getLong(PhoneQuery.BATCH_LOOKUP_CONTACT_ID);
+    info.lookupKey = cursor.getString(PhoneQuery.BATCH_LOOKUP_LOOKUP_KEY);
+    info.lookupUri = Contacts.getLookupUri(contactId, info.lookupKey);
+    info.name = cursor.getString(PhoneQuery.BATCH_LOOKUP_DISPLAY_NAME);
+    info.nameAlternative = cursor.getString(PhoneQuery.BATCH_LOOKUP_DISPLAY_NAME_ALTERNATIVE);
+    info.type = cursor.getInt(PhoneQuery.BATCH_LOOKUP_TYPE);
+    info.label = cursor.getString(PhoneQuery.BATCH_LOOKUP_LABEL);
+    info.number = cursor.getString(PhoneQuery.BATCH_LOOKUP_NUMBER);
+    info.normalizedNumber = cursor.getString(PhoneQuery.BATCH_LOOKUP_NORMALIZED_NUMBER);
+    info.photoId = cursor.getLong(PhoneQuery.BATCH_LOOKUP_PHOTO_ID);
+    info.photoUri = UriUtils.parseUriOrNull(cursor.getString(PhoneQuery.BATCH_LOOKUP_PHOTO_URI));
+    info.carrierPresence = cursor.getInt(PhoneQuery.BATCH_LOOKUP_CARRIER_PRESENCE);
+    info.userType = ContactsUtils.determineUserType(null, contactId);
+    info.contactExists = true;
+    info.sourceType = ContactSource.Type.SOURCE_TYPE_DIRECTORY;
+    return info;
+  }
+
   private ContactInfo createEmptyContactInfoForNumber(String number, String countryIso) {
     ContactInfo contactInfo = new ContactInfo();
     contactInfo.number = number;
@@ -45,6 +45,34 @@ final class PhoneQuery {
   static final int ADDITIONAL_CONTACT_INFO_DISPLAY_NAME_ALTERNATIVE = 0;
   static final int ADDITIONAL_CONTACT_INFO_CARRIER_PRESENCE = 1;
 
+  /** Projection to look up the ContactInfo of several numbers in the Phone table at once. */
+  static final String[] BATCH_LOOKUP_PROJECTION =
+      new String[] {
+        Phone.CONTACT_ID,
+        Phone.DISPLAY_NAME,
+        Phone.DISPLAY_NAME_ALTERNATIVE,
+        Phone.TYPE,
+        Phone.LABEL,
+        Phone.NUMBER,
+        Phone.NORMALIZED_NUMBER,
+        Phone.PHOTO_ID,
+        Phone.LOOKUP_KEY,
+        Phone.PHOTO_URI,
+        Phone.CARRIER_PRESENCE
+      };
+
+  static final int BATCH_LOOKUP_CONTACT_ID = 0;
+  static final int BATCH_LOOKUP_DISPLAY_NAME = 1;
+  static final int BATCH_LOOKUP_DISPLAY_NAME_ALTERNATIVE = 2;
+  static final int BATCH_LOOKUP_TYPE = 3;
+  static final int BATCH_LOOKUP_LABEL = 4;
+  static final int BATCH_LOOKUP_NUMBER = 5;
+  static final int BATCH_LOOKUP_NORMALIZED_NUMBER = 6;
+  static final int BATCH_LOOKUP_PHOTO_ID = 7;
+  static final int BATCH_LOOKUP_LOOKUP_KEY = 8;
+  static final int BATCH_LOOKUP_PHOTO_URI = 9;
+  static final int BATCH_LOOKUP_CARRIER_PRESENCE = 10;
+
   /**
    * Projection to look up the ContactInfo. Does not include DISPLAY_NAME_ALTERNATIVE as that column
    * isn't available in ContactsCommon.PhoneLookup. We should always use this projection starting
@@ -18,6 +18,7 @@ package com.android.dialer.searchfragment.common;
 
 import android.database.Cursor;
 import android.support.annotation.NonNull;
+import android.support.v7.util.ListUpdateCallback;
 
 /** Base cursor interface needed for all cursors used in search. */
 public interface SearchCursor extends Cursor {
@@ -42,4 +43,15 @@ public interface SearchCursor extends Cursor {
    * the implementation.
    */
   long getDirectoryId();
+
+  /**
+   * Dispatches the row changes that turn {@code previous}, the cursor shown before this one, into
+   * this cursor to {@code callback}, with positions relative to the first row of the cursor.
+   *
+   * @return false if the changes are not known, in which case all rows should be considered
+   *     changed and nothing was dispatched.
+   */
+  default boolean dispatchUpdatesFrom(SearchCursor previous, ListUpdateCallback callback) {
+    return false;
+  }
 }
@@ -53,8 +53,8 @@ import java.util.Set;
 final class ContactFilterCursor implements Cursor {
 
   private final Cursor cursor;
-  // List of cursor ids that are valid for displaying after filtering.
-  private final List<Integer> queryFilteredPositions = new ArrayList<>();
+  // Sorted cursor ids that are valid for displaying after filtering.
+  private int[] queryFilteredPositions = new int[0];
   private final ContactTernarySearchTree contactTree;
 
   private int currentPosition = 0;
@@ -268,6 +268,7 @@ final class ContactFilterCursor implements Cursor {
         tree.put(substring, position);
       }
     }
+    tree.trimToSize();
     return tree;
   }
 
@@ -322,15 +323,15 @@ final class ContactFilterCursor implements Cursor {
     if (query == null) {
       query = "";
     }
-    queryFilteredPositions.clear();
     if (TextUtils.isEmpty(query)) {
-      for (int i = 0; i < cursor.getCount(); i++) {
-        queryFilteredPositions.add(i);
+      queryFilteredPositions = new int[cursor.getCount()];
+      for (int i = 0; i < queryFilteredPositions.length; i++) {
+        queryFilteredPositions[i] = i;
       }
     } else {
-      queryFilteredPositions.addAll(contactTree.get(query.toLowerCase(Locale.getDefault())));
+      // Values are stored sorted, so no need to sort them here.
+      queryFilteredPositions = contactTree.getValues(query.toLowerCase(Locale.getDefault()));
     }
-    Collections.sort(queryFilteredPositions);
     currentPosition = 0;
     cursor.moveToFirst();
   }
@@ -339,7 +340,7 @@ final class ContactFilterCursor implements Cursor {
   public boolean moveToPosition(int position) {
     currentPosition = position;
     return currentPosition < getCount()
-        && cursor.moveToPosition(queryFilteredPositions.get(currentPosition));
+        && cursor.moveToPosition(queryFilteredPositions[currentPosition]);
   }
 
   @Override
@@ -350,7 +351,7 @@ final class ContactFilterCursor implements Cursor {
 
   @Override
   public int getCount() {
-    return queryFilteredPositions.size();
+    return queryFilteredPositions.length;
   }
 
   @Override
@@ -18,80 +18,210 @@ package com.android.dialer.searchfragment.cp2;
 
 import android.support.v4.util.ArraySet;
 import android.text.TextUtils;
+import java.util.Arrays;
 import java.util.Set;
 
-/** Ternary Search Tree for searching a list of contacts. */
+/**
+ * Ternary Search Tree for searching a list of contacts.
+ *
+ * <p>Nodes are stored in parallel primitive arrays indexed by node id rather than as objects, and
+ * their values as sorted int arrays rather than sets of boxed integers. Most nodes lie on the
+ * unique suffix of a single key (e.g. the tail of a phone number) and hold a single value, which is
+ * stored inline without allocating a list.
+ */
 public class ContactTernarySearchTree {
 
-  private Node root;
+  private static final int NONE = -1;
+  private static final int INITIAL_CAPACITY = 64;
+  private static final int[] EMPTY = new int[0];
+
+  private int root = NONE;
+  private int nodeCount;
+
+  private char[] keys = new char[INITIAL_CAPACITY];
+  private int[] left = new int[INITIAL_CAPACITY];
+  private int[] mid = new int[INITIAL_CAPACITY];
+  private int[] right = new int[INITIAL_CAPACITY];
+
+  /** Number of values stored at each node. */
+  private int[] valueCounts = new int[INITIAL_CAPACITY];
+  /** The value of nodes holding exactly one value. */
+  private int[] singleValues = new int[INITIAL_CAPACITY];
+  /** Sorted values of nodes holding more than one value, possibly with spare capacity. */
+  private int[][] valueLists = new int[INITIAL_CAPACITY][];
 
   /**
-   * Add {@code value} to all middle and end {@link Node#values} that correspond to {@code key}.
+   * Add {@code value} to all middle and end nodes that correspond to {@code key}.
    *
    * <p>For example, if {@code key} were "FOO", {@code value} would be added to nodes "F", "O" and
-   * "O". But if the traversal required visiting {@link Node#left} or {@link Node#right}, {@code
-   * value} wouldn't be added to those nodes.
+   * "O". But if the traversal required visiting the left or right child of a node, {@code value}
+   * wouldn't be added to those nodes.
    */
   public void put(String key, int value) {
     if (TextUtils.isEmpty(key)) {
       return;
     }
-    root = put(root, key, value, 0);
-  }
-
-  private Node put(Node node, String key, int value, int position) {
-    char c = key.charAt(position);
-    if (node == null) {
-      node = new Node();
-      node.key = c;
+    if (root == NONE) {
+      root = newNode(key.charAt(0));
     }
-    if (c < node.key) {
-      node.left = put(node.left, key, value, position);
-    } else if (c > node.key) {
-      node.right = put(node.right, key, value, position);
-    } else if (position < key.length() - 1) {
-      node.values.add(value);
-      node.mid = put(node.mid, key, value, position + 1);
-    } else {
-      node.values.add(value);
+    int node = root;
+    int position = 0;
+    while (true) {
+      char c = key.charAt(position);
+      if (c < keys[node]) {
+        if (left[node] == NONE) {
+          int child = newNode(c);
+          left[node] = child;
+        }
+        node = left[node];
+      } else if (c > keys[node]) {
+        if (right[node] == NONE) {
+          int child = newNode(c);
+          right[node] = child;
+        }
+        node = right[node];
+      } else {
+        addValue(node, value);
+        if (position == key.length() - 1) {
+          return;
+        }
+        position++;
+        if (mid[node] == NONE) {
+          int child = newNode(key.charAt(position));
+          mid[node] = child;
+        }
+        node = mid[node];
+      }
     }
-    return node;
   }
 
   /** Returns true if {@code key} is contained in the trie. */
   public boolean contains(String key) {
-    return !get(key).isEmpty();
+    int node = find(key);
+    return node != NONE && valueCounts[node] > 0;
   }
 
   /** Return value stored at Node (in this case, a set of integers). */
   public Set<Integer> get(String key) {
-    Node x = get(root, key, 0);
-    return x == null ? new ArraySet<>() : x.values;
+    int[] values = getValues(key);
+    Set<Integer> result = new ArraySet<>(values.length);
+    for (int value : values) {
+      result.add(value);
+    }
+    return result;
   }
 
-  private Node get(Node node, String key, int position) {
-    if (node == null) {
-      return null;
+  /** Returns the values stored at the node for {@code key} in ascending order. */
+  public int[] getValues(String key) {
+    int node = find(key);
+    if (node == NONE) {
+      return EMPTY;
     }
-    char c = key.charAt(position);
-    if (c < node.key) {
-      return get(node.left, key, position);
-    } else if (c > node.key) {
-      return get(node.right, key, position);
-    } else if (position < key.length() - 1) {
-      return get(node.mid, key, position + 1);
-    } else {
-      return node;
+    switch (valueCounts[node]) {
+      case 0:
+        return EMPTY;
+      case 1:
+        return new int[] {singleValues[node]};
+      default:
+        return Arrays.copyOf(valueLists[node], valueCounts[node]);
+    }
+  }
+
+  /** Releases the spare capacity reserved for future {@link #put(String, int)} calls. */
+  public void trimToSize() {
+    keys = Arrays.copyOf(keys, nodeCount);
+    left = Arrays.copyOf(left, nodeCount);
+    mid = Arrays.copyOf(mid, nodeCount);
+    right = Arrays.copyOf(right, nodeCount);
+    valueCounts = Arrays.copyOf(valueCounts, nodeCount);
+    singleValues = Arrays.copyOf(singleValues, nodeCount);
+    valueLists = Arrays.copyOf(valueLists, nodeCount);
+    for (int node = 0; node < nodeCount; node++) {
+      int[] values = valueLists[node];
+      if (values != null && values.length != valueCounts[node]) {
+        valueLists[node] = Arrays.copyOf(values, valueCounts[node]);
+      }
+    }
+  }
+
+  private int find(String key) {
+    if (TextUtils.isEmpty(key)) {
+      return NONE;
+    }
+    int node = root;
+    int position = 0;
+    while (node != NONE) {
+      char c = key.charAt(position);
+      if (c < keys[node]) {
+        node = left[node];
+      } else if (c > keys[node]) {
+        node = right[node];
+      } else if (position < key.length() - 1) {
+        node = mid[node];
+        position++;
+      } else {
+        return node;
+      }
     }
+    return NONE;
   }
 
-  /** Node in ternary search trie. Children are denoted as left, middle and right nodes. */
-  private static class Node {
-    private char key;
-    private final Set<Integer> values = new ArraySet<>();
+  private int newNode(char key) {
+    if (nodeCount == keys.length) {
+      int capacity = Math.max(INITIAL_CAPACITY, nodeCount * 2);
+      keys = Arrays.copyOf(keys, capacity);
+      left = Arrays.copyOf(left, capacity);
+      mid = Arrays.copyOf(mid, capacity);
+      right = Arrays.copyOf(right, capacity);
+      valueCounts = Arrays.copyOf(valueCounts, capacity);
+      singleValues = Arrays.copyOf(singleValues, capacity);
+      valueLists = Arrays.copyOf(valueLists, capacity);
+    }
+    int node = nodeCount++;
+    keys[node] = key;
+    left[node] = NONE;
+    mid[node] = NONE;
+    right[node] = NONE;
+    return node;
+  }
 
-    private Node left;
-    private Node mid;
-    private Node right;
+  /** Adds {@code value} to the sorted values of {@code node} unless it is already present. */
+  private void addValue(int node, int value) {
+    int count = valueCounts[node];
+    if (count == 0) {
+      singleValues[node] = value;
+      valueCounts[node] = 1;
+      return;
+    }
+    if (count == 1) {
+      int existing = singleValues[node];
+      if (existing == value) {
+        return;
+      }
+      valueLists[node] =
+          existing < value ? new int[] {existing, value} : new int[] {value, existing};
+      valueCounts[node] = 2;
+      return;
+    }
+
+    int[] values = valueLists[node];
+    // Values are usually added in ascending order, so check the end before searching.
+    int index;
+    if (values[count - 1] < value) {
+      index = count;
+    } else {
+      index = Arrays.binarySearch(values, 0, count, value);
+      if (index >= 0) {
+        return;
+      }
+      index = -(index + 1);
+    }
+    if (count == values.length) {
+      values = Arrays.copyOf(values, count * 2);
+      valueLists[node] = values;
+    }
+    System.arraycopy(values, index, values, index + 1, count - index);
+    values[index] = value;
+    valueCounts[node] = count + 1;
   }
 }
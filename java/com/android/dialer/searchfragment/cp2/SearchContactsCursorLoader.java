@@ -26,6 +26,7 @@ import android.provider.ContactsContract.CommonDataKinds.Phone;
 import android.provider.ContactsContract.Directory;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.v7.util.ListUpdateCallback;
 import android.text.TextUtils;
 import com.android.dialer.common.LogUtil;
 import com.android.dialer.contacts.ContactsComponent;
@@ -34,6 +35,7 @@ import com.android.dialer.contacts.displaypreference.ContactDisplayPreferences.S
 import com.android.dialer.searchfragment.common.Projections;
 import com.android.dialer.searchfragment.common.SearchCursor;
 import com.android.dialer.smartdial.SmartDialCursorLoader;
+import com.android.dialer.smartdial.SmartDialResult;
 import com.android.dialer.util.PermissionsUtil;
 
 /** Cursor Loader for CP2 contacts. */
@@ -41,10 +43,29 @@ public final class SearchContactsCursorLoader extends CursorLoader {
 
   private final String query;
   private final boolean isRegularSearch;
+  @Nullable private final SmartDialCursorLoader smartDialCursorLoader;
+
+  /** Generation of {@link #query} in {@link #smartDialCursorLoader}, if the loader is shared. */
+  private final long smartDialGeneration;
 
   /** @param query Contacts cursor will be filtered based on this query. */
   public SearchContactsCursorLoader(
       Context context, @Nullable String query, boolean isRegularSearch) {
+    this(context, query, isRegularSearch, null);
+  }
+
+  /**
+   * @param query Contacts cursor will be filtered based on this query.
+   * @param smartDialCursorLoader loader used for dialpad search, or null to create one. Passing
+   *     the same loader for successive queries allows it to refine its previous candidates and to
+   *     diff its results against the previous ones, see {@link SmartDialCursor}. The loader is
+   *     configured with the query here, so a shared loader must only be passed on the main thread.
+   */
+  public SearchContactsCursorLoader(
+      Context context,
+      @Nullable String query,
+      boolean isRegularSearch,
+      @Nullable SmartDialCursorLoader smartDialCursorLoader) {
     super(
         context,
         buildUri(query),
@@ -54,6 +75,11 @@ public final class SearchContactsCursorLoader extends CursorLoader {
         getSortKey(context) + " ASC");
     this.query = TextUtils.isEmpty(query) ? "" : query;
     this.isRegularSearch = isRegularSearch;
+    this.smartDialCursorLoader = smartDialCursorLoader;
+    this.smartDialGeneration =
+        smartDialCursorLoader != null && !isRegularSearch
+            ? smartDialCursorLoader.configureQuery(this.query)
+            : 0;
   }
 
   private static String[] getProjection(Context context) {
@@ -96,28 +122,67 @@ public final class SearchContactsCursorLoader extends CursorLoader {
   }
 
   private Cursor dialpadSearchLoadInBackground() {
+    if (smartDialCursorLoader != null) {
+      // Throws if a newer query was configured on the shared loader in the meantime.
+      return SmartDialCursor.newInstance(
+          getContext(), smartDialCursorLoader.loadResultInBackground(smartDialGeneration));
+    }
     SmartDialCursorLoader loader = new SmartDialCursorLoader(getContext());
     loader.configureQuery(query);
-    Cursor cursor = loader.loadInBackground();
-    return SmartDialCursor.newInstance(getContext(), cursor);
+    return SmartDialCursor.newInstance(getContext(), loader.loadResultInBackground());
+  }
+
+  @Override
+  public void cancelLoadInBackground() {
+    super.cancelLoadInBackground();
+    if (smartDialCursorLoader != null) {
+      smartDialCursorLoader.cancelLoadInBackground();
+    }
   }
 
+  /**
+   * Smart dial results with an "All contacts" header, which knows how its rows changed since the
+   * previous results of the same {@link SmartDialCursorLoader}.
+   */
   static class SmartDialCursor extends MergeCursor implements SearchCursor {
 
-    static SmartDialCursor newInstance(Context context, Cursor smartDialCursor) {
-      if (smartDialCursor == null || smartDialCursor.getCount() == 0) {
+    private final SmartDialResult result;
+
+    static SmartDialCursor newInstance(Context context, SmartDialResult result) {
+      if (result.size() == 0) {
         LogUtil.i("SmartDialCursor.newInstance", "Cursor was null or empty");
-        return new SmartDialCursor(new Cursor[] {new MatrixCursor(Projections.CP2_PROJECTION)});
+        return new SmartDialCursor(
+            new Cursor[] {new MatrixCursor(Projections.CP2_PROJECTION)}, result);
       }
 
       MatrixCursor headerCursor = new MatrixCursor(HEADER_PROJECTION);
       headerCursor.addRow(new String[] {context.getString(R.string.all_contacts)});
+      Cursor smartDialCursor = result.toCursor();
       return new SmartDialCursor(
-          new Cursor[] {headerCursor, convertSmartDialCursorToSearchCursor(smartDialCursor)});
+          new Cursor[] {headerCursor, convertSmartDialCursorToSearchCursor(smartDialCursor)},
+          result);
     }
 
-    private SmartDialCursor(Cursor[] cursors) {
+    private SmartDialCursor(Cursor[] cursors, SmartDialResult result) {
       super(cursors);
+      this.result = result;
+    }
+
+    @Override
+    public boolean dispatchUpdatesFrom(SearchCursor previous, ListUpdateCallback callback) {
+      if (!(previous instanceof SmartDialCursor) || result.getDiff() == null) {
+        return false;
+      }
+      SmartDialResult previousResult = ((SmartDialCursor) previous).result;
+      if (previousResult.getVersion() != result.getBaseVersion()
+          || previousResult.size() == 0
+          || result.size() == 0) {
+        // The diff is for other results, or the header row appears or disappears.
+        return false;
+      }
+      // Skip the header row, which stays in place.
+      result.getDiff().dispatchUpdatesTo(new OffsetListUpdateCallback(callback, 1));
+      return true;
     }
 
     @Override
@@ -138,6 +203,7 @@ public final class SearchContactsCursorLoader extends CursorLoader {
     private static MatrixCursor convertSmartDialCursorToSearchCursor(Cursor smartDialCursor) {
       MatrixCursor cursor = new MatrixCursor(Projections.CP2_PROJECTION);
       if (!smartDialCursor.moveToFirst()) {
+        smartDialCursor.close();
         return cursor;
       }
 
@@ -169,10 +235,43 @@ public final class SearchContactsCursorLoader extends CursorLoader {
         }
         cursor.addRow(newRow);
       } while (smartDialCursor.moveToNext());
+      smartDialCursor.close();
       return cursor;
     }
   }
 
+  /** Shifts the positions of all updates by a fixed offset. */
+  private static final class OffsetListUpdateCallback implements ListUpdateCallback {
+
+    private final ListUpdateCallback delegate;
+    private final int offset;
+
+    OffsetListUpdateCallback(ListUpdateCallback delegate, int offset) {
+      this.delegate = delegate;
+      this.offset = offset;
+    }
+
+    @Override
+    public void onInserted(int position, int count) {
+      delegate.onInserted(position + offset, count);
+    }
+
+    @Override
+    public void onRemoved(int position, int count) {
+      delegate.onRemoved(position + offset, count);
+    }
+
+    @Override
+    public void onMoved(int fromPosition, int toPosition) {
+      delegate.onMoved(fromPosition + offset, toPosition + offset);
+    }
+
+    @Override
+    public void onChanged(int position, int count, Object payload) {
+      delegate.onChanged(position + offset, count, payload);
+    }
+  }
+
   static class RegularSearchCursor extends MergeCursor implements SearchCursor {
 
     static RegularSearchCursor newInstance(Context context, Cursor regularSearchCursor) {
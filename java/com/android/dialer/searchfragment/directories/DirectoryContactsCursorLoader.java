@@ -21,15 +21,22 @@ import android.content.CursorLoader;
 import android.database.Cursor;
 import android.database.MatrixCursor;
 import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
 import android.provider.ContactsContract;
 import android.provider.ContactsContract.CommonDataKinds.Phone;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
 import com.android.dialer.common.cp2.DirectoryUtils;
 import com.android.dialer.searchfragment.common.Projections;
+import com.android.dialer.searchfragment.common.QueryFilteringUtil;
 import com.android.dialer.searchfragment.directories.DirectoriesCursorLoader.Directory;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import javax.annotation.concurrent.GuardedBy;
 
 /**
  * Cursor loader to load extended contacts on device.
@@ -51,6 +58,10 @@ public final class DirectoryContactsCursorLoader extends CursorLoader {
   private final List<Directory> directories;
   private final Cursor[] cursors;
 
+  @GuardedBy("this")
+  @Nullable
+  private CancellationSignal cancellationSignal;
+
   public DirectoryContactsCursorLoader(Context context, String query, List<Directory> directories) {
     super(
         context,
@@ -66,36 +77,114 @@ public final class DirectoryContactsCursorLoader extends CursorLoader {
 
   @Override
   public Cursor loadInBackground() {
-    for (int i = 0; i < directories.size(); i++) {
-      Directory directory = directories.get(i);
+    return DirectoryContactsCursor.newInstance(getContext(), loadDirectoryCursors(), directories);
+  }
 
-      if (!ContactsContract.Directory.isRemoteDirectoryId(directory.getId())
-          && !ContactsContract.Directory.isEnterpriseDirectoryId(directory.getId())) {
-        cursors[i] = null;
-        continue;
+  /**
+   * Queries each remote and enterprise directory and returns one cursor per directory, or null for
+   * directories that are skipped. The cursors are in the same order as the directories passed to
+   * the constructor, ready for {@link DirectoryContactsCursor#newInstance}.
+   *
+   * @throws OperationCanceledException if {@link #cancelLoadInBackground()} was called.
+   */
+  public Cursor[] loadDirectoryCursors() {
+    synchronized (this) {
+      cancellationSignal = new CancellationSignal();
+    }
+    try {
+      for (int i = 0; i < directories.size(); i++) {
+        Directory directory = directories.get(i);
+
+        if (!ContactsContract.Directory.isRemoteDirectoryId(directory.getId())
+            && !ContactsContract.Directory.isEnterpriseDirectoryId(directory.getId())) {
+          cursors[i] = null;
+          continue;
+        }
+
+        // Filter out invisible directories.
+        if (DirectoryUtils.isInvisibleDirectoryId(directory.getId())) {
+          cursors[i] = null;
+          continue;
+        }
+
+        Cursor cursor;
+        try {
+          cursor =
+              getContext()
+                  .getContentResolver()
+                  .query(
+                      getContentFilterUri(query, directory.getId()),
+                      getProjection(),
+                      getSelection(),
+                      getSelectionArgs(),
+                      getSortOrder(),
+                      cancellationSignal);
+        } catch (OperationCanceledException e) {
+          closeCursors(i);
+          throw e;
+        }
+        // Even though the cursor specifies "WHERE PHONE_NUMBER IS NOT NULL" the Blackberry Hub
+        // app's directory extension doesn't appear to respect it, and sometimes returns a null
+        // phone number. In this case just hide the row entirely. See a bug.
+        cursors[i] = createMatrixCursorFilteringNullNumbers(cursor);
+      }
+    } finally {
+      synchronized (this) {
+        cancellationSignal = null;
+      }
+    }
+    return cursors;
+  }
+
+  @Override
+  public void cancelLoadInBackground() {
+    super.cancelLoadInBackground();
+    synchronized (this) {
+      if (cancellationSignal != null) {
+        cancellationSignal.cancel();
       }
+    }
+  }
 
-      // Filter out invisible directories.
-      if (DirectoryUtils.isInvisibleDirectoryId(directory.getId())) {
+  private void closeCursors(int end) {
+    for (int i = 0; i < end; i++) {
+      if (cursors[i] != null) {
+        cursors[i].close();
         cursors[i] = null;
-        continue;
       }
+    }
+  }
 
-      Cursor cursor =
-          getContext()
-              .getContentResolver()
-              .query(
-                  getContentFilterUri(query, directory.getId()),
-                  getProjection(),
-                  getSelection(),
-                  getSelectionArgs(),
-                  getSortOrder());
-      // Even though the cursor specifies "WHERE PHONE_NUMBER IS NOT NULL" the Blackberry Hub app's
-      // directory extension doesn't appear to respect it, and sometimes returns a null phone
-      // number. In this case just hide the row entirely. See a bug.
-      cursors[i] = createMatrixCursorFilteringNullNumbers(cursor);
+  /**
+   * Returns copies of {@code cursors} without the rows whose phone number is in {@code
+   * excludedNumbers} or already appeared in an earlier row, comparing numbers by their digits only.
+   * {@code cursors} are closed.
+   */
+  public static Cursor[] removeDuplicateNumbers(Cursor[] cursors, Set<String> excludedNumbers) {
+    Set<String> seenNumbers = new HashSet<>(excludedNumbers);
+    Cursor[] result = new Cursor[cursors.length];
+    for (int i = 0; i < cursors.length; i++) {
+      Cursor cursor = cursors[i];
+      if (cursor == null) {
+        continue;
+      }
+      MatrixCursor matrixCursor = new MatrixCursor(cursor.getColumnNames());
+      try {
+        if (cursor.moveToFirst()) {
+          do {
+            String number =
+                QueryFilteringUtil.digitsOnly(cursor.getString(Projections.PHONE_NUMBER));
+            if (seenNumbers.add(number)) {
+              matrixCursor.addRow(objectArrayFromCursor(cursor));
+            }
+          } while (cursor.moveToNext());
+        }
+      } finally {
+        cursor.close();
+      }
+      result[i] = matrixCursor;
     }
-    return DirectoryContactsCursor.newInstance(getContext(), cursors, directories);
+    return result;
   }
 
   private MatrixCursor createMatrixCursorFilteringNullNumbers(Cursor cursor) {
@@ -58,13 +58,9 @@ import com.android.dialer.logging.DialerImpression;
 import com.android.dialer.logging.Logger;
 import com.android.dialer.precall.PreCall;
 import com.android.dialer.searchfragment.common.RowClickListener;
-import com.android.dialer.searchfragment.common.SearchCursor;
-import com.android.dialer.searchfragment.cp2.SearchContactsCursorLoader;
 import com.android.dialer.searchfragment.directories.DirectoriesCursorLoader;
 import com.android.dialer.searchfragment.directories.DirectoriesCursorLoader.Directory;
-import com.android.dialer.searchfragment.directories.DirectoryContactsCursorLoader;
 import com.android.dialer.searchfragment.list.SearchActionViewHolder.Action;
-import com.android.dialer.searchfragment.nearbyplaces.NearbyPlacesCursorLoader;
 import com.android.dialer.util.CallUtil;
 import com.android.dialer.util.DialerUtils;
 import com.android.dialer.util.PermissionsUtil;
@@ -84,9 +80,6 @@ public final class NewSearchFragment extends Fragment
         OnTouchListener,
         RowClickListener {
 
-  // Since some of our queries can generate network requests, we should delay them until the user
-  // stops typing to prevent generating too much network traffic.
-  private static final int NETWORK_SEARCH_DELAY_MILLIS = 300;
   // To prevent constant capabilities updates refreshing the adapter, we want to add a delay between
   // updates so they are bundled together
   private static final int ENRICHED_CALLING_CAPABILITIES_UPDATED_DELAY = 400;
@@ -96,20 +89,17 @@ public final class NewSearchFragment extends Fragment
   @VisibleForTesting public static final int READ_CONTACTS_PERMISSION_REQUEST_CODE = 1;
   @VisibleForTesting private static final int LOCATION_PERMISSION_REQUEST_CODE = 2;
 
-  private static final int CONTACTS_LOADER_ID = 0;
-  private static final int NEARBY_PLACES_LOADER_ID = 1;
-
   // ID for the loader that loads info about all directories (local & remote).
   private static final int DIRECTORIES_LOADER_ID = 2;
 
-  private static final int DIRECTORY_CONTACTS_LOADER_ID = 3;
-
   private static final String KEY_QUERY = "key_query";
   private static final String KEY_CALL_INITIATION_TYPE = "key_call_initiation_type";
 
   private EmptyContentView emptyContentView;
   private RecyclerView recyclerView;
   private SearchAdapter adapter;
+  // Queries contacts, nearby places and directories for each query and merges them into adapter.
+  private SearchFanOut searchFanOut;
   private String query;
   // Raw query number from dialpad, which may contain special character such as "+". This is used
   // for actions to add contact or send sms.
@@ -120,24 +110,6 @@ public final class NewSearchFragment extends Fragment
   // Information about all local & remote directories (including ID, display name, etc, but not
   // the contacts in them).
   private final List<Directory> directories = new ArrayList<>();
-  private final Runnable loaderCp2ContactsRunnable =
-      () -> {
-        if (getHost() != null) {
-          getLoaderManager().restartLoader(CONTACTS_LOADER_ID, null, this);
-        }
-      };
-  private final Runnable loadNearbyPlacesRunnable =
-      () -> {
-        if (getHost() != null) {
-          getLoaderManager().restartLoader(NEARBY_PLACES_LOADER_ID, null, this);
-        }
-      };
-  private final Runnable loadDirectoryContactsRunnable =
-      () -> {
-        if (getHost() != null) {
-          getLoaderManager().restartLoader(DIRECTORY_CONTACTS_LOADER_ID, null, this);
-        }
-      };
   private final Runnable capabilitiesUpdatedRunnable = () -> adapter.notifyDataSetChanged();
 
   private Runnable updatePositionRunnable;
@@ -152,6 +124,7 @@ public final class NewSearchFragment extends Fragment
       LayoutInflater inflater, @Nullable ViewGroup parent, @Nullable Bundle savedInstanceState) {
     View view = inflater.inflate(R.layout.fragment_search, parent, false);
     adapter = new SearchAdapter(getContext(), new SearchCursorManager(), this);
+    searchFanOut = new SearchFanOut(getContext(), adapter);
     adapter.setQuery(query, rawNumber);
     adapter.setSearchActions(getActions());
     showLocationPermission();
@@ -191,28 +164,15 @@ public final class NewSearchFragment extends Fragment
   }
 
   private void initLoaders() {
-    getLoaderManager().initLoader(CONTACTS_LOADER_ID, null, this);
+    search();
     loadDirectoriesCursor();
   }
 
   @Override
   public Loader<Cursor> onCreateLoader(int id, Bundle bundle) {
     LogUtil.i("NewSearchFragment.onCreateLoader", "loading cursor: " + id);
-    if (id == CONTACTS_LOADER_ID) {
-      return new SearchContactsCursorLoader(getContext(), query, isRegularSearch());
-    } else if (id == NEARBY_PLACES_LOADER_ID) {
-      // Directories represent contact data sources on the device, but since nearby places aren't
-      // stored on the device, they don't have a directory ID. We pass the list of all existing IDs
-      // so that we can find one that doesn't collide.
-      List<Long> directoryIds = new ArrayList<>();
-      for (Directory directory : directories) {
-        directoryIds.add(directory.getId());
-      }
-      return new NearbyPlacesCursorLoader(getContext(), query, directoryIds);
-    } else if (id == DIRECTORIES_LOADER_ID) {
+    if (id == DIRECTORIES_LOADER_ID) {
       return new DirectoriesCursorLoader(getContext());
-    } else if (id == DIRECTORY_CONTACTS_LOADER_ID) {
-      return new DirectoryContactsCursorLoader(getContext(), query, directories);
     } else {
       throw new IllegalStateException("Invalid loader id: " + id);
     }
@@ -221,26 +181,10 @@ public final class NewSearchFragment extends Fragment
   @Override
   public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
     LogUtil.i("NewSearchFragment.onLoadFinished", "Loader finished: " + loader);
-    if (cursor != null
-        && !(loader instanceof DirectoriesCursorLoader)
-        && !(cursor instanceof SearchCursor)) {
-      throw Assert.createIllegalStateFailException("Cursors must implement SearchCursor");
-    }
-
-    if (loader instanceof SearchContactsCursorLoader) {
-      adapter.setContactsCursor((SearchCursor) cursor);
-
-    } else if (loader instanceof NearbyPlacesCursorLoader) {
-      adapter.setNearbyPlacesCursor((SearchCursor) cursor);
-
-    } else if (loader instanceof DirectoryContactsCursorLoader) {
-      adapter.setDirectoryContactsCursor((SearchCursor) cursor);
-
-    } else if (loader instanceof DirectoriesCursorLoader) {
+    if (loader instanceof DirectoriesCursorLoader) {
       directories.clear();
       directories.addAll(DirectoriesCursorLoader.toDirectories(cursor));
-      loadNearbyPlacesCursor();
-      loadDirectoryContactsCursors();
+      search();
 
     } else {
       throw new IllegalStateException("Invalid loader: " + loader);
@@ -250,13 +194,6 @@ public final class NewSearchFragment extends Fragment
   @Override
   public void onLoaderReset(Loader<Cursor> loader) {
     LogUtil.i("NewSearchFragment.onLoaderReset", "Loader reset: " + loader);
-    if (loader instanceof SearchContactsCursorLoader) {
-      adapter.setContactsCursor(null);
-    } else if (loader instanceof NearbyPlacesCursorLoader) {
-      adapter.setNearbyPlacesCursor(null);
-    } else if (loader instanceof DirectoryContactsCursorLoader) {
-      adapter.setDirectoryContactsCursor(null);
-    }
   }
 
   public void setRawNumber(String rawNumber) {
@@ -275,9 +212,7 @@ public final class NewSearchFragment extends Fragment
       adapter.setQuery(query, rawNumber);
       adapter.setSearchActions(getActions());
       showLocationPermission();
-      loadCp2ContactsCursor();
-      loadNearbyPlacesCursor();
-      loadDirectoryContactsCursors();
+      search();
     }
   }
 
@@ -336,9 +271,9 @@ public final class NewSearchFragment extends Fragment
   @Override
   public void onDestroy() {
     super.onDestroy();
-    ThreadUtil.getUiThreadHandler().removeCallbacks(loaderCp2ContactsRunnable);
-    ThreadUtil.getUiThreadHandler().removeCallbacks(loadNearbyPlacesRunnable);
-    ThreadUtil.getUiThreadHandler().removeCallbacks(loadDirectoryContactsRunnable);
+    if (searchFanOut != null) {
+      searchFanOut.destroy();
+    }
     ThreadUtil.getUiThreadHandler().removeCallbacks(capabilitiesUpdatedRunnable);
   }
 
@@ -354,8 +289,8 @@ public final class NewSearchFragment extends Fragment
     } else if (requestCode == LOCATION_PERMISSION_REQUEST_CODE) {
       if (grantResults.length >= 1 && PackageManager.PERMISSION_GRANTED == grantResults[0]) {
         // Force a refresh of the data since we were missing the permission before this.
-        loadNearbyPlacesCursor();
         adapter.hideLocationPermissionRequest();
+        search();
       }
     }
   }
@@ -382,53 +317,39 @@ public final class NewSearchFragment extends Fragment
   }
 
   /**
-   * Loads contacts stored in directories.
-   *
-   * <p>Should not be called before finishing loading info about all directories (local & remote).
+   * Dispatches the current query to nearby places and, if the contacts permission is granted, to
+   * CP2 contacts and, once info about all directories (local & remote) is loaded, to directories.
    */
-  private void loadDirectoryContactsCursors() {
-    if (directoriesDisabledForTesting) {
+  private void search() {
+    if (searchFanOut == null || getContext() == null) {
       return;
     }
-
-    // Cancel existing load if one exists.
-    ThreadUtil.getUiThreadHandler().removeCallbacks(loadDirectoryContactsRunnable);
-    ThreadUtil.getUiThreadHandler()
-        .postDelayed(loadDirectoryContactsRunnable, NETWORK_SEARCH_DELAY_MILLIS);
-  }
-
-  private void loadCp2ContactsCursor() {
-    // Cancel existing load if one exists.
-    ThreadUtil.getUiThreadHandler().removeCallbacks(loaderCp2ContactsRunnable);
-    ThreadUtil.getUiThreadHandler()
-        .postDelayed(loaderCp2ContactsRunnable, NETWORK_SEARCH_DELAY_MILLIS);
+    searchFanOut.search(
+        query,
+        isRegularSearch(),
+        PermissionsUtil.hasContactsReadPermissions(getContext()),
+        directoriesDisabledForTesting ? Collections.emptyList() : directories,
+        shouldLoadNearbyPlaces());
   }
 
   /**
-   * Loads nearby places.
+   * Returns whether nearby places should be searched.
    *
    * <p>Should not be called before finishing loading info about all directories (local and remote).
    */
-  private void loadNearbyPlacesCursor() {
+  private boolean shouldLoadNearbyPlaces() {
     // If we're requesting the location permission, don't load nearby places cursor.
     if (showLocationPermission()) {
-      return;
+      return false;
     }
 
     // If the user dismissed the prompt without granting us the permission, don't load the cursor.
     if (getContext() == null || !PermissionsUtil.hasLocationPermissions(getContext())) {
-      return;
+      return false;
     }
 
-    // Cancel existing load if one exists.
-    ThreadUtil.getUiThreadHandler().removeCallbacks(loadNearbyPlacesRunnable);
-
     // If nearby places is not enabled, do not try to load them.
-    if (!PhoneDirectoryExtenderAccessor.get(getContext()).isEnabled(getContext())) {
-      return;
-    }
-    ThreadUtil.getUiThreadHandler()
-        .postDelayed(loadNearbyPlacesRunnable, NETWORK_SEARCH_DELAY_MILLIS);
+    return PhoneDirectoryExtenderAccessor.get(getContext()).isEnabled(getContext());
   }
 
   private void requestLocationPermission() {
@@ -462,7 +383,7 @@ public final class NewSearchFragment extends Fragment
     EnrichedCallComponent.get(getContext())
         .getEnrichedCallManager()
         .registerCapabilitiesListener(this);
-    getLoaderManager().restartLoader(CONTACTS_LOADER_ID, null, this);
+    search();
   }
 
   @Override
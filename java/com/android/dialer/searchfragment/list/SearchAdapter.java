@@ -19,6 +19,7 @@ package com.android.dialer.searchfragment.list;
 import android.content.Context;
 import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
+import android.support.v7.util.ListUpdateCallback;
 import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.RecyclerView.ViewHolder;
 import android.text.TextUtils;
@@ -124,10 +125,19 @@ public final class SearchAdapter extends RecyclerView.Adapter<ViewHolder> {
   }
 
   public void setContactsCursor(SearchCursor cursor) {
+    SearchCursor previousCursor = searchCursorManager.getContactsCursor();
     if (searchCursorManager.setContactsCursor(cursor)) {
       // Since this is a new contacts cursor, we need to reapply the filter.
-      searchCursorManager.setQuery(query);
-      notifyDataSetChanged();
+      boolean filtered = searchCursorManager.setQuery(query);
+      // Only rebind the rows that changed if the cursor knows which ones did.
+      if (filtered
+          || cursor == null
+          || previousCursor == null
+          || !cursor.dispatchUpdatesFrom(
+              previousCursor,
+              new OffsetUpdateCallback(searchCursorManager.getContactsPosition()))) {
+        notifyDataSetChanged();
+      }
     }
   }
 
@@ -192,6 +202,36 @@ public final class SearchAdapter extends RecyclerView.Adapter<ViewHolder> {
     }
   }
 
+  /** Notifies this adapter of updates to a section starting at a given position. */
+  private final class OffsetUpdateCallback implements ListUpdateCallback {
+
+    private final int offset;
+
+    OffsetUpdateCallback(int offset) {
+      this.offset = offset;
+    }
+
+    @Override
+    public void onInserted(int position, int count) {
+      notifyItemRangeInserted(position + offset, count);
+    }
+
+    @Override
+    public void onRemoved(int position, int count) {
+      notifyItemRangeRemoved(position + offset, count);
+    }
+
+    @Override
+    public void onMoved(int fromPosition, int toPosition) {
+      notifyItemMoved(fromPosition + offset, toPosition + offset);
+    }
+
+    @Override
+    public void onChanged(int position, int count, Object payload) {
+      notifyItemRangeChanged(position + offset, count, payload);
+    }
+  }
+
   /** Viewholder for R.layout.location_permission_row that requests the location permission. */
   private static class LocationPermissionViewHolder extends RecyclerView.ViewHolder {
 
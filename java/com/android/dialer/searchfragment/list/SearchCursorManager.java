@@ -123,6 +123,16 @@ public final class SearchCursorManager {
     return true;
   }
 
+  @Nullable
+  SearchCursor getContactsCursor() {
+    return contactsCursor;
+  }
+
+  /** Returns the position of the first row of the contacts cursor. */
+  int getContactsPosition() {
+    return showLocationPermissionRequest ? 1 : 0;
+  }
+
   /** Returns true if the value changed. */
   boolean showLocationPermissionRequest(boolean enabled) {
     if (showLocationPermissionRequest == enabled) {
@@ -0,0 +1,533 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.searchfragment.list;
+
+import android.content.Context;
+import android.content.CursorLoader;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.provider.ContactsContract;
+import android.support.annotation.MainThread;
+import android.support.annotation.Nullable;
+import com.android.dialer.common.Assert;
+import com.android.dialer.common.LogUtil;
+import com.android.dialer.common.concurrent.DialerExecutorComponent;
+import com.android.dialer.common.concurrent.ThreadUtil;
+import com.android.dialer.searchfragment.common.Projections;
+import com.android.dialer.searchfragment.common.QueryFilteringUtil;
+import com.android.dialer.searchfragment.common.SearchCursor;
+import com.android.dialer.searchfragment.cp2.SearchContactsCursorLoader;
+import com.android.dialer.searchfragment.directories.DirectoriesCursorLoader.Directory;
+import com.android.dialer.searchfragment.directories.DirectoryContactsCursor;
+import com.android.dialer.searchfragment.directories.DirectoryContactsCursorLoader;
+import com.android.dialer.searchfragment.nearbyplaces.NearbyPlacesCursorLoader;
+import com.android.dialer.smartdial.SmartDialCursorLoader;
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Dispatches each search query to all result sources in parallel and merges their results into a
+ * {@link SearchAdapter}.
+ *
+ * <p>Every call to {@link #search} starts a new generation of the CP2 contacts load: the previous
+ * load is cancelled and its late result is dropped. CP2 contacts are queried right away, and again
+ * whenever CP2 changes. Nearby places and directories, which can generate network requests, are
+ * only queried once the user stops typing for {@link #NETWORK_SEARCH_DELAY_MILLIS}, and only when
+ * the search differs from the previous one, so that e.g. resuming the screen does not query the
+ * network again for the same query.
+ *
+ * <p>Each source has a deadline. A source that misses it is cancelled and its rows are removed, so
+ * that a slow directory never holds stale rows on screen. Results are applied to the adapter at
+ * most once per pass of the main looper, and the results of a new search are not shown until its
+ * contacts are available, so the list does not flicker between stale and partial results.
+ *
+ * <p>Directory contacts with a phone number already shown as a CP2 contact, or by an earlier
+ * directory, are dropped.
+ */
+final class SearchFanOut {
+
+  // Since some of our queries can generate network requests, we should delay them until the user
+  // stops typing to prevent generating too much network traffic.
+  private static final long NETWORK_SEARCH_DELAY_MILLIS = 300;
+
+  private static final long CONTACTS_DEADLINE_MILLIS = 2000;
+  private static final long NETWORK_DEADLINE_MILLIS = 3000;
+
+  private static final int CONTACTS = 0;
+  private static final int NEARBY_PLACES = 1;
+  private static final int DIRECTORY_CONTACTS = 2;
+  private static final int SOURCE_COUNT = 3;
+
+  private final Context appContext;
+  private final SearchAdapter adapter;
+  private final ListeningExecutorService backgroundExecutor;
+  private final ListeningExecutorService uiExecutor;
+
+  /**
+   * Shared by the dialpad searches of all generations, so that each query refines the candidates
+   * of the previous one and its results are diffed against the previous results.
+   */
+  private final SmartDialCursorLoader smartDialCursorLoader;
+
+  /** Results received for the current generation but not yet applied to the adapter. */
+  private final SearchCursor[] pendingCursors = new SearchCursor[SOURCE_COUNT];
+
+  private final boolean[] hasPendingCursor = new boolean[SOURCE_COUNT];
+
+  /** Cursors currently shown by the adapter, closed once they are replaced. */
+  private final SearchCursor[] displayedCursors = new SearchCursor[SOURCE_COUNT];
+
+  /** The CP2 contacts load of the current generation. */
+  private final Loads contactsLoads = new Loads();
+
+  /** The nearby places and directory loads of the current network search. */
+  private final Loads networkLoads = new Loads();
+
+  private final Runnable flushRunnable = this::flush;
+
+  /** Reloads CP2 contacts when CP2 changes, as the {@link CursorLoader}s it replaces did. */
+  private final ContentObserver contactsObserver =
+      new ContentObserver(ThreadUtil.getUiThreadHandler()) {
+        @Override
+        public void onChange(boolean selfChange) {
+          if (lastSearch != null && lastSearch.searchContacts()) {
+            searchContacts(lastSearch);
+          }
+        }
+      };
+
+  private boolean contactsObserverRegistered;
+  private boolean contactsArrived;
+  private boolean flushPosted;
+  @Nullable private Runnable networkSearchRunnable;
+
+  /** The CP2 contacts of the current generation, used to de-duplicate directory contacts. */
+  private ListenableFuture<LoadedContacts> contactsFuture;
+
+  /** The last search dispatched to the network sources, or null if there is none. */
+  @Nullable private SearchRequest lastSearch;
+
+  SearchFanOut(Context context, SearchAdapter adapter) {
+    this.appContext = context.getApplicationContext();
+    this.adapter = adapter;
+    this.backgroundExecutor = DialerExecutorComponent.get(context).backgroundExecutor();
+    this.uiExecutor = DialerExecutorComponent.get(context).uiExecutor();
+    this.smartDialCursorLoader = new SmartDialCursorLoader(appContext);
+    this.contactsFuture = Futures.immediateFuture(LoadedContacts.EMPTY);
+  }
+
+  /**
+   * Cancels the CP2 contacts load of the previous query and dispatches {@code query} to CP2, and,
+   * unless the search is the same as the previous one, to nearby places and directories.
+   *
+   * @param searchContacts whether CP2 and directories may be searched, i.e. whether the contacts
+   *     permission is granted. Nearby places are searched either way.
+   * @param directories all local and remote directories, or an empty list if they are not known
+   *     yet, in which case directories are skipped.
+   * @param loadNearbyPlaces whether nearby places should be searched.
+   */
+  @MainThread
+  void search(
+      @Nullable String query,
+      boolean isRegularSearch,
+      boolean searchContacts,
+      List<Directory> directories,
+      boolean loadNearbyPlaces) {
+    Assert.isMainThread();
+    SearchRequest request =
+        SearchRequest.create(
+            query,
+            isRegularSearch,
+            searchContacts,
+            searchContacts ? ImmutableList.copyOf(directories) : ImmutableList.of(),
+            loadNearbyPlaces);
+    if (searchContacts && !contactsObserverRegistered) {
+      appContext
+          .getContentResolver()
+          .registerContentObserver(ContactsContract.AUTHORITY_URI, true, contactsObserver);
+      contactsObserverRegistered = true;
+    }
+    searchContacts(request);
+    if (request.equals(lastSearch)) {
+      LogUtil.v("SearchFanOut.search", "network search unchanged");
+      return;
+    }
+    lastSearch = request;
+    cancelNetworkSearch();
+    long searchGeneration = networkLoads.generation;
+    networkSearchRunnable =
+        () -> {
+          networkSearchRunnable = null;
+          if (request.loadNearbyPlaces()) {
+            searchNearbyPlaces(searchGeneration, query, request.directories());
+          }
+          if (!request.directories().isEmpty()) {
+            // Reads the contacts future when the directories are queried, as CP2 may have been
+            // reloaded since the search was dispatched.
+            searchDirectories(searchGeneration, query, request.directories(), contactsFuture);
+          }
+        };
+    ThreadUtil.getUiThreadHandler()
+        .postDelayed(networkSearchRunnable, NETWORK_SEARCH_DELAY_MILLIS);
+  }
+
+  private void searchContacts(SearchRequest request) {
+    contactsLoads.cancel();
+    closePending(CONTACTS);
+    contactsArrived = false;
+    long searchGeneration = contactsLoads.generation;
+    LogUtil.v("SearchFanOut.searchContacts", "generation: %d", searchGeneration);
+    if (!request.searchContacts()) {
+      contactsFuture = Futures.immediateFuture(LoadedContacts.EMPTY);
+      stage(CONTACTS, null);
+      return;
+    }
+
+    SearchContactsCursorLoader contactsLoader =
+        new SearchContactsCursorLoader(
+            appContext, request.query(), request.isRegularSearch(), smartDialCursorLoader);
+    contactsFuture =
+        submit(() -> LoadedContacts.load(contactsLoader), loaded -> closeQuietly(loaded.cursor));
+    contactsLoads.track(contactsLoader, contactsFuture, CONTACTS_DEADLINE_MILLIS);
+    deliver(
+        contactsLoads,
+        searchGeneration,
+        CONTACTS,
+        Futures.transform(
+            contactsFuture, loaded -> loaded.cursor, MoreExecutors.directExecutor()));
+  }
+
+  private void searchNearbyPlaces(
+      long searchGeneration, String query, List<Directory> directories) {
+    // Directories represent contact data sources on the device, but since nearby places aren't
+    // stored on the device, they don't have a directory ID. We pass the list of all existing IDs
+    // so that we can find one that doesn't collide.
+    List<Long> directoryIds = new ArrayList<>();
+    for (Directory directory : directories) {
+      directoryIds.add(directory.getId());
+    }
+    NearbyPlacesCursorLoader loader = new NearbyPlacesCursorLoader(appContext, query, directoryIds);
+    ListenableFuture<SearchCursor> future =
+        submit(() -> (SearchCursor) loader.loadInBackground(), SearchFanOut::closeQuietly);
+    networkLoads.track(loader, future, NETWORK_DEADLINE_MILLIS);
+    deliver(networkLoads, searchGeneration, NEARBY_PLACES, future);
+  }
+
+  private void searchDirectories(
+      long searchGeneration,
+      String query,
+      List<Directory> directories,
+      ListenableFuture<LoadedContacts> contactsFuture) {
+    DirectoryContactsCursorLoader loader =
+        new DirectoryContactsCursorLoader(appContext, query, directories);
+    ListenableFuture<Cursor[]> directoryCursorsFuture =
+        submit(loader::loadDirectoryCursors, SearchFanOut::closeQuietly);
+    // Directories are queried in parallel with CP2; only the de-duplication waits for both. It is
+    // not cancelled, as it owns the directory cursors once they are loaded, and closes them; a
+    // superseded result is closed on delivery.
+    ListenableFuture<SearchCursor> future =
+        Futures.whenAllComplete(contactsFuture, directoryCursorsFuture)
+            .call(
+                () -> {
+                  Set<String> contactNumbers = Collections.emptySet();
+                  try {
+                    contactNumbers = Futures.getDone(contactsFuture).numbers;
+                  } catch (ExecutionException | CancellationException e) {
+                    // Show directory contacts even if CP2 contacts could not be loaded.
+                  }
+                  return DirectoryContactsCursor.newInstance(
+                      appContext,
+                      DirectoryContactsCursorLoader.removeDuplicateNumbers(
+                          Futures.getDone(directoryCursorsFuture), contactNumbers),
+                      directories);
+                },
+                backgroundExecutor);
+    networkLoads.track(loader, directoryCursorsFuture, NETWORK_DEADLINE_MILLIS);
+    deliver(networkLoads, searchGeneration, DIRECTORY_CONTACTS, future);
+  }
+
+  /**
+   * Runs {@code load} in the background. Nothing receives the result of a cancelled future, so a
+   * result the load produces after its future was cancelled is released with {@code close}.
+   */
+  private <T> ListenableFuture<T> submit(Callable<T> load, Consumer<? super T> close) {
+    SettableFuture<T> result = SettableFuture.create();
+    ListenableFuture<?> task =
+        backgroundExecutor.submit(
+            () -> {
+              try {
+                T value = load.call();
+                if (!result.set(value) && value != null) {
+                  close.accept(value);
+                }
+              } catch (Throwable throwable) {
+                result.setException(throwable);
+              }
+            });
+    result.addListener(
+        () -> {
+          if (result.isCancelled()) {
+            task.cancel(true);
+          }
+        },
+        MoreExecutors.directExecutor());
+    return result;
+  }
+
+  private void deliver(
+      Loads loads,
+      long searchGeneration,
+      int source,
+      ListenableFuture<? extends SearchCursor> future) {
+    Futures.addCallback(
+        future,
+        new FutureCallback<SearchCursor>() {
+          @Override
+          public void onSuccess(@Nullable SearchCursor cursor) {
+            if (searchGeneration != loads.generation) {
+              closeQuietly(cursor);
+              return;
+            }
+            stage(source, cursor);
+          }
+
+          @Override
+          public void onFailure(Throwable throwable) {
+            if (searchGeneration != loads.generation) {
+              return;
+            }
+            if (!future.isCancelled()) {
+              LogUtil.e("SearchFanOut.deliver", "source " + source + " failed", throwable);
+            }
+            // Drop the rows of the previous query rather than leaving them on screen.
+            stage(source, null);
+          }
+        },
+        uiExecutor);
+  }
+
+  private void stage(int source, @Nullable SearchCursor cursor) {
+    closeQuietly(pendingCursors[source]);
+    pendingCursors[source] = cursor;
+    hasPendingCursor[source] = true;
+    if (source == CONTACTS) {
+      contactsArrived = true;
+    }
+    if (contactsArrived && !flushPosted) {
+      flushPosted = true;
+      ThreadUtil.getUiThreadHandler().post(flushRunnable);
+    }
+  }
+
+  /** Applies all pending results to the adapter in one pass. */
+  private void flush() {
+    flushPosted = false;
+    for (int source = 0; source < SOURCE_COUNT; source++) {
+      if (!hasPendingCursor[source]) {
+        continue;
+      }
+      SearchCursor cursor = pendingCursors[source];
+      pendingCursors[source] = null;
+      hasPendingCursor[source] = false;
+
+      switch (source) {
+        case CONTACTS:
+          adapter.setContactsCursor(cursor);
+          break;
+        case NEARBY_PLACES:
+          adapter.setNearbyPlacesCursor(cursor);
+          break;
+        case DIRECTORY_CONTACTS:
+          adapter.setDirectoryContactsCursor(cursor);
+          break;
+        default:
+          throw Assert.createIllegalStateFailException("Invalid source: " + source);
+      }
+      if (displayedCursors[source] != cursor) {
+        closeQuietly(displayedCursors[source]);
+        displayedCursors[source] = cursor;
+      }
+    }
+  }
+
+  private void cancelNetworkSearch() {
+    if (networkSearchRunnable != null) {
+      ThreadUtil.getUiThreadHandler().removeCallbacks(networkSearchRunnable);
+      networkSearchRunnable = null;
+    }
+    networkLoads.cancel();
+    closePending(NEARBY_PLACES);
+    closePending(DIRECTORY_CONTACTS);
+  }
+
+  private void closePending(int source) {
+    closeQuietly(pendingCursors[source]);
+    pendingCursors[source] = null;
+    hasPendingCursor[source] = false;
+  }
+
+  /** Cancels all loads and drops their pending results. */
+  @MainThread
+  void cancel() {
+    lastSearch = null;
+    contactsLoads.cancel();
+    closePending(CONTACTS);
+    cancelNetworkSearch();
+    ThreadUtil.getUiThreadHandler().removeCallbacks(flushRunnable);
+    flushPosted = false;
+  }
+
+  /** Cancels all loads and closes the cursors shown by the adapter. */
+  @MainThread
+  void destroy() {
+    if (contactsObserverRegistered) {
+      appContext.getContentResolver().unregisterContentObserver(contactsObserver);
+      contactsObserverRegistered = false;
+    }
+    cancel();
+    smartDialCursorLoader.reset();
+    adapter.setContactsCursor(null);
+    adapter.setNearbyPlacesCursor(null);
+    adapter.setDirectoryContactsCursor(null);
+    for (int source = 0; source < SOURCE_COUNT; source++) {
+      closeQuietly(displayedCursors[source]);
+      displayedCursors[source] = null;
+    }
+  }
+
+  private static void closeQuietly(@Nullable Cursor cursor) {
+    if (cursor != null && !cursor.isClosed()) {
+      cursor.close();
+    }
+  }
+
+  private static void closeQuietly(Cursor[] cursors) {
+    for (Cursor cursor : cursors) {
+      closeQuietly(cursor);
+    }
+  }
+
+  /**
+   * The loads of one group of sources. Bumping the generation on cancellation drops the late
+   * results of the cancelled loads.
+   */
+  private static final class Loads {
+    private final List<ListenableFuture<?>> inFlight = new ArrayList<>();
+    private final List<CursorLoader> loaders = new ArrayList<>();
+    private final List<Runnable> deadlines = new ArrayList<>();
+    private long generation;
+
+    /** Registers a load of the current generation so that it is cancelled at its deadline. */
+    void track(CursorLoader loader, ListenableFuture<?> future, long deadlineMillis) {
+      inFlight.add(future);
+      loaders.add(loader);
+      Runnable deadline =
+          () -> {
+            if (!future.isDone()) {
+              LogUtil.i("SearchFanOut.track", "load missed its deadline of %d ms", deadlineMillis);
+              loader.cancelLoadInBackground();
+              future.cancel(true);
+            }
+          };
+      deadlines.add(deadline);
+      ThreadUtil.getUiThreadHandler().postDelayed(deadline, deadlineMillis);
+    }
+
+    void cancel() {
+      generation++;
+      for (Runnable deadline : deadlines) {
+        ThreadUtil.getUiThreadHandler().removeCallbacks(deadline);
+      }
+      deadlines.clear();
+      for (CursorLoader loader : loaders) {
+        loader.cancelLoadInBackground();
+      }
+      loaders.clear();
+      for (ListenableFuture<?> future : inFlight) {
+        future.cancel(true);
+      }
+      inFlight.clear();
+    }
+  }
+
+  /** The parameters of a search, compared to skip network searches that would not change. */
+  @AutoValue
+  abstract static class SearchRequest {
+    @Nullable
+    abstract String query();
+
+    abstract boolean isRegularSearch();
+
+    abstract boolean searchContacts();
+
+    abstract ImmutableList<Directory> directories();
+
+    abstract boolean loadNearbyPlaces();
+
+    static SearchRequest create(
+        @Nullable String query,
+        boolean isRegularSearch,
+        boolean searchContacts,
+        ImmutableList<Directory> directories,
+        boolean loadNearbyPlaces) {
+      return new AutoValue_SearchFanOut_SearchRequest(
+          query, isRegularSearch, searchContacts, directories, loadNearbyPlaces);
+    }
+  }
+
+  /** CP2 contacts along with their phone numbers, reduced to digits, for de-duplication. */
+  private static final class LoadedContacts {
+    static final LoadedContacts EMPTY = new LoadedContacts(null, Collections.emptySet());
+
+    @Nullable final SearchCursor cursor;
+    final Set<String> numbers;
+
+    private LoadedContacts(@Nullable SearchCursor cursor, Set<String> numbers) {
+      this.cursor = cursor;
+      this.numbers = numbers;
+    }
+
+    static LoadedContacts load(SearchContactsCursorLoader loader) {
+      SearchCursor cursor = (SearchCursor) loader.loadInBackground();
+      Set<String> numbers = new HashSet<>();
+      if (cursor != null && cursor.moveToFirst()) {
+        do {
+          if (!cursor.isHeader()) {
+            numbers.add(
+                QueryFilteringUtil.digitsOnly(cursor.getString(Projections.PHONE_NUMBER)));
+          }
+        } while (cursor.moveToNext());
+      }
+      return new LoadedContacts(cursor, numbers);
+    }
+  }
+}
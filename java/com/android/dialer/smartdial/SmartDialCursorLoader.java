@@ -19,19 +19,31 @@ package com.android.dialer.smartdial;
 import android.content.AsyncTaskLoader;
 import android.content.Context;
 import android.database.Cursor;
-import android.database.MatrixCursor;
+import android.os.OperationCanceledException;
 import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
 import com.android.dialer.common.LogUtil;
 import com.android.dialer.database.Database;
 import com.android.dialer.database.DialerDatabaseHelper;
 import com.android.dialer.database.DialerDatabaseHelper.ContactNumber;
+import com.android.dialer.database.SmartDialRefinement;
 import com.android.dialer.smartdial.util.SmartDialNameMatcher;
 import com.android.dialer.util.PermissionsUtil;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.concurrent.GuardedBy;
 
-/** Implements a Loader<Cursor> class to asynchronously load SmartDial search results. */
+/**
+ * Implements a Loader<Cursor> class to asynchronously load SmartDial search results.
+ *
+ * <p>Each load produces an immutable {@link SmartDialResult} carrying the diff from the previous
+ * load, see {@link #loadResultInBackground()}. A load in flight is abandoned as soon as a newer
+ * query is configured.
+ */
 public class SmartDialCursorLoader extends AsyncTaskLoader<Cursor> {
 
   private static final String TAG = "SmartDialCursorLoader";
@@ -39,10 +51,26 @@ public class SmartDialCursorLoader extends AsyncTaskLoader<Cursor> {
 
   private final Context context;
 
+  /** Candidates of the previous query, refined when the user keeps typing. */
+  private final SmartDialRefinement refinement = new SmartDialRefinement();
+
+  /** Incremented for every new query, so that loads of older queries can give up early. */
+  private final AtomicLong queryGeneration = new AtomicLong();
+
+  /** Serializes loads, so that each snapshot is diffed against the one loaded before it. */
+  private final Object loadLock = new Object();
+
+  @GuardedBy("loadLock")
+  @Nullable
+  private SmartDialResult lastResult;
+
+  @GuardedBy("loadLock")
+  private long nextVersion;
+
   private Cursor cursor;
 
-  private String query;
-  private SmartDialNameMatcher nameMatcher;
+  private volatile String query;
+  private volatile SmartDialNameMatcher nameMatcher;
 
   private boolean showEmptyListForNullQuery = true;
 
@@ -55,16 +83,22 @@ public class SmartDialCursorLoader extends AsyncTaskLoader<Cursor> {
    * Configures the query string to be used to find SmartDial matches.
    *
    * @param query The query string user typed.
+   * @return the generation of the query, which {@link #loadResultInBackground(long)} only loads
+   *     while no newer query has been configured.
    */
-  public void configureQuery(String query) {
+  public long configureQuery(String query) {
     if (DEBUG) {
       LogUtil.v(TAG, "Configure new query to be " + query);
     }
-    this.query = SmartDialNameMatcher.normalizeNumber(context, query);
+    String normalizedQuery = SmartDialNameMatcher.normalizeNumber(context, query);
 
     /** Constructs a name matcher object for matching names. */
-    nameMatcher = new SmartDialNameMatcher(this.query);
-    nameMatcher.setShouldMatchEmptyQuery(!showEmptyListForNullQuery);
+    SmartDialNameMatcher matcher = new SmartDialNameMatcher(normalizedQuery);
+    matcher.setShouldMatchEmptyQuery(!showEmptyListForNullQuery);
+
+    this.query = normalizedQuery;
+    nameMatcher = matcher;
+    return queryGeneration.incrementAndGet();
   }
 
   /**
@@ -74,38 +108,69 @@ public class SmartDialCursorLoader extends AsyncTaskLoader<Cursor> {
    */
   @Override
   public Cursor loadInBackground() {
+    return loadResultInBackground().toCursor();
+  }
+
+  /**
+   * Queries the SmartDial database and returns the results along with the diff from the results
+   * of the previous call.
+   *
+   * @throws OperationCanceledException if the load was canceled, or a newer query was configured
+   *     while it was in flight.
+   */
+  @WorkerThread
+  public SmartDialResult loadResultInBackground() {
+    return loadResultInBackground(queryGeneration.get());
+  }
+
+  /**
+   * Same as {@link #loadResultInBackground()}, but only loads the query of the given generation.
+   *
+   * @param generation the value returned by {@link #configureQuery(String)}.
+   * @throws OperationCanceledException if the load was canceled, or a query newer than {@code
+   *     generation} was configured before or while it was in flight.
+   */
+  @WorkerThread
+  public SmartDialResult loadResultInBackground(long generation) {
+    final String query = this.query;
+    final SmartDialNameMatcher nameMatcher = this.nameMatcher;
     if (DEBUG) {
       LogUtil.v(TAG, "Load in background " + query);
     }
 
-    if (!PermissionsUtil.hasContactsReadPermissions(context)) {
-      return new MatrixCursor(PhoneQuery.PROJECTION_PRIMARY);
+    synchronized (loadLock) {
+      throwIfCanceled(generation);
+      List<ContactNumber> allMatches = Collections.emptyList();
+      if (PermissionsUtil.hasContactsReadPermissions(context)) {
+        /** Loads results from the database helper. */
+        final DialerDatabaseHelper dialerDatabaseHelper =
+            Database.get(context).getDatabaseHelper(context);
+        allMatches = dialerDatabaseHelper.getLooseMatches(query, nameMatcher, refinement);
+      }
+
+      if (DEBUG) {
+        LogUtil.v(TAG, "Loaded matches " + allMatches.size());
+      }
+
+      /** Don't spend time diffing results that are already stale. */
+      throwIfCanceled(generation);
+      SmartDialResult result =
+          SmartDialResult.create(query, allMatches, nextVersion++, lastResult);
+      lastResult = result;
+      return result;
     }
+  }
 
-    /** Loads results from the database helper. */
-    final DialerDatabaseHelper dialerDatabaseHelper =
-        Database.get(context).getDatabaseHelper(context);
-    final ArrayList<ContactNumber> allMatches =
-        dialerDatabaseHelper.getLooseMatches(query, nameMatcher);
-
-    if (DEBUG) {
-      LogUtil.v(TAG, "Loaded matches " + allMatches.size());
-    }
+  @Override
+  public void cancelLoadInBackground() {
+    super.cancelLoadInBackground();
+    queryGeneration.incrementAndGet();
+  }
 
-    /** Constructs a cursor for the returned array of results. */
-    final MatrixCursor cursor = new MatrixCursor(PhoneQuery.PROJECTION_PRIMARY);
-    Object[] row = new Object[PhoneQuery.PROJECTION_PRIMARY.length];
-    for (ContactNumber contact : allMatches) {
-      row[PhoneQuery.PHONE_ID] = contact.dataId;
-      row[PhoneQuery.PHONE_NUMBER] = contact.phoneNumber;
-      row[PhoneQuery.CONTACT_ID] = contact.id;
-      row[PhoneQuery.LOOKUP_KEY] = contact.lookupKey;
-      row[PhoneQuery.PHOTO_ID] = contact.photoId;
-      row[PhoneQuery.DISPLAY_NAME] = contact.displayName;
-      row[PhoneQuery.CARRIER_PRESENCE] = contact.carrierPresence;
-      cursor.addRow(row);
+  private void throwIfCanceled(long generation) {
+    if (generation != queryGeneration.get() || isLoadInBackgroundCanceled()) {
+      throw new OperationCanceledException();
     }
-    return cursor;
   }
 
   @Override
@@ -159,6 +224,10 @@ public class SmartDialCursorLoader extends AsyncTaskLoader<Cursor> {
       releaseResources(cursor);
       cursor = null;
     }
+    refinement.reset();
+    synchronized (loadLock) {
+      lastResult = null;
+    }
   }
 
   @Override
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.smartdial;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.support.annotation.Nullable;
+import android.support.v7.util.DiffUtil;
+import com.android.dialer.database.DialerDatabaseHelper.ContactNumber;
+import com.android.dialer.smartdial.SmartDialCursorLoader.PhoneQuery;
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Immutable snapshot of the results of one smart dial query.
+ *
+ * <p>Rows are identified by their phone data ID, which is stable across queries. Each snapshot
+ * carries the diff from the snapshot loaded before it by the same {@link SmartDialCursorLoader},
+ * identified by {@link #getBaseVersion()}, so that the UI can update only the rows that changed
+ * instead of rebinding the whole list.
+ */
+public final class SmartDialResult {
+
+  /** Version of a snapshot that has no predecessor. */
+  public static final long NO_VERSION = -1;
+
+  private final String query;
+  private final ImmutableList<ContactNumber> rows;
+  private final long version;
+  private final long baseVersion;
+  @Nullable private final DiffUtil.DiffResult diff;
+
+  private SmartDialResult(
+      String query,
+      ImmutableList<ContactNumber> rows,
+      long version,
+      long baseVersion,
+      @Nullable DiffUtil.DiffResult diff) {
+    this.query = query;
+    this.rows = rows;
+    this.version = version;
+    this.baseVersion = baseVersion;
+    this.diff = diff;
+  }
+
+  /**
+   * Creates the snapshot for {@code rows}, computing the diff from {@code previous} if there is
+   * one.
+   */
+  static SmartDialResult create(
+      String query, List<ContactNumber> rows, long version, @Nullable SmartDialResult previous) {
+    ImmutableList<ContactNumber> newRows = ImmutableList.copyOf(rows);
+    if (previous == null) {
+      return new SmartDialResult(query, newRows, version, NO_VERSION, null);
+    }
+    DiffUtil.DiffResult diff =
+        DiffUtil.calculateDiff(
+            new RowDiffCallback(previous.rows, newRows, !previous.query.equals(query)),
+            /* detectMoves = */ true);
+    return new SmartDialResult(query, newRows, version, previous.version, diff);
+  }
+
+  /** Returns the normalized query these results were loaded for. */
+  public String getQuery() {
+    return query;
+  }
+
+  public int size() {
+    return rows.size();
+  }
+
+  /** Returns the stable ID of the row at {@code position}. */
+  public long getId(int position) {
+    return rows.get(position).dataId;
+  }
+
+  /** Returns a version unique among the snapshots of the loader that created it. */
+  public long getVersion() {
+    return version;
+  }
+
+  /** Returns the version of the snapshot {@link #getDiff()} applies to, or {@link #NO_VERSION}. */
+  public long getBaseVersion() {
+    return baseVersion;
+  }
+
+  /**
+   * Returns the changes that turn the rows of the snapshot with version {@link #getBaseVersion()}
+   * into these rows, or null if there is no base snapshot.
+   */
+  @Nullable
+  public DiffUtil.DiffResult getDiff() {
+    return diff;
+  }
+
+  /** Returns a new cursor over the rows, with {@link PhoneQuery#PROJECTION_PRIMARY}. */
+  public Cursor toCursor() {
+    final MatrixCursor cursor = new MatrixCursor(PhoneQuery.PROJECTION_PRIMARY, rows.size());
+    Object[] row = new Object[PhoneQuery.PROJECTION_PRIMARY.length];
+    for (ContactNumber contact : rows) {
+      row[PhoneQuery.PHONE_ID] = contact.dataId;
+      row[PhoneQuery.PHONE_NUMBER] = contact.phoneNumber;
+      row[PhoneQuery.CONTACT_ID] = contact.id;
+      row[PhoneQuery.LOOKUP_KEY] = contact.lookupKey;
+      row[PhoneQuery.PHOTO_ID] = contact.photoId;
+      row[PhoneQuery.DISPLAY_NAME] = contact.displayName;
+      row[PhoneQuery.CARRIER_PRESENCE] = contact.carrierPresence;
+      cursor.addRow(row);
+    }
+    return cursor;
+  }
+
+  /**
+   * Matches rows by data ID and compares the columns shown in the list. Rows are highlighted
+   * according to the query, so all rows are considered changed when the query changed.
+   */
+  private static final class RowDiffCallback extends DiffUtil.Callback {
+
+    private final List<ContactNumber> oldRows;
+    private final List<ContactNumber> newRows;
+    private final boolean queryChanged;
+
+    RowDiffCallback(
+        List<ContactNumber> oldRows, List<ContactNumber> newRows, boolean queryChanged) {
+      this.oldRows = oldRows;
+      this.newRows = newRows;
+      this.queryChanged = queryChanged;
+    }
+
+    @Override
+    public int getOldListSize() {
+      return oldRows.size();
+    }
+
+    @Override
+    public int getNewListSize() {
+      return newRows.size();
+    }
+
+    @Override
+    public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+      return oldRows.get(oldItemPosition).dataId == newRows.get(newItemPosition).dataId;
+    }
+
+    @Override
+    public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+      if (queryChanged) {
+        return false;
+      }
+      ContactNumber oldRow = oldRows.get(oldItemPosition);
+      ContactNumber newRow = newRows.get(newItemPosition);
+      return oldRow.id == newRow.id
+          && oldRow.photoId == newRow.photoId
+          && oldRow.carrierPresence == newRow.carrierPresence
+          && Objects.equals(oldRow.phoneNumber, newRow.phoneNumber)
+          && Objects.equals(oldRow.displayName, newRow.displayName)
+          && Objects.equals(oldRow.lookupKey, newRow.lookupKey);
+    }
+  }
+}
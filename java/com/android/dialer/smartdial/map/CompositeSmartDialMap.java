@@ -17,10 +17,12 @@
 package com.android.dialer.smartdial.map;
 
 import android.content.Context;
+import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
 import android.support.v4.util.SimpleArrayMap;
 import com.android.dialer.i18n.LocaleUtils;
 import com.google.common.base.Optional;
+import java.util.Locale;
 
 /**
  * A utility class that combines the functionality of two implementations of {@link SmartDialMap} so
@@ -47,6 +49,14 @@ public class CompositeSmartDialMap {
     EXTRA_MAPS.put("ukr", UkrainianSmartDialMap.getInstance());
   }
 
+  // A map in which each key is an ISO 639-2 language code with an extra map, or "" for the default
+  // map alone, and the corresponding value is the table compiled for it
+  private static final SimpleArrayMap<String, SmartDialMapTable> TABLES = new SimpleArrayMap<>();
+
+  // The table for the locale seen last, so that the language code is only resolved when the
+  // locale changes
+  @Nullable private static volatile LocaleTable lastTable;
+
   private CompositeSmartDialMap() {}
 
   /**
@@ -56,12 +66,7 @@ public class CompositeSmartDialMap {
    * SmartDialMap#normalizeCharacter(char)} for details.
    */
   public static boolean isValidDialpadCharacter(Context context, char ch) {
-    if (DEFAULT_MAP.isValidDialpadCharacter(ch)) {
-      return true;
-    }
-
-    Optional<SmartDialMap> extraMap = getExtraMap(context);
-    return extraMap.isPresent() && extraMap.get().isValidDialpadCharacter(ch);
+    return getTable(context).isValidDialpadCharacter(ch);
   }
 
   /**
@@ -71,24 +76,14 @@ public class CompositeSmartDialMap {
    * SmartDialMap#normalizeCharacter(char)} for details.
    */
   public static boolean isValidDialpadAlphabeticChar(Context context, char ch) {
-    if (DEFAULT_MAP.isValidDialpadAlphabeticChar(ch)) {
-      return true;
-    }
-
-    Optional<SmartDialMap> extraMap = getExtraMap(context);
-    return extraMap.isPresent() && extraMap.get().isValidDialpadAlphabeticChar(ch);
+    return getTable(context).isValidDialpadAlphabeticChar(ch);
   }
 
   /**
    * Returns true if the provided character is a digit, and can be mapped to a key on the dialpad.
    */
   public static boolean isValidDialpadNumericChar(Context context, char ch) {
-    if (DEFAULT_MAP.isValidDialpadNumericChar(ch)) {
-      return true;
-    }
-
-    Optional<SmartDialMap> extraMap = getExtraMap(context);
-    return extraMap.isPresent() && extraMap.get().isValidDialpadNumericChar(ch);
+    return getTable(context).isValidDialpadNumericChar(ch);
   }
 
   /**
@@ -100,17 +95,7 @@ public class CompositeSmartDialMap {
    * <p>If the provided character can't be mapped to a key on the dialpad, return -1.
    */
   public static byte getDialpadIndex(Context context, char ch) {
-    Optional<Byte> dialpadIndex = DEFAULT_MAP.getDialpadIndex(ch);
-    if (dialpadIndex.isPresent()) {
-      return dialpadIndex.get();
-    }
-
-    Optional<SmartDialMap> extraMap = getExtraMap(context);
-    if (extraMap.isPresent()) {
-      dialpadIndex = extraMap.get().getDialpadIndex(ch);
-    }
-
-    return dialpadIndex.isPresent() ? dialpadIndex.get() : -1;
+    return getTable(context).getDialpadIndex(ch);
   }
 
   /**
@@ -122,17 +107,7 @@ public class CompositeSmartDialMap {
    * <p>If the provided character can't be mapped to a key on the dialpad, return the character.
    */
   public static char getDialpadNumericCharacter(Context context, char ch) {
-    Optional<Character> dialpadNumericChar = DEFAULT_MAP.getDialpadNumericCharacter(ch);
-    if (dialpadNumericChar.isPresent()) {
-      return dialpadNumericChar.get();
-    }
-
-    Optional<SmartDialMap> extraMap = getExtraMap(context);
-    if (extraMap.isPresent()) {
-      dialpadNumericChar = extraMap.get().getDialpadNumericCharacter(ch);
-    }
-
-    return dialpadNumericChar.isPresent() ? dialpadNumericChar.get() : ch;
+    return getTable(context).getDialpadNumericCharacter(ch);
   }
 
   /**
@@ -142,17 +117,37 @@ public class CompositeSmartDialMap {
    * <p>If the provided character can't be mapped to a key on the dialpad, return the character.
    */
   public static char normalizeCharacter(Context context, char ch) {
-    Optional<Character> normalizedChar = DEFAULT_MAP.normalizeCharacter(ch);
-    if (normalizedChar.isPresent()) {
-      return normalizedChar.get();
-    }
+    return getTable(context).normalizeCharacter(ch);
+  }
 
-    Optional<SmartDialMap> extraMap = getExtraMap(context);
-    if (extraMap.isPresent()) {
-      normalizedChar = extraMap.get().normalizeCharacter(ch);
+  /**
+   * Returns the lookup table combining the default map with the extra map for the system's 1st
+   * language preference.
+   *
+   * <p>Callers processing many characters, e.g. whole names, should get the table once and use it
+   * directly rather than going through the static methods of this class, each of which has to
+   * resolve the locale.
+   */
+  public static SmartDialMapTable getTable(Context context) {
+    Locale locale = LocaleUtils.getLocale(context);
+    LocaleTable cached = lastTable;
+    if (cached != null && cached.locale.equals(locale)) {
+      return cached.table;
     }
 
-    return normalizedChar.isPresent() ? normalizedChar.get() : ch;
+    String languageCode = locale.getISO3Language();
+    // Languages without an extra map share the table of the default map.
+    String tableKey = EXTRA_MAPS.containsKey(languageCode) ? languageCode : "";
+    SmartDialMapTable table;
+    synchronized (TABLES) {
+      table = TABLES.get(tableKey);
+      if (table == null) {
+        table = new SmartDialMapTable(DEFAULT_MAP, EXTRA_MAPS.get(tableKey));
+        TABLES.put(tableKey, table);
+      }
+    }
+    lastTable = new LocaleTable(locale, table);
+    return table;
   }
 
   @VisibleForTesting
@@ -162,4 +157,15 @@ public class CompositeSmartDialMap {
         ? Optional.of(EXTRA_MAPS.get(languageCode))
         : Optional.absent();
   }
+
+  /** A table along with the locale it was resolved for. */
+  private static final class LocaleTable {
+    final Locale locale;
+    final SmartDialMapTable table;
+
+    LocaleTable(Locale locale, SmartDialMapTable table) {
+      this.locale = locale;
+      this.table = table;
+    }
+  }
 }
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.smartdial.util;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+import com.android.dialer.smartdial.map.CompositeSmartDialMap;
+import com.android.dialer.smartdial.map.SmartDialMapTable;
+import java.util.ArrayList;
+
+/**
+ * Scores how well a contact matches a dialpad query, so that matches can be ranked rather than
+ * merely accepted.
+ *
+ * <p>Matches fall into classes, from best to worst:
+ *
+ * <ul>
+ *   <li>{@link #CLASS_CONTIGUOUS}: the query matches a run of characters starting at a token, as
+ *       decided by {@link SmartDialNameMatcher}, or a prefix of the phone number.
+ *   <li>{@link #CLASS_INITIALS}: the query matches initials followed by a partial token, e.g. 57 for
+ *       (J)ohn (S)mith.
+ *   <li>{@link #CLASS_TYPO}: the query matches a run starting at a token with one pair of adjacent
+ *       keys transposed or one key missed, e.g. 7684 or 76844 for "Smith" (76484).
+ * </ul>
+ *
+ * <p>Within a class, longer contiguous matches and matches starting at earlier tokens score
+ * higher. Scores are plain ints so that callers can combine them with their own ordering, e.g. by
+ * call frequency.
+ *
+ * <p>Typo matching uses a bit-parallel (Shift-And) automaton over the dialpad digits of the name,
+ * so that each candidate costs O(name length) for queries of up to {@link #MAX_TYPO_QUERY_LENGTH}
+ * digits.
+ */
+public final class SmartDialMatchEngine {
+
+  /** Returned by the scoring methods when there is no match. */
+  public static final int NO_MATCH = 0;
+
+  public static final int CLASS_TYPO = 1;
+  public static final int CLASS_INITIALS = 2;
+  public static final int CLASS_CONTIGUOUS = 3;
+
+  /** Shorter queries match too many names with a typo for the matches to be useful. */
+  private static final int MIN_TYPO_QUERY_LENGTH = 3;
+
+  /** Limited by the number of bits in the state words of the automaton. */
+  private static final int MAX_TYPO_QUERY_LENGTH = 63;
+
+  private static final int MAX_COMPONENT = 0xff;
+
+  private final SmartDialNameMatcher nameMatcher;
+  private final String query;
+
+  /** For each dialpad digit, the positions in the query at which it appears. */
+  private final long[] digitMasks = new long[10];
+
+  public SmartDialMatchEngine(SmartDialNameMatcher nameMatcher) {
+    this.nameMatcher = nameMatcher;
+    this.query = nameMatcher.getQuery() == null ? "" : nameMatcher.getQuery();
+    if (allowsTypos()) {
+      for (int i = 0; i < query.length(); i++) {
+        char digit = query.charAt(i);
+        if (digit >= '0' && digit <= '9') {
+          digitMasks[digit - '0'] |= 1L << i;
+        }
+      }
+    }
+  }
+
+  /** Whether the query is long enough for {@link #scoreTypo(Context, String)} to match. */
+  public boolean allowsTypos() {
+    return query.length() >= MIN_TYPO_QUERY_LENGTH && query.length() <= MAX_TYPO_QUERY_LENGTH;
+  }
+
+  /** Returns the class of a score returned by this engine, or {@link #NO_MATCH}. */
+  public static int getMatchClass(int score) {
+    return score >>> 24;
+  }
+
+  /**
+   * Scores {@code displayName} against the query, trying an exact match first and a match with one
+   * typo second.
+   */
+  public int scoreName(Context context, @Nullable String displayName) {
+    if (displayName == null) {
+      return NO_MATCH;
+    }
+    if (nameMatcher.matches(context, displayName)) {
+      ArrayList<SmartDialMatchPosition> positions = nameMatcher.getMatchPositions();
+      if (positions.isEmpty()) {
+        return score(CLASS_CONTIGUOUS, query.length(), 0);
+      }
+      int longestRun = 0;
+      for (SmartDialMatchPosition position : positions) {
+        longestRun = Math.max(longestRun, position.end - position.start);
+      }
+      return score(
+          positions.size() == 1 ? CLASS_CONTIGUOUS : CLASS_INITIALS,
+          longestRun,
+          countTokensBefore(context, displayName, positions.get(0).start));
+    }
+    return scoreTypo(context, displayName);
+  }
+
+  /** Scores a phone number matched by {@link SmartDialNameMatcher#matchesNumber}. */
+  public int scoreNumberMatch() {
+    return score(CLASS_CONTIGUOUS, query.length(), 0);
+  }
+
+  /**
+   * Scores {@code displayName} against the query allowing one pair of transposed keys or one
+   * missed key, or returns {@link #NO_MATCH} if the query is too short or too long for typos or
+   * does not match.
+   *
+   * <p>State word {@code exact} has bit j set when query[0..j] matches the name up to the current
+   * character exactly, starting at a token; {@code typo} has it set when it matches with one error.
+   * Separators keep the state unchanged so that a match can span tokens, like exact matches do.
+   */
+  public int scoreTypo(Context context, @Nullable String displayName) {
+    if (!allowsTypos() || TextUtils.isEmpty(displayName)) {
+      return NO_MATCH;
+    }
+    final SmartDialMapTable table = CompositeSmartDialMap.getTable(context);
+    final long acceptBit = 1L << (query.length() - 1);
+    long exact = 0;
+    long typo = 0;
+    // Positions j - 1 where query[0..j-2] matched before the previous character and query[j]
+    // equals the previous character, i.e. a transposition may complete on the current character.
+    long transposition = 0;
+    boolean atTokenStart = true;
+    boolean previousWasTokenStart = false;
+    int tokenIndex = -1;
+
+    for (int i = 0; i < displayName.length(); i++) {
+      char ch = table.normalizeCharacter(displayName.charAt(i));
+      if (!table.isValidDialpadCharacter(ch)) {
+        atTokenStart = true;
+        previousWasTokenStart = false;
+        transposition = 0;
+        continue;
+      }
+      if (atTokenStart) {
+        tokenIndex++;
+      }
+      if (table.isValidDialpadAlphabeticChar(ch)) {
+        ch = table.getDialpadNumericCharacter(ch);
+      }
+      final long mask = (ch >= '0' && ch <= '9') ? digitMasks[ch - '0'] : 0;
+      final long start = atTokenStart ? 1L : 0L;
+
+      long nextExact = ((exact << 1) | start) & mask;
+      long nextTypo =
+          ((typo << 1) & mask)
+              // The key for this character was missed: consume it without advancing the query.
+              | exact
+              // The key for the first character of the token was missed.
+              | (previousWasTokenStart ? 1L & mask : 0)
+              // The keys for the previous and this character were swapped.
+              | ((transposition & mask) << 1);
+      transposition = ((exact << 1) | start) & (mask >>> 1);
+
+      exact = nextExact;
+      typo = nextTypo & ~nextExact;
+      previousWasTokenStart = atTokenStart;
+      atTokenStart = false;
+
+      if (((exact | typo) & acceptBit) != 0) {
+        return score(
+            (exact & acceptBit) != 0 ? CLASS_CONTIGUOUS : CLASS_TYPO,
+            query.length(),
+            tokenIndex);
+      }
+    }
+    return NO_MATCH;
+  }
+
+  private static int score(int matchClass, int contiguousLength, int tokenIndex) {
+    return (matchClass << 24)
+        | (Math.min(contiguousLength, MAX_COMPONENT) << 16)
+        | ((MAX_COMPONENT - Math.min(tokenIndex, MAX_COMPONENT)) << 8);
+  }
+
+  private static int countTokensBefore(Context context, String displayName, int end) {
+    final SmartDialMapTable table = CompositeSmartDialMap.getTable(context);
+    int tokens = 0;
+    boolean inToken = false;
+    for (int i = 0; i < end && i < displayName.length(); i++) {
+      boolean valid =
+          table.isValidDialpadCharacter(table.normalizeCharacter(displayName.charAt(i)));
+      if (valid && !inToken) {
+        tokens++;
+      }
+      inToken = valid;
+    }
+    return tokens;
+  }
+}
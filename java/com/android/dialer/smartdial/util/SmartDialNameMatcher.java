@@ -20,6 +20,7 @@ import android.content.Context;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
 import com.android.dialer.smartdial.map.CompositeSmartDialMap;
+import com.android.dialer.smartdial.map.SmartDialMapTable;
 import com.android.dialer.smartdial.util.SmartDialPrefix.PhoneNumberTokens;
 import java.util.ArrayList;
 
@@ -66,41 +67,17 @@ public class SmartDialNameMatcher {
    * @return Phone number consisting of digits from 0-9
    */
   public static String normalizeNumber(Context context, String number, int offset) {
+    final SmartDialMapTable table = CompositeSmartDialMap.getTable(context);
     final StringBuilder s = new StringBuilder();
     for (int i = offset; i < number.length(); i++) {
       char ch = number.charAt(i);
-      if (CompositeSmartDialMap.isValidDialpadNumericChar(context, ch)) {
+      if (table.isValidDialpadNumericChar(ch)) {
         s.append(ch);
       }
     }
     return s.toString();
   }
 
-  /**
-   * Constructs empty highlight mask. Bit 0 at a position means there is no match, Bit 1 means there
-   * is a match and should be highlighted in the TextView.
-   *
-   * @param builder StringBuilder object
-   * @param length Length of the desired mask.
-   */
-  private void constructEmptyMask(StringBuilder builder, int length) {
-    for (int i = 0; i < length; ++i) {
-      builder.append("0");
-    }
-  }
-
-  /**
-   * Replaces the 0-bit at a position with 1-bit, indicating that there is a match.
-   *
-   * @param builder StringBuilder object.
-   * @param matchPos Match Positions to mask as 1.
-   */
-  private void replaceBitInMask(StringBuilder builder, SmartDialMatchPosition matchPos) {
-    for (int i = matchPos.start; i < matchPos.end; ++i) {
-      builder.replace(i, i + 1, "1");
-    }
-  }
-
   /**
    * Matches a phone number against a query. Let the test application overwrite the NANP setting.
    *
@@ -114,8 +91,6 @@ public class SmartDialNameMatcher {
     if (TextUtils.isEmpty(phoneNumber)) {
       return shouldMatchEmptyQuery ? new SmartDialMatchPosition(0, 0) : null;
     }
-    StringBuilder builder = new StringBuilder();
-    constructEmptyMask(builder, phoneNumber.length());
 
     // Try matching the number as is
     SmartDialMatchPosition matchPos =
@@ -133,9 +108,6 @@ public class SmartDialNameMatcher {
             matchesNumberWithOffset(context, phoneNumber, query, phoneNumberTokens.nanpCodeOffset);
       }
     }
-    if (matchPos != null) {
-      replaceBitInMask(builder, matchPos);
-    }
     return matchPos;
   }
 
@@ -166,6 +138,7 @@ public class SmartDialNameMatcher {
     if (TextUtils.isEmpty(phoneNumber) || TextUtils.isEmpty(query)) {
       return shouldMatchEmptyQuery ? new SmartDialMatchPosition(offset, offset) : null;
     }
+    final SmartDialMapTable table = CompositeSmartDialMap.getTable(context);
     int queryAt = 0;
     int numberAt = offset;
     for (int i = offset; i < phoneNumber.length(); i++) {
@@ -173,7 +146,7 @@ public class SmartDialNameMatcher {
         break;
       }
       char ch = phoneNumber.charAt(i);
-      if (CompositeSmartDialMap.isValidDialpadNumericChar(context, ch)) {
+      if (table.isValidDialpadNumericChar(ch)) {
         if (ch != query.charAt(queryAt)) {
           return null;
         }
@@ -227,12 +200,10 @@ public class SmartDialNameMatcher {
    *     match positions (multiple matches correspond to initial matches).
    */
   private boolean matchesCombination(
-      Context context,
+      SmartDialMapTable table,
       String displayName,
       String query,
       ArrayList<SmartDialMatchPosition> matchList) {
-    StringBuilder builder = new StringBuilder();
-    constructEmptyMask(builder, displayName.length());
     final int nameLength = displayName.length();
     final int queryLength = query.length();
 
@@ -265,10 +236,10 @@ public class SmartDialNameMatcher {
     while (nameStart < nameLength && queryStart < queryLength) {
       char ch = displayName.charAt(nameStart);
       // Strip diacritics from accented characters if any
-      ch = CompositeSmartDialMap.normalizeCharacter(context, ch);
-      if (CompositeSmartDialMap.isValidDialpadCharacter(context, ch)) {
-        if (CompositeSmartDialMap.isValidDialpadAlphabeticChar(context, ch)) {
-          ch = CompositeSmartDialMap.getDialpadNumericCharacter(context, ch);
+      ch = table.normalizeCharacter(ch);
+      if (table.isValidDialpadCharacter(ch)) {
+        if (table.isValidDialpadAlphabeticChar(ch)) {
+          ch = table.getDialpadNumericCharacter(ch);
         }
         if (ch != query.charAt(queryStart)) {
           // Failed to match the current character in the query.
@@ -288,16 +259,12 @@ public class SmartDialNameMatcher {
           // then skip to the end of the "Yoghurt" token.
 
           if (queryStart == 0
-              || CompositeSmartDialMap.isValidDialpadCharacter(
-                  context,
-                  CompositeSmartDialMap.normalizeCharacter(
-                      context, displayName.charAt(nameStart - 1)))) {
+              || table.isValidDialpadCharacter(
+                  table.normalizeCharacter(displayName.charAt(nameStart - 1)))) {
             // skip to the next token, in the case of 1 or 2.
             while (nameStart < nameLength
-                && CompositeSmartDialMap.isValidDialpadCharacter(
-                    context,
-                    CompositeSmartDialMap.normalizeCharacter(
-                        context, displayName.charAt(nameStart)))) {
+                && table.isValidDialpadCharacter(
+                    table.normalizeCharacter(displayName.charAt(nameStart)))) {
               nameStart++;
             }
             nameStart++;
@@ -314,9 +281,6 @@ public class SmartDialNameMatcher {
             // one so if we find a full token match, we can return right away
             matchList.add(
                 new SmartDialMatchPosition(tokenStart, queryLength + tokenStart + seperatorCount));
-            for (SmartDialMatchPosition match : matchList) {
-              replaceBitInMask(builder, match);
-            }
             return true;
           } else if (ALLOW_INITIAL_MATCH && queryStart < INITIAL_LENGTH_LIMIT) {
             // we matched the first character.
@@ -325,9 +289,7 @@ public class SmartDialNameMatcher {
             // find the next separator in the query string
             int j;
             for (j = nameStart; j < nameLength; j++) {
-              if (!CompositeSmartDialMap.isValidDialpadCharacter(
-                  context,
-                  CompositeSmartDialMap.normalizeCharacter(context, displayName.charAt(j)))) {
+              if (!table.isValidDialpadCharacter(table.normalizeCharacter(displayName.charAt(j)))) {
                 break;
               }
             }
@@ -336,7 +298,7 @@ public class SmartDialNameMatcher {
               final String remainder = displayName.substring(j + 1);
               final ArrayList<SmartDialMatchPosition> partialTemp = new ArrayList<>();
               if (matchesCombination(
-                  context, remainder, query.substring(queryStart + 1), partialTemp)) {
+                  table, remainder, query.substring(queryStart + 1), partialTemp)) {
 
                 // store the list of possible match positions
                 SmartDialMatchPosition.advanceMatchPositions(partialTemp, j + 1);
@@ -373,9 +335,6 @@ public class SmartDialNameMatcher {
     // then partial will always be empty.
     if (!partial.isEmpty()) {
       matchList.addAll(partial);
-      for (SmartDialMatchPosition match : matchList) {
-        replaceBitInMask(builder, match);
-      }
       return true;
     }
     return false;
@@ -407,7 +366,8 @@ public class SmartDialNameMatcher {
    */
   public boolean matches(Context context, String displayName) {
     matchPositions.clear();
-    return matchesCombination(context, displayName, query, matchPositions);
+    return matchesCombination(
+        CompositeSmartDialMap.getTable(context), displayName, query, matchPositions);
   }
 
   public ArrayList<SmartDialMatchPosition> getMatchPositions() {
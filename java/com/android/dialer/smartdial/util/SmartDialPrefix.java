@@ -23,6 +23,7 @@ import android.support.annotation.VisibleForTesting;
 import android.telephony.TelephonyManager;
 import android.text.TextUtils;
 import com.android.dialer.smartdial.map.CompositeSmartDialMap;
+import com.android.dialer.smartdial.map.SmartDialMapTable;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Set;
@@ -99,16 +100,17 @@ public class SmartDialPrefix {
     final ArrayList<String> result = new ArrayList<>();
     char c;
     final StringBuilder currentIndexToken = new StringBuilder();
+    final SmartDialMapTable table = CompositeSmartDialMap.getTable(context);
     /**
      * Iterates through the whole name string. If the current character is a valid character, append
      * it to the current token. If the current character is not a valid character, for example space
      * " ", mark the current token as complete and add it to the list of tokens.
      */
     for (int i = 0; i < length; i++) {
-      c = CompositeSmartDialMap.normalizeCharacter(context, contactName.charAt(i));
-      if (CompositeSmartDialMap.isValidDialpadCharacter(context, c)) {
+      c = table.normalizeCharacter(contactName.charAt(i));
+      if (table.isValidDialpadCharacter(c)) {
         /** Converts a character into the number on dialpad that represents the character. */
-        currentIndexToken.append(CompositeSmartDialMap.getDialpadIndex(context, c));
+        currentIndexToken.append(table.getDialpadIndex(c));
       } else {
         if (currentIndexToken.length() != 0) {
           result.add(currentIndexToken.toString());
@@ -83,6 +83,8 @@ public class ContactInfoCache implements OnImageLoadCompleteListener {
   // worker thread.
   private final ConcurrentHashMap<String, ContactCacheEntry> infoMap = new ConcurrentHashMap<>();
   private final Map<String, Set<ContactInfoCacheCallback>> callBacks = new ArrayMap<>();
+  /** Remote lookups which haven't completed yet, so that they can be cancelled. */
+  private final Set<PhoneNumberServiceListener> remoteLookups = new ArraySet<>();
   private int queryId;
   private final DialerExecutor<CnapInformationWrapper> cachedNumberLookupExecutor;
 
@@ -614,6 +616,13 @@ public class ContactInfoCache implements OnImageLoadCompleteListener {
 
   /** Blows away the stored cache values. */
   public void clearCache() {
+    // The calls are gone, so nothing is waiting for the remote lookups anymore.
+    if (phoneNumberService != null) {
+      for (PhoneNumberServiceListener listener : remoteLookups) {
+        phoneNumberService.cancelPhoneNumberInfo(listener);
+      }
+    }
+    remoteLookups.clear();
     infoMap.clear();
     callBacks.clear();
     queryId = 0;
@@ -836,6 +845,7 @@ public class ContactInfoCache implements OnImageLoadCompleteListener {
         final PhoneNumberServiceListener listener =
             new PhoneNumberServiceListener(callId, queryToken.queryId);
         cacheEntry.hasPendingQuery = true;
+        remoteLookups.add(listener);
         phoneNumberService.getPhoneNumberInfo(cacheEntry.number, listener);
       }
       sendInfoNotifications(callId, cacheEntry);
@@ -867,6 +877,7 @@ public class ContactInfoCache implements OnImageLoadCompleteListener {
     @Override
     public void onPhoneNumberInfoComplete(final PhoneNumberService.PhoneNumberInfo info) {
       Log.d(TAG, "PhoneNumberServiceListener.onPhoneNumberInfoComplete");
+      remoteLookups.remove(this);
       if (!isWaitingForThisQuery(callId, queryIdOfRemoteLookup)) {
         return;
       }
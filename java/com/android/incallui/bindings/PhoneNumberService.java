@@ -29,6 +29,14 @@ public interface PhoneNumberService {
    */
   void getPhoneNumberInfo(String phoneNumber, NumberLookupListener listener);
 
+  /**
+   * Stops notifying a listener passed to {@link #getPhoneNumberInfo}, e.g. because the call ended,
+   * so that the lookup can be abandoned if nothing else is waiting for it.
+   *
+   * @param listener The listener to stop notifying.
+   */
+  default void cancelPhoneNumberInfo(NumberLookupListener listener) {}
+
   interface NumberLookupListener {
 
     /**